@@ -141,6 +141,7 @@ public class BatteryMentorService extends Service {
         unregisterReceiver(mNotificationDismissedReceiver);
         if (mPowerCollectionTask != null) {
             mPowerCollectionTask.stop();
+            mPowerCollectionTask.flushToStorage();
         }
     }
 
@@ -195,7 +195,8 @@ public class CpuBenchmark extends Benchmark {
                 if (!mStopped) {
                     mPowerCollectionTask = new CollectionTask(getContext(), Sensor.POWER);
                     mLoadCollectionTask = new CollectionTask(getContext(), Sensor.LOAD_SENSOR);
-                    mFrequencyCollectionTask = new CollectionTask(getContext(), Sensor.FREQUENCY_SENSOR);
+                    mFrequencyCollectionTask = new CollectionTask(getContext(), Sensor.FREQUENCY_RESIDENCY_SENSOR.isSupported() ?
+                            Sensor.FREQUENCY_RESIDENCY_SENSOR : Sensor.FREQUENCY_SENSOR);
                     mPowerCollectionTask.start();
                     mLoadCollectionTask.start();
                     mFrequencyCollectionTask.start();
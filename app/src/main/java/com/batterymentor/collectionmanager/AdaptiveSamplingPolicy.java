@@ -0,0 +1,113 @@
+package com.batterymentor.collectionmanager;
+
+import com.batterymentor.constants.CollectionConstants;
+import com.batterymentor.datamanager.RealtimeStatistics;
+
+/**
+ * Class responsible for adapting the rate at which a collection task samples its sensor. The task
+ * is ticked at its base collection interval and the policy decides which ticks are sampled. While
+ * the recent data is stable the number of ticks between samples is doubled up to a ceiling, and as
+ * soon as a sample deviates from the recent data the task returns to sampling every tick. Every
+ * sample is weighted by the number of ticks it represents so that averages stay unbiased.
+ */
+public class AdaptiveSamplingPolicy {
+
+    /**
+     * The base collection interval in milliseconds.
+     */
+    private final long mCollectionInterval;
+
+    /**
+     * The maximum number of ticks between samples.
+     */
+    private final int mMaximumStride;
+
+    /**
+     * The current number of ticks between samples.
+     */
+    private int mStride = 1;
+
+    /**
+     * The number of ticks since the previous sample.
+     */
+    private int mTicksSinceSample;
+
+    /**
+     * The number of consecutive samples for which the recent data was stable.
+     */
+    private int mStableSamples;
+
+    /**
+     * Create a new policy with the specified base collection interval and ceiling.
+     *
+     * @param collectionInterval        the base collection interval in milliseconds.
+     * @param maximumCollectionInterval the longest interval between samples in milliseconds.
+     */
+    public AdaptiveSamplingPolicy(long collectionInterval, long maximumCollectionInterval) {
+        mCollectionInterval = collectionInterval;
+        mMaximumStride = (int) Math.max(1, maximumCollectionInterval / collectionInterval);
+    }
+
+    /**
+     * Advance the policy by one tick.
+     *
+     * @return true if the sensor should be sampled on this tick, false otherwise.
+     */
+    public synchronized boolean onTick() {
+        mTicksSinceSample++;
+        return mTicksSinceSample >= mStride;
+    }
+
+    /**
+     * Update the policy with a new sample before it's added to the specified statistics.
+     *
+     * @param value      the converted value of the new sample.
+     * @param statistics the statistics containing the recent data.
+     * @return the weight of the new sample, which is the number of ticks since the previous
+     * sample.
+     */
+    public synchronized double onSample(double value, RealtimeStatistics statistics) {
+        double weight = Math.max(1, mTicksSinceSample);
+        mTicksSinceSample = 0;
+        if (statistics.getSize() <= CollectionConstants.REALTIME_STATISTICS_VALID_POINT_THRESHOLD) {
+            mStride = 1;
+            mStableSamples = 0;
+            return weight;
+        }
+
+        double average = statistics.getFullRecentAverage();
+        double deviation = statistics.getRecentStandardDeviation();
+        double changeThreshold = Math.max(CollectionConstants.ADAPTIVE_SAMPLING_CHANGE_POINT_DEVIATIONS * deviation,
+                CollectionConstants.ADAPTIVE_SAMPLING_CHANGE_POINT_MIN_RELATIVE_CHANGE * Math.abs(average));
+        if (!(Math.abs(value - average) <= changeThreshold)) {
+            mStride = 1;
+            mStableSamples = 0;
+        } else if (deviation <= CollectionConstants.ADAPTIVE_SAMPLING_STABLE_COEFFICIENT_OF_VARIATION * Math.abs(average)) {
+            mStableSamples++;
+            if (mStableSamples >= CollectionConstants.ADAPTIVE_SAMPLING_STABLE_SAMPLES) {
+                mStride = Math.min(mStride * 2, mMaximumStride);
+                mStableSamples = 0;
+            }
+        } else {
+            mStableSamples = 0;
+        }
+        return weight;
+    }
+
+    /**
+     * Return to sampling on every tick.
+     */
+    public synchronized void reset() {
+        mStride = 1;
+        mStableSamples = 0;
+    }
+
+    /**
+     * Return the current interval between samples in milliseconds.
+     *
+     * @return the current interval between samples in milliseconds.
+     */
+    public synchronized long getCurrentInterval() {
+        return mStride * mCollectionInterval;
+    }
+}
@@ -7,8 +7,11 @@ import android.text.TextUtils;
 
 import com.batterymentor.constants.SensorConstants;
 import com.batterymentor.debug.Debug;
+import com.batterymentor.sensors.Sensor;
+import com.batterymentor.sensors.SensorFrame;
 import com.batterymentor.sensors.app.Application;
 import com.batterymentor.sensors.app.Process;
+import com.batterymentor.sensors.cpu.ProcStatSnapshot;
 
 import java.io.File;
 import java.io.IOException;
@@ -17,6 +20,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -133,7 +137,7 @@ public class ApplicationCollectionTask {
     public void start() {
         if (mApplicationMeasurementTask == null) {
             mApplicationMeasurementTask = new ApplicationMeasurementTask();
-            new Thread(mApplicationMeasurementTask).start();
+            CollectionManager.getInstance().getSamplingScheduler().scheduleInBackground(mApplicationMeasurementTask, mCollectionInterval);
         }
     }
 
@@ -142,6 +146,7 @@ public class ApplicationCollectionTask {
      */
     public void stop() {
         if (mApplicationMeasurementTask != null) {
+            CollectionManager.getInstance().getSamplingScheduler().unschedule(mApplicationMeasurementTask);
             mApplicationMeasurementTask.stop();
             mApplicationMeasurementTask = null;
         }
@@ -201,21 +206,33 @@ public class ApplicationCollectionTask {
     }
 
     /**
-     * Mark all the process information objects in the cache as invalid.
+     * Mark the process information objects in the cache as valid if their process is still running
+     * and as invalid otherwise. Must be called with this task locked.
+     *
+     * @param runningProcesses the names of the running processes by pid.
+     * @return the running processes that aren't in the cache yet.
      */
-    private void markAllProcessesInvalid() {
-        lock();
+    private ArrayList<NewProcess> markRunningProcesses(HashMap<Integer, String> runningProcesses) {
         for (ProcessInfo processInfo : mProcessInfoCache.values()) {
             processInfo.markInvalid();
         }
-        unlock();
+        ArrayList<NewProcess> newProcesses = new ArrayList<NewProcess>();
+        for (Map.Entry<Integer, String> runningProcess : runningProcesses.entrySet()) {
+            ProcessInfo processInfo = mProcessInfoCache.get(runningProcess.getKey());
+            if (processInfo == null) {
+                newProcesses.add(new NewProcess(runningProcess.getKey(), runningProcess.getValue()));
+            } else {
+                processInfo.markValid();
+            }
+        }
+        return newProcesses;
     }
 
     /**
-     * Clear out all the invalid processes information objects in the cache as invalid.
+     * Clear out all the invalid processes information objects in the cache as invalid. Must be
+     * called with this task locked.
      */
     private void removeInvalidProcesses() {
-        lock();
         LinkedList<ProcessInfo> invalidProcesses = new LinkedList<ProcessInfo>();
         for (ProcessInfo processInfo : mProcessInfoCache.values()) {
             if (!processInfo.isValid()) {
@@ -223,7 +240,7 @@ public class ApplicationCollectionTask {
             }
         }
         for (ProcessInfo processInfo : invalidProcesses) {
-            mProcessInfoCache.remove(processInfo);
+            mProcessInfoCache.remove(processInfo.getPid());
             String name = processInfo.getName();
             Application application = mApplicationMap.get(name);
             if (application != null) {
@@ -231,8 +248,13 @@ public class ApplicationCollectionTask {
                 if (!application.hasPids())
                     mApplicationMap.remove(application.getPackageName());
             }
+            Process process = mProcessMap.get(name);
+            if (process != null) {
+                process.removePid(processInfo.getPid());
+                if (!process.hasPids())
+                    mProcessMap.remove(name);
+            }
         }
-        unlock();
     }
 
     /**
@@ -266,56 +288,76 @@ public class ApplicationCollectionTask {
     }
 
     /**
-     * Update the list of running apps and processes.
+     * Read the names of the running processes, excluding this application.
+     *
+     * @return the names of the running processes by pid.
      */
-    public void updateMapOfRunningProcesses() {
-        File[] files;
-        lock();
-        if ((files = mRunningAppsDirectory.listFiles()) != null) {
+    private HashMap<Integer, String> readRunningProcesses() {
+        HashMap<Integer, String> runningProcesses = new HashMap<Integer, String>();
+        File[] files = mRunningAppsDirectory.listFiles();
+        if (files != null) {
             for (File file : files) {
                 String filename = file.getName();
                 if (TextUtils.isDigitsOnly(filename)) {
                     int pid = Integer.parseInt(filename);
                     String processName = readProcessName(pid);
-                    if (processName != null && !processName.equals(mContext.getPackageName())) {
-                        ProcessInfo processInfo = mProcessInfoCache.get(pid);
-                        if (processInfo == null) {
-                            String name;
-                            Drawable icon;
-                            boolean isApplication;
-                            try {
-                                name = (String) mPackageManager.getApplicationLabel(mPackageManager.getApplicationInfo(processName, PackageManager.GET_META_DATA));
-                                icon = mPackageManager.getApplicationIcon(processName);
-                                isApplication = true;
-                            } catch (PackageManager.NameNotFoundException e) {
-                                name = processName;
-                                icon = null;
-                                isApplication = false;
-                            }
-                                mProcessInfoCache.put(pid, new ProcessInfo(pid, processName));
-                            if (isApplication) {
-                                Application application = mApplicationMap.get(processName);
-                                if (application == null) {
-                                    mApplicationMap.put(processName, new Application(mContext, pid, name, processName, icon));
-                                } else {
-                                    application.addPid(pid);
-                                }
-                            } else {
-                                Process process = mProcessMap.get(processName);
-                                if (process == null) {
-                                    mProcessMap.put(processName, new Process(mContext, pid, name));
-                                } else {
-                                    process.addPid(pid);
-                                }
-                            }
-                        } else {
-                            processInfo.markValid();
-                        }
-                    }
+                    if (processName != null && !processName.equals(mContext.getPackageName()))
+                        runningProcesses.put(pid, processName);
+                }
+            }
+        }
+        return runningProcesses;
+    }
+
+    /**
+     * Look up the label and icon of each of the specified processes in the package manager.
+     *
+     * @param newProcesses the processes to look up.
+     */
+    private void resolveNewProcesses(ArrayList<NewProcess> newProcesses) {
+        for (NewProcess newProcess : newProcesses) {
+            try {
+                newProcess.mName = (String) mPackageManager.getApplicationLabel(mPackageManager.getApplicationInfo(newProcess.mProcessName, PackageManager.GET_META_DATA));
+                newProcess.mIcon = mPackageManager.getApplicationIcon(newProcess.mProcessName);
+                newProcess.mApplication = true;
+            } catch (PackageManager.NameNotFoundException e) {
+                newProcess.mName = newProcess.mProcessName;
+                newProcess.mIcon = null;
+                newProcess.mApplication = false;
+            }
+        }
+    }
+
+    /**
+     * Add the specified processes to the cache and to the map of running apps or processes. Must
+     * be called with this task locked.
+     *
+     * @param newProcesses the processes to add.
+     */
+    private void addNewProcesses(ArrayList<NewProcess> newProcesses) {
+        for (NewProcess newProcess : newProcesses) {
+            int pid = newProcess.mPid;
+            String processName = newProcess.mProcessName;
+            if (mProcessInfoCache.containsKey(pid))
+                continue;
+
+            mProcessInfoCache.put(pid, new ProcessInfo(pid, processName));
+            if (newProcess.mApplication) {
+                Application application = mApplicationMap.get(processName);
+                if (application == null) {
+                    mApplicationMap.put(processName, new Application(mContext, pid, newProcess.mName, processName, newProcess.mIcon));
+                } else {
+                    application.addPid(pid);
+                }
+            } else {
+                Process process = mProcessMap.get(processName);
+                if (process == null) {
+                    mProcessMap.put(processName, new Process(mContext, pid, newProcess.mName));
+                } else {
+                    process.addPid(pid);
                 }
             }
         }
-        unlock();
     }
 
     /**
@@ -323,10 +365,12 @@ public class ApplicationCollectionTask {
      */
     public void measureApplications() {
         lock();
-        for (Application application : mApplicationMap.values()) {
-            application.measure();
-        }
+        ArrayList<Application> applications = new ArrayList<Application>(mApplicationMap.values());
         unlock();
+        ProcStatSnapshot snapshot = Sensor.LOAD_SENSOR.getSnapshot();
+        for (Application application : applications) {
+            application.measure(snapshot);
+        }
     }
 
     /**
@@ -334,10 +378,12 @@ public class ApplicationCollectionTask {
      */
     public void measureProcesses() {
         lock();
-        for (Process process : mProcessMap.values()) {
-            process.measure();
-        }
+        ArrayList<Process> processes = new ArrayList<Process>(mProcessMap.values());
         unlock();
+        ProcStatSnapshot snapshot = Sensor.LOAD_SENSOR.getSnapshot();
+        for (Process process : processes) {
+            process.measure(snapshot);
+        }
     }
 
     /**
@@ -371,6 +417,7 @@ public class ApplicationCollectionTask {
             android.os.Process.sendSignal(pid, android.os.Process.SIGNAL_KILL);
         }
 
+        process.close();
         mProcesses.remove(process);
         unlock();
         notifyAllListenersOfMeasurement();
@@ -391,35 +438,74 @@ public class ApplicationCollectionTask {
     /**
      * Task used for measuring the list of running apps.
      */
-    class ApplicationMeasurementTask implements Runnable {
+    class ApplicationMeasurementTask implements SamplingScheduler.Sampler {
 
         /**
          * Flag indicating whether this task has been cancelled.
          */
         private boolean mCancelled = false;
 
-        public void run() {
-            while (!mCancelled) {
-                markAllProcessesInvalid();
-                updateMapOfRunningProcesses();
+        @Override
+        public int getFrameSensors() {
+            return 0;
+        }
+
+        @Override
+        public boolean onTick() {
+            return true;
+        }
+
+        /**
+         * Update the running apps and processes and measure the apps. The procfs files are read and
+         * the package manager is queried without holding the lock, which is only held to check
+         * whether this task was cancelled and to update the maps.
+         */
+        @Override
+        public void sample(SensorFrame frame) {
+            HashMap<Integer, String> runningProcesses = readRunningProcesses();
+            ArrayList<NewProcess> newProcesses;
+            lock();
+            try {
+                if (mCancelled)
+                    return;
+                newProcesses = markRunningProcesses(runningProcesses);
+            } finally {
+                unlock();
+            }
+
+            resolveNewProcesses(newProcesses);
+            lock();
+            try {
+                if (mCancelled)
+                    return;
+                addNewProcesses(newProcesses);
                 removeInvalidProcesses();
-                measureApplications();
-                notifyAllListenersOfMeasurement();
-                try {
-                    Thread.sleep(mCollectionInterval);
-                } catch (InterruptedException e) {
-                }
+            } finally {
+                unlock();
             }
+
+            measureApplications();
+            notifyAllListenersOfMeasurement();
+        }
+
+        /**
+         * Cancel this task and release the processes it measured. A process that is being measured
+         * by a running tick stops being measured once it is released.
+         */
+        public void stop() {
             lock();
+            mCancelled = true;
+            for (Process process : mApplicationMap.values()) {
+                process.close();
+            }
+            for (Process process : mProcessMap.values()) {
+                process.close();
+            }
             mApplicationMap.clear();
             mProcessMap.clear();
             mProcessInfoCache.clear();
             unlock();
         }
-
-        public void stop() {
-            mCancelled = true;
-        }
     }
 
     /**
@@ -468,6 +554,43 @@ public class ApplicationCollectionTask {
         }
     }
 
+    /**
+     * Class containing a running process that isn't in the cache yet, along with the label and
+     * icon looked up for it.
+     */
+    static class NewProcess {
+
+        /**
+         * The process id.
+         */
+        final int mPid;
+
+        /**
+         * The process name.
+         */
+        final String mProcessName;
+
+        /**
+         * The label of the process.
+         */
+        String mName;
+
+        /**
+         * The icon of the process or null if it isn't an application.
+         */
+        Drawable mIcon;
+
+        /**
+         * Flag indicating that the process is an application.
+         */
+        boolean mApplication;
+
+        NewProcess(int pid, String processName) {
+            mPid = pid;
+            mProcessName = processName;
+        }
+    }
+
     /**
      * Interface used to listen to measurements in this collection task.
      */
@@ -28,6 +28,11 @@ public class CollectionManager {
      */
     private Set<CollectionTask> mCollectionTasks = new HashSet<CollectionTask>();
 
+    /**
+     * The scheduler that runs the sampling of all the collection tasks.
+     */
+    private final SamplingScheduler mSamplingScheduler = new SamplingScheduler();
+
     private static class SingletonHolder {
         private static final CollectionManager INSTANCE = new CollectionManager();
     }
@@ -42,6 +47,8 @@ public class CollectionManager {
     public LifetimeCollectionTask getPowerCollectionTask(Context context) {
         if (mPowerCollectionTask == null) {
             mPowerCollectionTask = new LifetimeCollectionTask(context, Sensor.POWER, SensorConstants.LIFETIME_STATISTICS_BATTERY_FILENAME, SensorConstants.LIFETIME_STATISTICS_CHARGER_FILENAME);
+            mPowerCollectionTask.setMaximumCollectionInterval(SensorConstants.MAXIMUM_COLLECTION_INTERVAL);
+            mPowerCollectionTask.setTimeWeighted(true);
         }
         return mPowerCollectionTask;
     }
@@ -53,6 +60,10 @@ public class CollectionManager {
         return mApplicationCollectionTask;
     }
 
+    public SamplingScheduler getSamplingScheduler() {
+        return mSamplingScheduler;
+    }
+
     /**
      * Add a collection task to the manager. The specified collection task will continue to collect
      * data when the UI is put into the background.
@@ -2,11 +2,14 @@ package com.batterymentor.collectionmanager;
 
 import android.content.Context;
 
+import com.batterymentor.constants.DataConstants;
 import com.batterymentor.constants.SensorConstants;
+import com.batterymentor.datamanager.HampelFilter;
 import com.batterymentor.datamanager.Point;
 import com.batterymentor.datamanager.RealtimeStatistics;
 import com.batterymentor.sensors.ChargerManager;
 import com.batterymentor.sensors.Sensor;
+import com.batterymentor.sensors.SensorFrame;
 
 import java.util.HashSet;
 import java.util.Set;
@@ -36,6 +39,11 @@ public class CollectionTask {
      */
     private long mCollectionInterval;
 
+    /**
+     * The policy used for adapting the sampling rate or null if every tick is sampled.
+     */
+    private volatile AdaptiveSamplingPolicy mSamplingPolicy;
+
     /**
      * The statistics associated with this task.
      */
@@ -51,6 +59,11 @@ public class CollectionTask {
      */
     private RealtimeStatistics mChargerStatistics;
 
+    /**
+     * The filter that rejects the glitches of the sensor before they reach the statistics.
+     */
+    private final HampelFilter mOutlierFilter = new HampelFilter();
+
     /**
      * The current point associated with this task.
      */
@@ -142,7 +155,7 @@ public class CollectionTask {
     public void start() {
         if (mSensorMeasurementTask == null) {
             mSensorMeasurementTask = new SensorMeasurementTask();
-            new Thread(mSensorMeasurementTask).start();
+            CollectionManager.getInstance().getSamplingScheduler().schedule(mSensorMeasurementTask, mCollectionInterval);
             ChargerManager.getInstance().registerChargerListener(getContext(), mChargerListener);
         }
     }
@@ -152,17 +165,64 @@ public class CollectionTask {
      */
     public void stop() {
         if (mSensorMeasurementTask != null) {
-            mSensorMeasurementTask.stop();
+            CollectionManager.getInstance().getSamplingScheduler().unschedule(mSensorMeasurementTask);
             mSensorMeasurementTask = null;
             ChargerManager.getInstance().unregisterChargerListener(getContext(), mChargerListener);
         }
     }
 
+    /**
+     * Set the longest interval that the collection of this task may be stretched to while the
+     * measured data is stable. The task returns to the base collection interval as soon as the data
+     * changes.
+     *
+     * @param maximumCollectionInterval the longest interval between measurements in milliseconds,
+     *                                  or the collection interval to disable adaptive sampling.
+     */
+    public void setMaximumCollectionInterval(long maximumCollectionInterval) {
+        mSamplingPolicy = (maximumCollectionInterval > mCollectionInterval) ?
+                new AdaptiveSamplingPolicy(mCollectionInterval, maximumCollectionInterval) : null;
+    }
+
+    /**
+     * Set whether the statistics of this task weight each measurement by the time elapsed since
+     * the previous measurement, so that stalls in the sampling don't skew the averages.
+     *
+     * @param timeWeighted true to weight the measurements by time, false to weight them by the
+     *                     number of collection intervals they represent.
+     */
+    public void setTimeWeighted(boolean timeWeighted) {
+        long interval = (timeWeighted) ? mCollectionInterval : 0;
+        mBatteryStatistics.setTimeWeighting(interval, DataConstants.STATISTICS_TIME_WEIGHTING_MAX_GAP);
+        mChargerStatistics.setTimeWeighting(interval, DataConstants.STATISTICS_TIME_WEIGHTING_MAX_GAP);
+    }
+
+    /**
+     * Return the base interval between measurements in milliseconds.
+     *
+     * @return the base interval between measurements in milliseconds.
+     */
+    public long getCollectionInterval() {
+        return mCollectionInterval;
+    }
+
+    /**
+     * Return the current interval between measurements in milliseconds.
+     *
+     * @return the current interval between measurements in milliseconds.
+     */
+    public long getCurrentCollectionInterval() {
+        AdaptiveSamplingPolicy samplingPolicy = mSamplingPolicy;
+        return (samplingPolicy != null) ? samplingPolicy.getCurrentInterval() : mCollectionInterval;
+    }
+
     /**
      * Method that is called when a charger is connected. This is only called when the collection
      * task is running.
      */
     protected void onChargerConnected() {
+        resetSamplingPolicy();
+        mOutlierFilter.reset();
         mChargerConnected = true;
         mStatistics = mChargerStatistics;
         if (mStatistics.getNumPoints() == 0) {
@@ -175,6 +235,8 @@ public class CollectionTask {
      * task is running.
      */
     protected void onChargerDisconnected() {
+        resetSamplingPolicy();
+        mOutlierFilter.reset();
         mChargerConnected = false;
         mChargerStatistics.reset();
         mStatistics = mBatteryStatistics;
@@ -183,6 +245,15 @@ public class CollectionTask {
         }
     }
 
+    /**
+     * Return to sampling at the base collection interval.
+     */
+    private void resetSamplingPolicy() {
+        AdaptiveSamplingPolicy samplingPolicy = mSamplingPolicy;
+        if (samplingPolicy != null)
+            samplingPolicy.reset();
+    }
+
     /**
      * Return true if the charger is connected, false otherwise.
      *
@@ -261,19 +332,92 @@ public class CollectionTask {
      * Measure the sensor immediately and notify all the associated listeners of the measurement.
      */
     public Point measureSensor() {
-        if (mSensor != null) {
-            mPoint = mSensor.measurePoint();
-            if (mPoint != null) {
-                if ((!isChargerConnected() || mStatistics == mBatteryStatistics) && mPoint.getY() < SensorConstants.BATTERY_POWER_MIN) {
-                    mPoint.setY(SensorConstants.BATTERY_POWER_MIN);
-                }
-                mStatistics.addPoint(mPoint);
-                notifyAllListenersOfMeasurement(mPoint);
+        if (mSensor == null)
+            return mPoint;
+
+        return addMeasurement(mSensor.measurePoint(), 1);
+    }
+
+    /**
+     * Derive a measurement of the sensor from the specified frame and notify all the associated
+     * listeners of the measurement.
+     *
+     * @param frame the frame captured with at least the sensors declared by the sensor.
+     */
+    public Point measureSensor(SensorFrame frame) {
+        if (mSensor == null)
+            return mPoint;
+
+        return addMeasurement(mSensor.measurePoint(frame), 1);
+    }
+
+    /**
+     * Derive a measurement of the sensor from the specified frame on a tick selected by the
+     * sampling policy, weight it by the number of ticks it represents, and notify all the
+     * associated listeners of the measurement.
+     *
+     * @param frame          the frame captured with at least the sensors declared by the sensor.
+     * @param samplingPolicy the policy used for adapting the sampling rate.
+     */
+    private void measureSensor(SensorFrame frame, AdaptiveSamplingPolicy samplingPolicy) {
+        if (mSensor == null)
+            return;
+
+        Point point = mSensor.measurePoint(frame);
+        double weight = 1;
+        if (point != null)
+            weight = samplingPolicy.onSample(mStatistics.convertValue(point.getY()), mStatistics);
+        addMeasurement(point, weight);
+    }
+
+    /**
+     * Add the specified measurement to the statistics and notify all the associated listeners of
+     * the measurement. A measurement that the outlier filter rejects as a glitch of the sensor is
+     * replaced by the median of the recent measurements, keeping its time and weight.
+     *
+     * @param point  the point measurement to add.
+     * @param weight the number of collection intervals that the measurement represents.
+     * @return the point measurement that was added or null if there is none.
+     */
+    protected Point addMeasurement(Point point, double weight) {
+        if (point != null) {
+            double value = mOutlierFilter.filter(point.getY());
+            if (Double.isNaN(value))
+                return null;
+            if (value != point.getY())
+                point = new Point(point.getX(), value);
+        }
+
+        mPoint = point;
+        if (mPoint != null) {
+            if ((!isChargerConnected() || mStatistics == mBatteryStatistics) && mPoint.getY() < SensorConstants.BATTERY_POWER_MIN) {
+                mPoint.setY(SensorConstants.BATTERY_POWER_MIN);
             }
+            mStatistics.addPoint(mPoint, weight);
+            notifyAllListenersOfMeasurement(mPoint);
         }
         return mPoint;
     }
 
+    /**
+     * Return the sensor associated with this collection task.
+     *
+     * @return the sensor associated with this collection task.
+     */
+    public Sensor getSensor() {
+        return mSensor;
+    }
+
+    /**
+     * Return the filter that rejects the glitches of the sensor, which counts the measurements it
+     * accepted and rejected.
+     *
+     * @return the outlier filter of this task.
+     */
+    public HampelFilter getOutlierFilter() {
+        return mOutlierFilter;
+    }
+
     protected RealtimeStatistics getBatteryStatistics() {
         return mBatteryStatistics;
     }
@@ -285,25 +429,30 @@ public class CollectionTask {
     /**
      * Task used for measuring the sensor associated with this collection task.
      */
-    class SensorMeasurementTask implements Runnable {
+    class SensorMeasurementTask implements SamplingScheduler.Sampler {
+
+        @Override
+        public int getFrameSensors() {
+            return (mSensor != null) ? mSensor.getFrameSensors() : 0;
+        }
 
         /**
-         * Flag indicating whether this task has been cancelled.
+         * Let the sampling policy decide whether the sensor is sampled on this tick, so that the
+         * frame isn't captured for the ticks that the policy skips.
          */
-        private boolean mCancelled = false;
-
-        public void run() {
-            while (!mCancelled) {
-                measureSensor();
-                try {
-                    Thread.sleep(mCollectionInterval);
-                } catch (InterruptedException e) {
-                }
-            }
+        @Override
+        public boolean onTick() {
+            AdaptiveSamplingPolicy samplingPolicy = mSamplingPolicy;
+            return samplingPolicy == null || samplingPolicy.onTick();
         }
 
-        public void stop() {
-            mCancelled = true;
+        @Override
+        public void sample(SensorFrame frame) {
+            AdaptiveSamplingPolicy samplingPolicy = mSamplingPolicy;
+            if (samplingPolicy != null)
+                measureSensor(frame, samplingPolicy);
+            else
+                measureSensor(frame);
         }
     }
 
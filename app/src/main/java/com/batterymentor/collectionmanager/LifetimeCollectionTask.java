@@ -1,18 +1,22 @@
 package com.batterymentor.collectionmanager;
 
 import android.content.Context;
-import android.os.Handler;
+import android.os.SystemClock;
 
+import com.batterymentor.constants.DataConstants;
 import com.batterymentor.constants.SensorConstants;
 import com.batterymentor.datamanager.Point;
+import com.batterymentor.datamanager.RollupBucket;
+import com.batterymentor.datamanager.Rollups;
+import com.batterymentor.datamanager.SampleStore;
 import com.batterymentor.datamanager.Statistics;
+import com.batterymentor.datamanager.WriteAheadLog;
+import com.batterymentor.debug.Debug;
 import com.batterymentor.sensors.Sensor;
+import com.batterymentor.sensors.SensorFrame;
+import com.batterymentor.sensors.power.EnergyCounterSensor;
 
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.File;
 
 /**
  * Class responsible for performing data collection for a specified sensor that periodically saves
@@ -20,11 +24,6 @@ import java.io.ObjectOutputStream;
  */
 public class LifetimeCollectionTask extends CollectionTask {
 
-    /**
-     * The handler used for scheduling tasks.
-     */
-    private Handler mHandler;
-
     /**
      * The name of the battery file in persistent storage.
      */
@@ -36,9 +35,21 @@ public class LifetimeCollectionTask extends CollectionTask {
     private String mChargerFilename;
 
     /**
-     * The thread used for saving data to persistent storage.
+     * The executor that saves the lifetime data to persistent storage in the background.
+     */
+    private final PersistenceExecutor mPersistenceExecutor = new PersistenceExecutor();
+
+    /**
+     * The log of the values added to the lifetime data since it was last saved, so that they
+     * survive the process being killed between two saves.
      */
-    private SaverThread mSaverThread;
+    private final WriteAheadLog mWriteAheadLog;
+
+    /**
+     * The generation of the first segment of the write-ahead log that isn't covered by the
+     * checkpoint in progress. Only accessed by the thread that saves the lifetime data.
+     */
+    private long mCheckpointGeneration;
 
     /**
      * The lifetime statistics associated with this task.
@@ -55,6 +66,47 @@ public class LifetimeCollectionTask extends CollectionTask {
      */
     private Statistics mLifetimeChargerStatistics;
 
+    /**
+     * The time rollups of the lifetime statistics associated with this task.
+     */
+    private Rollups mLifetimeRollups;
+
+    /**
+     * The time rollups of the lifetime battery statistics.
+     */
+    private Rollups mLifetimeBatteryRollups;
+
+    /**
+     * The time rollups of the lifetime charger statistics.
+     */
+    private Rollups mLifetimeChargerRollups;
+
+    /**
+     * The store of the raw measurements of this task.
+     */
+    private final SampleStore mSampleStore;
+
+    /**
+     * The task used for adding the energy counter to the lifetime statistics or null if the
+     * energy counter isn't used.
+     */
+    private EnergyCounterMeasurementTask mEnergyCounterMeasurementTask;
+
+    /**
+     * The lock used for accessing the energy counter baseline.
+     */
+    private final Object mEnergyCounterLock = new Object();
+
+    /**
+     * The energy at the start of the current energy counter interval or NaN if there is none.
+     */
+    private double mEnergyCounterStartEnergy = Double.NaN;
+
+    /**
+     * The start of the current energy counter interval in milliseconds since boot.
+     */
+    private long mEnergyCounterStartTime;
+
     /**
      * Create a new collection task with the specified sensor, context, and filename where the
      * persistent data is stored.
@@ -68,16 +120,95 @@ public class LifetimeCollectionTask extends CollectionTask {
         super(context, sensor);
         mBatteryFilename = batteryFilename;
         mChargerFilename = chargerFilename;
-        mHandler = new Handler();
-        mLifetimeBatteryStatistics = loadLifetimeStatisticsFromStorage(context, batteryFilename);
-        if (mLifetimeBatteryStatistics == null)
-            mLifetimeBatteryStatistics = new Statistics(false);
+        StatisticsEntry batteryStatisticsEntry = new StatisticsEntry(context.getFileStreamPath(batteryFilename), false);
+        mLifetimeBatteryStatistics = batteryStatisticsEntry.getStatistics();
         getBatteryStatistics().setLifetimeStatistics(mLifetimeBatteryStatistics);
-        mLifetimeChargerStatistics = loadLifetimeStatisticsFromStorage(context, chargerFilename);
-        if (mLifetimeChargerStatistics == null)
-            mLifetimeChargerStatistics = new Statistics(true);
+        StatisticsEntry chargerStatisticsEntry = new StatisticsEntry(context.getFileStreamPath(chargerFilename), true);
+        mLifetimeChargerStatistics = chargerStatisticsEntry.getStatistics();
         mLifetimeStatistics = mLifetimeBatteryStatistics;
         getChargerStatistics().setLifetimeStatistics(mLifetimeChargerStatistics);
+        RollupsEntry batteryRollupsEntry = createLifetimeRollupsEntry(context, batteryFilename);
+        mLifetimeBatteryRollups = batteryRollupsEntry.getRollups();
+        RollupsEntry chargerRollupsEntry = createLifetimeRollupsEntry(context, chargerFilename);
+        mLifetimeChargerRollups = chargerRollupsEntry.getRollups();
+        mLifetimeRollups = mLifetimeBatteryRollups;
+        mSampleStore = new SampleStore(new File(context.getFilesDir(), SensorConstants.SAMPLE_STORE_DIRECTORY));
+        PersistenceExecutor.Entry<?>[] entries = {batteryStatisticsEntry, chargerStatisticsEntry, batteryRollupsEntry, chargerRollupsEntry};
+        long savedCheckpoint = 0;
+        for (PersistenceExecutor.Entry<?> entry : entries) {
+            mPersistenceExecutor.register(entry);
+            savedCheckpoint = Math.max(savedCheckpoint, entry.getSavedCheckpoint());
+        }
+        mWriteAheadLog = new WriteAheadLog(context.getFileStreamPath(batteryFilename + SensorConstants.LIFETIME_WAL_FILENAME_SUFFIX));
+        mWriteAheadLog.startAt(savedCheckpoint);
+        replayWriteAheadLog(batteryStatisticsEntry, chargerStatisticsEntry, batteryRollupsEntry, chargerRollupsEntry);
+        mPersistenceExecutor.setCheckpointListener(new PersistenceExecutor.CheckpointListener() {
+            @Override
+            public long onCheckpointStarted() {
+                mCheckpointGeneration = mWriteAheadLog.rotate();
+                return mCheckpointGeneration;
+            }
+
+            @Override
+            public void onCheckpointCompleted() {
+                mWriteAheadLog.deleteSegmentsBefore(mCheckpointGeneration);
+            }
+        });
+        mPersistenceExecutor.setSyncTask(new Runnable() {
+            @Override
+            public void run() {
+                mWriteAheadLog.sync();
+            }
+        }, DataConstants.WAL_SYNC_INTERVAL);
+    }
+
+    /**
+     * Add the values of the write-ahead log that were added after the lifetime data was last
+     * saved. The checkpoint of each saved file is the generation of the first segment of the log
+     * whose values aren't in the file, so a value is only added to the data whose file doesn't
+     * have it yet, even if the previous save wrote some of the files but not the others or the
+     * process died before the older segments were deleted. The data is registered for saving
+     * before, so the replayed values make it dirty and the log is only truncated once they are
+     * saved.
+     */
+    private void replayWriteAheadLog(final StatisticsEntry batteryStatisticsEntry, final StatisticsEntry chargerStatisticsEntry,
+                                     final RollupsEntry batteryRollupsEntry, final RollupsEntry chargerRollupsEntry) {
+        final int[] count = new int[1];
+        mWriteAheadLog.replay(new WriteAheadLog.RecordVisitor() {
+            @Override
+            public void onRecord(long generation, long timestamp, double value, double weight, int flags) {
+                boolean charger = (flags & DataConstants.SAMPLE_FLAG_CHARGER) != 0;
+                StatisticsEntry statisticsEntry = charger ? chargerStatisticsEntry : batteryStatisticsEntry;
+                RollupsEntry rollupsEntry = charger ? chargerRollupsEntry : batteryRollupsEntry;
+                Statistics statistics = statisticsEntry.getStatistics();
+                boolean replayed = false;
+                if (generation >= statisticsEntry.getSavedCheckpoint()) {
+                    statistics.addValue(timestamp, value, weight);
+                    replayed = true;
+                }
+                if (generation >= rollupsEntry.getSavedCheckpoint()) {
+                    rollupsEntry.getRollups().add(timestamp, statistics.convertValue(value), weight);
+                    replayed = true;
+                }
+                if (replayed)
+                    count[0]++;
+            }
+        });
+        if (count[0] > 0) {
+            if (Debug.isCollectionManagerLoggingEnabled())
+                Debug.printDebug("Replayed " + count[0] + " values of the lifetime data");
+            mPersistenceExecutor.requestSave();
+        }
+    }
+
+    /**
+     * Create the entry of the time rollups of the lifetime statistics saved to the specified file,
+     * loading the rollups from storage.
+     */
+    private static RollupsEntry createLifetimeRollupsEntry(Context context, String filename) {
+        String rollupsFilename = filename + SensorConstants.LIFETIME_ROLLUPS_FILENAME_SUFFIX;
+        return new RollupsEntry(context.getFileStreamPath(rollupsFilename),
+                context.getFileStreamPath(rollupsFilename + SensorConstants.LIFETIME_ROLLUPS_JOURNAL_FILENAME_SUFFIX));
     }
 
     /**
@@ -85,8 +216,12 @@ public class LifetimeCollectionTask extends CollectionTask {
      */
     public void start() {
         super.start();
-        mSaverThread = new SaverThread();
-        mHandler.post(mSaverThread);
+        if (mEnergyCounterMeasurementTask == null && Sensor.ENERGY_COUNTER.isSupported()) {
+            mEnergyCounterMeasurementTask = new EnergyCounterMeasurementTask();
+            restartEnergyCounterInterval();
+            CollectionManager.getInstance().getSamplingScheduler().schedule(mEnergyCounterMeasurementTask, SensorConstants.ENERGY_COUNTER_COLLECTION_INTERVAL);
+        }
+        mPersistenceExecutor.start(SensorConstants.PERSISTENT_SAVE_INTERVAL);
     }
 
     /**
@@ -94,92 +229,126 @@ public class LifetimeCollectionTask extends CollectionTask {
      */
     public void stop() {
         super.stop();
-        mHandler.removeCallbacks(mSaverThread);
+        if (mEnergyCounterMeasurementTask != null) {
+            CollectionManager.getInstance().getSamplingScheduler().unschedule(mEnergyCounterMeasurementTask);
+            mEnergyCounterMeasurementTask = null;
+            measureEnergyCounter(true);
+        }
+        mWriteAheadLog.sync();
+        mPersistenceExecutor.stop();
+        mSampleStore.flush();
     }
 
     /**
-     * Measure the sensor and add it to the usage data.
+     * Add the measurement to the realtime statistics, to the usage data, and to the sample store.
+     * The usage data is derived from the energy counter instead when it is available.
      */
-    public Point measureSensor() {
-        Point point = super.measureSensor();
-        if (mLifetimeStatistics != null) {
-            mLifetimeStatistics.addPoint(point);
+    @Override
+    protected Point addMeasurement(Point point, double weight) {
+        point = super.addMeasurement(point, weight);
+        if (mEnergyCounterMeasurementTask == null) {
+            addLifetimePoint(point, weight);
         }
+        if (point != null)
+            mSampleStore.append((long) point.getX(), point.getY(), isChargerConnected() ? DataConstants.SAMPLE_FLAG_CHARGER : 0);
         return point;
     }
 
     /**
-     * Save persistent battery lifetime statistics to storage.
+     * Add the point with the specified weight to the lifetime statistics and to their time
+     * rollups, and append it to the write-ahead log.
+     *
+     * @param point  the point to add.
+     * @param weight the number of collection intervals that the point represents.
      */
-    public void saveBatteryLifetimeStatisticsToStorage() {
-        saveLifetimeStatisticsToStorage(getContext(), mBatteryFilename, mLifetimeBatteryStatistics);
+    private void addLifetimePoint(Point point, double weight) {
+        Statistics lifetimeStatistics = mLifetimeStatistics;
+        if (lifetimeStatistics == null || point == null)
+            return;
+
+        long timestamp = (long) point.getX();
+        boolean charger = lifetimeStatistics == mLifetimeChargerStatistics;
+        synchronized (mPersistenceExecutor.getCheckpointLock()) {
+            mWriteAheadLog.append(timestamp, point.getY(), weight, charger ? DataConstants.SAMPLE_FLAG_CHARGER : 0);
+            addLifetimeValue(lifetimeStatistics, charger ? mLifetimeChargerRollups : mLifetimeBatteryRollups, timestamp, point.getY(), weight);
+        }
     }
 
     /**
-     * Save persistent charger lifetime statistics to storage.
+     * Add the value with the specified weight to the specified lifetime statistics and time
+     * rollups.
      */
-    public void saveChargerLifetimeStatisticsToStorage() {
-        saveLifetimeStatisticsToStorage(getContext(), mChargerFilename, mLifetimeChargerStatistics);
+    private static void addLifetimeValue(Statistics statistics, Rollups rollups, long timestamp, double value, double weight) {
+        statistics.addValue(timestamp, value, weight);
+        rollups.add(timestamp, statistics.convertValue(value), weight);
     }
 
     /**
-     * Save persistent lifetime statistics to the specified file in storage.
+     * Add the average power since the start of the current energy counter interval to the usage
+     * data, weighted by the number of collection intervals it spans. The interval is extended while
+     * the counter hasn't changed so that coarse counters don't produce runs of zero power.
+     *
+     * @param force true to end the interval even if the counter hasn't changed, false otherwise.
      */
-    public void saveLifetimeStatisticsToStorage(Context context, String filename, Statistics statistics) {
-        FileOutputStream fileOutputStream = null;
-        ObjectOutputStream objectOutputStream = null;
-        try {
-            fileOutputStream = context.openFileOutput(filename, Context.MODE_PRIVATE);
-            objectOutputStream = new ObjectOutputStream(fileOutputStream);
-            objectOutputStream.writeObject(statistics);
-        } catch (IOException e) {
-        } finally {
-            if (fileOutputStream != null) {
-                try {
-                    fileOutputStream.close();
-                } catch (IOException e) {
-                }
-            }
-            if (objectOutputStream != null) {
-                try {
-                    objectOutputStream.close();
-                } catch (IOException e) {
-                }
+    private void measureEnergyCounter(boolean force) {
+        synchronized (mEnergyCounterLock) {
+            double energy = Sensor.ENERGY_COUNTER.measureEnergy();
+            long time = SystemClock.elapsedRealtime();
+            long elapsed = time - mEnergyCounterStartTime;
+            if (Double.isNaN(mEnergyCounterStartEnergy) || elapsed <= 0) {
+                mEnergyCounterStartEnergy = energy;
+                mEnergyCounterStartTime = time;
+                return;
             }
+            if (energy == mEnergyCounterStartEnergy && !force && elapsed < SensorConstants.ENERGY_COUNTER_MAXIMUM_INTERVAL)
+                return;
+
+            double power = EnergyCounterSensor.getAveragePower(mEnergyCounterStartEnergy, mEnergyCounterStartTime, energy, time);
+            Point point = new Point(System.currentTimeMillis(), power);
+            addLifetimePoint(point, elapsed / (double) getCollectionInterval());
+            mSampleStore.append((long) point.getX(), power, DataConstants.SAMPLE_FLAG_ENERGY_COUNTER | (isChargerConnected() ? DataConstants.SAMPLE_FLAG_CHARGER : 0));
+            mEnergyCounterStartEnergy = energy;
+            mEnergyCounterStartTime = time;
         }
     }
 
     /**
-     * Load the lifetime statistics from the specified file in storage.
+     * Start a new energy counter interval from the current reading of the counter.
      */
-    public Statistics loadLifetimeStatisticsFromStorage(Context context, String filename) {
-        FileInputStream fileInputStream = null;
-        ObjectInputStream objectInputStream = null;
-        Statistics statistics = null;
-        try {
-            fileInputStream = context.openFileInput(filename);
-            objectInputStream = new ObjectInputStream(fileInputStream);
-            Object object = objectInputStream.readObject();
-            if (object instanceof Statistics) {
-                statistics = (Statistics) object;
-            }
-        } catch (IOException e) {
-        } catch (ClassNotFoundException e) {
-        } finally {
-            if (fileInputStream != null) {
-                try {
-                    fileInputStream.close();
-                } catch (IOException e) {
-                }
-            }
-            if (objectInputStream != null) {
-                try {
-                    objectInputStream.close();
-                } catch (IOException e) {
-                }
-            }
+    private void restartEnergyCounterInterval() {
+        synchronized (mEnergyCounterLock) {
+            mEnergyCounterStartEnergy = Sensor.ENERGY_COUNTER.measureEnergy();
+            mEnergyCounterStartTime = SystemClock.elapsedRealtime();
         }
-        return statistics;
+    }
+
+    /**
+     * Save persistent battery lifetime statistics to storage in the background.
+     */
+    public void saveBatteryLifetimeStatisticsToStorage() {
+        mPersistenceExecutor.requestSave();
+    }
+
+    /**
+     * Save persistent charger lifetime statistics to storage in the background.
+     */
+    public void saveChargerLifetimeStatisticsToStorage() {
+        mPersistenceExecutor.requestSave();
+    }
+
+    /**
+     * Save persistent battery and charger time rollups to storage in the background.
+     */
+    public void saveLifetimeRollupsToStorage() {
+        mPersistenceExecutor.requestSave();
+    }
+
+    /**
+     * Save the lifetime data that changed to storage and return once it is written. Called when
+     * the application is about to be destroyed.
+     */
+    public void flushToStorage() {
+        mPersistenceExecutor.flush();
     }
 
     /**
@@ -191,6 +360,28 @@ public class LifetimeCollectionTask extends CollectionTask {
         return mLifetimeStatistics;
     }
 
+    /**
+     * Return the time rollups of the usage data.
+     *
+     * @return the time rollups of the usage data.
+     */
+    public Rollups getLifetimeRollups() {
+        return mLifetimeRollups;
+    }
+
+    /**
+     * Return the summary of the usage data between the specified times, answered from the time
+     * rollups of the battery or the charger usage data.
+     *
+     * @param charger   true for the charger usage data, false for the battery usage data.
+     * @param startTime the start of the period in milliseconds since the epoch.
+     * @param endTime   the end of the period in milliseconds since the epoch.
+     * @return the summary of the usage data in the period.
+     */
+    public RollupBucket getLifetimeRollup(boolean charger, long startTime, long endTime) {
+        return (charger ? mLifetimeChargerRollups : mLifetimeBatteryRollups).query(startTime, endTime);
+    }
+
     /**
      * Return the average the usage data.
      *
@@ -203,18 +394,45 @@ public class LifetimeCollectionTask extends CollectionTask {
         return 0;
     }
 
+    /**
+     * Set whether the realtime and the lifetime statistics of this task weight each measurement
+     * by the time elapsed since the previous measurement.
+     */
+    @Override
+    public void setTimeWeighted(boolean timeWeighted) {
+        super.setTimeWeighted(timeWeighted);
+        long interval = (timeWeighted) ? getCollectionInterval() : 0;
+        mLifetimeBatteryStatistics.setTimeWeighting(interval, DataConstants.STATISTICS_TIME_WEIGHTING_MAX_GAP);
+        mLifetimeChargerStatistics.setTimeWeighting(interval, DataConstants.STATISTICS_TIME_WEIGHTING_MAX_GAP);
+    }
+
     @Override
     protected void onChargerConnected() {
+        if (mEnergyCounterMeasurementTask != null)
+            measureEnergyCounter(true);
         mLifetimeStatistics = mLifetimeChargerStatistics;
+        mLifetimeRollups = mLifetimeChargerRollups;
         super.onChargerConnected();
     }
 
     @Override
     protected void onChargerDisconnected() {
+        if (mEnergyCounterMeasurementTask != null)
+            measureEnergyCounter(true);
         mLifetimeStatistics = mLifetimeBatteryStatistics;
+        mLifetimeRollups = mLifetimeBatteryRollups;
         super.onChargerDisconnected();
     }
 
+    /**
+     * Return the store of the raw measurements of this task.
+     *
+     * @return the sample store.
+     */
+    public SampleStore getSampleStore() {
+        return mSampleStore;
+    }
+
     public Statistics getBatteryLifetimeStatistics() {
         return mLifetimeBatteryStatistics;
     }
@@ -224,14 +442,32 @@ public class LifetimeCollectionTask extends CollectionTask {
     }
 
     /**
-     * The thread used to save data to persistent storage.
+     * Return the executor that saves the lifetime data, which keeps the metrics of the saves.
+     *
+     * @return the persistence executor of this task.
+     */
+    public PersistenceExecutor getPersistenceExecutor() {
+        return mPersistenceExecutor;
+    }
+
+    /**
+     * Task used for adding the energy counter to the lifetime statistics.
      */
-    class SaverThread implements Runnable {
+    class EnergyCounterMeasurementTask implements SamplingScheduler.Sampler {
+
+        @Override
+        public int getFrameSensors() {
+            return 0;
+        }
+
+        @Override
+        public boolean onTick() {
+            return true;
+        }
+
         @Override
-        public void run() {
-            saveBatteryLifetimeStatisticsToStorage();
-            saveChargerLifetimeStatisticsToStorage();
-            mHandler.postDelayed(mSaverThread, SensorConstants.PERSISTENT_SAVE_INTERVAL);
+        public void sample(SensorFrame frame) {
+            measureEnergyCounter(false);
         }
     }
 }
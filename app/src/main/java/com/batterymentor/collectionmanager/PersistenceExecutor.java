@@ -0,0 +1,443 @@
+package com.batterymentor.collectionmanager;
+
+import com.batterymentor.datamanager.BinaryFormat;
+import com.batterymentor.debug.Debug;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class responsible for saving data to persistent storage from a background thread. Each piece of
+ * data is registered as an {@link Entry} with a version that changes whenever the data changes.
+ * A save only writes the entries whose version changed since they were last written, so idle data
+ * costs nothing, and requests for a save that arrive while one is pending are coalesced into it.
+ * The time spent saving and the number of bytes written are kept as metrics.
+ */
+public class PersistenceExecutor {
+
+    /**
+     * Class representing a piece of data that is saved to a file. A save takes a copy of the data
+     * while holding the checkpoint lock and encodes and writes the copy after releasing it, so the
+     * code that changes the data is only blocked for the time it takes to copy it.
+     *
+     * @param <T> the type of the copy of the data.
+     */
+    public static abstract class Entry<T> {
+
+        /**
+         * The file that the data is saved to.
+         */
+        private final File mFile;
+
+        /**
+         * The version of the data that was last saved. Only accessed while holding the lock of
+         * the saves.
+         */
+        private long mSavedVersion;
+
+        /**
+         * The checkpoint of the data in the file.
+         */
+        private volatile long mSavedCheckpoint;
+
+        /**
+         * The copy of the data taken by the save in progress or null if there is none. Only
+         * accessed while holding the lock of the saves.
+         */
+        private T mCopy;
+
+        /**
+         * Create a new entry for the specified file.
+         *
+         * @param file the file that the data is saved to.
+         */
+        public Entry(File file) {
+            mFile = file;
+        }
+
+        /**
+         * Return the version of the data, which changes whenever the data changes.
+         *
+         * @return the version of the data.
+         */
+        public abstract long getVersion();
+
+        /**
+         * Return a copy of the data that doesn't change afterwards. Called while holding the
+         * checkpoint lock, which blocks the code that changes the data, so the copy must be cheap
+         * and must not be encoded yet.
+         *
+         * @return the copy of the data.
+         */
+        protected abstract T copy();
+
+        /**
+         * Encode the specified copy of the data into the contents of the file, along with the
+         * checkpoint that it was copied at. Called from the thread that saves the data after
+         * releasing the checkpoint lock.
+         *
+         * @param copy       the copy of the data returned by {@link #copy()}.
+         * @param checkpoint the checkpoint returned by
+         *                   {@link CheckpointListener#onCheckpointStarted()}, or 0 if there is no
+         *                   listener.
+         * @return the contents of the file.
+         * @throws IOException if the data can't be encoded.
+         */
+        protected abstract byte[] encode(T copy, long checkpoint) throws IOException;
+
+        /**
+         * Write the encoded data to the file. The file is replaced atomically unless overridden.
+         *
+         * @param contents the encoded data.
+         * @return true if the data was written, false otherwise.
+         */
+        protected boolean write(byte[] contents) {
+            return BinaryFormat.writeFileAtomically(mFile, contents);
+        }
+
+        /**
+         * Return the version of the data that was last saved. Only called from the thread that
+         * saves the data.
+         *
+         * @return the version of the data that was last saved.
+         */
+        protected long getSavedVersion() {
+            return mSavedVersion;
+        }
+
+        /**
+         * Return the checkpoint of the data in the file, which is the checkpoint that the data
+         * was copied at by the last save that wrote it.
+         *
+         * @return the checkpoint of the saved data, or 0 if it is unknown.
+         */
+        public long getSavedCheckpoint() {
+            return mSavedCheckpoint;
+        }
+
+        /**
+         * Set the checkpoint of the data in the file. Called when the data is loaded.
+         *
+         * @param checkpoint the checkpoint read from the file.
+         */
+        protected void setSavedCheckpoint(long checkpoint) {
+            mSavedCheckpoint = checkpoint;
+        }
+
+        public File getFile() {
+            return mFile;
+        }
+
+        /**
+         * Take the copy of the data for the save in progress.
+         */
+        private void takeCopy() {
+            mCopy = copy();
+        }
+
+        /**
+         * Encode the copy of the data taken for the save in progress and release it.
+         */
+        private byte[] encodeCopy(long checkpoint) throws IOException {
+            T copy = mCopy;
+            mCopy = null;
+            return encode(copy, checkpoint);
+        }
+    }
+
+    /**
+     * Interface used to be notified of the checkpoints of the saved data.
+     */
+    public interface CheckpointListener {
+
+        /**
+         * Called at the start of a save, while holding the checkpoint lock, before the data is
+         * copied.
+         *
+         * @return the checkpoint that the data is copied at, which is saved with the data of each
+         * entry.
+         */
+        long onCheckpointStarted();
+
+        /**
+         * Called once every entry that changed was written by the save that started last.
+         */
+        void onCheckpointCompleted();
+    }
+
+    /**
+     * The entries that are saved.
+     */
+    private final CopyOnWriteArrayList<Entry<?>> mEntries = new CopyOnWriteArrayList<Entry<?>>();
+
+    /**
+     * The lock held while saving, so the background thread and a synchronous flush don't write
+     * the same file at the same time.
+     */
+    private final Object mSaveLock = new Object();
+
+    /**
+     * The lock held while the data of the entries is copied for a save. Code that must keep
+     * something consistent with the saved data, such as a log of the changes since the last save,
+     * holds it while changing the data.
+     */
+    private final Object mCheckpointLock = new Object();
+
+    /**
+     * The listener of the checkpoints or null if there is none.
+     */
+    private volatile CheckpointListener mCheckpointListener;
+
+    /**
+     * Flag indicating whether a requested save is waiting to run.
+     */
+    private final AtomicBoolean mSavePending = new AtomicBoolean();
+
+    /**
+     * The future of the periodic saves or null if they aren't running.
+     */
+    private ScheduledFuture<?> mPeriodicSave;
+
+    /**
+     * The task that syncs the data kept between saves to storage or null if there is none.
+     */
+    private Runnable mSyncTask;
+
+    /**
+     * The interval between syncs in milliseconds.
+     */
+    private long mSyncInterval;
+
+    /**
+     * The future of the periodic syncs or null if they aren't running.
+     */
+    private ScheduledFuture<?> mPeriodicSync;
+
+    /**
+     * The number of files written.
+     */
+    private final AtomicLong mFilesWritten = new AtomicLong();
+
+    /**
+     * The number of bytes written.
+     */
+    private final AtomicLong mBytesWritten = new AtomicLong();
+
+    /**
+     * The number of saves that found nothing to write.
+     */
+    private final AtomicLong mSkippedSaves = new AtomicLong();
+
+    /**
+     * The duration of the latest save that wrote a file in nanoseconds.
+     */
+    private final AtomicLong mLastSaveLatency = new AtomicLong();
+
+    /**
+     * The duration of the longest save that wrote a file in nanoseconds.
+     */
+    private final AtomicLong mMaxSaveLatency = new AtomicLong();
+
+    /**
+     * The background thread that saves the data.
+     */
+    private final ScheduledThreadPoolExecutor mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "PersistenceExecutor");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    /**
+     * The task that runs a save on the background thread.
+     */
+    private final Runnable mSaveTask = new Runnable() {
+        @Override
+        public void run() {
+            mSavePending.set(false);
+            saveChangedEntries();
+        }
+    };
+
+    /**
+     * Register an entry to be saved. The current version of the data is considered saved, since
+     * it was just loaded from the file.
+     *
+     * @param entry the entry to save.
+     */
+    public void register(Entry<?> entry) {
+        synchronized (mSaveLock) {
+            entry.mSavedVersion = entry.getVersion();
+        }
+        mEntries.add(entry);
+    }
+
+    /**
+     * Save the changed entries at the specified interval on the background thread.
+     *
+     * @param interval the interval between saves in milliseconds.
+     */
+    public synchronized void start(long interval) {
+        if (mPeriodicSave == null)
+            mPeriodicSave = mExecutor.scheduleWithFixedDelay(mSaveTask, interval, interval, TimeUnit.MILLISECONDS);
+        if (mPeriodicSync == null && mSyncTask != null)
+            mPeriodicSync = mExecutor.scheduleWithFixedDelay(mSyncTask, mSyncInterval, mSyncInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Set the task that syncs the data kept between saves, such as a log of the changes since the
+     * last save, to storage. The task runs at the specified interval on the background thread
+     * while the periodic saves are running, without holding the checkpoint lock, so the code that
+     * changes the data isn't blocked by a slow sync. Must be called before {@link #start(long)}.
+     *
+     * @param task     the task that syncs the data to storage.
+     * @param interval the interval between syncs in milliseconds.
+     */
+    public synchronized void setSyncTask(Runnable task, long interval) {
+        mSyncTask = task;
+        mSyncInterval = interval;
+    }
+
+    /**
+     * Stop the periodic saves and save the changed entries one last time on the background
+     * thread.
+     */
+    public synchronized void stop() {
+        if (mPeriodicSave != null) {
+            mPeriodicSave.cancel(false);
+            mPeriodicSave = null;
+        }
+        if (mPeriodicSync != null) {
+            mPeriodicSync.cancel(false);
+            mPeriodicSync = null;
+        }
+        requestSave();
+    }
+
+    /**
+     * Save the changed entries on the background thread as soon as possible. A request made while
+     * another one is waiting to run is merged into it.
+     */
+    public void requestSave() {
+        if (mSavePending.compareAndSet(false, true))
+            mExecutor.execute(mSaveTask);
+    }
+
+    /**
+     * Save the changed entries on the calling thread and return once they are written, waiting for
+     * a save in progress on the background thread to finish first.
+     */
+    public void flush() {
+        saveChangedEntries();
+    }
+
+    /**
+     * Write the entries whose version changed since they were last saved. The changed entries are
+     * copied while holding the checkpoint lock and encoded and written after releasing it, and the
+     * checkpoint only completes if all of them were written.
+     */
+    private void saveChangedEntries() {
+        synchronized (mSaveLock) {
+            long startTime = System.nanoTime();
+            CheckpointListener listener = mCheckpointListener;
+            Entry<?>[] entries = mEntries.toArray(new Entry<?>[0]);
+            long[] versions = new long[entries.length];
+            boolean[] changed = new boolean[entries.length];
+            long checkpoint = 0;
+            synchronized (mCheckpointLock) {
+                if (listener != null)
+                    checkpoint = listener.onCheckpointStarted();
+                for (int i = 0; i < entries.length; i++) {
+                    versions[i] = entries[i].getVersion();
+                    changed[i] = versions[i] != entries[i].mSavedVersion;
+                    if (changed[i])
+                        entries[i].takeCopy();
+                }
+            }
+
+            boolean complete = true;
+            int filesWritten = 0;
+            for (int i = 0; i < entries.length; i++) {
+                if (!changed[i])
+                    continue;
+
+                byte[] contents;
+                try {
+                    contents = entries[i].encodeCopy(checkpoint);
+                } catch (IOException e) {
+                    complete = false;
+                    if (Debug.isCollectionManagerLoggingEnabled())
+                        Debug.printDebug(e);
+                    continue;
+                }
+                if (entries[i].write(contents)) {
+                    entries[i].mSavedVersion = versions[i];
+                    entries[i].mSavedCheckpoint = checkpoint;
+                    mBytesWritten.addAndGet(contents.length);
+                    filesWritten++;
+                } else {
+                    complete = false;
+                }
+            }
+            if (complete && listener != null)
+                listener.onCheckpointCompleted();
+            if (filesWritten == 0) {
+                mSkippedSaves.incrementAndGet();
+                return;
+            }
+
+            long latency = System.nanoTime() - startTime;
+            mFilesWritten.addAndGet(filesWritten);
+            mLastSaveLatency.set(latency);
+            long maxLatency;
+            do {
+                maxLatency = mMaxSaveLatency.get();
+            } while (latency > maxLatency && !mMaxSaveLatency.compareAndSet(maxLatency, latency));
+            if (Debug.isCollectionManagerLoggingEnabled())
+                Debug.printDebug("Saved " + filesWritten + " files in " + latency / 1000 + " us, " + mBytesWritten.get() + " bytes written in total");
+        }
+    }
+
+    /**
+     * Set the listener of the checkpoints.
+     *
+     * @param listener the listener of the checkpoints or null for none.
+     */
+    public void setCheckpointListener(CheckpointListener listener) {
+        mCheckpointListener = listener;
+    }
+
+    public Object getCheckpointLock() {
+        return mCheckpointLock;
+    }
+
+    public long getFilesWritten() {
+        return mFilesWritten.get();
+    }
+
+    public long getBytesWritten() {
+        return mBytesWritten.get();
+    }
+
+    public long getSkippedSaves() {
+        return mSkippedSaves.get();
+    }
+
+    public long getLastSaveLatencyNanos() {
+        return mLastSaveLatency.get();
+    }
+
+    public long getMaxSaveLatencyNanos() {
+        return mMaxSaveLatency.get();
+    }
+}
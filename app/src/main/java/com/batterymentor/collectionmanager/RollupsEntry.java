@@ -0,0 +1,210 @@
+package com.batterymentor.collectionmanager;
+
+import com.batterymentor.constants.DataConstants;
+import com.batterymentor.datamanager.BinaryFormat;
+import com.batterymentor.datamanager.Rollups;
+import com.batterymentor.debug.Debug;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Class representing time rollups that are saved to persistent storage incrementally. The rollups
+ * are kept in a base file holding all the buckets and a journal that each save appends the buckets
+ * changed since the previous save to, so that a save writes a few buckets instead of the whole
+ * history. Once the journal is larger than the base file, the next save compacts them by
+ * rewriting the base file and deleting the journal.
+ *
+ * Every record carries the epoch of the base file, which is incremented by each compaction. Only
+ * the records of the journal with the epoch of the base file are loaded, so a crash between
+ * rewriting the base file and deleting the journal doesn't load stale buckets over newer ones.
+ * Every record also carries the checkpoint that its buckets were copied at, and the checkpoint of
+ * the last record loaded is the checkpoint of the loaded rollups.
+ */
+public class RollupsEntry extends PersistenceExecutor.Entry<Rollups.Changes> {
+
+    /**
+     * The journal that the changed buckets are appended to.
+     */
+    private final File mJournalFile;
+
+    /**
+     * The rollups that are saved.
+     */
+    private final Rollups mRollups;
+
+    /**
+     * The epoch of the base file.
+     */
+    private long mEpoch;
+
+    /**
+     * The number of bytes of the base file.
+     */
+    private long mBaseSize;
+
+    /**
+     * The number of bytes of the journal.
+     */
+    private long mJournalSize;
+
+    /**
+     * Flag indicating whether the next save must compact the rollups, because there is no base
+     * file in the current format or the journal ends with a record that can't be read.
+     */
+    private boolean mCompactionNeeded;
+
+    /**
+     * Flag indicating whether the save in progress compacts the rollups. Only accessed by the
+     * thread that saves the data.
+     */
+    private boolean mCompacting;
+
+    /**
+     * Create a new entry for the rollups saved to the specified files, loading them.
+     *
+     * @param file        the base file of the rollups.
+     * @param journalFile the journal of the rollups.
+     */
+    public RollupsEntry(File file, File journalFile) {
+        super(file);
+        mJournalFile = journalFile;
+        mRollups = load();
+    }
+
+    /**
+     * Load the rollups from the base file and the journal, or create new rollups if there are
+     * none.
+     */
+    private Rollups load() {
+        Rollups rollups = null;
+        mCompactionNeeded = true;
+        byte[] bytes = BinaryFormat.readFile(getFile());
+        if (bytes != null) {
+            mBaseSize = bytes.length;
+            try {
+                DataInputStream in = decodeRecord(bytes, 0).getInput();
+                mEpoch = in.readLong();
+                long checkpoint = in.readLong();
+                rollups = Rollups.readFrom(in);
+                setSavedCheckpoint(checkpoint);
+                mCompactionNeeded = false;
+            } catch (IOException e) {
+                if (Debug.isCollectionManagerLoggingEnabled())
+                    Debug.printDebug(e);
+            }
+        }
+        if (rollups == null)
+            rollups = new Rollups();
+
+        bytes = BinaryFormat.readFile(mJournalFile);
+        if (bytes != null) {
+            mJournalSize = bytes.length;
+            int offset = 0;
+            try {
+                while (offset < bytes.length) {
+                    BinaryFormat.Record record = decodeRecord(bytes, offset);
+                    DataInputStream in = record.getInput();
+                    if (in.readLong() == mEpoch) {
+                        long checkpoint = in.readLong();
+                        rollups.readChangesFrom(in);
+                        setSavedCheckpoint(checkpoint);
+                    }
+                    offset += record.getSize();
+                }
+            } catch (IOException e) {
+                mCompactionNeeded = true;
+                if (Debug.isCollectionManagerLoggingEnabled())
+                    Debug.printDebug(e);
+            }
+        }
+        return rollups;
+    }
+
+    @Override
+    public long getVersion() {
+        return mRollups.getVersion();
+    }
+
+    /**
+     * Copy the buckets that changed since the last save, or all the buckets if the rollups are
+     * compacted by this save.
+     */
+    @Override
+    protected Rollups.Changes copy() {
+        long savedVersion = getSavedVersion();
+        mCompacting = mCompactionNeeded || mRollups.getResetVersion() > savedVersion
+                || mJournalSize > Math.max(mBaseSize, DataConstants.ROLLUP_JOURNAL_MIN_COMPACTION_SIZE);
+        return mRollups.copyChanges(mCompacting ? Long.MIN_VALUE : savedVersion);
+    }
+
+    @Override
+    protected byte[] encode(Rollups.Changes changes, long checkpoint) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(mCompacting ? mEpoch + 1 : mEpoch);
+        out.writeLong(checkpoint);
+        changes.writeTo(out);
+        out.flush();
+        return BinaryFormat.encode(BinaryFormat.TYPE_ROLLUPS, DataConstants.ROLLUPS_FORMAT_VERSION, bytes.toByteArray());
+    }
+
+    /**
+     * Append the changed buckets to the journal, or replace the base file and delete the journal
+     * if the rollups are compacted by this save.
+     */
+    @Override
+    protected boolean write(byte[] contents) {
+        if (mCompacting) {
+            if (!super.write(contents))
+                return false;
+
+            mEpoch++;
+            mBaseSize = contents.length;
+            mJournalFile.delete();
+            mJournalSize = 0;
+            mCompactionNeeded = false;
+            return true;
+        }
+
+        if (!BinaryFormat.appendFile(mJournalFile, contents)) {
+            mCompactionNeeded = true;
+            return false;
+        }
+        mJournalSize += contents.length;
+        return true;
+    }
+
+    /**
+     * Decode the record of rollups that starts at the specified offset.
+     */
+    private static BinaryFormat.Record decodeRecord(byte[] bytes, int offset) throws IOException {
+        BinaryFormat.Record record = BinaryFormat.decode(bytes, offset);
+        if (record.getType() != BinaryFormat.TYPE_ROLLUPS)
+            throw new IOException("Unexpected type of rollups record: " + record.getType());
+        if (record.getVersion() != DataConstants.ROLLUPS_FORMAT_VERSION)
+            throw new IOException("Unsupported version of rollups: " + record.getVersion());
+        return record;
+    }
+
+    /**
+     * Return the rollups that are saved.
+     *
+     * @return the rollups.
+     */
+    public Rollups getRollups() {
+        return mRollups;
+    }
+
+    /**
+     * Return the number of bytes of the journal.
+     *
+     * @return the size of the journal.
+     */
+    public long getJournalSize() {
+        return mJournalSize;
+    }
+}
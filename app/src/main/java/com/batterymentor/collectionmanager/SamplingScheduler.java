@@ -0,0 +1,314 @@
+package com.batterymentor.collectionmanager;
+
+import com.batterymentor.constants.CollectionConstants;
+import com.batterymentor.debug.Debug;
+import com.batterymentor.sensors.SensorFrame;
+
+import java.util.HashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class responsible for running the samplers of all the collection tasks from a small fixed-rate
+ * thread pool. Samplers that share an interval are grouped onto the same tick, which is aligned to
+ * a multiple of the interval, and share a single {@link SensorFrame} captured for that tick. The
+ * frame is only captured on the ticks on which at least one sampler of the group is due.
+ *
+ * Samplers that do slow work, such as scanning the running processes, are scheduled in the
+ * background on their own thread, so that an overrun of theirs can't delay the ticks of the
+ * sensor samplers and make them miss their deadline.
+ */
+public class SamplingScheduler {
+
+    /**
+     * The executor that runs the ticks.
+     */
+    private final ScheduledThreadPoolExecutor mExecutor = new ScheduledThreadPoolExecutor(CollectionConstants.SAMPLING_SCHEDULER_POOL_SIZE);
+
+    /**
+     * The executor that runs the ticks of the background samplers.
+     */
+    private final ScheduledThreadPoolExecutor mBackgroundExecutor = new ScheduledThreadPoolExecutor(1);
+
+    /**
+     * The groups of samplers, keyed by interval.
+     */
+    private final HashMap<Long, TickGroup> mGroups = new HashMap<Long, TickGroup>();
+
+    /**
+     * The groups of background samplers, keyed by interval.
+     */
+    private final HashMap<Long, TickGroup> mBackgroundGroups = new HashMap<Long, TickGroup>();
+
+    /**
+     * The number of ticks that have run.
+     */
+    private final AtomicLong mTicks = new AtomicLong();
+
+    /**
+     * The number of ticks that started after their deadline.
+     */
+    private final AtomicLong mDeadlineMisses = new AtomicLong();
+
+    /**
+     * Schedule the specified sampler to run at the specified interval.
+     *
+     * @param sampler  the sampler to schedule.
+     * @param interval the interval at which to run the sampler in milliseconds.
+     */
+    public void schedule(Sampler sampler, long interval) {
+        schedule(sampler, interval, mGroups, mExecutor);
+    }
+
+    /**
+     * Schedule the specified sampler to run at the specified interval on the background thread,
+     * separately from the samplers scheduled with {@link #schedule(Sampler, long)}.
+     *
+     * @param sampler  the sampler to schedule.
+     * @param interval the interval at which to run the sampler in milliseconds.
+     */
+    public void scheduleInBackground(Sampler sampler, long interval) {
+        schedule(sampler, interval, mBackgroundGroups, mBackgroundExecutor);
+    }
+
+    /**
+     * Add the specified sampler to the group of the specified groups with the same interval,
+     * starting a new group on the specified executor if there is none.
+     */
+    private void schedule(Sampler sampler, long interval, HashMap<Long, TickGroup> groups, ScheduledThreadPoolExecutor executor) {
+        synchronized (mGroups) {
+            TickGroup group = groups.get(interval);
+            if (group == null) {
+                group = new TickGroup(interval, executor);
+                groups.put(interval, group);
+                group.add(sampler);
+                group.start();
+            } else {
+                group.add(sampler);
+            }
+        }
+    }
+
+    /**
+     * Stop running the specified sampler. A tick that is already running may still complete.
+     *
+     * @param sampler the sampler to stop running.
+     */
+    public void unschedule(Sampler sampler) {
+        synchronized (mGroups) {
+            if (!unschedule(sampler, mGroups))
+                unschedule(sampler, mBackgroundGroups);
+        }
+    }
+
+    /**
+     * Remove the specified sampler from the specified groups, stopping its group if it's empty.
+     *
+     * @return true if the sampler was removed, false if it isn't in any of the groups.
+     */
+    private static boolean unschedule(Sampler sampler, HashMap<Long, TickGroup> groups) {
+        for (TickGroup group : groups.values()) {
+            if (group.remove(sampler)) {
+                if (group.isEmpty()) {
+                    group.stop();
+                    groups.remove(group.getInterval());
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return the number of ticks that have run.
+     *
+     * @return the number of ticks that have run.
+     */
+    public long getTicks() {
+        return mTicks.get();
+    }
+
+    /**
+     * Return the number of ticks that started after their deadline. The samplers are skipped for
+     * a late tick so that a stalled pool doesn't produce a burst of back-to-back samples.
+     *
+     * @return the number of ticks that missed their deadline.
+     */
+    public long getDeadlineMisses() {
+        return mDeadlineMisses.get();
+    }
+
+    /**
+     * Class representing the group of samplers that run on the same tick.
+     */
+    private class TickGroup implements Runnable {
+
+        /**
+         * The interval of the tick in milliseconds.
+         */
+        private final long mInterval;
+
+        /**
+         * The executor that runs the tick.
+         */
+        private final ScheduledThreadPoolExecutor mTickExecutor;
+
+        /**
+         * The samplers that run on this tick.
+         */
+        private final CopyOnWriteArrayList<Sampler> mSamplers = new CopyOnWriteArrayList<Sampler>();
+
+        /**
+         * The samplers that run on this tick, copied whenever they change so that a tick iterates
+         * them without allocating.
+         */
+        private volatile Sampler[] mSamplerArray = new Sampler[0];
+
+        /**
+         * The flags indicating which samplers are due on the current tick. Only accessed by the
+         * tick, which never runs concurrently with itself.
+         */
+        private boolean[] mDue = new boolean[0];
+
+        /**
+         * The frame shared by the samplers, declaring the union of the sensors they require.
+         */
+        private volatile SensorFrame mFrame = new SensorFrame(0);
+
+        /**
+         * The monotonic time at which the first tick was scheduled in nanoseconds. The executor
+         * schedules against the same clock, so deadlines don't move with wall clock adjustments.
+         */
+        private long mFirstTickTime;
+
+        /**
+         * The number of ticks that have run in this group.
+         */
+        private long mTickCount;
+
+        /**
+         * The future of the scheduled tick.
+         */
+        private ScheduledFuture<?> mFuture;
+
+        TickGroup(long interval, ScheduledThreadPoolExecutor executor) {
+            mInterval = interval;
+            mTickExecutor = executor;
+        }
+
+        void start() {
+            long now = System.currentTimeMillis();
+            long initialDelay = mInterval - (now % mInterval);
+            mFirstTickTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(initialDelay);
+            mFuture = mTickExecutor.scheduleAtFixedRate(this, initialDelay, mInterval, TimeUnit.MILLISECONDS);
+        }
+
+        void stop() {
+            if (mFuture != null)
+                mFuture.cancel(false);
+        }
+
+        void add(Sampler sampler) {
+            if (mSamplers.addIfAbsent(sampler))
+                updateSamplers();
+        }
+
+        boolean remove(Sampler sampler) {
+            boolean removed = mSamplers.remove(sampler);
+            if (removed)
+                updateSamplers();
+            return removed;
+        }
+
+        boolean isEmpty() {
+            return mSamplers.isEmpty();
+        }
+
+        long getInterval() {
+            return mInterval;
+        }
+
+        /**
+         * Copy the samplers and replace the shared frame if the union of the sensors required by
+         * the samplers changed.
+         */
+        private void updateSamplers() {
+            Sampler[] samplers = mSamplers.toArray(new Sampler[0]);
+            int sensors = 0;
+            for (Sampler sampler : samplers) {
+                sensors |= sampler.getFrameSensors();
+            }
+            if (sensors != mFrame.getSensors())
+                mFrame = new SensorFrame(sensors);
+            mSamplerArray = samplers;
+        }
+
+        @Override
+        public void run() {
+            long deadline = mFirstTickTime + TimeUnit.MILLISECONDS.toNanos((mTickCount + 1) * mInterval);
+            mTickCount++;
+            mTicks.incrementAndGet();
+            if (System.nanoTime() - deadline >= 0) {
+                mDeadlineMisses.incrementAndGet();
+                if (Debug.isCollectionManagerLoggingEnabled())
+                    Debug.printDebug("Sampling tick missed its deadline, interval " + mInterval);
+                return;
+            }
+
+            Sampler[] samplers = mSamplerArray;
+            if (mDue.length < samplers.length)
+                mDue = new boolean[samplers.length];
+            boolean due = false;
+            for (int i = 0; i < samplers.length; i++) {
+                mDue[i] = samplers[i].onTick();
+                due |= mDue[i];
+            }
+            if (!due)
+                return;
+
+            SensorFrame frame = mFrame;
+            frame.capture();
+            for (int i = 0; i < samplers.length; i++) {
+                if (!mDue[i])
+                    continue;
+                try {
+                    samplers[i].sample(frame);
+                } catch (RuntimeException e) {
+                    if (Debug.isCollectionManagerLoggingEnabled())
+                        Debug.printDebug(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Interface implemented by the tasks that are run by the scheduler.
+     */
+    public interface Sampler {
+
+        /**
+         * Return the set of sensors that must be captured in the frame passed to this sampler.
+         *
+         * @return the set of sensors required by this sampler, as a combination of the frame flags.
+         */
+        int getFrameSensors();
+
+        /**
+         * Advance this sampler by one tick. The frame is only captured and the sampler only takes
+         * a sample on the ticks on which it is due.
+         *
+         * @return true if this sampler takes a sample on the current tick, false otherwise.
+         */
+        boolean onTick();
+
+        /**
+         * Take a sample using the frame captured for the current tick.
+         *
+         * @param frame the frame captured for the current tick.
+         */
+        void sample(SensorFrame frame);
+    }
+}
@@ -0,0 +1,137 @@
+package com.batterymentor.collectionmanager;
+
+import com.batterymentor.constants.DataConstants;
+import com.batterymentor.datamanager.BinaryFormat;
+import com.batterymentor.datamanager.Statistics;
+import com.batterymentor.debug.Debug;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
+/**
+ * Class representing lifetime statistics that are saved to persistent storage along with the
+ * checkpoint that they were copied at, so that the values logged after that checkpoint can be
+ * told apart from the values already in the file.
+ */
+public class StatisticsEntry extends PersistenceExecutor.Entry<Statistics> {
+
+    /**
+     * The statistics that are saved.
+     */
+    private final Statistics mStatistics;
+
+    /**
+     * Create a new entry for the statistics saved to the specified file, loading them.
+     *
+     * @param file    the file of the statistics.
+     * @param charger true if the statistics are charger statistics, false otherwise.
+     */
+    public StatisticsEntry(File file, boolean charger) {
+        super(file);
+        Statistics statistics = load();
+        mStatistics = (statistics != null) ? statistics : new Statistics(charger);
+    }
+
+    /**
+     * Load the statistics from the file. Statistics saved with Java serialization by an earlier
+     * version of the application are migrated to the binary format the first time they are
+     * loaded.
+     *
+     * @return the statistics or null if they can't be loaded.
+     */
+    private Statistics load() {
+        byte[] bytes = BinaryFormat.readFile(getFile());
+        if (bytes == null)
+            return null;
+
+        if (!BinaryFormat.isBinaryFormat(bytes)) {
+            Statistics statistics = deserializeStatistics(bytes);
+            if (statistics != null) {
+                try {
+                    BinaryFormat.writeFileAtomically(getFile(), encode(statistics, 0));
+                } catch (IOException e) {
+                    if (Debug.isCollectionManagerLoggingEnabled())
+                        Debug.printDebug(e);
+                }
+            }
+            return statistics;
+        }
+
+        try {
+            BinaryFormat.Record record = BinaryFormat.decode(bytes);
+            DataInputStream in = record.getInput();
+            long checkpoint = 0;
+            if (record.getType() == BinaryFormat.TYPE_LIFETIME_STATISTICS)
+                checkpoint = in.readLong();
+            else if (record.getType() != BinaryFormat.TYPE_STATISTICS)
+                throw new IOException("Unexpected type of statistics record: " + record.getType());
+            Statistics statistics = Statistics.readFrom(in, record.getVersion());
+            setSavedCheckpoint(checkpoint);
+            return statistics;
+        } catch (IOException e) {
+            if (Debug.isCollectionManagerLoggingEnabled())
+                Debug.printDebug(e);
+            return null;
+        }
+    }
+
+    @Override
+    public long getVersion() {
+        return mStatistics.getHistogramVersion();
+    }
+
+    @Override
+    protected Statistics copy() {
+        return mStatistics.copy();
+    }
+
+    @Override
+    protected byte[] encode(Statistics statistics, long checkpoint) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(checkpoint);
+        statistics.writeTo(out);
+        out.flush();
+        return BinaryFormat.encode(BinaryFormat.TYPE_LIFETIME_STATISTICS, DataConstants.STATISTICS_FORMAT_VERSION, bytes.toByteArray());
+    }
+
+    /**
+     * Deserialize statistics saved with Java serialization.
+     *
+     * @return the statistics or null if they can't be deserialized.
+     */
+    private static Statistics deserializeStatistics(byte[] bytes) {
+        ObjectInputStream objectInputStream = null;
+        Statistics statistics = null;
+        try {
+            objectInputStream = new ObjectInputStream(new ByteArrayInputStream(bytes));
+            Object object = objectInputStream.readObject();
+            if (object instanceof Statistics)
+                statistics = (Statistics) object;
+        } catch (IOException e) {
+        } catch (ClassNotFoundException e) {
+        } finally {
+            if (objectInputStream != null) {
+                try {
+                    objectInputStream.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * Return the statistics that are saved.
+     *
+     * @return the statistics.
+     */
+    public Statistics getStatistics() {
+        return mStatistics;
+    }
+}
@@ -9,4 +9,33 @@ public class CollectionConstants {
      * The number of points needed to have valid realtime statistics.
      */
     public static final int REALTIME_STATISTICS_VALID_POINT_THRESHOLD = 3;
+
+    /**
+     * The number of threads used by the sampling scheduler.
+     */
+    public static final int SAMPLING_SCHEDULER_POOL_SIZE = 2;
+
+    /**
+     * The number of consecutive stable samples after which the adaptive sampling interval is
+     * doubled.
+     */
+    public static final int ADAPTIVE_SAMPLING_STABLE_SAMPLES = 5;
+
+    /**
+     * The ratio of the recent standard deviation to the recent average below which the signal is
+     * considered stable.
+     */
+    public static final double ADAPTIVE_SAMPLING_STABLE_COEFFICIENT_OF_VARIATION = 0.05;
+
+    /**
+     * The number of standard deviations from the recent average beyond which a sample is
+     * considered a change point.
+     */
+    public static final double ADAPTIVE_SAMPLING_CHANGE_POINT_DEVIATIONS = 3;
+
+    /**
+     * The minimum change relative to the recent average for a sample to be considered a change
+     * point. Prevents a nearly constant signal from treating every small fluctuation as a change.
+     */
+    public static final double ADAPTIVE_SAMPLING_CHANGE_POINT_MIN_RELATIVE_CHANGE = 0.10;
 }
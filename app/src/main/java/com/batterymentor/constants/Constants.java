@@ -35,6 +35,16 @@ public class Constants {
      */
     public static final long MINUTE = 60*SECOND;
 
+    /**
+     * The number of milliseconds in an hour.
+     */
+    public static final long HOUR = 60*MINUTE;
+
+    /**
+     * The number of milliseconds in a day.
+     */
+    public static final long DAY = 24*HOUR;
+
     /**
      * An invalid value.
      */
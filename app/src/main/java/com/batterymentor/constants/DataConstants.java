@@ -22,31 +22,124 @@ public class DataConstants {
     public static final int STATISTICS_RECENT_DATA_SIZE = 7;
 
     /**
-     * The number of buckets used for collecting histogram points.
+     * The number of buckets of the linear histogram scheme.
      */
     public static final int HISTOGRAM_NUM_BUCKETS = 10;
 
     /**
-     * The minimum power used for constructing the histogram.
+     * The minimum power of the linear histogram scheme.
      */
     public static final double HISTOGRAM_MIN_POWER = 0;
 
     /**
-     * The maximum power used for constructing the histogram.
+     * The maximum power of the linear histogram scheme.
      */
     public static final double HISTOGRAM_MAX_POWER = 5000;
 
     /**
-     * The range of each bucket in the histogram.
+     * The range of each bucket of the linear histogram scheme.
      */
     public static final double HISTOGRAM_BUCKET_RANGE = (HISTOGRAM_MAX_POWER - HISTOGRAM_MIN_POWER) / HISTOGRAM_NUM_BUCKETS;
 
+    /**
+     * The number of bits of precision of the log-linear histogram buckets. Every power of two is
+     * divided into 2^precision buckets, so each bucket is at most 12.5% wide.
+     */
+    public static final int HISTOGRAM_PRECISION_BITS = 3;
+
+    /**
+     * The largest power in milliwatts that gets its own log-linear histogram bucket.
+     */
+    public static final long HISTOGRAM_MAX_VALUE = 100000;
+
     /**
      * The maximum weight of the realtime statistics. The weight is a number between 0 and 1 that
      * represents how much calculations should rely on the realtime statistics.
      */
     public static final double REALTIME_STATISTICS_MAX_WEIGHT = 0.25d;
 
+    /**
+     * The longest time between two measurements that is integrated by statistics weighted by time.
+     * Longer times are gaps in the sampling, such as the device dozing, and are not integrated.
+     */
+    public static final long STATISTICS_TIME_WEIGHTING_MAX_GAP = 2 * Constants.MINUTE;
+
+    /**
+     * The number of recent measurements that the outlier filter takes the median over.
+     */
+    public static final int OUTLIER_FILTER_WINDOW_SIZE = 9;
+
+    /**
+     * The number of measurements that the outlier filter needs before it rejects any.
+     */
+    public static final int OUTLIER_FILTER_MIN_WINDOW_SIZE = 5;
+
+    /**
+     * The number of scaled median absolute deviations that a measurement may deviate from the
+     * median before the outlier filter rejects it.
+     */
+    public static final double OUTLIER_FILTER_THRESHOLD = 3;
+
+    /**
+     * The deviation from the median as a fraction of the median that the outlier filter always
+     * allows, so that small changes of stable data aren't rejected.
+     */
+    public static final double OUTLIER_FILTER_MIN_RELATIVE_DEVIATION = 0.5;
+
+    /**
+     * The number of consecutive measurements that the outlier filter rejects before it treats them
+     * as a change in the level of the data and accepts the next one.
+     */
+    public static final int OUTLIER_FILTER_MAX_CONSECUTIVE_REJECTIONS = 2;
+
+    /**
+     * The number of samples of each segment of the sample store, which is about 18 hours of
+     * samples at the default collection interval in 640 KB.
+     */
+    public static final int SAMPLE_SEGMENT_CAPACITY = 65536;
+
+    /**
+     * The number of segments of the sample store that are kept, which is about 12 days of samples
+     * at the default collection interval.
+     */
+    public static final int SAMPLE_STORE_MAX_SEGMENTS = 16;
+
+    /**
+     * The flag of a sample measured while the charger was connected.
+     */
+    public static final int SAMPLE_FLAG_CHARGER = 1;
+
+    /**
+     * The flag of a sample derived from the energy counter.
+     */
+    public static final int SAMPLE_FLAG_ENERGY_COUNTER = 2;
+
+    /**
+     * The version of the binary format of the statistics saved to persistent storage.
+     */
+    public static final int STATISTICS_FORMAT_VERSION = 1;
+
+    /**
+     * The version of the binary format of the time rollups saved to persistent storage.
+     */
+    public static final int ROLLUPS_FORMAT_VERSION = 1;
+
+    /**
+     * The version of the binary format of the compressed archives of the sealed sample segments.
+     */
+    public static final int SAMPLE_ARCHIVE_FORMAT_VERSION = 1;
+
+    /**
+     * The size in bytes that the journal of time rollups may reach before it is compacted into the
+     * base file, even if the base file is smaller.
+     */
+    public static final long ROLLUP_JOURNAL_MIN_COMPACTION_SIZE = 64 * 1024;
+
+    /**
+     * The interval between two syncs of a write-ahead log to storage.
+     */
+    public static final long WAL_SYNC_INTERVAL = 10 * Constants.SECOND;
+
     /**
      * The maximum weight of the lifetime statistics.  The weight is a number between 0 and 1 that
      * represents how much calculations should rely on the lifetime statistics.
@@ -57,4 +150,31 @@ public class DataConstants {
      * The threshold of lifetime points at which maximum weight is achieved.
      */
     public static final double LIFETIME_NUM_POINTS_MAX_WEIGHT_THRESHOLD = 100;
+
+    /**
+     * The compression of the lifetime quantile sketch. The sketch keeps at most about this many
+     * centroids, trading memory for the accuracy of the percentiles.
+     */
+    public static final double QUANTILE_SKETCH_COMPRESSION = 50;
+
+    /**
+     * The number of points buffered by the quantile sketch before they are merged into the
+     * centroids.
+     */
+    public static final int QUANTILE_SKETCH_BUFFER_SIZE = 50;
+
+    /**
+     * The compression of the quantile sketch of each rollup bucket.
+     */
+    public static final double ROLLUP_SKETCH_COMPRESSION = 20;
+
+    /**
+     * The number of per-minute rollup buckets that are kept, covering the last day.
+     */
+    public static final int ROLLUP_MINUTE_BUCKETS = 24 * 60;
+
+    /**
+     * The number of per-hour rollup buckets that are kept, covering the last month.
+     */
+    public static final int ROLLUP_HOUR_BUCKETS = 31 * 24;
 }
@@ -20,6 +20,11 @@ public class ModelConstants {
      */
     public static final String CPU_FREQUENCY_MODEL_FILENAME = "powerbench_cpu_frequency_model";
 
+    /**
+     * The version of the binary format of the models saved to persistent storage.
+     */
+    public static final int MODEL_FORMAT_VERSION = 1;
+
     /**
      * The threshold at which the difference between a newly measuring base power and the current
      * base power will not cause the current base power to change. If the newly measured base power
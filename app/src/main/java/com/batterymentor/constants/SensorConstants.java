@@ -10,6 +10,11 @@ public class SensorConstants {
      */
     public static final String MODE_READ = "r";
 
+    /**
+     * The size of the buffer used for reading a single value from sysfs.
+     */
+    public static final int SYSFS_READ_BUFFER_SIZE = 64;
+
     /**
      * The default conversion factor.
      */
@@ -20,6 +25,12 @@ public class SensorConstants {
      */
     public static final long DEFAULT_COLLECTION_INTERVAL = 1000;
 
+    /**
+     * The longest interval in milliseconds that adaptive sampling stretches the collection of the
+     * primary power task to while the power draw is stable.
+     */
+    public static final long MAXIMUM_COLLECTION_INTERVAL = 8000;
+
     /**
      * The number of milliamps in a microamp.
      */
@@ -47,6 +58,12 @@ public class SensorConstants {
      */
     public static final double SENSOR_MINIMUM_MEASUREMENT_INTERVAL = 50;
 
+    /**
+     * The maximum length of time in milliseconds that a measurement waits for another caller that
+     * is reading the same sensor to publish its sample.
+     */
+    public static final long SENSOR_MEASUREMENT_WAIT_TIMEOUT = 100;
+
     /**
      * The path to the list of running applications.
      */
@@ -62,6 +79,43 @@ public class SensorConstants {
      */
     public static final String SENSOR_VOLTAGE_NOW = "/sys/class/power_supply/battery/voltage_now";
 
+    /**
+     * The path to the remaining battery energy counter in microwatt-hours.
+     */
+    public static final String SENSOR_ENERGY_NOW = "/sys/class/power_supply/battery/energy_now";
+
+    /**
+     * The path to the remaining battery charge counter in microamp-hours.
+     */
+    public static final String SENSOR_CHARGE_COUNTER = "/sys/class/power_supply/battery/charge_counter";
+
+    /**
+     * The number of microwatt-hours in a milliwatt-hour.
+     */
+    public static final double MICROWATT_HOURS_IN_MILLIWATT_HOUR = 1000;
+
+    /**
+     * The number of nanowatt-hours in a milliwatt-hour.
+     */
+    public static final double NANOWATT_HOURS_IN_MILLIWATT_HOUR = 1000000;
+
+    /**
+     * The number of microamp-hours in a milliamp-hour.
+     */
+    public static final double MICROAMP_HOURS_IN_MILLIAMP_HOUR = 1000;
+
+    /**
+     * The interval at which the energy counter is read for the lifetime statistics in
+     * milliseconds.
+     */
+    public static final long ENERGY_COUNTER_COLLECTION_INTERVAL = 60 * Constants.SECOND;
+
+    /**
+     * The longest interval in milliseconds that a reading of the energy counter is held back while
+     * waiting for the counter to change.
+     */
+    public static final long ENERGY_COUNTER_MAXIMUM_INTERVAL = 10 * Constants.MINUTE;
+
     /**
      * The path template to the cpu.
      */
@@ -72,11 +126,62 @@ public class SensorConstants {
      */
     public static final String SENSOR_CPU_FREQUENCY_TEMPLATE = "/sys/devices/system/cpu/cpu%d/cpufreq/scaling_cur_freq";
 
+    /**
+     * The path template to the cumulative time each cpu has spent at each frequency.
+     */
+    public static final String SENSOR_CPU_TIME_IN_STATE_TEMPLATE = "/sys/devices/system/cpu/cpu%d/cpufreq/stats/time_in_state";
+
+    /**
+     * The path template to the list of cpus that share a frequency policy with a cpu.
+     */
+    public static final String SENSOR_CPU_RELATED_CPUS_TEMPLATE = "/sys/devices/system/cpu/cpu%d/cpufreq/related_cpus";
+
+    /**
+     * The maximum number of frequencies read from a time_in_state file.
+     */
+    public static final int TIME_IN_STATE_MAX_STATES = 64;
+
+    /**
+     * The number of bytes read from the start of a time_in_state file.
+     */
+    public static final int TIME_IN_STATE_BUFFER_SIZE = 2048;
+
+    /**
+     * The number of bytes read from the start of a related_cpus file.
+     */
+    public static final int RELATED_CPUS_BUFFER_SIZE = 64;
+
     /**
      * The path template to the cpu load sensor.
      */
     public static final String SENSOR_CPU_LOAD = "/proc/stat";
 
+    /**
+     * The prefix of the cpu lines in /proc/stat.
+     */
+    public static final String PROC_STAT_CPU_PREFIX = "cpu";
+
+    /**
+     * The index of the idle jiffies in a cpu line of /proc/stat, not counting the label.
+     */
+    public static final int PROC_STAT_IDLE_INDEX = 3;
+
+    /**
+     * The number of bytes read from the start of /proc/stat. Only the cpu lines at the top of the
+     * file are parsed.
+     */
+    public static final int PROC_STAT_BUFFER_SIZE = 4096;
+
+    /**
+     * The number of bytes read from the start of /proc/&lt;pid&gt;/stat.
+     */
+    public static final int PROC_PID_STAT_BUFFER_SIZE = 512;
+
+    /**
+     * The position of the first field after the command name in /proc/&lt;pid&gt;/stat.
+     */
+    public static final int PROC_PID_STAT_FIRST_FIELD_AFTER_COMMAND = 3;
+
     /**
      * The path template to the app package name.
      */
@@ -117,6 +222,29 @@ public class SensorConstants {
      */
     public static final String LIFETIME_STATISTICS_CHARGER_FILENAME = "powerbench_charger_lifetime_statistics";
 
+    /**
+     * The suffix appended to the filename of lifetime statistics to get the filename where their
+     * time rollups are saved.
+     */
+    public static final String LIFETIME_ROLLUPS_FILENAME_SUFFIX = "_rollups";
+
+    /**
+     * The suffix appended to the filename of time rollups to get the filename of the journal that
+     * the buckets changed between two compactions are appended to.
+     */
+    public static final String LIFETIME_ROLLUPS_JOURNAL_FILENAME_SUFFIX = "_journal";
+
+    /**
+     * The suffix appended to the filename of the battery lifetime statistics to get the name of
+     * the write-ahead log of the lifetime data.
+     */
+    public static final String LIFETIME_WAL_FILENAME_SUFFIX = "_wal";
+
+    /**
+     * The directory where the raw power samples are stored.
+     */
+    public static final String SAMPLE_STORE_DIRECTORY = "powerbench_samples";
+
     /**
      * The interval at which data gets saved in a persistent collection task.
      */
@@ -116,6 +116,12 @@ public class UIConstants {
      */
     public static final int HISTOGRAM_NUM_POINTS_FOR_DRAW = 80;
 
+    /**
+     * The minimum number of histogram buckets that are drawn, which is the fewest that a spline
+     * can be fitted through.
+     */
+    public static final int HISTOGRAM_MIN_POINTS_FOR_DRAW = 3;
+
     /**
      * The buffer for the y-axis maximum that ensures that the data is not cut off.
      */
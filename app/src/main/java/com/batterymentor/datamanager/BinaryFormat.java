@@ -0,0 +1,329 @@
+package com.batterymentor.datamanager;
+
+import com.batterymentor.debug.Debug;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+/**
+ * Class containing the container format of the binary files saved to persistent storage. A file
+ * holds a single record: a magic number, the type and the version of the payload, the length of
+ * the payload, the payload, and a CRC32 of everything before it. The version lets the payload
+ * change in later versions of the application, and the checksum detects a file that is truncated
+ * or corrupted instead of silently loading garbage. Files are written to a temporary file that is
+ * renamed over the original, so a crash half way through a write leaves the previous file intact.
+ */
+public final class BinaryFormat {
+
+    /**
+     * The magic number at the start of every binary file, "BMNT" in ASCII. Files saved with Java
+     * serialization by earlier versions of the application start with 0xACED instead.
+     */
+    public static final int MAGIC = 0x424d4e54;
+
+    /**
+     * The type of a record holding {@link Statistics}.
+     */
+    public static final int TYPE_STATISTICS = 1;
+
+    /**
+     * The type of a record holding a model.
+     */
+    public static final int TYPE_MODEL = 2;
+
+    /**
+     * The type of a record holding buckets of {@link Rollups}.
+     */
+    public static final int TYPE_ROLLUPS = 3;
+
+    /**
+     * The type of a record holding lifetime {@link Statistics} preceded by the checkpoint they
+     * were saved at. Its version is the version of the statistics.
+     */
+    public static final int TYPE_LIFETIME_STATISTICS = 4;
+
+    /**
+     * The type of a record holding a {@link SampleArchive}.
+     */
+    public static final int TYPE_SAMPLE_ARCHIVE = 5;
+
+    /**
+     * The number of bytes of the header before the payload.
+     */
+    private static final int HEADER_SIZE = 12;
+
+    /**
+     * The number of bytes of the checksum after the payload.
+     */
+    private static final int CHECKSUM_SIZE = 4;
+
+    /**
+     * The suffix of the temporary file that a file is written to before it is renamed.
+     */
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private BinaryFormat() {
+    }
+
+    /**
+     * Class representing a record read from a binary file.
+     */
+    public static class Record {
+
+        /**
+         * The type of the payload.
+         */
+        private final int mType;
+
+        /**
+         * The version of the payload.
+         */
+        private final int mVersion;
+
+        /**
+         * The input of the payload.
+         */
+        private final DataInputStream mInput;
+
+        /**
+         * The number of bytes of the encoded record.
+         */
+        private final int mSize;
+
+        Record(int type, int version, DataInputStream input, int size) {
+            mType = type;
+            mVersion = version;
+            mInput = input;
+            mSize = size;
+        }
+
+        public int getType() {
+            return mType;
+        }
+
+        public int getVersion() {
+            return mVersion;
+        }
+
+        public DataInputStream getInput() {
+            return mInput;
+        }
+
+        public int getSize() {
+            return mSize;
+        }
+    }
+
+    /**
+     * Encode the specified payload into a record.
+     *
+     * @param type    the type of the payload.
+     * @param version the version of the payload.
+     * @param payload the payload.
+     * @return the encoded record.
+     */
+    public static byte[] encode(int type, int version, byte[] payload) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE + payload.length + CHECKSUM_SIZE);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeShort(type);
+            out.writeShort(version);
+            out.writeInt(payload.length);
+            out.write(payload);
+            CRC32 checksum = new CRC32();
+            checksum.update(bytes.toByteArray());
+            out.writeInt((int) checksum.getValue());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decode the record of the specified bytes, verifying its length and its checksum.
+     *
+     * @param bytes the encoded record.
+     * @return the decoded record.
+     * @throws IOException if the bytes aren't a valid record.
+     */
+    public static Record decode(byte[] bytes) throws IOException {
+        Record record = decode(bytes, 0);
+        if (record.getSize() != bytes.length)
+            throw new IOException("Invalid length of binary record: " + (record.getSize() - HEADER_SIZE - CHECKSUM_SIZE));
+
+        return record;
+    }
+
+    /**
+     * Decode the record that starts at the specified offset of the specified bytes, verifying its
+     * length and its checksum. Used for files that records are appended to, where the next record
+     * starts at the offset plus the size of the record.
+     *
+     * @param bytes  the bytes holding the record.
+     * @param offset the offset of the record in the bytes.
+     * @return the decoded record.
+     * @throws IOException if the bytes at the offset aren't a valid record.
+     */
+    public static Record decode(byte[] bytes, int offset) throws IOException {
+        int available = bytes.length - offset;
+        if (available < HEADER_SIZE + CHECKSUM_SIZE || getInt(bytes, offset) != MAGIC)
+            throw new IOException("Not a binary record");
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, offset + 4, HEADER_SIZE - 4));
+        int type = in.readUnsignedShort();
+        int version = in.readUnsignedShort();
+        int length = in.readInt();
+        if (length < 0 || length > available - HEADER_SIZE - CHECKSUM_SIZE)
+            throw new IOException("Invalid length of binary record: " + length);
+
+        CRC32 checksum = new CRC32();
+        checksum.update(bytes, offset, HEADER_SIZE + length);
+        if (getInt(bytes, offset + HEADER_SIZE + length) != (int) checksum.getValue())
+            throw new IOException("Invalid checksum of binary record");
+
+        return new Record(type, version, new DataInputStream(new ByteArrayInputStream(bytes, offset + HEADER_SIZE, length)),
+                HEADER_SIZE + length + CHECKSUM_SIZE);
+    }
+
+    /**
+     * Return true if the specified bytes start with the magic number of the binary format.
+     *
+     * @param bytes the bytes of a file.
+     * @return true if the bytes are in the binary format, false if they are in another format.
+     */
+    public static boolean isBinaryFormat(byte[] bytes) {
+        return bytes != null && bytes.length >= 4 && getInt(bytes, 0) == MAGIC;
+    }
+
+    /**
+     * Return the big-endian integer at the specified offset of the specified bytes.
+     */
+    private static int getInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16
+                | (bytes[offset + 2] & 0xff) << 8 | (bytes[offset + 3] & 0xff);
+    }
+
+    /**
+     * Encode the specified payload into a record and write it to the specified file.
+     *
+     * @param file    the file to write.
+     * @param type    the type of the payload.
+     * @param version the version of the payload.
+     * @param payload the payload.
+     * @return true if the file was written, false otherwise.
+     */
+    public static boolean writeFile(File file, int type, int version, byte[] payload) {
+        return writeFileAtomically(file, encode(type, version, payload));
+    }
+
+    /**
+     * Write the specified bytes to a temporary file, sync it to storage, and rename it over the
+     * specified file, so the file holds either its previous contents or the new contents.
+     *
+     * @param file  the file to write.
+     * @param bytes the contents of the file.
+     * @return true if the file was written, false otherwise.
+     */
+    public static boolean writeFileAtomically(File file, byte[] bytes) {
+        File temporaryFile = new File(file.getPath() + TEMPORARY_SUFFIX);
+        FileOutputStream out = null;
+        boolean written = false;
+        try {
+            out = new FileOutputStream(temporaryFile);
+            out.write(bytes);
+            out.flush();
+            out.getFD().sync();
+            written = true;
+        } catch (IOException e) {
+            if (Debug.isCollectionManagerLoggingEnabled())
+                Debug.printDebug(e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    written = false;
+                }
+            }
+        }
+        if (!written || !temporaryFile.renameTo(file)) {
+            temporaryFile.delete();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Append the specified bytes to the specified file and sync it to storage. A crash half way
+     * through leaves a partial record at the end of the file, which fails to decode.
+     *
+     * @param file  the file to append to.
+     * @param bytes the bytes to append.
+     * @return true if the bytes were appended, false otherwise.
+     */
+    public static boolean appendFile(File file, byte[] bytes) {
+        FileOutputStream out = null;
+        boolean written = false;
+        try {
+            out = new FileOutputStream(file, true);
+            out.write(bytes);
+            out.flush();
+            out.getFD().sync();
+            written = true;
+        } catch (IOException e) {
+            if (Debug.isCollectionManagerLoggingEnabled())
+                Debug.printDebug(e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    written = false;
+                }
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Read the whole specified file.
+     *
+     * @param file the file to read.
+     * @return the contents of the file or null if it doesn't exist or can't be read.
+     */
+    public static byte[] readFile(File file) {
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) Math.max(0, Math.min(file.length(), Integer.MAX_VALUE)));
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) >= 0) {
+                bytes.write(buffer, 0, count);
+            }
+            return bytes.toByteArray();
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            if (Debug.isCollectionManagerLoggingEnabled())
+                Debug.printDebug(e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.batterymentor.datamanager;
+
+import java.io.Serializable;
+
+/**
+ * Interface for a scheme that divides the range of values of a histogram into buckets. The index
+ * of the bucket of a value must be computed in constant time, since it is computed for every value
+ * added to the statistics.
+ */
+public interface BucketScheme extends Serializable {
+
+    /**
+     * Return the number of buckets.
+     *
+     * @return the number of buckets.
+     */
+    public int getNumBuckets();
+
+    /**
+     * Return the index of the bucket that contains the specified value. Values outside the range of
+     * the scheme are placed in the first or the last bucket.
+     *
+     * @param value the value.
+     * @return the index of the bucket of the value.
+     */
+    public int getIndex(double value);
+
+    /**
+     * Return the smallest value of the specified bucket.
+     *
+     * @param index the index of the bucket.
+     * @return the smallest value of the bucket.
+     */
+    public double getLowerBound(int index);
+
+    /**
+     * Return the value just above the largest value of the specified bucket.
+     *
+     * @param index the index of the bucket.
+     * @return the upper bound of the bucket.
+     */
+    public double getUpperBound(int index);
+}
@@ -0,0 +1,163 @@
+package com.batterymentor.datamanager;
+
+/**
+ * Class representing a decoder of a block of samples encoded by a {@link GorillaEncoder}. The
+ * decoder is an iterator over the samples that holds only the current sample, so a block can be
+ * read without creating an object per sample.
+ */
+public class GorillaDecoder {
+
+    /**
+     * The encoded block.
+     */
+    private final byte[] mBytes;
+
+    /**
+     * The number of samples in the block.
+     */
+    private final int mCount;
+
+    /**
+     * The position of the next bit to read.
+     */
+    private long mBitPosition;
+
+    /**
+     * The number of samples read.
+     */
+    private int mRead;
+
+    /**
+     * The timestamp of the current sample.
+     */
+    private long mTimestamp;
+
+    /**
+     * The delta between the timestamps of the current and the previous sample.
+     */
+    private long mDelta;
+
+    /**
+     * The bits of the value of the current sample.
+     */
+    private long mValueBits;
+
+    /**
+     * The number of leading zeros of the current window of changed bits.
+     */
+    private int mLeadingZeros;
+
+    /**
+     * The number of trailing zeros of the current window of changed bits.
+     */
+    private int mTrailingZeros;
+
+    /**
+     * Create a new decoder of the specified block.
+     *
+     * @param bytes the encoded block.
+     * @param count the number of samples in the block.
+     */
+    public GorillaDecoder(byte[] bytes, int count) {
+        mBytes = bytes;
+        mCount = count;
+    }
+
+    /**
+     * Advance to the next sample of the block.
+     *
+     * @return true if there is a next sample, false if all the samples were read.
+     */
+    public boolean next() {
+        if (mRead >= mCount)
+            return false;
+
+        if (mRead == 0) {
+            mTimestamp = readBits(64);
+            mValueBits = readBits(64);
+        } else {
+            mDelta += readDeltaOfDelta();
+            mTimestamp += mDelta;
+            readValue();
+        }
+        mRead++;
+        return true;
+    }
+
+    /**
+     * Read the difference between the delta of the next timestamp and the current delta.
+     */
+    private long readDeltaOfDelta() {
+        if (readBits(1) == 0)
+            return 0;
+        if (readBits(1) == 0)
+            return signExtend(readBits(7), 7);
+        if (readBits(1) == 0)
+            return signExtend(readBits(9), 9);
+        if (readBits(1) == 0)
+            return signExtend(readBits(12), 12);
+        return readBits(64);
+    }
+
+    /**
+     * Read the XOR of the bits of the next value with the bits of the current value.
+     */
+    private void readValue() {
+        if (readBits(1) == 0)
+            return;
+
+        if (readBits(1) != 0) {
+            mLeadingZeros = (int) readBits(5);
+            int significantBits = (int) readBits(6);
+            if (significantBits == 0)
+                significantBits = 64;
+            mTrailingZeros = 64 - mLeadingZeros - significantBits;
+        }
+        mValueBits ^= readBits(64 - mLeadingZeros - mTrailingZeros) << mTrailingZeros;
+    }
+
+    /**
+     * Read the specified number of bits, from the most significant to the least significant.
+     *
+     * @param numBits the number of bits to read, between 0 and 64.
+     * @return the bits read.
+     */
+    private long readBits(int numBits) {
+        long value = 0;
+        while (numBits > 0) {
+            int byteIndex = (int) (mBitPosition >>> 3);
+            int available = 8 - (int) (mBitPosition & 7);
+            int length = Math.min(available, numBits);
+            int bits = (mBytes[byteIndex] >>> (available - length)) & ((1 << length) - 1);
+            value = (value << length) | bits;
+            numBits -= length;
+            mBitPosition += length;
+        }
+        return value;
+    }
+
+    /**
+     * Interpret the specified number of the least significant bits as a two's complement number.
+     */
+    private static long signExtend(long value, int numBits) {
+        return (value << (64 - numBits)) >> (64 - numBits);
+    }
+
+    /**
+     * Return the timestamp of the current sample.
+     *
+     * @return the timestamp of the current sample in milliseconds.
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * Return the value of the current sample.
+     *
+     * @return the value of the current sample.
+     */
+    public double getValue() {
+        return Double.longBitsToDouble(mValueBits);
+    }
+}
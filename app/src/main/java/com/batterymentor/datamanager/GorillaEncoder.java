@@ -0,0 +1,197 @@
+package com.batterymentor.datamanager;
+
+/**
+ * Class representing a streaming encoder of a block of samples in the bit-packed format of the
+ * Gorilla time series database. Timestamps are encoded as the difference between consecutive
+ * deltas, which is zero or close to it for regularly sampled data, and values are encoded as the
+ * XOR with the previous value, of which only the bits that changed are written. Samples are
+ * appended one at a time, and the block is read back with a {@link GorillaDecoder}.
+ *
+ * The first timestamp and value are written in full. Each following timestamp is written as
+ * '0' if the delta of delta is zero, or as '10', '110' or '1110' followed by the delta of delta in
+ * 7, 9 or 12 bits, or as '1111' followed by the delta of delta in 64 bits. Each following value is
+ * written as '0' if it is equal to the previous value, as '10' followed by the changed bits if they
+ * fit in the window of changed bits of the previous value, or as '11' followed by the number of
+ * leading zeros in 5 bits, the number of changed bits in 6 bits, and the changed bits.
+ */
+public class GorillaEncoder {
+
+    /**
+     * The initial size of the buffer in bytes.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * The encoded bits, from the most significant bit of the first byte.
+     */
+    private byte[] mBytes = new byte[INITIAL_CAPACITY];
+
+    /**
+     * The number of bits written.
+     */
+    private long mBitLength;
+
+    /**
+     * The number of samples written.
+     */
+    private int mCount;
+
+    /**
+     * The timestamp of the previous sample.
+     */
+    private long mTimestamp;
+
+    /**
+     * The delta between the timestamps of the previous two samples.
+     */
+    private long mDelta;
+
+    /**
+     * The bits of the previous value.
+     */
+    private long mValueBits;
+
+    /**
+     * The number of leading zeros of the window of changed bits of the previous value, or -1 if
+     * there is no window.
+     */
+    private int mLeadingZeros = -1;
+
+    /**
+     * The number of trailing zeros of the window of changed bits of the previous value.
+     */
+    private int mTrailingZeros;
+
+    /**
+     * Append a sample to the block.
+     *
+     * @param timestamp the time of the sample in milliseconds.
+     * @param value     the value of the sample.
+     */
+    public void append(long timestamp, double value) {
+        long valueBits = Double.doubleToRawLongBits(value);
+        if (mCount == 0) {
+            writeBits(timestamp, 64);
+            writeBits(valueBits, 64);
+        } else {
+            long delta = timestamp - mTimestamp;
+            writeDeltaOfDelta(delta - mDelta);
+            mDelta = delta;
+            writeValue(valueBits);
+        }
+        mTimestamp = timestamp;
+        mValueBits = valueBits;
+        mCount++;
+    }
+
+    /**
+     * Write the difference between the delta of the current timestamp and the previous delta.
+     */
+    private void writeDeltaOfDelta(long deltaOfDelta) {
+        if (deltaOfDelta == 0) {
+            writeBits(0, 1);
+        } else if (deltaOfDelta >= -64 && deltaOfDelta < 64) {
+            writeBits(0x2, 2);
+            writeBits(deltaOfDelta, 7);
+        } else if (deltaOfDelta >= -256 && deltaOfDelta < 256) {
+            writeBits(0x6, 3);
+            writeBits(deltaOfDelta, 9);
+        } else if (deltaOfDelta >= -2048 && deltaOfDelta < 2048) {
+            writeBits(0xe, 4);
+            writeBits(deltaOfDelta, 12);
+        } else {
+            writeBits(0xf, 4);
+            writeBits(deltaOfDelta, 64);
+        }
+    }
+
+    /**
+     * Write the XOR of the bits of the current value with the bits of the previous value.
+     */
+    private void writeValue(long valueBits) {
+        long xor = valueBits ^ mValueBits;
+        if (xor == 0) {
+            writeBits(0, 1);
+            return;
+        }
+
+        int leadingZeros = Math.min(Long.numberOfLeadingZeros(xor), 31);
+        int trailingZeros = Long.numberOfTrailingZeros(xor);
+        if (mLeadingZeros >= 0 && leadingZeros >= mLeadingZeros && trailingZeros >= mTrailingZeros) {
+            writeBits(0x2, 2);
+            writeBits(xor >>> mTrailingZeros, 64 - mLeadingZeros - mTrailingZeros);
+        } else {
+            int significantBits = 64 - leadingZeros - trailingZeros;
+            writeBits(0x3, 2);
+            writeBits(leadingZeros, 5);
+            writeBits(significantBits, 6);
+            writeBits(xor >>> trailingZeros, significantBits);
+            mLeadingZeros = leadingZeros;
+            mTrailingZeros = trailingZeros;
+        }
+    }
+
+    /**
+     * Write the specified number of the least significant bits of the specified value, from the
+     * most significant to the least significant.
+     *
+     * @param value   the bits to write.
+     * @param numBits the number of bits to write, between 0 and 64.
+     */
+    private void writeBits(long value, int numBits) {
+        int lastByte = (int) ((mBitLength + numBits + 7) >>> 3);
+        if (lastByte > mBytes.length) {
+            byte[] bytes = new byte[Math.max(lastByte, mBytes.length * 2)];
+            System.arraycopy(mBytes, 0, bytes, 0, mBytes.length);
+            mBytes = bytes;
+        }
+        while (numBits > 0) {
+            int byteIndex = (int) (mBitLength >>> 3);
+            int room = 8 - (int) (mBitLength & 7);
+            int length = Math.min(room, numBits);
+            int bits = (int) (value >>> (numBits - length)) & ((1 << length) - 1);
+            mBytes[byteIndex] |= bits << (room - length);
+            numBits -= length;
+            mBitLength += length;
+        }
+    }
+
+    /**
+     * Return a copy of the encoded block, trimmed to its length.
+     *
+     * @return the encoded block.
+     */
+    public byte[] toByteArray() {
+        int length = (int) ((mBitLength + 7) >>> 3);
+        byte[] bytes = new byte[length];
+        System.arraycopy(mBytes, 0, bytes, 0, length);
+        return bytes;
+    }
+
+    /**
+     * Return the number of bytes of the encoded block.
+     *
+     * @return the size of the encoded block in bytes.
+     */
+    public int getSize() {
+        return (int) ((mBitLength + 7) >>> 3);
+    }
+
+    /**
+     * Return the number of samples in the block.
+     *
+     * @return the number of samples in the block.
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Return the timestamp of the latest sample in the block.
+     *
+     * @return the timestamp of the latest sample.
+     */
+    public long getLastTimestamp() {
+        return mTimestamp;
+    }
+}
@@ -0,0 +1,217 @@
+package com.batterymentor.datamanager;
+
+import com.batterymentor.constants.DataConstants;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class representing a streaming Hampel filter that replaces the glitches of a sensor before they
+ * reach the statistics. Every value is added to a sliding window, and a value is rejected if it
+ * deviates from the median of the window by more than a number of scaled median absolute
+ * deviations (MAD), in which case the median of the window is passed on instead, so the glitch
+ * still counts with its weight and time but not with its value. The window is kept in an
+ * {@link OrderStatisticsTree}, so the median is found in logarithmic time and the MAD in squared
+ * logarithmic time, without sorting or allocating.
+ *
+ * Since a stable sensor has a MAD of zero, the deviation allowed is never less than a fraction of
+ * the median. Since a change in the level of the data looks like a run of outliers until the
+ * window catches up, a value is always accepted after a number of consecutive rejections, and the
+ * values before the run are dropped from the window.
+ */
+public class HampelFilter {
+
+    /**
+     * The factor that scales the MAD to the standard deviation of normally distributed data.
+     */
+    private static final double MAD_SCALE = 1.4826;
+
+    /**
+     * The values of the window, in the order in which they were added.
+     */
+    private final double[] mValues;
+
+    /**
+     * The order statistics of the window, indexed by the slots of the values.
+     */
+    private final OrderStatisticsTree mOrderStatistics;
+
+    /**
+     * The index of the oldest value of the window.
+     */
+    private int mHead;
+
+    /**
+     * The number of values in the window.
+     */
+    private int mSize;
+
+    /**
+     * The number of values that were rejected since the last accepted value.
+     */
+    private int mConsecutiveRejections;
+
+    /**
+     * The number of scaled MADs that a value may deviate from the median.
+     */
+    private final double mThreshold;
+
+    /**
+     * The number of values that were accepted.
+     */
+    private final AtomicLong mAccepted = new AtomicLong();
+
+    /**
+     * The number of values that were rejected.
+     */
+    private final AtomicLong mRejected = new AtomicLong();
+
+    public HampelFilter() {
+        this(DataConstants.OUTLIER_FILTER_WINDOW_SIZE, DataConstants.OUTLIER_FILTER_THRESHOLD);
+    }
+
+    /**
+     * Create a new filter with the specified window size and threshold.
+     *
+     * @param windowSize the number of recent values that the median and the MAD are taken over.
+     * @param threshold  the number of scaled MADs that a value may deviate from the median.
+     */
+    public HampelFilter(int windowSize, double threshold) {
+        mValues = new double[windowSize];
+        mOrderStatistics = new OrderStatisticsTree(windowSize);
+        mThreshold = threshold;
+    }
+
+    /**
+     * Add a value to the window and return the value that should be passed on to the statistics.
+     *
+     * @param value the value to filter.
+     * @return the value if it is accepted, the median of the window if it is rejected as an
+     * outlier, or NaN if it is invalid and the window is empty.
+     */
+    public synchronized double filter(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            mRejected.incrementAndGet();
+            return (mSize > 0) ? getMedian() : Double.NaN;
+        }
+
+        int capacity = mValues.length;
+        if (mConsecutiveRejections >= DataConstants.OUTLIER_FILTER_MAX_CONSECUTIVE_REJECTIONS) {
+            while (mSize > mConsecutiveRejections)
+                removeOldest();
+        } else if (mSize == capacity) {
+            removeOldest();
+        }
+        int slot = (mHead + mSize) % capacity;
+        mValues[slot] = value;
+        mOrderStatistics.insert(slot, value, 1);
+        mSize++;
+
+        if (mSize >= DataConstants.OUTLIER_FILTER_MIN_WINDOW_SIZE
+                && mConsecutiveRejections < DataConstants.OUTLIER_FILTER_MAX_CONSECUTIVE_REJECTIONS) {
+            double median = getMedian();
+            double allowedDeviation = Math.max(mThreshold * MAD_SCALE * getMedianAbsoluteDeviation(median),
+                    DataConstants.OUTLIER_FILTER_MIN_RELATIVE_DEVIATION * Math.abs(median));
+            if (Math.abs(value - median) > allowedDeviation) {
+                mConsecutiveRejections++;
+                mRejected.incrementAndGet();
+                return median;
+            }
+        }
+        mConsecutiveRejections = 0;
+        mAccepted.incrementAndGet();
+        return value;
+    }
+
+    /**
+     * Remove all the values from the window, for example when the level of the data is expected
+     * to change. The counters are kept.
+     */
+    public synchronized void reset() {
+        mOrderStatistics.clear();
+        mHead = 0;
+        mSize = 0;
+        mConsecutiveRejections = 0;
+    }
+
+    /**
+     * Remove the oldest value from the window.
+     */
+    private void removeOldest() {
+        mOrderStatistics.remove(mHead);
+        mHead = (mHead + 1) % mValues.length;
+        mSize--;
+    }
+
+    /**
+     * Return the median of the window.
+     */
+    private double getMedian() {
+        return (select(mSize / 2) + select((mSize - 1) / 2)) / 2;
+    }
+
+    /**
+     * Return the median of the absolute deviations of the window from the specified median.
+     */
+    private double getMedianAbsoluteDeviation(double median) {
+        int split = (mSize + 1) / 2;
+        return (selectDeviation(median, split, mSize / 2) + selectDeviation(median, split, (mSize - 1) / 2)) / 2;
+    }
+
+    /**
+     * Return the absolute deviation with the specified rank. The deviations of the values below
+     * the split and of the values from the split onwards are each sorted by their distance from
+     * the median, so the deviation is selected from the merge of the two with a binary search.
+     *
+     * @param median the median of the window.
+     * @param split  the rank of the first value that isn't below the median.
+     * @param rank   the rank of the deviation to select.
+     * @return the deviation with the specified rank.
+     */
+    private double selectDeviation(double median, int split, int rank) {
+        int numRight = mSize - split;
+        int low = Math.max(0, rank + 1 - numRight);
+        int high = Math.min(rank + 1, split);
+        while (low < high) {
+            int fromLeft = (low + high) >>> 1;
+            if (getRightDeviation(median, split, rank - fromLeft) > getLeftDeviation(median, split, fromLeft))
+                low = fromLeft + 1;
+            else
+                high = fromLeft;
+        }
+        double deviation = Double.NEGATIVE_INFINITY;
+        if (low > 0)
+            deviation = getLeftDeviation(median, split, low - 1);
+        if (rank - low >= 0)
+            deviation = Math.max(deviation, getRightDeviation(median, split, rank - low));
+        return deviation;
+    }
+
+    /**
+     * Return the deviation of the value with the specified distance below the split.
+     */
+    private double getLeftDeviation(double median, int split, int index) {
+        return median - select(split - 1 - index);
+    }
+
+    /**
+     * Return the deviation of the value with the specified distance from the split onwards.
+     */
+    private double getRightDeviation(double median, int split, int index) {
+        return select(split + index) - median;
+    }
+
+    /**
+     * Return the value of the window with the specified rank.
+     */
+    private double select(int rank) {
+        return mOrderStatistics.selectByWeight(rank);
+    }
+
+    public long getNumAccepted() {
+        return mAccepted.get();
+    }
+
+    public long getNumRejected() {
+        return mRejected.get();
+    }
+}
@@ -27,10 +27,34 @@ public interface Histogram {
      */
     public double getMax();
 
+    /**
+     * Return the specified percentile of the data.
+     *
+     * @param fraction the percentile as a fraction between 0 and 1.
+     * @return the value below which the fraction of the data lies or 0 if there is no data.
+     */
+    public double getPercentile(double fraction);
+
     /**
      * Return the histogram data. Histogram data is a set of points with ranges associated with
      *
      * @return the histogram data.
      */
     public HistogramPoint[] getHistogramData();
+
+    /**
+     * Return the version of the histogram data. The version changes whenever the histogram data
+     * changes, so that readers can skip recomputing anything derived from unchanged data.
+     *
+     * @return the version of the histogram data.
+     */
+    public long getHistogramVersion();
+
+    /**
+     * Return an immutable snapshot of the data. Every value of the snapshot belongs to the same
+     * version of the data, unlike values read one at a time while the data is being updated.
+     *
+     * @return the snapshot of the data.
+     */
+    public StatisticsSnapshot getSnapshot();
 }
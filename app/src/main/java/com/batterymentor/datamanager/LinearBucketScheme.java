@@ -0,0 +1,76 @@
+package com.batterymentor.datamanager;
+
+/**
+ * Class representing a scheme of buckets of equal width.
+ */
+public class LinearBucketScheme implements BucketScheme {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The smallest value of the first bucket.
+     */
+    private final double mMin;
+
+    /**
+     * The width of each bucket.
+     */
+    private final double mBucketWidth;
+
+    /**
+     * The reciprocal of the width of each bucket.
+     */
+    private final double mInverseBucketWidth;
+
+    /**
+     * The number of buckets.
+     */
+    private final int mNumBuckets;
+
+    /**
+     * Create a new scheme of buckets of equal width.
+     *
+     * @param min        the smallest value of the first bucket.
+     * @param max        the upper bound of the last bucket.
+     * @param numBuckets the number of buckets.
+     */
+    public LinearBucketScheme(double min, double max, int numBuckets) {
+        mMin = min;
+        mNumBuckets = numBuckets;
+        mBucketWidth = (max - min) / numBuckets;
+        mInverseBucketWidth = 1 / mBucketWidth;
+    }
+
+    @Override
+    public int getNumBuckets() {
+        return mNumBuckets;
+    }
+
+    @Override
+    public int getIndex(double value) {
+        int index = (int) ((value - mMin) * mInverseBucketWidth);
+        if (index < 0)
+            return 0;
+        if (index >= mNumBuckets)
+            return mNumBuckets - 1;
+        return index;
+    }
+
+    @Override
+    public double getLowerBound(int index) {
+        return mMin + index * mBucketWidth;
+    }
+
+    @Override
+    public double getUpperBound(int index) {
+        return mMin + (index + 1) * mBucketWidth;
+    }
+
+    public double getMin() {
+        return mMin;
+    }
+
+    public double getMax() {
+        return mMin + mNumBuckets * mBucketWidth;
+    }
+}
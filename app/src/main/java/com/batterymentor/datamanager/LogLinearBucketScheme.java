@@ -0,0 +1,91 @@
+package com.batterymentor.datamanager;
+
+/**
+ * Class representing a scheme of log-linear buckets in the style of HdrHistogram. Values are
+ * rounded down to whole units. Values below 2^precision units get a bucket each, and every power
+ * of two above that is divided into 2^precision buckets of equal width, so the width of each bucket
+ * is at most 2^-precision of its values. The index of a value is computed with integer shifts
+ * only.
+ */
+public class LogLinearBucketScheme implements BucketScheme {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The number of bits of precision of each bucket.
+     */
+    private final int mPrecision;
+
+    /**
+     * The number of buckets that each power of two is divided into.
+     */
+    private final long mSubBuckets;
+
+    /**
+     * The largest value that gets its own bucket, in units.
+     */
+    private final long mMaxValue;
+
+    /**
+     * The number of buckets.
+     */
+    private final int mNumBuckets;
+
+    /**
+     * Create a new log-linear scheme.
+     *
+     * @param precision the number of bits of precision of each bucket.
+     * @param maxValue  the largest value that gets its own bucket. Larger values are placed in the
+     *                  last bucket.
+     */
+    public LogLinearBucketScheme(int precision, long maxValue) {
+        mPrecision = precision;
+        mSubBuckets = 1L << precision;
+        mMaxValue = maxValue;
+        mNumBuckets = getIndex(maxValue) + 1;
+    }
+
+    @Override
+    public int getNumBuckets() {
+        return mNumBuckets;
+    }
+
+    @Override
+    public int getIndex(double value) {
+        if (!(value > 0))
+            return 0;
+
+        long units = (value >= mMaxValue) ? mMaxValue : (long) value;
+        if (units < mSubBuckets)
+            return (int) units;
+
+        int shift = 63 - Long.numberOfLeadingZeros(units) - mPrecision;
+        return (int) (((shift + 1L) << mPrecision) + (units >>> shift) - mSubBuckets);
+    }
+
+    @Override
+    public double getLowerBound(int index) {
+        if (index < mSubBuckets)
+            return index;
+
+        int shift = (index >>> mPrecision) - 1;
+        return (mSubBuckets + (index & (mSubBuckets - 1))) << shift;
+    }
+
+    @Override
+    public double getUpperBound(int index) {
+        if (index < mSubBuckets)
+            return index + 1;
+
+        int shift = (index >>> mPrecision) - 1;
+        return (mSubBuckets + (index & (mSubBuckets - 1)) + 1) << shift;
+    }
+
+    public int getPrecision() {
+        return mPrecision;
+    }
+
+    public long getMaxValue() {
+        return mMaxValue;
+    }
+}
@@ -0,0 +1,264 @@
+package com.batterymentor.datamanager;
+
+/**
+ * Class representing a weighted order statistics tree over a fixed number of slots, used for
+ * looking up percentiles of a sliding window. The tree is a treap whose nodes are the slots
+ * themselves, stored in parallel primitive arrays, so that inserting and removing are logarithmic
+ * in the size of the window and never allocate. Every node keeps the total weight of its subtree,
+ * so that the value at any cumulative weight is found in a single descent. Instances are not
+ * thread safe.
+ */
+public class OrderStatisticsTree {
+
+    /**
+     * The index representing the absence of a node.
+     */
+    private static final int NIL = -1;
+
+    /**
+     * The value of each node.
+     */
+    private final double[] mValues;
+
+    /**
+     * The weight of each node.
+     */
+    private final double[] mWeights;
+
+    /**
+     * The order in which each node was inserted, used for ordering equal values.
+     */
+    private final long[] mSequences;
+
+    /**
+     * The heap priority of each node.
+     */
+    private final int[] mPriorities;
+
+    /**
+     * The left child of each node.
+     */
+    private final int[] mLeft;
+
+    /**
+     * The right child of each node.
+     */
+    private final int[] mRight;
+
+    /**
+     * The total weight of the subtree rooted at each node.
+     */
+    private final double[] mSubtreeWeights;
+
+    /**
+     * The root of the tree.
+     */
+    private int mRoot = NIL;
+
+    /**
+     * The number of nodes in the tree.
+     */
+    private int mSize;
+
+    /**
+     * The number of nodes inserted since the tree was created.
+     */
+    private long mSequence;
+
+    /**
+     * The state of the generator used for the heap priorities.
+     */
+    private int mRandom = 0x2545F491;
+
+    /**
+     * Create a new tree with the specified number of slots.
+     *
+     * @param capacity the number of slots.
+     */
+    public OrderStatisticsTree(int capacity) {
+        mValues = new double[capacity];
+        mWeights = new double[capacity];
+        mSequences = new long[capacity];
+        mPriorities = new int[capacity];
+        mLeft = new int[capacity];
+        mRight = new int[capacity];
+        mSubtreeWeights = new double[capacity];
+    }
+
+    /**
+     * Insert a value into the specified slot, which must not be in the tree.
+     *
+     * @param slot   the slot of the value.
+     * @param value  the value to insert.
+     * @param weight the weight of the value.
+     */
+    public void insert(int slot, double value, double weight) {
+        mValues[slot] = value;
+        mWeights[slot] = weight;
+        mSequences[slot] = mSequence++;
+        mRandom ^= mRandom << 13;
+        mRandom ^= mRandom >>> 17;
+        mRandom ^= mRandom << 5;
+        mPriorities[slot] = mRandom;
+        mLeft[slot] = NIL;
+        mRight[slot] = NIL;
+        mSubtreeWeights[slot] = weight;
+        mRoot = insert(mRoot, slot);
+        mSize++;
+    }
+
+    /**
+     * Remove the value in the specified slot, which must be in the tree.
+     *
+     * @param slot the slot of the value to remove.
+     */
+    public void remove(int slot) {
+        mRoot = remove(mRoot, slot);
+        mSize--;
+    }
+
+    /**
+     * Remove all the values from the tree.
+     */
+    public void clear() {
+        mRoot = NIL;
+        mSize = 0;
+    }
+
+    /**
+     * Return the value at which the cumulative weight of the values in ascending order first
+     * exceeds the specified weight.
+     *
+     * @param weight the cumulative weight to look up.
+     * @return the value at the specified cumulative weight, the largest value if the weight is at
+     * least the total weight, or NaN if the tree is empty.
+     */
+    public double selectByWeight(double weight) {
+        int node = mRoot;
+        int largest = NIL;
+        while (node != NIL) {
+            double leftWeight = getSubtreeWeight(mLeft[node]);
+            if (weight < leftWeight) {
+                node = mLeft[node];
+            } else if (weight < leftWeight + mWeights[node]) {
+                return mValues[node];
+            } else {
+                weight -= leftWeight + mWeights[node];
+                largest = node;
+                node = mRight[node];
+            }
+        }
+        return (largest != NIL) ? mValues[largest] : Double.NaN;
+    }
+
+    /**
+     * Return the total weight of the values in the tree.
+     *
+     * @return the total weight of the values in the tree.
+     */
+    public double getTotalWeight() {
+        return getSubtreeWeight(mRoot);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Insert the specified slot into the subtree rooted at the specified node.
+     *
+     * @return the new root of the subtree.
+     */
+    private int insert(int node, int slot) {
+        if (node == NIL)
+            return slot;
+
+        if (isLess(slot, node)) {
+            mLeft[node] = insert(mLeft[node], slot);
+            if (mPriorities[mLeft[node]] > mPriorities[node])
+                node = rotateRight(node);
+        } else {
+            mRight[node] = insert(mRight[node], slot);
+            if (mPriorities[mRight[node]] > mPriorities[node])
+                node = rotateLeft(node);
+        }
+        update(node);
+        return node;
+    }
+
+    /**
+     * Remove the specified slot from the subtree rooted at the specified node.
+     *
+     * @return the new root of the subtree.
+     */
+    private int remove(int node, int slot) {
+        if (node == NIL)
+            return NIL;
+
+        if (node == slot) {
+            if (mLeft[node] == NIL)
+                return mRight[node];
+            if (mRight[node] == NIL)
+                return mLeft[node];
+            if (mPriorities[mLeft[node]] > mPriorities[mRight[node]]) {
+                node = rotateRight(node);
+                mRight[node] = remove(mRight[node], slot);
+            } else {
+                node = rotateLeft(node);
+                mLeft[node] = remove(mLeft[node], slot);
+            }
+        } else if (isLess(slot, node)) {
+            mLeft[node] = remove(mLeft[node], slot);
+        } else {
+            mRight[node] = remove(mRight[node], slot);
+        }
+        update(node);
+        return node;
+    }
+
+    /**
+     * Rotate the subtree rooted at the specified node to the right.
+     *
+     * @return the new root of the subtree.
+     */
+    private int rotateRight(int node) {
+        int left = mLeft[node];
+        mLeft[node] = mRight[left];
+        mRight[left] = node;
+        update(node);
+        update(left);
+        return left;
+    }
+
+    /**
+     * Rotate the subtree rooted at the specified node to the left.
+     *
+     * @return the new root of the subtree.
+     */
+    private int rotateLeft(int node) {
+        int right = mRight[node];
+        mRight[node] = mLeft[right];
+        mLeft[right] = node;
+        update(node);
+        update(right);
+        return right;
+    }
+
+    /**
+     * Recalculate the subtree weight of the specified node from its children.
+     */
+    private void update(int node) {
+        mSubtreeWeights[node] = getSubtreeWeight(mLeft[node]) + mWeights[node] + getSubtreeWeight(mRight[node]);
+    }
+
+    private double getSubtreeWeight(int node) {
+        return (node != NIL) ? mSubtreeWeights[node] : 0;
+    }
+
+    /**
+     * Return true if the value in the first slot orders before the value in the second slot.
+     */
+    private boolean isLess(int a, int b) {
+        return mValues[a] < mValues[b] || (mValues[a] == mValues[b] && mSequences[a] < mSequences[b]);
+    }
+}
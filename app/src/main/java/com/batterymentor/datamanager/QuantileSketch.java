@@ -0,0 +1,524 @@
+package com.batterymentor.datamanager;
+
+import com.batterymentor.constants.DataConstants;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * Class representing a mergeable sketch of the distribution of a stream of weighted values, used
+ * for answering percentile queries over data that is too large to keep. The sketch is a merging
+ * t-digest: values are buffered and periodically merged into a sorted list of centroids, each
+ * holding the mean and the weight of neighbouring values. Centroids near the tails are kept small
+ * so that extreme percentiles stay accurate. The number of centroids is bounded by the
+ * compression, so the memory used doesn't grow with the number of values. Instances are not
+ * thread safe.
+ */
+public class QuantileSketch implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The compression of the sketch.
+     */
+    private final double mCompression;
+
+    /**
+     * The total weight of the values added to the sketch.
+     */
+    private double mTotalWeight;
+
+    /**
+     * The minimum value added to the sketch.
+     */
+    private double mMin = Double.POSITIVE_INFINITY;
+
+    /**
+     * The maximum value added to the sketch.
+     */
+    private double mMax = Double.NEGATIVE_INFINITY;
+
+    /**
+     * The mean of each centroid in ascending order.
+     */
+    private transient double[] mMeans;
+
+    /**
+     * The weight of each centroid.
+     */
+    private transient double[] mWeights;
+
+    /**
+     * The number of centroids.
+     */
+    private transient int mNumCentroids;
+
+    /**
+     * The values that haven't been merged into the centroids yet.
+     */
+    private transient double[] mBufferValues;
+
+    /**
+     * The weights of the values that haven't been merged into the centroids yet.
+     */
+    private transient double[] mBufferWeights;
+
+    /**
+     * The number of buffered values.
+     */
+    private transient int mBufferSize;
+
+    /**
+     * The means that the centroids are merged into, swapped with the centroids after each merge.
+     */
+    private transient double[] mMergeMeans;
+
+    /**
+     * The weights that the centroids are merged into, swapped with the centroids after each merge.
+     */
+    private transient double[] mMergeWeights;
+
+    public QuantileSketch() {
+        this(DataConstants.QUANTILE_SKETCH_COMPRESSION);
+    }
+
+    /**
+     * Create a new sketch with the specified compression.
+     *
+     * @param compression the compression of the sketch.
+     */
+    public QuantileSketch(double compression) {
+        mCompression = compression;
+        allocate(0);
+    }
+
+    /**
+     * Create a sketch that holds the specified values exactly, each as its own centroid.
+     *
+     * @param values  the values.
+     * @param weights the weight of each value.
+     * @param size    the number of values.
+     * @return the sketch of the values.
+     */
+    public static QuantileSketch of(double[] values, double[] weights, int size) {
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.allocate(size);
+        for (int i = 0; i < size; i++) {
+            if (weights[i] <= 0)
+                continue;
+
+            int index = sketch.mNumCentroids++;
+            sketch.mMeans[index] = values[i];
+            sketch.mWeights[index] = weights[i];
+            sketch.mTotalWeight += weights[i];
+            sketch.mMin = Math.min(sketch.mMin, values[i]);
+            sketch.mMax = Math.max(sketch.mMax, values[i]);
+        }
+        sort(sketch.mMeans, sketch.mWeights, 0, sketch.mNumCentroids - 1);
+        return sketch;
+    }
+
+    /**
+     * Add a value with the specified weight to the sketch.
+     *
+     * @param value  the value to add.
+     * @param weight the weight of the value.
+     */
+    public void add(double value, double weight) {
+        if (weight <= 0 || Double.isNaN(value) || Double.isInfinite(value))
+            return;
+
+        if (mBufferValues == null)
+            expand();
+        else if (mBufferSize == mBufferValues.length)
+            compress();
+        mBufferValues[mBufferSize] = value;
+        mBufferWeights[mBufferSize] = weight;
+        mBufferSize++;
+        mTotalWeight += weight;
+        if (value < mMin)
+            mMin = value;
+        if (value > mMax)
+            mMax = value;
+    }
+
+    /**
+     * Add all the values of the specified sketch to this sketch.
+     *
+     * @param sketch the sketch to merge into this sketch.
+     */
+    public void merge(QuantileSketch sketch) {
+        for (int i = 0; i < sketch.mNumCentroids; i++) {
+            add(sketch.mMeans[i], sketch.mWeights[i]);
+        }
+        for (int i = 0; i < sketch.mBufferSize; i++) {
+            add(sketch.mBufferValues[i], sketch.mBufferWeights[i]);
+        }
+        if (sketch.mTotalWeight > 0) {
+            mMin = Math.min(mMin, sketch.mMin);
+            mMax = Math.max(mMax, sketch.mMax);
+        }
+    }
+
+    /**
+     * Return a copy of the sketch with all its values merged into the centroids, so that the copy
+     * can be queried without being modified. Like the other methods, it must not be called while
+     * values are added to the sketch.
+     *
+     * @return the copy of the sketch.
+     */
+    public QuantileSketch copy() {
+        QuantileSketch sketch = new QuantileSketch(mCompression);
+        int numCentroids = mNumCentroids;
+        sketch.allocate(numCentroids);
+        System.arraycopy(mMeans, 0, sketch.mMeans, 0, numCentroids);
+        System.arraycopy(mWeights, 0, sketch.mWeights, 0, numCentroids);
+        sketch.mNumCentroids = numCentroids;
+        int bufferSize = (mBufferValues != null) ? mBufferSize : 0;
+        if (bufferSize > 0) {
+            System.arraycopy(mBufferValues, 0, sketch.mBufferValues, 0, bufferSize);
+            System.arraycopy(mBufferWeights, 0, sketch.mBufferWeights, 0, bufferSize);
+        }
+        sketch.mBufferSize = bufferSize;
+        sketch.mTotalWeight = mTotalWeight;
+        sketch.mMin = mMin;
+        sketch.mMax = mMax;
+        sketch.compress();
+        return sketch;
+    }
+
+    /**
+     * Return the value below which the specified fraction of the weight of the sketch lies.
+     * Centroids that hold a single value are treated as exact, and the percentile is interpolated
+     * between the means of larger centroids.
+     *
+     * @param fraction the percentile as a fraction between 0 and 1.
+     * @return the value at the percentile or NaN if the sketch is empty.
+     */
+    public double getQuantile(double fraction) {
+        if (mBufferSize > 0)
+            compress();
+        int numCentroids = mNumCentroids;
+        if (numCentroids == 0)
+            return Double.NaN;
+
+        double index = Math.max(0, Math.min(1, fraction)) * mTotalWeight;
+        double weightSoFar = 0;
+        for (int i = 0; i < numCentroids; i++) {
+            double weight = mWeights[i];
+            double center = weightSoFar + weight / 2;
+            if (index < center) {
+                if (weight <= 1 && index >= weightSoFar)
+                    return mMeans[i];
+                if (i == 0)
+                    return mMin + (mMeans[0] - mMin) * index / center;
+                double previousWeight = mWeights[i - 1];
+                if (previousWeight <= 1 && index < weightSoFar)
+                    return mMeans[i - 1];
+                double previousCenter = weightSoFar - previousWeight / 2;
+                return mMeans[i - 1] + (mMeans[i] - mMeans[i - 1]) * (index - previousCenter) / (center - previousCenter);
+            }
+            weightSoFar += weight;
+        }
+
+        int last = numCentroids - 1;
+        if (mWeights[last] <= 1)
+            return mMeans[last];
+        double center = mTotalWeight - mWeights[last] / 2;
+        return mMeans[last] + (mMax - mMeans[last]) * (index - center) / (mTotalWeight - center);
+    }
+
+    /**
+     * Return the total weight of the values added to the sketch.
+     *
+     * @return the total weight of the sketch.
+     */
+    public double getTotalWeight() {
+        return mTotalWeight;
+    }
+
+    /**
+     * Return the number of centroids, merging the buffered values first.
+     *
+     * @return the number of centroids.
+     */
+    public int getNumCentroids() {
+        if (mBufferSize > 0)
+            compress();
+        return mNumCentroids;
+    }
+
+    /**
+     * Merge the buffered values into the centroids and release the memory that is only needed for
+     * adding values. Used for sketches that are no longer expected to change. The memory is
+     * allocated again if a value is added later.
+     */
+    public void trim() {
+        compress();
+        double[] means = new double[mNumCentroids];
+        double[] weights = new double[mNumCentroids];
+        System.arraycopy(mMeans, 0, means, 0, mNumCentroids);
+        System.arraycopy(mWeights, 0, weights, 0, mNumCentroids);
+        mMeans = means;
+        mWeights = weights;
+        mMergeMeans = null;
+        mMergeWeights = null;
+        mBufferValues = null;
+        mBufferWeights = null;
+    }
+
+    /**
+     * Remove all the values from the sketch.
+     */
+    public void reset() {
+        mNumCentroids = 0;
+        mBufferSize = 0;
+        mTotalWeight = 0;
+        mMin = Double.POSITIVE_INFINITY;
+        mMax = Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Merge the buffered values into the centroids. Neighbouring centroids are combined as long as
+     * the combined centroid spans at most one unit of the scale function, which limits the size of
+     * the centroids near the tails.
+     */
+    private void compress() {
+        if (mBufferSize == 0)
+            return;
+
+        sort(mBufferValues, mBufferWeights, 0, mBufferSize - 1);
+        double totalWeight = 0;
+        for (int i = 0; i < mNumCentroids; i++) {
+            totalWeight += mWeights[i];
+        }
+        for (int i = 0; i < mBufferSize; i++) {
+            totalWeight += mBufferWeights[i];
+        }
+
+        int centroid = 0;
+        int buffered = 0;
+        int numMerged = 0;
+        double weightSoFar = 0;
+        double mean = 0;
+        double weight = 0;
+        while (centroid < mNumCentroids || buffered < mBufferSize) {
+            double nextMean;
+            double nextWeight;
+            if (buffered >= mBufferSize || (centroid < mNumCentroids && mMeans[centroid] <= mBufferValues[buffered])) {
+                nextMean = mMeans[centroid];
+                nextWeight = mWeights[centroid++];
+            } else {
+                nextMean = mBufferValues[buffered];
+                nextWeight = mBufferWeights[buffered++];
+            }
+
+            if (weight > 0 && getScale((weightSoFar + weight + nextWeight) / totalWeight) - getScale(weightSoFar / totalWeight) <= 1) {
+                weight += nextWeight;
+                mean += (nextMean - mean) * nextWeight / weight;
+            } else {
+                if (weight > 0) {
+                    mMergeMeans[numMerged] = mean;
+                    mMergeWeights[numMerged++] = weight;
+                    weightSoFar += weight;
+                }
+                mean = nextMean;
+                weight = nextWeight;
+            }
+        }
+        mMergeMeans[numMerged] = mean;
+        mMergeWeights[numMerged++] = weight;
+
+        double[] means = mMeans;
+        mMeans = mMergeMeans;
+        mMergeMeans = means;
+        double[] weights = mWeights;
+        mWeights = mMergeWeights;
+        mMergeWeights = weights;
+        mNumCentroids = numMerged;
+        mBufferSize = 0;
+        mTotalWeight = totalWeight;
+    }
+
+    /**
+     * Return the scale function at the specified fraction of the weight, which maps the fractions
+     * so that the tails of the distribution span more units than the middle.
+     */
+    private double getScale(double fraction) {
+        return mCompression / (2 * Math.PI) * Math.asin(2 * Math.min(1, fraction) - 1);
+    }
+
+    /**
+     * Allocate the arrays of a trimmed sketch again, keeping its centroids.
+     */
+    private void expand() {
+        double[] means = mMeans;
+        double[] weights = mWeights;
+        allocate(mNumCentroids);
+        System.arraycopy(means, 0, mMeans, 0, mNumCentroids);
+        System.arraycopy(weights, 0, mWeights, 0, mNumCentroids);
+    }
+
+    /**
+     * Allocate the arrays of the sketch with room for at least the specified number of centroids.
+     */
+    private void allocate(int numCentroids) {
+        int bufferSize = DataConstants.QUANTILE_SKETCH_BUFFER_SIZE;
+        int capacity = Math.max(numCentroids, 2 * (int) Math.ceil(mCompression)) + bufferSize;
+        mMeans = new double[capacity];
+        mWeights = new double[capacity];
+        mMergeMeans = new double[capacity];
+        mMergeWeights = new double[capacity];
+        mBufferValues = new double[bufferSize];
+        mBufferWeights = new double[bufferSize];
+    }
+
+    /**
+     * Sort the specified range of the keys in ascending order, moving the values along with them.
+     */
+    private static void sort(double[] keys, double[] values, int low, int high) {
+        while (low < high) {
+            if (high - low < 8) {
+                for (int i = low + 1; i <= high; i++) {
+                    double key = keys[i];
+                    double value = values[i];
+                    int j = i - 1;
+                    while (j >= low && keys[j] > key) {
+                        keys[j + 1] = keys[j];
+                        values[j + 1] = values[j];
+                        j--;
+                    }
+                    keys[j + 1] = key;
+                    values[j + 1] = value;
+                }
+                return;
+            }
+
+            double pivot = keys[(low + high) >>> 1];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (keys[i] < pivot)
+                    i++;
+                while (keys[j] > pivot)
+                    j--;
+                if (i <= j) {
+                    double key = keys[i];
+                    keys[i] = keys[j];
+                    keys[j] = key;
+                    double value = values[i];
+                    values[i] = values[j];
+                    values[j] = value;
+                    i++;
+                    j--;
+                }
+            }
+            if (j - low < high - i) {
+                sort(keys, values, low, j);
+                low = i;
+            } else {
+                sort(keys, values, i, high);
+                high = j;
+            }
+        }
+    }
+
+    /**
+     * Write the centroids and the buffered values after the fields of the sketch.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        writeCentroids(out);
+    }
+
+    /**
+     * Read the centroids and the buffered values written by {@link #writeObject}. The sketch is
+     * read in its trimmed form and only allocates room for adding values once a value is added.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        readCentroids(in);
+    }
+
+    /**
+     * Write the sketch in the binary format read by {@link #readFrom(DataInput)}.
+     *
+     * @param out the output to write the sketch to.
+     * @throws IOException if the sketch can't be written.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeDouble(mCompression);
+        out.writeDouble(mTotalWeight);
+        out.writeDouble(mMin);
+        out.writeDouble(mMax);
+        writeCentroids(out);
+    }
+
+    /**
+     * Read a sketch written by {@link #writeTo(DataOutput)}.
+     *
+     * @param in the input to read the sketch from.
+     * @return the sketch.
+     * @throws IOException if the sketch can't be read.
+     */
+    public static QuantileSketch readFrom(DataInput in) throws IOException {
+        QuantileSketch sketch = new QuantileSketch(in.readDouble());
+        sketch.mTotalWeight = in.readDouble();
+        sketch.mMin = in.readDouble();
+        sketch.mMax = in.readDouble();
+        sketch.readCentroids(in);
+        return sketch;
+    }
+
+    /**
+     * Write the centroids and the buffered values.
+     */
+    private void writeCentroids(DataOutput out) throws IOException {
+        out.writeInt(mNumCentroids);
+        for (int i = 0; i < mNumCentroids; i++) {
+            out.writeDouble(mMeans[i]);
+            out.writeDouble(mWeights[i]);
+        }
+        out.writeInt(mBufferSize);
+        for (int i = 0; i < mBufferSize; i++) {
+            out.writeDouble(mBufferValues[i]);
+            out.writeDouble(mBufferWeights[i]);
+        }
+    }
+
+    /**
+     * Read the centroids and the buffered values written by {@link #writeCentroids}. The sketch is
+     * read in its trimmed form and only allocates room for adding values once a value is added.
+     */
+    private void readCentroids(DataInput in) throws IOException {
+        int numCentroids = in.readInt();
+        if (numCentroids < 0)
+            throw new IOException("Invalid number of centroids: " + numCentroids);
+        mMergeMeans = null;
+        mMergeWeights = null;
+        mBufferValues = null;
+        mBufferWeights = null;
+        mBufferSize = 0;
+        mMeans = new double[numCentroids];
+        mWeights = new double[numCentroids];
+        for (int i = 0; i < numCentroids; i++) {
+            mMeans[i] = in.readDouble();
+            mWeights[i] = in.readDouble();
+        }
+        mNumCentroids = numCentroids;
+        int bufferSize = in.readInt();
+        for (int i = 0; i < bufferSize; i++) {
+            if (mBufferValues == null)
+                expand();
+            else if (mBufferSize == mBufferValues.length)
+                compress();
+            mBufferValues[mBufferSize] = in.readDouble();
+            mBufferWeights[mBufferSize] = in.readDouble();
+            mBufferSize++;
+        }
+    }
+}
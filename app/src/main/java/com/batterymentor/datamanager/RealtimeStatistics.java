@@ -3,42 +3,96 @@ package com.batterymentor.datamanager;
 import com.batterymentor.constants.CollectionConstants;
 import com.batterymentor.constants.DataConstants;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.LinkedList;
-
 /**
  * Class representing statistics for a specified set of data. Manages the mean, median, spike
  * elimination, and other statistical aspects of the data.
+ *
+ * The recent data is kept in parallel primitive ring buffers of timestamps, values, and weights.
+ * The weighted sums of the full window and of the short window are maintained as points are added
+ * and evicted, so that both recent averages are constant time and adding a point doesn't allocate.
+ * The values are also kept in an {@link OrderStatisticsTree} indexed by the same slots, which the
+ * writer uses to publish the median after every update. Like the lifetime statistics, readers of
+ * the averages never lock and retry if the recent data is updated while they are reading it, and
+ * the writer copies the ring buffers and the bucket counts into the snapshot it publishes.
  */
 public class RealtimeStatistics extends Statistics {
 
     /**
-     * The global median of the data.
+     * The timestamps of the recent data.
+     */
+    private final long[] mTimestamps;
+
+    /**
+     * The y-values of the recent data.
      */
-    private double mMedian;
+    private final double[] mValues;
 
     /**
-     * The global average of the data.
+     * The weights of the recent data.
      */
-    private double mAverage;
+    private final double[] mWeights;
 
     /**
-     * Flag indicating that the median has already been calculated and no data has come in to
-     * change it.
+     * The index of the oldest point of the recent data.
      */
-    private boolean mMedianCalculated = false;
+    private volatile int mHead;
 
     /**
-     * Flag indicating that the adjusted average has already been calculated and no data has come
-     * int to change it.
+     * The number of points in the recent data.
      */
-    private boolean mAverageCalculated = false;
+    private volatile int mSize;
 
     /**
-     * The linked list of the most recent data points used for statistic calculation.
+     * The number of points in the short window used for the short recent average.
      */
-    private LinkedList<Point> mRecentData = new LinkedList<Point>();
+    private final int mShortSize;
+
+    /**
+     * The number of points added since the running sums were last recalculated from scratch.
+     */
+    private int mPointsSinceRecalculation;
+
+    /**
+     * The total weight of the recent data.
+     */
+    private volatile double mWeightSum;
+
+    /**
+     * The weighted sum of the converted values of the recent data.
+     */
+    private volatile double mWeightedSum;
+
+    /**
+     * The weighted sum of the squared converted values of the recent data.
+     */
+    private volatile double mWeightedSquareSum;
+
+    /**
+     * The total weight of the short window.
+     */
+    private volatile double mShortWeightSum;
+
+    /**
+     * The weighted sum of the converted values of the short window.
+     */
+    private volatile double mShortWeightedSum;
+
+    /**
+     * The median of the recent data, published by the writer after every update.
+     */
+    private volatile double mMedian;
+
+    /**
+     * The order statistics of the converted values of the recent data, indexed by the slots of the
+     * ring buffers. The values are converted before they are ordered, because the conversion of
+     * charger statistics reverses their order. Only accessed by the writer.
+     */
+    private final OrderStatisticsTree mOrderStatistics;
+
+    /**
+     * The weighted count of the recent data in each histogram bucket.
+     */
+    private final double[] mBucketCounts = new double[getBucketScheme().getNumBuckets()];
 
     /**
      * The lifetime statistics associated with this object.
@@ -46,7 +100,34 @@ public class RealtimeStatistics extends Statistics {
     public Statistics mLifetimeStatistics;
 
     public RealtimeStatistics(boolean chargerStatistics) {
-        super(chargerStatistics);
+        this(chargerStatistics, DataConstants.STATISTICS_RECENT_DATA_MAX_SIZE);
+    }
+
+    /**
+     * Create new realtime statistics with the specified capacity of recent data.
+     *
+     * @param chargerStatistics true if these statistics are related to the charger.
+     * @param capacity          the maximum number of points kept in the recent data.
+     */
+    public RealtimeStatistics(boolean chargerStatistics, int capacity) {
+        this(chargerStatistics, capacity, createDefaultBucketScheme());
+    }
+
+    /**
+     * Create new realtime statistics with the specified capacity of recent data and scheme of
+     * histogram buckets.
+     *
+     * @param chargerStatistics true if these statistics are related to the charger.
+     * @param capacity          the maximum number of points kept in the recent data.
+     * @param bucketScheme      the scheme of the histogram buckets.
+     */
+    public RealtimeStatistics(boolean chargerStatistics, int capacity, BucketScheme bucketScheme) {
+        super(chargerStatistics, bucketScheme);
+        mTimestamps = new long[capacity];
+        mValues = new double[capacity];
+        mWeights = new double[capacity];
+        mOrderStatistics = new OrderStatisticsTree(capacity);
+        mShortSize = Math.min(DataConstants.STATISTICS_RECENT_DATA_SIZE, capacity);
     }
 
     /**
@@ -56,103 +137,242 @@ public class RealtimeStatistics extends Statistics {
      * @param point the point to add to the statistics.
      */
     public void addPoint(Point point) {
-        if (point == null || Double.isInfinite(point.getY()))
+        addPoint(point, 1);
+    }
+
+    /**
+     * Add a point with the specified weight to the statistics. Remove the earliest point if the
+     * size of the queue is about the threshold.
+     *
+     * @param point  the point to add to the statistics.
+     * @param weight the number of collection intervals that the point represents.
+     */
+    public void addPoint(Point point, double weight) {
+        if (point == null)
+            return;
+
+        addValue((long) point.getX(), point.getY(), weight);
+    }
+
+    @Override
+    public void addValue(double y, double weight) {
+        addValue(System.currentTimeMillis(), y, weight);
+    }
+
+    /**
+     * Add a value with the specified timestamp and weight to the statistics. Remove the earliest
+     * point if the recent data is full. If the statistics are weighted by time, the weight is
+     * replaced by the time elapsed since the previous value.
+     *
+     * @param timestamp the time of the value in milliseconds.
+     * @param y         the y-value to add to the statistics.
+     * @param weight    the number of collection intervals that the value represents.
+     */
+    @Override
+    public synchronized void addValue(long timestamp, double y, double weight) {
+        if (Double.isInfinite(y))
             return;
 
-        synchronized (mRecentData) {
-            mRecentData.add(point);
-            if (mRecentData.size() > DataConstants.STATISTICS_RECENT_DATA_MAX_SIZE) {
-                mRecentData.removeFirst();
+        weight = getTimeWeight(timestamp, weight);
+        if (weight <= 0)
+            return;
+
+        beginWrite();
+        try {
+            int capacity = mValues.length;
+            int head = mHead;
+            int size = mSize;
+            double weightSum = mWeightSum;
+            double weightedSum = mWeightedSum;
+            double weightedSquareSum = mWeightedSquareSum;
+            double shortWeightSum = mShortWeightSum;
+            double shortWeightedSum = mShortWeightedSum;
+            if (size >= mShortSize) {
+                int leaving = (head + size - mShortSize) % capacity;
+                shortWeightSum -= mWeights[leaving];
+                shortWeightedSum -= convertValue(mValues[leaving]) * mWeights[leaving];
             }
-            mMedianCalculated = false;
-            mAverageCalculated = false;
-            super.addPoint(point);
+            if (size == capacity) {
+                double value = convertValue(mValues[head]);
+                double evictedWeight = mWeights[head];
+                weightSum -= evictedWeight;
+                weightedSum -= value * evictedWeight;
+                weightedSquareSum -= value * value * evictedWeight;
+                mOrderStatistics.remove(head);
+                mBucketCounts[getBucketScheme().getIndex(value)] -= evictedWeight;
+                head = (head + 1) % capacity;
+                size--;
+            }
+
+            int index = (head + size) % capacity;
+            mTimestamps[index] = timestamp;
+            mValues[index] = y;
+            mWeights[index] = weight;
+            double value = convertValue(y);
+            mOrderStatistics.insert(index, value, weight);
+            size++;
+
+            mWeightSum = weightSum + weight;
+            mWeightedSum = weightedSum + value * weight;
+            mWeightedSquareSum = weightedSquareSum + value * value * weight;
+            mShortWeightSum = shortWeightSum + weight;
+            mShortWeightedSum = shortWeightedSum + value * weight;
+            mBucketCounts[getBucketScheme().getIndex(value)] += weight;
+            mHead = head;
+            mSize = size;
+            if (++mPointsSinceRecalculation >= capacity)
+                recalculateSums();
+            mMedian = mOrderStatistics.selectByWeight(mOrderStatistics.getTotalWeight() *
+                    (1 - DataConstants.STATISTICS_PERCENT_OF_SPIKES_TO_DROP) / 2);
+
+            accumulateValue(y, weight);
+        } finally {
+            endWrite();
         }
     }
 
     /**
-     * Calculate the median of the recent data.
+     * Recalculate the running sums from scratch to discard the rounding error accumulated by
+     * subtracting evicted points.
+     */
+    private void recalculateSums() {
+        double weightSum = 0;
+        double weightedSum = 0;
+        double weightedSquareSum = 0;
+        double shortWeightSum = 0;
+        double shortWeightedSum = 0;
+        for (int i = 0; i < mBucketCounts.length; i++) {
+            mBucketCounts[i] = 0;
+        }
+        int size = mSize;
+        for (int i = 0; i < size; i++) {
+            int index = (mHead + i) % mValues.length;
+            double value = convertValue(mValues[index]);
+            double weight = mWeights[index];
+            weightSum += weight;
+            weightedSum += value * weight;
+            weightedSquareSum += value * value * weight;
+            mBucketCounts[getBucketScheme().getIndex(value)] += weight;
+            if (i >= size - mShortSize) {
+                shortWeightSum += weight;
+                shortWeightedSum += value * weight;
+            }
+        }
+        mWeightSum = weightSum;
+        mWeightedSum = weightedSum;
+        mWeightedSquareSum = weightedSquareSum;
+        mShortWeightSum = shortWeightSum;
+        mShortWeightedSum = shortWeightedSum;
+        mPointsSinceRecalculation = 0;
+    }
+
+    /**
+     * Return the median of the recent data. The spikes are trimmed by taking the point at
+     * {@link DataConstants#STATISTICS_PERCENT_OF_SPIKES_TO_DROP} below the middle of the data. Each
+     * point counts according to its weight.
      *
      * @return the median of the recent data.
      */
     public double getMedian() {
-        synchronized (mRecentData) {
-            if (!mMedianCalculated) {
-                ArrayList<Point> sortedRecentData = new ArrayList<Point>(mRecentData);
-                Collections.sort(sortedRecentData);
-                int size = sortedRecentData.size();
-                if (size > 0) {
-                    int nonSpikeMidpoint = (int) (size * (1 - DataConstants.STATISTICS_PERCENT_OF_SPIKES_TO_DROP) / 2);
-                    mMedian = convertValue(sortedRecentData.get(nonSpikeMidpoint).getY());
-                } else {
-                    mMedian = 0;
-                }
-                mMedianCalculated = true;
-            }
-        }
         return mMedian;
     }
 
+    /**
+     * Return the specified percentile of the y-values of the recent data, converted according to
+     * the type of statistics. Each point counts according to its weight. The percentile is taken
+     * from the copy of the recent data in the snapshot published by the writer.
+     *
+     * @param fraction the percentile as a fraction between 0 and 1.
+     * @return the percentile of the recent data or 0 if there is no recent data.
+     */
+    @Override
+    public double getPercentile(double fraction) {
+        return getSnapshot().getPercentile(fraction);
+    }
+
+    /**
+     * Copy the y-values and the weights of the recent data from the oldest to the newest. Must be
+     * called while holding the lock of the statistics.
+     *
+     * @param values  the array that receives the y-values.
+     * @param weights the array that receives the weights.
+     * @return the number of points copied.
+     */
+    private int copyRecentData(double[] values, double[] weights) {
+        int head = mHead;
+        int size = mSize;
+        for (int i = 0; i < size; i++) {
+            int index = (head + i) % mValues.length;
+            values[i] = mValues[index];
+            weights[i] = mWeights[index];
+        }
+        return size;
+    }
+
     /**
      * Calculate the average of the recent data.
      *
      * @return the average of the recent data.
      */
     public double getAverage() {
-        if (!mChargerStatistics) {
-            if (!isRealtimeDataReady() && mLifetimeStatistics != null)
-                return mLifetimeStatistics.getAverage();
-
-            synchronized (mRecentData) {
-                if (!mAverageCalculated) {
-                    mAverage = getFullRecentAverage();
-                    mAverageCalculated = true;
-                }
-            }
-        } else {
-            mAverage = getShortRecentAverage();
+        while (true) {
+            long sequence = beginRead();
+            int size = mSize;
+            double weightedSum = (mChargerStatistics) ? mShortWeightedSum : mWeightedSum;
+            double weightSum = (mChargerStatistics) ? mShortWeightSum : mWeightSum;
+            if (validateRead(sequence))
+                return getAverage(size, weightedSum, weightSum);
         }
-        return mAverage;
     }
 
     /**
-     * Return the average using a short portion of recent data.
+     * Return the average of the recent data from the specified sums, falling back to the lifetime
+     * statistics if the realtime data isn't ready.
      */
-    private double getShortRecentAverage() {
-        if (mRecentData.isEmpty())
+    private double getAverage(int size, double weightedSum, double weightSum) {
+        if (!mChargerStatistics && !isRealtimeDataReady(size) && mLifetimeStatistics != null)
+            return mLifetimeStatistics.getAverage();
+        if (size == 0)
             return Double.POSITIVE_INFINITY;
 
-        double recentAverage = 0;
-        synchronized (mRecentData) {
-            if (mRecentData.size() > 0) {
-                int recentSize = Math.min(mRecentData.size(), DataConstants.STATISTICS_RECENT_DATA_SIZE) ;
-                for (int i = mRecentData.size() - 1; i > mRecentData.size() - recentSize - 1; i--) {
-                    double value = convertValue(mRecentData.get(i).getY());
-                    recentAverage += value;
-                }
-                recentAverage = recentAverage / recentSize;
-            }
-        }
-        return recentAverage;
+        return weightedSum / weightSum;
     }
 
     /**
      * Return the average using a full portion of recent data.
      */
     public double getFullRecentAverage() {
-        if (mRecentData.isEmpty())
-            return Double.POSITIVE_INFINITY;
+        while (true) {
+            long sequence = beginRead();
+            int size = mSize;
+            double weightedSum = mWeightedSum;
+            double weightSum = mWeightSum;
+            if (validateRead(sequence))
+                return (size > 0) ? weightedSum / weightSum : Double.POSITIVE_INFINITY;
+        }
+    }
+
+    /**
+     * Return the weighted standard deviation of the recent data.
+     *
+     * @return the standard deviation of the recent data or 0 if there is no recent data.
+     */
+    public double getRecentStandardDeviation() {
+        while (true) {
+            long sequence = beginRead();
+            int size = mSize;
+            double weightedSum = mWeightedSum;
+            double weightedSquareSum = mWeightedSquareSum;
+            double weightSum = mWeightSum;
+            if (validateRead(sequence)) {
+                if (size == 0)
+                    return 0;
 
-        double recentAverage = 0;
-        synchronized (mRecentData) {
-            if (mRecentData.size() > 0) {
-                for (Point point : mRecentData) {
-                    recentAverage += convertValue(point.getY());
-                }
-                recentAverage = recentAverage / mRecentData.size();
+                double average = weightedSum / weightSum;
+                double variance = weightedSquareSum / weightSum - average * average;
+                return (variance > 0) ? Math.sqrt(variance) : 0;
             }
         }
-        return recentAverage;
     }
 
     /**
@@ -168,10 +388,11 @@ public class RealtimeStatistics extends Statistics {
      * Return true if the realtime data is ready, false otherwise. Realtime data is deemed to be
      * ready if the number of points is above a certain threshold.
      *
+     * @param size the size of the recent data.
      * @return true if the realtime data is ready, false otherwise
      */
-    private boolean isRealtimeDataReady() {
-        return getSize() > CollectionConstants.REALTIME_STATISTICS_VALID_POINT_THRESHOLD;
+    private static boolean isRealtimeDataReady(int size) {
+        return size > CollectionConstants.REALTIME_STATISTICS_VALID_POINT_THRESHOLD;
     }
 
     /**
@@ -180,36 +401,47 @@ public class RealtimeStatistics extends Statistics {
      * @return the size of the recent data.
      */
     public int getSize() {
-        int size;
-        synchronized (mRecentData) {
-            size = mRecentData.size();
-        }
-        return size;
+        return mSize;
     }
 
+    /**
+     * Create a snapshot of the recent data while holding the lock of the statistics. The histogram
+     * is created from the bucket counts that are maintained as points are added and evicted, and
+     * the percentiles from a copy of the recent data.
+     */
     @Override
-    public HistogramPoint[] getHistogramData() {
-        HistogramPoint[] histogramData = new HistogramPoint[DataConstants.HISTOGRAM_NUM_BUCKETS - 1];
-        for (int i = 0; i < histogramData.length - 1; i++) {
-            double minX = DataConstants.HISTOGRAM_MIN_POWER + i * DataConstants.HISTOGRAM_BUCKET_RANGE;
-            double maxX = minX + DataConstants.HISTOGRAM_BUCKET_RANGE;
-            histogramData[i] = new HistogramPoint(minX, maxX, 0);
+    protected StatisticsSnapshot createSnapshot(long version) {
+        double[] counts = new double[mBucketCounts.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = Math.max(0, mBucketCounts[i]);
         }
-        double maxX = DataConstants.HISTOGRAM_MAX_POWER;
-        histogramData[histogramData.length - 1] = new HistogramPoint(maxX, maxX, 0);
-        synchronized (mRecentData) {
-            for (Point point : mRecentData) {
-                double value = convertValue(point.getY());
-                int index = (int)((value - DataConstants.HISTOGRAM_MIN_POWER) / DataConstants.HISTOGRAM_BUCKET_RANGE);
-                if (index < 0)
-                    index = 0;
-                else if (index >= histogramData.length)
-                    index = histogramData.length - 1;
-
-                histogramData[index].y++;
-            }
+        int size = mSize;
+        double weightedSum = (mChargerStatistics) ? mShortWeightedSum : mWeightedSum;
+        double weightSum = (mChargerStatistics) ? mShortWeightSum : mWeightSum;
+        return new StatisticsSnapshot(version, getValue(), getAverage(size, weightedSum, weightSum), getMin(), getMax(),
+                getTotal(), getNumPoints(), getWeight(size), createHistogramData(counts), copyQuantileSketch());
+    }
+
+    /**
+     * The percentiles are taken from the recent data, so no sketch is kept.
+     */
+    @Override
+    protected boolean isQuantileSketchKept() {
+        return false;
+    }
+
+    /**
+     * Return a sketch that holds each converted value of the recent data exactly.
+     */
+    @Override
+    protected QuantileSketch copyQuantileSketch() {
+        double[] values = new double[mValues.length];
+        double[] weights = new double[mValues.length];
+        int size = copyRecentData(values, weights);
+        for (int i = 0; i < size; i++) {
+            values[i] = convertValue(values[i]);
         }
-        return histogramData;
+        return QuantileSketch.of(values, weights, size);
     }
 
     /**
@@ -218,7 +450,7 @@ public class RealtimeStatistics extends Statistics {
      * @return the maximum size of the recent data.
      */
     public int getMaximumSize() {
-        return DataConstants.STATISTICS_RECENT_DATA_MAX_SIZE;
+        return mValues.length;
     }
 
     /**
@@ -229,20 +461,35 @@ public class RealtimeStatistics extends Statistics {
      * @return the weight of this statistics instance.
      */
     public double getWeight() {
-        if (!isRealtimeDataReady())
+        return getWeight(getSize());
+    }
+
+    /**
+     * Return the weight of realtime statistics with the specified size of recent data.
+     */
+    private double getWeight(int size) {
+        if (!isRealtimeDataReady(size))
             return 0d;
 
-        return (getSize() / (double)(getMaximumSize()) * DataConstants.REALTIME_STATISTICS_MAX_WEIGHT);
+        return (size / (double)(getMaximumSize()) * DataConstants.REALTIME_STATISTICS_MAX_WEIGHT);
     }
 
     @Override
-    public void reset() {
-        mAverageCalculated = false;
-        mMedianCalculated = false;
-        synchronized (mRecentData) {
-            mRecentData.clear();
+    protected void clear() {
+        mOrderStatistics.clear();
+        for (int i = 0; i < mBucketCounts.length; i++) {
+            mBucketCounts[i] = 0;
         }
-        super.reset();
+        mHead = 0;
+        mSize = 0;
+        mPointsSinceRecalculation = 0;
+        mWeightSum = 0;
+        mWeightedSum = 0;
+        mWeightedSquareSum = 0;
+        mShortWeightSum = 0;
+        mShortWeightedSum = 0;
+        mMedian = 0;
+        super.clear();
     }
 
     public void setLifetimeStatistics(Statistics lifetimeStatistics) {
@@ -0,0 +1,174 @@
+package com.batterymentor.datamanager;
+
+import com.batterymentor.constants.DataConstants;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Class representing the summary of the values that fall in a period of time. Buckets are
+ * mergeable, so the summary of a longer period is the merge of the buckets of the periods it
+ * consists of.
+ */
+public class RollupBucket {
+
+    /**
+     * The total weight of the values.
+     */
+    private double mWeight;
+
+    /**
+     * The weighted sum of the values.
+     */
+    private double mSum;
+
+    /**
+     * The minimum value.
+     */
+    private double mMin = Double.POSITIVE_INFINITY;
+
+    /**
+     * The maximum value.
+     */
+    private double mMax = Double.NEGATIVE_INFINITY;
+
+    /**
+     * The sketch of the distribution of the values.
+     */
+    private QuantileSketch mSketch = new QuantileSketch(DataConstants.ROLLUP_SKETCH_COMPRESSION);
+
+    /**
+     * The version of the rollups when a value was last added to the bucket.
+     */
+    transient long mVersion;
+
+    /**
+     * Add a value with the specified weight to the bucket.
+     *
+     * @param value  the value to add.
+     * @param weight the weight of the value.
+     */
+    public void add(double value, double weight) {
+        if (weight <= 0)
+            return;
+
+        mWeight += weight;
+        mSum += value * weight;
+        if (value < mMin)
+            mMin = value;
+        if (value > mMax)
+            mMax = value;
+        mSketch.add(value, weight);
+    }
+
+    /**
+     * Add the values of the specified bucket to this bucket.
+     *
+     * @param bucket the bucket to merge into this bucket.
+     */
+    public void merge(RollupBucket bucket) {
+        if (bucket == null || bucket.mWeight <= 0)
+            return;
+
+        mWeight += bucket.mWeight;
+        mSum += bucket.mSum;
+        mMin = Math.min(mMin, bucket.mMin);
+        mMax = Math.max(mMax, bucket.mMax);
+        mSketch.merge(bucket.mSketch);
+    }
+
+    /**
+     * Return a copy of the bucket that values can be added to without changing this bucket.
+     *
+     * @return the copy of the bucket.
+     */
+    public RollupBucket copy() {
+        RollupBucket bucket = new RollupBucket();
+        bucket.mWeight = mWeight;
+        bucket.mSum = mSum;
+        bucket.mMin = mMin;
+        bucket.mMax = mMax;
+        bucket.mSketch = mSketch.copy();
+        bucket.mVersion = mVersion;
+        return bucket;
+    }
+
+    /**
+     * Release the memory that is only needed for adding values, once the period of the bucket has
+     * passed.
+     */
+    public void trim() {
+        mSketch.trim();
+    }
+
+    /**
+     * Return the average of the values in the bucket.
+     *
+     * @return the average of the values or positive infinity if the bucket is empty.
+     */
+    public double getAverage() {
+        if (mWeight > 0)
+            return mSum / mWeight;
+
+        return Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Return the specified percentile of the values in the bucket.
+     *
+     * @param fraction the percentile as a fraction between 0 and 1.
+     * @return the percentile of the values or 0 if the bucket is empty.
+     */
+    public double getPercentile(double fraction) {
+        double percentile = mSketch.getQuantile(fraction);
+        return Double.isNaN(percentile) ? 0 : percentile;
+    }
+
+    /**
+     * Write the bucket in the binary format read by {@link #readFrom(DataInput)}.
+     *
+     * @param out the output to write the bucket to.
+     * @throws IOException if the bucket can't be written.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeDouble(mWeight);
+        out.writeDouble(mSum);
+        out.writeDouble(mMin);
+        out.writeDouble(mMax);
+        mSketch.writeTo(out);
+    }
+
+    /**
+     * Read a bucket written by {@link #writeTo(DataOutput)}.
+     *
+     * @param in the input to read the bucket from.
+     * @return the bucket.
+     * @throws IOException if the bucket can't be read.
+     */
+    public static RollupBucket readFrom(DataInput in) throws IOException {
+        RollupBucket bucket = new RollupBucket();
+        bucket.mWeight = in.readDouble();
+        bucket.mSum = in.readDouble();
+        bucket.mMin = in.readDouble();
+        bucket.mMax = in.readDouble();
+        bucket.mSketch = QuantileSketch.readFrom(in);
+        return bucket;
+    }
+
+    public double getWeight() {
+        return mWeight;
+    }
+
+    public double getSum() {
+        return mSum;
+    }
+
+    public double getMin() {
+        return mMin;
+    }
+
+    public double getMax() {
+        return mMax;
+    }
+}
@@ -0,0 +1,533 @@
+package com.batterymentor.datamanager;
+
+import com.batterymentor.constants.Constants;
+import com.batterymentor.constants.DataConstants;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.TimeZone;
+
+/**
+ * Class representing the history of a value at several resolutions. Every value is added to a
+ * per-minute bucket that is kept for the last day, a per-hour bucket that is kept for the last
+ * month, and a per-day bucket that is kept forever, all aligned to the local time. The values
+ * themselves aren't kept, so the memory used only grows by one bucket per day. The summary of any
+ * period is answered by merging the coarsest buckets that cover it.
+ *
+ * Only the newest bucket of each resolution is changed in place. A value added to an older bucket
+ * replaces it with a changed copy, so older buckets can be shared with {@link Changes} without
+ * being copied.
+ */
+public class Rollups {
+
+    /**
+     * The tier of the per-minute buckets in the binary format.
+     */
+    private static final int TIER_MINUTES = 0;
+
+    /**
+     * The tier of the per-hour buckets in the binary format.
+     */
+    private static final int TIER_HOURS = 1;
+
+    /**
+     * The tier of the per-day buckets in the binary format.
+     */
+    private static final int TIER_DAYS = 2;
+
+    /**
+     * The per-minute buckets.
+     */
+    private final Tier mMinutes = new Tier(Constants.MINUTE, DataConstants.ROLLUP_MINUTE_BUCKETS);
+
+    /**
+     * The per-hour buckets.
+     */
+    private final Tier mHours = new Tier(Constants.HOUR, DataConstants.ROLLUP_HOUR_BUCKETS);
+
+    /**
+     * The per-day buckets, starting from the first day, or null for days without values.
+     */
+    private final ArrayList<RollupBucket> mDays = new ArrayList<RollupBucket>();
+
+    /**
+     * The index of the first day.
+     */
+    private long mFirstDay;
+
+    /**
+     * The index of the latest day that a value was added to.
+     */
+    private long mNewestDay = Long.MIN_VALUE;
+
+    /**
+     * The time zone used for aligning the buckets.
+     */
+    private TimeZone mTimeZone;
+
+    /**
+     * The version of the rollups, incremented whenever they are updated.
+     */
+    private volatile long mVersion;
+
+    /**
+     * The version of the rollups when they were last reset.
+     */
+    private long mResetVersion;
+
+    public Rollups() {
+    }
+
+    /**
+     * Create new rollups aligned to the specified time zone.
+     *
+     * @param timeZone the time zone used for aligning the buckets.
+     */
+    public Rollups(TimeZone timeZone) {
+        mTimeZone = timeZone;
+    }
+
+    /**
+     * Add a value with the specified weight at the specified time.
+     *
+     * @param time   the time of the value in milliseconds since the epoch.
+     * @param value  the value to add.
+     * @param weight the weight of the value.
+     */
+    public synchronized void add(long time, double value, double weight) {
+        if (weight <= 0 || Double.isNaN(value) || Double.isInfinite(value))
+            return;
+
+        long version = mVersion + 1;
+        long localTime = toLocalTime(time);
+        mMinutes.add(localTime, value, weight, version);
+        mHours.add(localTime, value, weight, version);
+
+        long day = floorDiv(localTime, Constants.DAY);
+        if (day > mNewestDay) {
+            RollupBucket newest = getDay(mNewestDay);
+            if (newest != null)
+                newest.trim();
+        }
+        int index = getDayIndex(day);
+        RollupBucket bucket = mDays.get(index);
+        if (bucket == null) {
+            bucket = new RollupBucket();
+            mDays.set(index, bucket);
+        } else if (day < mNewestDay) {
+            bucket = bucket.copy();
+            mDays.set(index, bucket);
+        }
+        bucket.add(value, weight);
+        bucket.mVersion = version;
+        if (day < mNewestDay)
+            bucket.trim();
+        mVersion = version;
+    }
+
+    /**
+     * Return the summary of the values between the specified times. The period is covered by the
+     * coarsest buckets that fit in it. Where the finest bucket that is still kept extends past the
+     * period, the whole bucket is included.
+     *
+     * @param startTime the start of the period in milliseconds since the epoch.
+     * @param endTime   the end of the period in milliseconds since the epoch.
+     * @return the summary of the values in the period.
+     */
+    public synchronized RollupBucket query(long startTime, long endTime) {
+        RollupBucket result = new RollupBucket();
+        long time = toLocalTime(startTime);
+        long end = toLocalTime(endTime);
+        while (time < end) {
+            long day = floorDiv(time, Constants.DAY);
+            long hour = floorDiv(time, Constants.HOUR);
+            long minute = floorDiv(time, Constants.MINUTE);
+            if (time == day * Constants.DAY && time + Constants.DAY <= end) {
+                result.merge(getDay(day));
+                time += Constants.DAY;
+            } else if (time == hour * Constants.HOUR && time + Constants.HOUR <= end && mHours.contains(hour)) {
+                result.merge(mHours.get(hour));
+                time += Constants.HOUR;
+            } else if (mMinutes.contains(minute)) {
+                result.merge(mMinutes.get(minute));
+                time = (minute + 1) * Constants.MINUTE;
+            } else if (mHours.contains(hour)) {
+                result.merge(mHours.get(hour));
+                time = (hour + 1) * Constants.HOUR;
+            } else {
+                result.merge(getDay(day));
+                time = (day + 1) * Constants.DAY;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Remove all the values.
+     */
+    public synchronized void reset() {
+        mMinutes.reset();
+        mHours.reset();
+        mDays.clear();
+        mNewestDay = Long.MIN_VALUE;
+        mVersion++;
+        mResetVersion = mVersion;
+    }
+
+    /**
+     * Return the version of the rollups. The version changes whenever the rollups are updated.
+     *
+     * @return the version of the rollups.
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Return the version of the rollups when they were last reset, which is 0 if they were never
+     * reset. Buckets removed by a reset aren't part of the changes written by
+     * {@link #writeChangesTo(DataOutput, long)}.
+     *
+     * @return the version of the rollups when they were last reset.
+     */
+    public synchronized long getResetVersion() {
+        return mResetVersion;
+    }
+
+    /**
+     * Write all the buckets in the binary format read by {@link #readFrom(DataInput)}.
+     *
+     * @param out the output to write the buckets to.
+     * @throws IOException if the buckets can't be written.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        copyChanges(Long.MIN_VALUE).writeTo(out);
+    }
+
+    /**
+     * Write the buckets that values were added to since the specified version, in the binary
+     * format read by {@link #readChangesFrom(DataInput)}.
+     *
+     * @param out     the output to write the buckets to.
+     * @param version the version of the rollups that the changes are relative to.
+     * @throws IOException if the buckets can't be written.
+     */
+    public void writeChangesTo(DataOutput out, long version) throws IOException {
+        copyChanges(version).writeTo(out);
+    }
+
+    /**
+     * Return a copy of the buckets that values were added to since the specified version, which
+     * can be written after values are added to the rollups. Only the newest buckets are copied,
+     * the older ones are shared since they are never changed in place.
+     *
+     * @param version the version of the rollups that the changes are relative to, or
+     *                {@link Long#MIN_VALUE} for all the buckets.
+     * @return the copy of the changed buckets.
+     */
+    public synchronized Changes copyChanges(long version) {
+        int count = mMinutes.count(version) + mHours.count(version);
+        for (RollupBucket bucket : mDays) {
+            if (bucket != null && bucket.mVersion > version)
+                count++;
+        }
+        Changes changes = new Changes(count);
+        mMinutes.copy(changes, TIER_MINUTES, version);
+        mHours.copy(changes, TIER_HOURS, version);
+        for (int i = 0; i < mDays.size(); i++) {
+            RollupBucket bucket = mDays.get(i);
+            if (bucket != null && bucket.mVersion > version) {
+                long day = mFirstDay + i;
+                changes.add(TIER_DAYS, day, (day == mNewestDay) ? bucket.copy() : bucket);
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Read rollups written by {@link #writeTo(DataOutput)}.
+     *
+     * @param in the input to read the buckets from.
+     * @return the rollups.
+     * @throws IOException if the buckets can't be read.
+     */
+    public static Rollups readFrom(DataInput in) throws IOException {
+        Rollups rollups = new Rollups();
+        rollups.readChangesFrom(in);
+        return rollups;
+    }
+
+    /**
+     * Read buckets written by {@link #writeChangesTo(DataOutput, long)}, replacing the buckets of
+     * the same periods.
+     *
+     * @param in the input to read the buckets from.
+     * @throws IOException if the buckets can't be read.
+     */
+    public synchronized void readChangesFrom(DataInput in) throws IOException {
+        int count = in.readInt();
+        if (count < 0)
+            throw new IOException("Invalid number of buckets: " + count);
+        for (int i = 0; i < count; i++) {
+            int tier = in.readByte();
+            long index = in.readLong();
+            RollupBucket bucket = RollupBucket.readFrom(in);
+            switch (tier) {
+                case TIER_MINUTES:
+                    mMinutes.put(index, bucket);
+                    break;
+                case TIER_HOURS:
+                    mHours.put(index, bucket);
+                    break;
+                case TIER_DAYS:
+                    mDays.set(getDayIndex(index), bucket);
+                    break;
+                default:
+                    throw new IOException("Invalid tier of bucket: " + tier);
+            }
+        }
+        mVersion++;
+    }
+
+    /**
+     * Return the position of the specified day in the list of days, extending the list to it.
+     */
+    private int getDayIndex(long day) {
+        if (mDays.isEmpty())
+            mFirstDay = day;
+        while (day < mFirstDay) {
+            mDays.add(0, null);
+            mFirstDay--;
+        }
+        while (day - mFirstDay >= mDays.size()) {
+            mDays.add(null);
+        }
+        if (day > mNewestDay)
+            mNewestDay = day;
+        return (int) (day - mFirstDay);
+    }
+
+    /**
+     * Return the bucket of the specified day or null if there is none.
+     */
+    private RollupBucket getDay(long day) {
+        long index = day - mFirstDay;
+        if (index < 0 || index >= mDays.size())
+            return null;
+
+        return mDays.get((int) index);
+    }
+
+    /**
+     * Convert the specified time since the epoch to the local time.
+     */
+    private long toLocalTime(long time) {
+        if (mTimeZone == null)
+            mTimeZone = TimeZone.getDefault();
+        return time + mTimeZone.getOffset(time);
+    }
+
+    /**
+     * Return the largest integer that is less than or equal to the quotient.
+     */
+    private static long floorDiv(long dividend, long divisor) {
+        long quotient = dividend / divisor;
+        if ((dividend % divisor != 0) && ((dividend < 0) != (divisor < 0)))
+            quotient--;
+        return quotient;
+    }
+
+    /**
+     * Class representing the buckets of a single resolution that are kept for a limited time, in a
+     * ring indexed by the index of the bucket.
+     */
+    private static class Tier {
+
+        /**
+         * The duration of each bucket in milliseconds.
+         */
+        private final long mDuration;
+
+        /**
+         * The ring of buckets.
+         */
+        private final RollupBucket[] mBuckets;
+
+        /**
+         * The index of the bucket held in each slot of the ring.
+         */
+        private final long[] mIndices;
+
+        /**
+         * The index of the latest bucket that a value was added to.
+         */
+        private long mNewestIndex = Long.MIN_VALUE;
+
+        Tier(long duration, int numBuckets) {
+            mDuration = duration;
+            mBuckets = new RollupBucket[numBuckets];
+            mIndices = new long[numBuckets];
+        }
+
+        /**
+         * Add a value to the bucket of the specified local time, unless the bucket is no longer
+         * kept, and mark the bucket with the specified version of the rollups.
+         */
+        void add(long localTime, double value, double weight, long version) {
+            long index = floorDiv(localTime, mDuration);
+            if (mNewestIndex != Long.MIN_VALUE && index <= mNewestIndex - mBuckets.length)
+                return;
+
+            if (index > mNewestIndex) {
+                RollupBucket newest = get(mNewestIndex);
+                if (newest != null)
+                    newest.trim();
+                mNewestIndex = index;
+            }
+            int slot = getSlot(index);
+            if (mBuckets[slot] == null || mIndices[slot] != index) {
+                mBuckets[slot] = new RollupBucket();
+                mIndices[slot] = index;
+            } else if (index < mNewestIndex) {
+                mBuckets[slot] = mBuckets[slot].copy();
+            }
+            mBuckets[slot].add(value, weight);
+            mBuckets[slot].mVersion = version;
+            if (index < mNewestIndex)
+                mBuckets[slot].trim();
+        }
+
+        /**
+         * Put the specified bucket at the specified index, unless the bucket is no longer kept.
+         */
+        void put(long index, RollupBucket bucket) {
+            if (mNewestIndex != Long.MIN_VALUE && index <= mNewestIndex - mBuckets.length)
+                return;
+
+            if (index > mNewestIndex)
+                mNewestIndex = index;
+            int slot = getSlot(index);
+            mBuckets[slot] = bucket;
+            mIndices[slot] = index;
+        }
+
+        /**
+         * Return the number of kept buckets that values were added to after the specified
+         * version.
+         */
+        int count(long version) {
+            int count = 0;
+            for (int slot = 0; slot < mBuckets.length; slot++) {
+                if (mBuckets[slot] != null && mBuckets[slot].mVersion > version && contains(mIndices[slot]))
+                    count++;
+            }
+            return count;
+        }
+
+        /**
+         * Add the kept buckets that values were added to after the specified version to the
+         * specified changes, copying the newest bucket.
+         */
+        void copy(Changes changes, int tier, long version) {
+            for (int slot = 0; slot < mBuckets.length; slot++) {
+                if (mBuckets[slot] != null && mBuckets[slot].mVersion > version && contains(mIndices[slot])) {
+                    long index = mIndices[slot];
+                    changes.add(tier, index, (index == mNewestIndex) ? mBuckets[slot].copy() : mBuckets[slot]);
+                }
+            }
+        }
+
+        /**
+         * Return true if the bucket with the specified index would still be kept if it had any
+         * values.
+         */
+        boolean contains(long index) {
+            return mNewestIndex != Long.MIN_VALUE && index <= mNewestIndex && index > mNewestIndex - mBuckets.length;
+        }
+
+        /**
+         * Return the bucket with the specified index or null if it isn't kept or has no values.
+         */
+        RollupBucket get(long index) {
+            if (!contains(index))
+                return null;
+
+            int slot = getSlot(index);
+            return (mIndices[slot] == index) ? mBuckets[slot] : null;
+        }
+
+        void reset() {
+            for (int i = 0; i < mBuckets.length; i++) {
+                mBuckets[i] = null;
+            }
+            mNewestIndex = Long.MIN_VALUE;
+        }
+
+        private int getSlot(long index) {
+            int slot = (int) (index % mBuckets.length);
+            return (slot < 0) ? slot + mBuckets.length : slot;
+        }
+    }
+
+    /**
+     * Class representing a copy of buckets of the rollups, which doesn't change when values are
+     * added to the rollups afterwards.
+     */
+    public static class Changes {
+
+        /**
+         * The tier of each bucket.
+         */
+        private final int[] mTiers;
+
+        /**
+         * The index of each bucket in its tier.
+         */
+        private final long[] mIndices;
+
+        /**
+         * The buckets.
+         */
+        private final RollupBucket[] mBuckets;
+
+        /**
+         * The number of buckets added so far.
+         */
+        private int mSize;
+
+        Changes(int numBuckets) {
+            mTiers = new int[numBuckets];
+            mIndices = new long[numBuckets];
+            mBuckets = new RollupBucket[numBuckets];
+        }
+
+        void add(int tier, long index, RollupBucket bucket) {
+            mTiers[mSize] = tier;
+            mIndices[mSize] = index;
+            mBuckets[mSize] = bucket;
+            mSize++;
+        }
+
+        /**
+         * Write the number of buckets followed by the tier, the index, and the contents of each
+         * bucket, in the binary format read by {@link Rollups#readChangesFrom(DataInput)}.
+         *
+         * @param out the output to write the buckets to.
+         * @throws IOException if the buckets can't be written.
+         */
+        public void writeTo(DataOutput out) throws IOException {
+            out.writeInt(mSize);
+            for (int i = 0; i < mSize; i++) {
+                out.writeByte(mTiers[i]);
+                out.writeLong(mIndices[i]);
+                mBuckets[i].writeTo(out);
+            }
+        }
+
+        public int getNumBuckets() {
+            return mSize;
+        }
+    }
+}
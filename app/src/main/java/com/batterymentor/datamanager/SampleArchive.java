@@ -0,0 +1,198 @@
+package com.batterymentor.datamanager;
+
+import com.batterymentor.constants.DataConstants;
+import com.batterymentor.debug.Debug;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Class representing the compressed archive of a sealed {@link SampleSegment}. The times and the
+ * values of the samples are encoded with a {@link GorillaEncoder}, which takes a few bits per
+ * sample for regularly sampled power measurements instead of the fixed width records of the
+ * segment, and the flags are encoded separately as runs of equal flags, since they rarely change.
+ * The archive is immutable once written, and only its time range and number of samples are kept in
+ * memory. The samples are decoded from the file when they are read.
+ */
+public class SampleArchive implements SampleBlock {
+
+    /**
+     * The file of the archive.
+     */
+    private final File mFile;
+
+    /**
+     * The number of samples in the archive.
+     */
+    private final int mCount;
+
+    /**
+     * The earliest time of a sample in the archive.
+     */
+    private final long mMinTime;
+
+    /**
+     * The latest time of a sample in the archive.
+     */
+    private final long mMaxTime;
+
+    private SampleArchive(File file, int count, long minTime, long maxTime) {
+        mFile = file;
+        mCount = count;
+        mMinTime = minTime;
+        mMaxTime = maxTime;
+    }
+
+    /**
+     * Compress the samples of the specified sealed segment into the specified file.
+     *
+     * @param segment the segment to compress.
+     * @param file    the file of the archive, which is replaced atomically.
+     * @return the archive or null if it couldn't be written.
+     */
+    public static SampleArchive write(SampleSegment segment, File file) {
+        int count = segment.getCount();
+        GorillaEncoder encoder = new GorillaEncoder();
+        ByteArrayOutputStream runBytes = new ByteArrayOutputStream();
+        DataOutputStream runs = new DataOutputStream(runBytes);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            int runCount = 0;
+            int runLength = 0;
+            int runFlags = 0;
+            for (int i = 0; i < count; i++) {
+                encoder.append(segment.getTimestamp(i), segment.getValue(i));
+                int flags = segment.getFlags(i);
+                if (runLength > 0 && flags != runFlags) {
+                    runs.writeInt(runLength);
+                    runs.writeShort(runFlags);
+                    runCount++;
+                    runLength = 0;
+                }
+                runFlags = flags;
+                runLength++;
+            }
+            if (runLength > 0) {
+                runs.writeInt(runLength);
+                runs.writeShort(runFlags);
+                runCount++;
+            }
+
+            out.writeInt(count);
+            out.writeLong(segment.getMinTime());
+            out.writeLong(segment.getMaxTime());
+            out.writeInt(runCount);
+            runBytes.writeTo(out);
+            byte[] samples = encoder.toByteArray();
+            out.writeInt(samples.length);
+            out.write(samples);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        if (!BinaryFormat.writeFile(file, BinaryFormat.TYPE_SAMPLE_ARCHIVE, DataConstants.SAMPLE_ARCHIVE_FORMAT_VERSION, bytes.toByteArray()))
+            return null;
+
+        return new SampleArchive(file, count, segment.getMinTime(), segment.getMaxTime());
+    }
+
+    /**
+     * Open the archive in the specified file.
+     *
+     * @param file the file of the archive.
+     * @return the archive or null if the file isn't a valid archive.
+     */
+    public static SampleArchive open(File file) {
+        try {
+            DataInputStream in = readPayload(file);
+            return new SampleArchive(file, in.readInt(), in.readLong(), in.readLong());
+        } catch (IOException e) {
+            if (Debug.isCollectionManagerLoggingEnabled())
+                Debug.printDebug(e);
+            return null;
+        }
+    }
+
+    /**
+     * Read the payload of the specified archive file, verifying its type and its version.
+     */
+    private static DataInputStream readPayload(File file) throws IOException {
+        byte[] bytes = BinaryFormat.readFile(file);
+        if (bytes == null)
+            throw new IOException("Can't read sample archive " + file);
+
+        BinaryFormat.Record record = BinaryFormat.decode(bytes);
+        if (record.getType() != BinaryFormat.TYPE_SAMPLE_ARCHIVE || record.getVersion() != DataConstants.SAMPLE_ARCHIVE_FORMAT_VERSION)
+            throw new IOException("Unsupported sample archive type " + record.getType() + " version " + record.getVersion());
+
+        return record.getInput();
+    }
+
+    @Override
+    public void read(long startTime, long endTime, SampleStore.SampleVisitor visitor) {
+        if (mCount == 0 || mMaxTime < startTime || mMinTime >= endTime)
+            return;
+
+        int[] runLengths;
+        int[] runFlags;
+        GorillaDecoder decoder;
+        try {
+            DataInputStream in = readPayload(mFile);
+            int count = in.readInt();
+            in.readLong();
+            in.readLong();
+            int runCount = in.readInt();
+            if (count != mCount || runCount < 0 || runCount > count)
+                throw new IOException("Invalid sample archive " + mFile);
+
+            runLengths = new int[runCount];
+            runFlags = new int[runCount];
+            for (int i = 0; i < runCount; i++) {
+                runLengths[i] = in.readInt();
+                runFlags[i] = in.readUnsignedShort();
+            }
+            byte[] samples = new byte[in.readInt()];
+            in.readFully(samples);
+            decoder = new GorillaDecoder(samples, count);
+        } catch (IOException e) {
+            if (Debug.isCollectionManagerLoggingEnabled())
+                Debug.printDebug(e);
+            return;
+        }
+
+        int run = 0;
+        int runRemaining = runLengths.length > 0 ? runLengths[0] : 0;
+        while (decoder.next()) {
+            while (runRemaining == 0 && run < runLengths.length - 1) {
+                runRemaining = runLengths[++run];
+            }
+            runRemaining--;
+            long timestamp = decoder.getTimestamp();
+            if (timestamp >= startTime && timestamp < endTime)
+                visitor.onSample(timestamp, (float) decoder.getValue(), run < runFlags.length ? runFlags[run] : 0);
+        }
+    }
+
+    @Override
+    public File getFile() {
+        return mFile;
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public long getMinTime() {
+        return mMinTime;
+    }
+
+    @Override
+    public long getMaxTime() {
+        return mMaxTime;
+    }
+}
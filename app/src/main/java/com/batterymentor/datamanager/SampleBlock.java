@@ -0,0 +1,48 @@
+package com.batterymentor.datamanager;
+
+import java.io.File;
+
+/**
+ * Interface of a block of samples of a {@link SampleStore} kept in a file, either a memory mapped
+ * {@link SampleSegment} that samples are appended to or the compressed {@link SampleArchive} of a
+ * sealed segment.
+ */
+public interface SampleBlock {
+
+    /**
+     * Visit the samples of the block between the specified times, in the order they were appended.
+     *
+     * @param startTime the earliest time of the samples to visit.
+     * @param endTime   the time after the latest time of the samples to visit.
+     * @param visitor   the visitor of the samples.
+     */
+    void read(long startTime, long endTime, SampleStore.SampleVisitor visitor);
+
+    /**
+     * Return the file of the block.
+     *
+     * @return the file of the block.
+     */
+    File getFile();
+
+    /**
+     * Return the number of samples in the block.
+     *
+     * @return the number of samples in the block.
+     */
+    int getCount();
+
+    /**
+     * Return the earliest time of a sample in the block.
+     *
+     * @return the earliest time of a sample in milliseconds since the epoch.
+     */
+    long getMinTime();
+
+    /**
+     * Return the latest time of a sample in the block.
+     *
+     * @return the latest time of a sample in milliseconds since the epoch.
+     */
+    long getMaxTime();
+}
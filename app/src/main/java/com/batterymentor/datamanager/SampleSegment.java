@@ -0,0 +1,303 @@
+package com.batterymentor.datamanager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Class representing a segment of a {@link SampleStore}, which is a file of a fixed size that is
+ * memory mapped. The file starts with a header followed by fixed width records, each holding the
+ * time of the sample relative to the first sample of the segment, the value, and the flags of the
+ * sample. Records are read straight from the mapped file, without copying them to the heap.
+ *
+ * A segment has a single writer. The writer publishes each record by incrementing the count after
+ * the record is written, so readers on other threads only ever see complete records.
+ */
+public class SampleSegment implements SampleBlock {
+
+    /**
+     * The magic number that identifies a segment file.
+     */
+    private static final int MAGIC = 0x424d5353;
+
+    /**
+     * The version of the format of the segment file.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The offset of the magic number in the header.
+     */
+    private static final int MAGIC_OFFSET = 0;
+
+    /**
+     * The offset of the version in the header.
+     */
+    private static final int VERSION_OFFSET = 4;
+
+    /**
+     * The offset of the time of the first sample in the header.
+     */
+    private static final int BASE_TIME_OFFSET = 8;
+
+    /**
+     * The offset of the number of records in the header.
+     */
+    private static final int COUNT_OFFSET = 16;
+
+    /**
+     * The offset of the flag indicating whether the segment is sealed in the header.
+     */
+    private static final int SEALED_OFFSET = 20;
+
+    /**
+     * The size of the header in bytes.
+     */
+    private static final int HEADER_SIZE = 32;
+
+    /**
+     * The size of each record in bytes: the time delta, the value, and the flags.
+     */
+    public static final int RECORD_SIZE = 10;
+
+    /**
+     * The file of the segment.
+     */
+    private final File mFile;
+
+    /**
+     * The memory mapped file.
+     */
+    private final MappedByteBuffer mBuffer;
+
+    /**
+     * The number of records that the segment can hold.
+     */
+    private final int mCapacity;
+
+    /**
+     * The time of the first sample in milliseconds since the epoch.
+     */
+    private volatile long mBaseTime;
+
+    /**
+     * The earliest time of a sample in the segment.
+     */
+    private volatile long mMinTime = Long.MAX_VALUE;
+
+    /**
+     * The latest time of a sample in the segment.
+     */
+    private volatile long mMaxTime = Long.MIN_VALUE;
+
+    /**
+     * The number of records in the segment, published after each record is written.
+     */
+    private volatile int mCount;
+
+    /**
+     * Flag indicating whether the segment is sealed and no longer appended to.
+     */
+    private volatile boolean mSealed;
+
+    private SampleSegment(File file, MappedByteBuffer buffer, int capacity) {
+        mFile = file;
+        mBuffer = buffer;
+        mCapacity = capacity;
+    }
+
+    /**
+     * Create an empty segment in the specified file.
+     *
+     * @param file     the file of the segment, which is overwritten.
+     * @param capacity the number of records that the segment can hold.
+     * @return the segment.
+     * @throws IOException if the file can't be created or mapped.
+     */
+    public static SampleSegment create(File file, int capacity) throws IOException {
+        MappedByteBuffer buffer = map(file, HEADER_SIZE + (long) capacity * RECORD_SIZE);
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+        buffer.putInt(VERSION_OFFSET, VERSION);
+        buffer.putLong(BASE_TIME_OFFSET, 0);
+        buffer.putInt(COUNT_OFFSET, 0);
+        buffer.putInt(SEALED_OFFSET, 0);
+        return new SampleSegment(file, buffer, capacity);
+    }
+
+    /**
+     * Open the segment in the specified file.
+     *
+     * @param file the file of the segment.
+     * @return the segment or null if the file isn't a valid segment.
+     * @throws IOException if the file can't be mapped.
+     */
+    public static SampleSegment open(File file) throws IOException {
+        long length = file.length();
+        if (length < HEADER_SIZE || (length - HEADER_SIZE) % RECORD_SIZE != 0)
+            return null;
+
+        MappedByteBuffer buffer = map(file, length);
+        if (buffer.getInt(MAGIC_OFFSET) != MAGIC || buffer.getInt(VERSION_OFFSET) != VERSION)
+            return null;
+
+        SampleSegment segment = new SampleSegment(file, buffer, (int) ((length - HEADER_SIZE) / RECORD_SIZE));
+        int count = buffer.getInt(COUNT_OFFSET);
+        if (count < 0 || count > segment.mCapacity)
+            return null;
+
+        segment.mBaseTime = buffer.getLong(BASE_TIME_OFFSET);
+        for (int i = 0; i < count; i++) {
+            segment.updateTimeRange(segment.getTimestamp(i));
+        }
+        segment.mCount = count;
+        segment.mSealed = buffer.getInt(SEALED_OFFSET) != 0;
+        return segment;
+    }
+
+    /**
+     * Map the specified file with the specified length for reading and writing.
+     */
+    private static MappedByteBuffer map(File file, long length) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(length);
+            MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Append a sample to the segment. Must only be called by the writer of the segment.
+     *
+     * @param timestamp the time of the sample in milliseconds since the epoch.
+     * @param value     the value of the sample.
+     * @param flags     the flags of the sample.
+     * @return true if the sample was appended, false if the segment is full or sealed, or if the
+     * time of the sample is too far from the first sample of the segment.
+     */
+    public boolean append(long timestamp, float value, int flags) {
+        int count = mCount;
+        if (count >= mCapacity || mSealed)
+            return false;
+
+        if (count == 0) {
+            mBaseTime = timestamp;
+            mBuffer.putLong(BASE_TIME_OFFSET, timestamp);
+        }
+        long delta = timestamp - mBaseTime;
+        if (delta > Integer.MAX_VALUE || delta < Integer.MIN_VALUE)
+            return false;
+
+        int offset = HEADER_SIZE + count * RECORD_SIZE;
+        mBuffer.putInt(offset, (int) delta);
+        mBuffer.putFloat(offset + 4, value);
+        mBuffer.putShort(offset + 8, (short) flags);
+        updateTimeRange(timestamp);
+        mBuffer.putInt(COUNT_OFFSET, count + 1);
+        mCount = count + 1;
+        return true;
+    }
+
+    /**
+     * Include the specified time in the range of times of the segment.
+     */
+    private void updateTimeRange(long timestamp) {
+        if (timestamp < mMinTime)
+            mMinTime = timestamp;
+        if (timestamp > mMaxTime)
+            mMaxTime = timestamp;
+    }
+
+    /**
+     * Seal the segment so that nothing more is appended to it, and write it to storage.
+     */
+    public void seal() {
+        mSealed = true;
+        mBuffer.putInt(SEALED_OFFSET, 1);
+        mBuffer.force();
+    }
+
+    /**
+     * Write the records appended so far to storage.
+     */
+    public void force() {
+        mBuffer.force();
+    }
+
+    @Override
+    public void read(long startTime, long endTime, SampleStore.SampleVisitor visitor) {
+        int count = mCount;
+        if (count == 0 || mMaxTime < startTime || mMinTime >= endTime)
+            return;
+
+        for (int i = 0; i < count; i++) {
+            long timestamp = getTimestamp(i);
+            if (timestamp >= startTime && timestamp < endTime)
+                visitor.onSample(timestamp, getValue(i), getFlags(i));
+        }
+    }
+
+    /**
+     * Return the time of the specified record.
+     *
+     * @param index the index of the record.
+     * @return the time of the sample in milliseconds since the epoch.
+     */
+    public long getTimestamp(int index) {
+        return mBaseTime + mBuffer.getInt(HEADER_SIZE + index * RECORD_SIZE);
+    }
+
+    /**
+     * Return the value of the specified record.
+     *
+     * @param index the index of the record.
+     * @return the value of the sample.
+     */
+    public float getValue(int index) {
+        return mBuffer.getFloat(HEADER_SIZE + index * RECORD_SIZE + 4);
+    }
+
+    /**
+     * Return the flags of the specified record.
+     *
+     * @param index the index of the record.
+     * @return the flags of the sample.
+     */
+    public int getFlags(int index) {
+        return mBuffer.getShort(HEADER_SIZE + index * RECORD_SIZE + 8) & 0xffff;
+    }
+
+    @Override
+    public File getFile() {
+        return mFile;
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    @Override
+    public long getMinTime() {
+        return mMinTime;
+    }
+
+    @Override
+    public long getMaxTime() {
+        return mMaxTime;
+    }
+
+    public boolean isSealed() {
+        return mSealed;
+    }
+}
@@ -0,0 +1,387 @@
+package com.batterymentor.datamanager;
+
+import com.batterymentor.constants.DataConstants;
+import com.batterymentor.debug.Debug;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Class representing an append-only store of raw samples, kept in a directory of memory mapped
+ * {@link SampleSegment} files of a fixed size. Only the most recent segments are kept.
+ *
+ * Samples are appended without locking, typically by the sampling thread: the writer only writes
+ * to the mapped file of the current segment and swaps in a spare segment when the current one is
+ * full. A background thread creates the spare segments ahead of time, seals the full segments and
+ * compresses them into {@link SampleArchive} files, and deletes the oldest ones, so the writer never
+ * waits for the file system. If no spare segment is
+ * ready, or if another thread is appending at the same time, the sample is dropped and counted
+ * instead of waiting. Readers visit the samples straight from the mapped files.
+ */
+public class SampleStore {
+
+    /**
+     * The extension of the segment files.
+     */
+    private static final String SEGMENT_EXTENSION = ".seg";
+
+    /**
+     * The extension of the archive files.
+     */
+    private static final String ARCHIVE_EXTENSION = ".sga";
+
+    /**
+     * Interface used to visit the samples of the store.
+     */
+    public interface SampleVisitor {
+
+        /**
+         * Called for each sample that is visited.
+         *
+         * @param timestamp the time of the sample in milliseconds since the epoch.
+         * @param value     the value of the sample.
+         * @param flags     the flags of the sample.
+         */
+        void onSample(long timestamp, float value, int flags);
+    }
+
+    /**
+     * The directory of the segment files.
+     */
+    private final File mDirectory;
+
+    /**
+     * The number of records of each segment.
+     */
+    private final int mSegmentCapacity;
+
+    /**
+     * The number of segments that are kept.
+     */
+    private final int mMaxSegments;
+
+    /**
+     * The archives of the sealed segments followed by the segments, from the oldest to the newest.
+     * Only modified by the background thread.
+     */
+    private final List<SampleBlock> mSegments = new CopyOnWriteArrayList<SampleBlock>();
+
+    /**
+     * Flag indicating whether a sample is being appended, which makes the appending thread the
+     * only writer.
+     */
+    private final AtomicBoolean mAppending = new AtomicBoolean();
+
+    /**
+     * Flag indicating whether the store was closed. A writer that is appending while the store is
+     * closed seals the current segment when it finishes, so that closing never waits for it.
+     */
+    private volatile boolean mClosed;
+
+    /**
+     * The segment that samples are appended to or null if there is none yet. Only accessed by the
+     * writer.
+     */
+    private SampleSegment mCurrentSegment;
+
+    /**
+     * The segment that is swapped in when the current segment is full or null if it isn't ready.
+     */
+    private final AtomicReference<SampleSegment> mSpareSegment = new AtomicReference<SampleSegment>();
+
+    /**
+     * The sequence number of the newest segment file. Only accessed by the background thread.
+     */
+    private long mSegmentSequence;
+
+    /**
+     * The number of samples that were dropped because no segment was ready.
+     */
+    private final AtomicLong mDroppedSamples = new AtomicLong();
+
+    /**
+     * The background thread that creates, seals, and deletes the segments.
+     */
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "SampleStore");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    /**
+     * Create a new store in the specified directory with the default size and number of segments.
+     *
+     * @param directory the directory of the segment files.
+     */
+    public SampleStore(File directory) {
+        this(directory, DataConstants.SAMPLE_SEGMENT_CAPACITY, DataConstants.SAMPLE_STORE_MAX_SEGMENTS);
+    }
+
+    /**
+     * Create a new store in the specified directory. The existing segments are opened and a spare
+     * segment is created in the background.
+     *
+     * @param directory       the directory of the segment files.
+     * @param segmentCapacity the number of records of each segment.
+     * @param maxSegments     the number of segments that are kept.
+     */
+    public SampleStore(File directory, int segmentCapacity, int maxSegments) {
+        mDirectory = directory;
+        mSegmentCapacity = segmentCapacity;
+        mMaxSegments = maxSegments;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                openSegments();
+                prepareSpareSegment();
+            }
+        });
+    }
+
+    /**
+     * Append a sample to the store.
+     *
+     * @param timestamp the time of the sample in milliseconds since the epoch.
+     * @param value     the value of the sample.
+     * @param flags     the flags of the sample.
+     * @return true if the sample was appended, false if it was dropped because no segment was
+     * ready or another thread was appending.
+     */
+    public boolean append(long timestamp, double value, int flags) {
+        if (!mAppending.compareAndSet(false, true)) {
+            mDroppedSamples.incrementAndGet();
+            return false;
+        }
+
+        try {
+            SampleSegment segment = mCurrentSegment;
+            if (segment != null && segment.append(timestamp, (float) value, flags))
+                return true;
+
+            SampleSegment spare = mSpareSegment.getAndSet(null);
+            if (spare == null || !spare.append(timestamp, (float) value, flags)) {
+                mDroppedSamples.incrementAndGet();
+                return false;
+            }
+            mCurrentSegment = spare;
+            roll(segment);
+            return true;
+        } finally {
+            mAppending.set(false);
+            if (mClosed)
+                sealOnClose();
+        }
+    }
+
+    /**
+     * Seal and archive the specified full segment and create a new spare segment in the background.
+     */
+    private void roll(final SampleSegment fullSegment) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (fullSegment != null)
+                    archive(fullSegment);
+                prepareSpareSegment();
+            }
+        });
+    }
+
+    /**
+     * Seal the specified segment and replace it with its compressed archive. The segment is kept if
+     * the archive can't be written. Readers that are visiting the segment keep reading its mapped
+     * file, which stays valid after it is deleted.
+     */
+    private void archive(SampleSegment segment) {
+        if (!segment.isSealed())
+            segment.seal();
+        File segmentFile = segment.getFile();
+        String name = segmentFile.getName();
+        File file = new File(mDirectory, name.substring(0, name.length() - SEGMENT_EXTENSION.length()) + ARCHIVE_EXTENSION);
+        SampleArchive archive = SampleArchive.write(segment, file);
+        if (archive == null)
+            return;
+
+        int index = mSegments.indexOf(segment);
+        if (index >= 0)
+            mSegments.set(index, archive);
+        segmentFile.delete();
+    }
+
+    /**
+     * Write the samples appended so far to storage in the background.
+     */
+    public void flush() {
+        if (mExecutor.isShutdown())
+            return;
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (SampleBlock block : mSegments) {
+                    if (block instanceof SampleSegment && !((SampleSegment) block).isSealed())
+                        ((SampleSegment) block).force();
+                }
+            }
+        });
+    }
+
+    /**
+     * Visit the samples between the specified times, from the oldest segment to the newest.
+     *
+     * @param startTime the earliest time of the samples to visit.
+     * @param endTime   the time after the latest time of the samples to visit.
+     * @param visitor   the visitor of the samples.
+     */
+    public void read(long startTime, long endTime, SampleVisitor visitor) {
+        for (SampleBlock block : mSegments) {
+            block.read(startTime, endTime, visitor);
+        }
+    }
+
+    /**
+     * Seal and archive the current segment and stop the background thread. Samples appended after
+     * the store is closed are dropped.
+     */
+    public void close() {
+        mClosed = true;
+        sealOnClose();
+    }
+
+    /**
+     * Seal and archive the current segment and stop the background thread, unless a writer is
+     * appending, in which case the writer does so when it finishes. The flag of the writer is never
+     * cleared again, so that the samples appended afterwards are dropped.
+     */
+    private void sealOnClose() {
+        if (!mAppending.compareAndSet(false, true))
+            return;
+
+        final SampleSegment segment = mCurrentSegment;
+        mCurrentSegment = null;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (segment != null)
+                    archive(segment);
+                SampleSegment spare = mSpareSegment.getAndSet(null);
+                if (spare != null) {
+                    mSegments.remove(spare);
+                    spare.getFile().delete();
+                }
+            }
+        });
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Wait for the background thread to finish sealing the segments after the store is closed.
+     *
+     * @param timeout the maximum time to wait in milliseconds.
+     * @return true if the background thread finished, false if the timeout elapsed.
+     * @throws InterruptedException if the calling thread is interrupted while waiting.
+     */
+    public boolean awaitTermination(long timeout) throws InterruptedException {
+        return mExecutor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Open the archives and the segments in the directory, archiving the segments so that new
+     * samples go to new segments. Segments that are empty or invalid, or that were already archived
+     * before the process died, are deleted.
+     */
+    private void openSegments() {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs())
+            return;
+
+        File[] files = mDirectory.listFiles();
+        if (files == null)
+            return;
+
+        Arrays.sort(files);
+        for (File file : files) {
+            String name = file.getName();
+            boolean archive = name.endsWith(ARCHIVE_EXTENSION);
+            if (!archive && !name.endsWith(SEGMENT_EXTENSION))
+                continue;
+
+            try {
+                String sequence = name.substring(0, name.length() - (archive ? ARCHIVE_EXTENSION : SEGMENT_EXTENSION).length());
+                mSegmentSequence = Math.max(mSegmentSequence, Long.parseLong(sequence));
+                if (archive) {
+                    SampleArchive sampleArchive = SampleArchive.open(file);
+                    if (sampleArchive == null)
+                        file.delete();
+                    else
+                        mSegments.add(sampleArchive);
+                    continue;
+                }
+
+                SampleSegment segment = SampleSegment.open(file);
+                if (segment == null || segment.getCount() == 0 || new File(mDirectory, sequence + ARCHIVE_EXTENSION).exists()) {
+                    file.delete();
+                    continue;
+                }
+                mSegments.add(segment);
+                archive(segment);
+            } catch (NumberFormatException e) {
+                if (Debug.isCollectionManagerLoggingEnabled())
+                    Debug.printDebug(e);
+            } catch (IOException e) {
+                if (Debug.isCollectionManagerLoggingEnabled())
+                    Debug.printDebug(e);
+            }
+        }
+    }
+
+    /**
+     * Create a new spare segment and delete the oldest segments that are no longer kept.
+     */
+    private void prepareSpareSegment() {
+        if (mSpareSegment.get() != null)
+            return;
+
+        File file = new File(mDirectory, String.format(Locale.US, "%019d%s", ++mSegmentSequence, SEGMENT_EXTENSION));
+        try {
+            SampleSegment segment = SampleSegment.create(file, mSegmentCapacity);
+            mSegments.add(segment);
+            mSpareSegment.set(segment);
+        } catch (IOException e) {
+            file.delete();
+            if (Debug.isCollectionManagerLoggingEnabled())
+                Debug.printDebug(e);
+        }
+        while (mSegments.size() > mMaxSegments) {
+            SampleBlock oldest = mSegments.remove(0);
+            oldest.getFile().delete();
+        }
+    }
+
+    /**
+     * Return the archives and the segments of the store, from the oldest to the newest.
+     *
+     * @return the archives and the segments of the store.
+     */
+    public List<SampleBlock> getSegments() {
+        return mSegments;
+    }
+
+    public long getDroppedSamples() {
+        return mDroppedSamples.get();
+    }
+}
@@ -3,60 +3,155 @@ package com.batterymentor.datamanager;
 import com.batterymentor.constants.DataConstants;
 import com.batterymentor.constants.SensorConstants;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
 /**
  * Class that contains the lifetime statistics about the application such as the average.
+ *
+ * The statistics have a single writer and any number of readers. Updates are serialized on the
+ * statistics instance and bracketed by a sequence number that is odd while an update is in
+ * progress. Readers of the scalar values never lock: they read the volatile fields they need and
+ * retry if the sequence changed in the meantime, so they never block the writer and never see a
+ * value that is half way through an update. The histogram counts and the quantile sketch are
+ * plain arrays that a concurrent update can tear, so they are copied on publish: once the
+ * statistics have been read with {@link #getSnapshot()}, the writer creates an immutable snapshot
+ * at the end of every update and publishes it in a volatile field, which readers return without
+ * locking or copying anything.
  */
 public class Statistics implements Serializable, Histogram {
 
+    /**
+     * The serialization version of the statistics, pinned so that lifetime statistics saved by
+     * earlier versions of the application can still be loaded.
+     */
+    private static final long serialVersionUID = 3023133614322020920L;
+
     /**
      * The last measured value.
      */
-    private double mValue;
+    private volatile double mValue;
 
     /**
      * The total sum of the lifetime statistics. Used for calculating the average.
      */
-    private double mTotal;
+    private volatile double mTotal;
 
     /**
      * The number of points that have been collected. Used for calculating the average.
      */
-    private double mNumPoints;
+    private volatile double mNumPoints;
+
+    /**
+     * The weighted sum of the squared deviations of the values from the average. Used for
+     * calculating the variance. Statistics saved before it was introduced only count the values
+     * added since.
+     */
+    private volatile double mSquaredDeviations;
 
     /**
-     * The histogram points associated with the statistics.
+     * The histogram of statistics saved by earlier versions of the application, which used fixed
+     * linear buckets. Migrated into the bucket counts when loaded and null otherwise.
      */
     private HistogramPoint[] mHistogramData;
 
+    /**
+     * The scheme of the histogram buckets.
+     */
+    private BucketScheme mBucketScheme;
+
+    /**
+     * The weighted count of the data in each histogram bucket.
+     */
+    private double[] mBucketCounts;
+
     /**
      * The minimum value of the data.
      */
-    private double mMin = Double.POSITIVE_INFINITY;
+    private volatile double mMin = Double.POSITIVE_INFINITY;
 
     /**
      * The maximum value of the data.
      */
-    private double mMax = Double.NEGATIVE_INFINITY;
+    private volatile double mMax = Double.NEGATIVE_INFINITY;
 
     /**
      * Flag indicating whether these statistics are related to the charger.
      */
     public boolean mChargerStatistics;
 
+    /**
+     * The sketch of the distribution of the values, used for the percentiles. Null until a value
+     * is added if the statistics don't keep a sketch yet, and always null for statistics that
+     * answer the percentiles from their own data, see {@link #isQuantileSketchKept()}.
+     */
+    private QuantileSketch mQuantileSketch;
+
+    /**
+     * The duration in milliseconds that counts as a weight of one when points are weighted by
+     * time, or 0 if each point keeps the weight it is added with.
+     */
+    private long mTimeWeightingInterval;
+
+    /**
+     * The longest time in milliseconds between two points that is still integrated when points
+     * are weighted by time. A longer time is a gap in the sampling, such as the device dozing.
+     */
+    private long mTimeWeightingMaxGap;
+
+    /**
+     * The timestamp of the previous point weighted by time or {@link Long#MIN_VALUE} if there is
+     * none. Only accessed by the writer.
+     */
+    private transient long mLastTimestamp = Long.MIN_VALUE;
+
+    /**
+     * The sequence number of the statistics, incremented before and after every update so that it
+     * is odd while an update is in progress.
+     */
+    private transient volatile long mSequence;
+
+    /**
+     * The most recent snapshot of the statistics.
+     */
+    private transient volatile StatisticsSnapshot mSnapshot;
+
+    /**
+     * Flag indicating whether the writer publishes a snapshot at the end of every update. Set by
+     * the first reader of a snapshot, so that statistics that are never read don't pay for it.
+     */
+    private transient volatile boolean mSnapshotPublished;
+
     public Statistics(boolean chargerStatistics) {
+        this(chargerStatistics, createDefaultBucketScheme());
+    }
+
+    /**
+     * Create new statistics with the specified scheme of histogram buckets.
+     *
+     * @param chargerStatistics true if these statistics are related to the charger.
+     * @param bucketScheme      the scheme of the histogram buckets.
+     */
+    public Statistics(boolean chargerStatistics, BucketScheme bucketScheme) {
         mTotal = 0;
         mNumPoints = 0;
-        mHistogramData = new HistogramPoint[DataConstants.HISTOGRAM_NUM_BUCKETS - 1];
+        mBucketScheme = bucketScheme;
+        mBucketCounts = new double[bucketScheme.getNumBuckets()];
         mChargerStatistics = chargerStatistics;
-        for (int i = 0; i < mHistogramData.length - 1; i++) {
-            double minX = DataConstants.HISTOGRAM_MIN_POWER + i * DataConstants.HISTOGRAM_BUCKET_RANGE;
-            double maxX = minX + DataConstants.HISTOGRAM_BUCKET_RANGE;
-            mHistogramData[i] = new HistogramPoint(minX, maxX, 0);
-        }
-        double maxX = DataConstants.HISTOGRAM_MAX_POWER;
-        mHistogramData[mHistogramData.length - 1] = new HistogramPoint(maxX, maxX, 0);
+    }
+
+    /**
+     * Create the default scheme of histogram buckets, which is log-linear so that both idle drain
+     * and fast charging are resolved.
+     *
+     * @return the default scheme of histogram buckets.
+     */
+    public static BucketScheme createDefaultBucketScheme() {
+        return new LogLinearBucketScheme(DataConstants.HISTOGRAM_PRECISION_BITS, DataConstants.HISTOGRAM_MAX_VALUE);
     }
 
     /**
@@ -66,17 +161,143 @@ public class Statistics implements Serializable, Histogram {
      * @param point the point to add to the usage data.
      */
     public void addPoint(Point point) {
+        addPoint(point, 1);
+    }
+
+    /**
+     * Add a point with the specified weight to the lifetime statistics. The weight is the number of
+     * collection intervals that the point represents, so that points sampled at a slower rate
+     * count proportionally more towards the average.
+     *
+     * @param point  the point to add to the usage data.
+     * @param weight the weight of the point.
+     */
+    public void addPoint(Point point, double weight) {
         if (point == null)
             return;
 
-        mValue = convertValue(point.getY());
-        mTotal += mValue;
-        mNumPoints++;
-        if (mValue > mMax)
-            mMax = mValue;
-        if (mValue < mMin)
-            mMin = mValue;
-        addPointToHistogram(point);
+        addValue((long) point.getX(), point.getY(), weight);
+    }
+
+    /**
+     * Add a value with the specified timestamp and weight to the lifetime statistics. If the
+     * statistics are weighted by time, the weight is replaced by the time elapsed since the
+     * previous value.
+     *
+     * @param timestamp the time of the value in milliseconds.
+     * @param y         the y-value of the point to add to the usage data.
+     * @param weight    the number of collection intervals that the value represents.
+     */
+    public synchronized void addValue(long timestamp, double y, double weight) {
+        weight = getTimeWeight(timestamp, weight);
+        if (weight <= 0)
+            return;
+
+        addValue(y, weight);
+    }
+
+    /**
+     * Add a value with the specified weight to the lifetime statistics.
+     *
+     * @param y      the y-value of the point to add to the usage data.
+     * @param weight the weight of the point.
+     */
+    public synchronized void addValue(double y, double weight) {
+        beginWrite();
+        try {
+            accumulateValue(y, weight);
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * Add a value with the specified weight to the total, the minimum, the maximum, and the
+     * histogram. Must only be called by the writer between {@link #beginWrite()} and
+     * {@link #endWrite()}.
+     *
+     * @param y      the y-value of the point to add to the usage data.
+     * @param weight the weight of the point.
+     */
+    protected void accumulateValue(double y, double weight) {
+        double value = convertValue(y);
+        double numPoints = mNumPoints;
+        double deviation = (numPoints > 0) ? value - mTotal / numPoints : 0;
+        mValue = value;
+        mTotal += value * weight;
+        mNumPoints = numPoints + weight;
+        mSquaredDeviations += weight * deviation * (value - mTotal / mNumPoints);
+        if (value > mMax)
+            mMax = value;
+        if (value < mMin)
+            mMin = value;
+        mBucketCounts[mBucketScheme.getIndex(value)] += weight;
+        if (isQuantileSketchKept()) {
+            if (mQuantileSketch == null)
+                mQuantileSketch = new QuantileSketch();
+            mQuantileSketch.add(value, weight);
+        }
+    }
+
+    /**
+     * Return true if these statistics keep a sketch of the distribution of the values for the
+     * percentiles. Statistics that keep the data the percentiles are taken from override this to
+     * skip the cost of the sketch on every value.
+     *
+     * @return true if the statistics keep a quantile sketch, false otherwise.
+     */
+    protected boolean isQuantileSketchKept() {
+        return true;
+    }
+
+    /**
+     * Weight the points added from now on by the time elapsed since the previous point instead of
+     * by the weight they are added with, so that the average is the integral of the values over
+     * time even when the sampling is irregular. The first point and any point that follows a gap
+     * longer than the maximum keep the weight they are added with, so the integral never crosses
+     * a period without samples.
+     *
+     * @param interval the duration in milliseconds that counts as a weight of one, typically the
+     *                 collection interval, or 0 to keep the weight that each point is added with.
+     * @param maxGap   the longest time in milliseconds between two points that is integrated.
+     */
+    public synchronized void setTimeWeighting(long interval, long maxGap) {
+        mTimeWeightingInterval = Math.max(0, interval);
+        mTimeWeightingMaxGap = maxGap;
+        mLastTimestamp = Long.MIN_VALUE;
+    }
+
+    /**
+     * Return true if the points are weighted by the time elapsed between them.
+     *
+     * @return true if the points are weighted by time, false if each point keeps its weight.
+     */
+    public boolean isTimeWeighted() {
+        return mTimeWeightingInterval > 0;
+    }
+
+    /**
+     * Return the weight of a point at the specified time. A point that isn't later than the
+     * previous point adds no time and gets no weight. Must only be called by the writer while
+     * holding the lock of the statistics.
+     *
+     * @param timestamp the time of the point in milliseconds.
+     * @param weight    the weight that the point is added with.
+     * @return the weight of the point.
+     */
+    protected double getTimeWeight(long timestamp, double weight) {
+        if (mTimeWeightingInterval <= 0)
+            return weight;
+
+        long lastTimestamp = mLastTimestamp;
+        if (lastTimestamp != Long.MIN_VALUE && timestamp <= lastTimestamp)
+            return 0;
+
+        mLastTimestamp = timestamp;
+        if (lastTimestamp == Long.MIN_VALUE || timestamp - lastTimestamp > mTimeWeightingMaxGap)
+            return weight;
+
+        return (timestamp - lastTimestamp) / (double) mTimeWeightingInterval;
     }
 
     /**
@@ -85,8 +306,166 @@ public class Statistics implements Serializable, Histogram {
      * @return the lifetime average.
      */
     public double getAverage() {
-        if (mNumPoints > 0) {
-            return mTotal / mNumPoints;
+        while (true) {
+            long sequence = beginRead();
+            double total = mTotal;
+            double numPoints = mNumPoints;
+            if (validateRead(sequence))
+                return getAverage(total, numPoints);
+        }
+    }
+
+    /**
+     * Return the weighted variance of the lifetime data.
+     *
+     * @return the variance of the lifetime data or 0 if there is no data.
+     */
+    public double getVariance() {
+        while (true) {
+            long sequence = beginRead();
+            double squaredDeviations = mSquaredDeviations;
+            double numPoints = mNumPoints;
+            if (validateRead(sequence))
+                return (numPoints > 0) ? Math.max(0, squaredDeviations / numPoints) : 0;
+        }
+    }
+
+    /**
+     * Add the data of the specified statistics to these statistics, as if every value added to
+     * them had been added to these statistics instead. Merging is associative, so statistics
+     * collected separately, for example by several threads or over several sessions, can be
+     * combined in any order. The specified statistics are copied while holding their lock, which
+     * is released before these statistics are locked. The recent data of realtime statistics isn't
+     * merged.
+     *
+     * @param statistics the statistics to merge into these statistics.
+     */
+    public void merge(Statistics statistics) {
+        if (statistics == null)
+            return;
+
+        Statistics copy = statistics.copy();
+        double value = copy.mValue;
+        double total = copy.mTotal;
+        double numPoints = copy.mNumPoints;
+        double squaredDeviations = copy.mSquaredDeviations;
+        double min = copy.mMin;
+        double max = copy.mMax;
+        double[] counts = copy.mBucketCounts;
+        BucketScheme bucketScheme = copy.mBucketScheme;
+        QuantileSketch quantileSketch = copy.mQuantileSketch;
+        if (numPoints <= 0)
+            return;
+
+        synchronized (this) {
+            beginWrite();
+            try {
+                double thisNumPoints = mNumPoints;
+                double mergedNumPoints = thisNumPoints + numPoints;
+                if (thisNumPoints > 0) {
+                    double deviation = total / numPoints - mTotal / thisNumPoints;
+                    mSquaredDeviations += squaredDeviations + deviation * deviation * thisNumPoints * numPoints / mergedNumPoints;
+                } else {
+                    mSquaredDeviations = squaredDeviations;
+                    mValue = value;
+                }
+                mTotal += total;
+                mNumPoints = mergedNumPoints;
+                if (min < mMin)
+                    mMin = min;
+                if (max > mMax)
+                    mMax = max;
+                boolean sameBuckets = isSameBucketScheme(bucketScheme);
+                for (int i = 0; i < counts.length; i++) {
+                    if (sameBuckets)
+                        mBucketCounts[i] += counts[i];
+                    else if (counts[i] > 0)
+                        addToBuckets(bucketScheme.getLowerBound(i), bucketScheme.getUpperBound(i), counts[i]);
+                }
+                if (quantileSketch != null && isQuantileSketchKept()) {
+                    if (mQuantileSketch == null)
+                        mQuantileSketch = new QuantileSketch();
+                    mQuantileSketch.merge(quantileSketch);
+                }
+            } finally {
+                endWrite();
+            }
+        }
+    }
+
+    /**
+     * Return a copy of the statistics that doesn't change when values are added to these
+     * statistics. The recent data of realtime statistics isn't copied.
+     *
+     * @return the copy of the statistics.
+     */
+    public synchronized Statistics copy() {
+        Statistics statistics = new Statistics(mChargerStatistics, mBucketScheme);
+        System.arraycopy(mBucketCounts, 0, statistics.mBucketCounts, 0, mBucketCounts.length);
+        statistics.mQuantileSketch = (mQuantileSketch != null) ? mQuantileSketch.copy() : null;
+        statistics.mValue = mValue;
+        statistics.mTotal = mTotal;
+        statistics.mNumPoints = mNumPoints;
+        statistics.mSquaredDeviations = mSquaredDeviations;
+        statistics.mMin = mMin;
+        statistics.mMax = mMax;
+        statistics.mTimeWeightingInterval = mTimeWeightingInterval;
+        statistics.mTimeWeightingMaxGap = mTimeWeightingMaxGap;
+        return statistics;
+    }
+
+    /**
+     * Return true if the specified scheme has the same buckets as the scheme of these statistics.
+     */
+    private boolean isSameBucketScheme(BucketScheme bucketScheme) {
+        if (bucketScheme == mBucketScheme)
+            return true;
+        if (bucketScheme.getNumBuckets() != mBucketScheme.getNumBuckets())
+            return false;
+
+        for (int i = 0; i < mBucketScheme.getNumBuckets(); i++) {
+            if (bucketScheme.getLowerBound(i) != mBucketScheme.getLowerBound(i)
+                    || bucketScheme.getUpperBound(i) != mBucketScheme.getUpperBound(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Spread the count of a bucket of another scheme over the buckets that it overlaps, in
+     * proportion to the width of each overlap. The parts of the bucket outside the range of the
+     * scheme of these statistics go to the first or the last bucket, like the values they count.
+     */
+    private void addToBuckets(double lowerBound, double upperBound, double count) {
+        int first = mBucketScheme.getIndex(lowerBound);
+        int last = mBucketScheme.getIndex(upperBound);
+        double width = upperBound - lowerBound;
+        if (first == last || !(width > 0)) {
+            mBucketCounts[first] += count;
+            return;
+        }
+
+        double remaining = count;
+        for (int i = first; i < last; i++) {
+            double lower = (i == first) ? lowerBound : mBucketScheme.getLowerBound(i);
+            double overlap = Math.min(upperBound, mBucketScheme.getUpperBound(i)) - lower;
+            if (overlap > 0) {
+                double share = count * overlap / width;
+                mBucketCounts[i] += share;
+                remaining -= share;
+            }
+        }
+        mBucketCounts[last] += remaining;
+    }
+
+    /**
+     * Return the average of the specified total and number of points.
+     *
+     * @return the average or positive infinity if there are no points.
+     */
+    private static double getAverage(double total, double numPoints) {
+        if (numPoints > 0) {
+            return total / numPoints;
         }
 
         return Double.POSITIVE_INFINITY;
@@ -96,14 +475,49 @@ public class Statistics implements Serializable, Histogram {
      * Add a point to the histogram.
      */
     public void addPointToHistogram(Point point) {
-        double value = convertValue(point.getY());
-        int index = (int)((value - DataConstants.HISTOGRAM_MIN_POWER) / DataConstants.HISTOGRAM_BUCKET_RANGE);
-        if (index < 0)
-            index = 0;
-        else if (index >= mHistogramData.length)
-            index = mHistogramData.length - 1;
+        addPointToHistogram(point, 1);
+    }
 
-        mHistogramData[index].y++;
+    /**
+     * Add a point with the specified weight to the histogram.
+     */
+    public void addPointToHistogram(Point point, double weight) {
+        addValueToHistogram(point.getY(), weight);
+    }
+
+    /**
+     * Add a value with the specified weight to the histogram.
+     */
+    public synchronized void addValueToHistogram(double y, double weight) {
+        beginWrite();
+        try {
+            mBucketCounts[mBucketScheme.getIndex(convertValue(y))] += weight;
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * Return the scheme of the histogram buckets.
+     *
+     * @return the scheme of the histogram buckets.
+     */
+    public BucketScheme getBucketScheme() {
+        return mBucketScheme;
+    }
+
+    /**
+     * Create the histogram points for the specified bucket counts.
+     *
+     * @param counts the weighted count of each bucket.
+     * @return the histogram points.
+     */
+    protected HistogramPoint[] createHistogramData(double[] counts) {
+        HistogramPoint[] histogramData = new HistogramPoint[counts.length];
+        for (int i = 0; i < histogramData.length; i++) {
+            histogramData[i] = new HistogramPoint(mBucketScheme.getLowerBound(i), mBucketScheme.getUpperBound(i), counts[i]);
+        }
+        return histogramData;
     }
 
     /**
@@ -127,7 +541,13 @@ public class Statistics implements Serializable, Histogram {
      * @return the weight of this statistics instance.
      */
     public double getWeight() {
-        double numPoints = getNumPoints();
+        return getWeight(getNumPoints());
+    }
+
+    /**
+     * Return the weight of lifetime statistics with the specified number of points.
+     */
+    private static double getWeight(double numPoints) {
         if (numPoints > DataConstants.LIFETIME_NUM_POINTS_MAX_WEIGHT_THRESHOLD)
             return DataConstants.LIFETIME_STATISTICS_MAX_WEIGHT;
 
@@ -148,33 +568,305 @@ public class Statistics implements Serializable, Histogram {
     /**
      * Reset the statistics.
      */
-    public void reset() {
+    public synchronized void reset() {
+        beginWrite();
+        try {
+            clear();
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * Clear all the data of the statistics. Must only be called by the writer between
+     * {@link #beginWrite()} and {@link #endWrite()}.
+     */
+    protected void clear() {
         mMin = Double.POSITIVE_INFINITY;
         mMax = Double.NEGATIVE_INFINITY;
         mTotal = 0;
         mNumPoints = 0;
-        for (int i = 0; i < mHistogramData.length - 1; i++) {
-            double minX = DataConstants.HISTOGRAM_MIN_POWER + i * DataConstants.HISTOGRAM_BUCKET_RANGE;
-            double maxX = minX + DataConstants.HISTOGRAM_BUCKET_RANGE;
-            mHistogramData[i] = new HistogramPoint(minX, maxX, 0);
+        mSquaredDeviations = 0;
+        for (int i = 0; i < mBucketCounts.length; i++) {
+            mBucketCounts[i] = 0;
         }
-        double maxX = DataConstants.HISTOGRAM_MAX_POWER;
-        mHistogramData[mHistogramData.length - 1] = new HistogramPoint(maxX, maxX, 0);
+        mQuantileSketch = null;
+        mLastTimestamp = Long.MIN_VALUE;
     }
 
+    /**
+     * Return a copy of the histogram data.
+     *
+     * @return the histogram data.
+     */
     @Override
     public HistogramPoint[] getHistogramData() {
-        return mHistogramData;
+        return getSnapshot().getHistogramData();
+    }
+
+    /**
+     * Return the version of the statistics. The version changes whenever the statistics are
+     * updated.
+     *
+     * @return the version of the statistics.
+     */
+    @Override
+    public long getHistogramVersion() {
+        return beginRead();
     }
 
-    public void setTotal(double total) {
+    /**
+     * Return the snapshot of the statistics published by the writer at the end of the latest
+     * update. Readers don't lock or copy anything. Only the first read of the statistics creates
+     * the snapshot while holding the lock of the statistics, after which the writer publishes
+     * every version.
+     *
+     * @return the snapshot of the statistics.
+     */
+    @Override
+    public StatisticsSnapshot getSnapshot() {
+        if (mSnapshotPublished)
+            return mSnapshot;
+
+        synchronized (this) {
+            if (!mSnapshotPublished) {
+                mSnapshot = createSnapshot(mSequence);
+                mSnapshotPublished = true;
+            }
+            return mSnapshot;
+        }
+    }
+
+    /**
+     * Create a snapshot of the statistics. Called by the writer at the end of an update, or by the
+     * first reader, while holding the lock of the statistics, so no update is in progress.
+     *
+     * @param version the version of the statistics that is being read.
+     * @return the snapshot of the statistics.
+     */
+    protected StatisticsSnapshot createSnapshot(long version) {
+        double[] counts = mBucketCounts.clone();
+        double total = mTotal;
+        double numPoints = mNumPoints;
+        return new StatisticsSnapshot(version, mValue, getAverage(total, numPoints), mMin, mMax, total,
+                numPoints, getWeight(numPoints), createHistogramData(counts), copyQuantileSketch());
+    }
+
+    /**
+     * Return a copy of the quantile sketch that can be queried while the statistics are updated.
+     * Called while holding the lock of the statistics.
+     */
+    protected QuantileSketch copyQuantileSketch() {
+        QuantileSketch quantileSketch = mQuantileSketch;
+        return (quantileSketch != null) ? quantileSketch.copy() : new QuantileSketch();
+    }
+
+    /**
+     * Return the specified percentile of the lifetime data, estimated from a sketch of the
+     * distribution whose size doesn't depend on the number of points.
+     *
+     * @param fraction the percentile as a fraction between 0 and 1.
+     * @return the percentile of the lifetime data or 0 if there is no data.
+     */
+    @Override
+    public double getPercentile(double fraction) {
+        return getSnapshot().getPercentile(fraction);
+    }
+
+    /**
+     * Begin an update of the statistics. Must only be called by the writer while holding the lock
+     * of the statistics.
+     */
+    protected final void beginWrite() {
+        mSequence++;
+    }
+
+    /**
+     * Finish an update of the statistics and publish the snapshot of the new version if the
+     * statistics are read.
+     */
+    protected final void endWrite() {
+        long sequence = mSequence + 1;
+        mSequence = sequence;
+        if (mSnapshotPublished)
+            mSnapshot = createSnapshot(sequence);
+    }
+
+    /**
+     * Begin reading the statistics, waiting for an update in progress to finish.
+     *
+     * @return the sequence number to validate the read against.
+     */
+    protected final long beginRead() {
+        long sequence = mSequence;
+        while ((sequence & 1) != 0) {
+            Thread.yield();
+            sequence = mSequence;
+        }
+        return sequence;
+    }
+
+    /**
+     * Return true if the statistics haven't been updated since the read began.
+     *
+     * @param sequence the sequence number returned when the read began.
+     * @return true if the values read are consistent, false if the read must be retried.
+     */
+    protected final boolean validateRead(long sequence) {
+        return mSequence == sequence;
+    }
+
+    /**
+     * Write the statistics while holding the lock of the statistics, so that an update can't
+     * happen half way through.
+     */
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+    }
+
+    /**
+     * Read the statistics, migrating the histogram of statistics saved by earlier versions of the
+     * application. The count of each old bucket is spread over the buckets that it overlaps.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        mLastTimestamp = Long.MIN_VALUE;
+        if (mBucketScheme == null || mBucketCounts == null) {
+            mBucketScheme = createDefaultBucketScheme();
+            mBucketCounts = new double[mBucketScheme.getNumBuckets()];
+            if (mHistogramData != null) {
+                for (HistogramPoint point : mHistogramData) {
+                    if (point != null && point.getY() > 0)
+                        addToBuckets(point.getMinX(), point.getMaxX(), point.getY());
+                }
+            }
+        }
+        mHistogramData = null;
+    }
+
+    /**
+     * The kind of a {@link LogLinearBucketScheme} in the binary format.
+     */
+    private static final int BUCKET_SCHEME_LOG_LINEAR = 1;
+
+    /**
+     * The kind of a {@link LinearBucketScheme} in the binary format.
+     */
+    private static final int BUCKET_SCHEME_LINEAR = 2;
+
+    /**
+     * Write the statistics in the binary format read by {@link #readFrom(DataInput, int)}, while
+     * holding the lock of the statistics so that an update can't happen half way through.
+     *
+     * @param out the output to write the statistics to.
+     * @throws IOException if the statistics can't be written.
+     */
+    public synchronized void writeTo(DataOutput out) throws IOException {
+        out.writeBoolean(mChargerStatistics);
+        out.writeDouble(mValue);
+        out.writeDouble(mTotal);
+        out.writeDouble(mNumPoints);
+        out.writeDouble(mSquaredDeviations);
+        out.writeDouble(mMin);
+        out.writeDouble(mMax);
+        out.writeLong(mTimeWeightingInterval);
+        out.writeLong(mTimeWeightingMaxGap);
+        writeBucketScheme(out, mBucketScheme);
+        out.writeInt(mBucketCounts.length);
+        for (double count : mBucketCounts) {
+            out.writeDouble(count);
+        }
+        out.writeBoolean(mQuantileSketch != null);
+        if (mQuantileSketch != null)
+            mQuantileSketch.writeTo(out);
+    }
+
+    /**
+     * Read statistics written by {@link #writeTo(DataOutput)}.
+     *
+     * @param in      the input to read the statistics from.
+     * @param version the version of the binary format of the statistics.
+     * @return the statistics.
+     * @throws IOException if the statistics can't be read.
+     */
+    public static Statistics readFrom(DataInput in, int version) throws IOException {
+        if (version < 1 || version > DataConstants.STATISTICS_FORMAT_VERSION)
+            throw new IOException("Unsupported version of statistics: " + version);
+
+        boolean chargerStatistics = in.readBoolean();
+        double value = in.readDouble();
+        double total = in.readDouble();
+        double numPoints = in.readDouble();
+        double squaredDeviations = in.readDouble();
+        double min = in.readDouble();
+        double max = in.readDouble();
+        long timeWeightingInterval = in.readLong();
+        long timeWeightingMaxGap = in.readLong();
+        Statistics statistics = new Statistics(chargerStatistics, readBucketScheme(in));
+        int numBuckets = in.readInt();
+        if (numBuckets != statistics.mBucketCounts.length)
+            throw new IOException("Invalid number of buckets: " + numBuckets);
+        for (int i = 0; i < numBuckets; i++) {
+            statistics.mBucketCounts[i] = in.readDouble();
+        }
+        statistics.mQuantileSketch = in.readBoolean() ? QuantileSketch.readFrom(in) : null;
+        statistics.mValue = value;
+        statistics.mTotal = total;
+        statistics.mNumPoints = numPoints;
+        statistics.mSquaredDeviations = squaredDeviations;
+        statistics.mMin = min;
+        statistics.mMax = max;
+        statistics.mTimeWeightingInterval = timeWeightingInterval;
+        statistics.mTimeWeightingMaxGap = timeWeightingMaxGap;
+        return statistics;
+    }
+
+    /**
+     * Write the kind and the parameters of the specified bucket scheme.
+     */
+    private static void writeBucketScheme(DataOutput out, BucketScheme bucketScheme) throws IOException {
+        if (bucketScheme instanceof LogLinearBucketScheme) {
+            LogLinearBucketScheme logLinearScheme = (LogLinearBucketScheme) bucketScheme;
+            out.writeByte(BUCKET_SCHEME_LOG_LINEAR);
+            out.writeInt(logLinearScheme.getPrecision());
+            out.writeLong(logLinearScheme.getMaxValue());
+        } else if (bucketScheme instanceof LinearBucketScheme) {
+            LinearBucketScheme linearScheme = (LinearBucketScheme) bucketScheme;
+            out.writeByte(BUCKET_SCHEME_LINEAR);
+            out.writeDouble(linearScheme.getMin());
+            out.writeDouble(linearScheme.getMax());
+            out.writeInt(linearScheme.getNumBuckets());
+        } else {
+            throw new IOException("Unsupported bucket scheme: " + bucketScheme.getClass().getName());
+        }
+    }
+
+    /**
+     * Read a bucket scheme written by {@link #writeBucketScheme}.
+     */
+    private static BucketScheme readBucketScheme(DataInput in) throws IOException {
+        int kind = in.readByte();
+        switch (kind) {
+            case BUCKET_SCHEME_LOG_LINEAR:
+                return new LogLinearBucketScheme(in.readInt(), in.readLong());
+            case BUCKET_SCHEME_LINEAR:
+                return new LinearBucketScheme(in.readDouble(), in.readDouble(), in.readInt());
+            default:
+                throw new IOException("Unsupported bucket scheme: " + kind);
+        }
+    }
+
+    public synchronized void setTotal(double total) {
+        beginWrite();
         mTotal = total;
+        endWrite();
     }
 
-    public void setNumPoints(double numPoints) {
+    public synchronized void setNumPoints(double numPoints) {
+        beginWrite();
         mNumPoints = numPoints;
+        endWrite();
     }
-
     public double getNumPoints() {
         return mNumPoints;
     }
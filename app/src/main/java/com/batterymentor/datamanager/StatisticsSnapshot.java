@@ -0,0 +1,145 @@
+package com.batterymentor.datamanager;
+
+/**
+ * Class representing an immutable snapshot of a statistics instance. Every value of a snapshot is
+ * read from the same version of the statistics, so the average, minimum, maximum, and histogram
+ * are always consistent with each other no matter how often the statistics are updated while the
+ * snapshot is being used.
+ */
+public class StatisticsSnapshot implements Histogram {
+
+    /**
+     * The version of the statistics that the snapshot was taken at.
+     */
+    private final long mVersion;
+
+    /**
+     * The last measured value.
+     */
+    private final double mValue;
+
+    /**
+     * The average of the statistics.
+     */
+    private final double mAverage;
+
+    /**
+     * The minimum value of the data.
+     */
+    private final double mMin;
+
+    /**
+     * The maximum value of the data.
+     */
+    private final double mMax;
+
+    /**
+     * The total sum of the data.
+     */
+    private final double mTotal;
+
+    /**
+     * The number of points that have been collected.
+     */
+    private final double mNumPoints;
+
+    /**
+     * The weight of the statistics.
+     */
+    private final double mWeight;
+
+    /**
+     * The histogram points of the data.
+     */
+    private final HistogramPoint[] mHistogramData;
+
+    /**
+     * The sketch of the distribution of the data, which must not be modified.
+     */
+    private final QuantileSketch mQuantileSketch;
+
+    StatisticsSnapshot(long version, double value, double average, double min, double max, double total,
+                       double numPoints, double weight, HistogramPoint[] histogramData, QuantileSketch quantileSketch) {
+        mVersion = version;
+        mValue = value;
+        mAverage = average;
+        mMin = min;
+        mMax = max;
+        mTotal = total;
+        mNumPoints = numPoints;
+        mWeight = weight;
+        mHistogramData = histogramData;
+        mQuantileSketch = quantileSketch;
+    }
+
+    @Override
+    public double getAverage() {
+        return mAverage;
+    }
+
+    @Override
+    public double getMin() {
+        return mMin;
+    }
+
+    @Override
+    public double getMax() {
+        return mMax;
+    }
+
+    /**
+     * Return the histogram data of the snapshot. The histogram data must not be modified.
+     *
+     * @return the histogram data.
+     */
+    @Override
+    public HistogramPoint[] getHistogramData() {
+        return mHistogramData;
+    }
+
+    @Override
+    public long getHistogramVersion() {
+        return mVersion;
+    }
+
+    @Override
+    public double getPercentile(double fraction) {
+        double percentile = mQuantileSketch.getQuantile(fraction);
+        return Double.isNaN(percentile) ? 0 : percentile;
+    }
+
+    @Override
+    public StatisticsSnapshot getSnapshot() {
+        return this;
+    }
+
+    /**
+     * Return the weight of the statistics at the time of the snapshot.
+     *
+     * @return the weight of the statistics.
+     */
+    public double getWeight() {
+        return mWeight;
+    }
+
+    /**
+     * Return the counterweight of the statistics at the time of the snapshot.
+     *
+     * @return the counterweight of the statistics.
+     */
+    public double getCounterweight() {
+        return 1d - mWeight;
+    }
+
+    public double getValue() {
+        return mValue;
+    }
+
+    public double getTotal() {
+        return mTotal;
+    }
+
+    public double getNumPoints() {
+        return mNumPoints;
+    }
+}
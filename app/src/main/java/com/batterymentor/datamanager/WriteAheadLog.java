@@ -0,0 +1,368 @@
+package com.batterymentor.datamanager;
+
+import com.batterymentor.debug.Debug;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Class representing an append-only log of the values added to data that is only saved to
+ * persistent storage periodically, so that the values added since the last save survive the
+ * process being killed. The log is replayed on startup and truncated after each checkpoint.
+ *
+ * The log is split into segments numbered by generation. Each record is written to the current
+ * segment as soon as it is appended, so it survives the process being killed, and the segment is
+ * synced to storage periodically by {@link #sync()}, so it also survives a reboot once synced.
+ * Appending never waits for a sync, so the code appending records isn't stalled by slow storage. Each record carries a
+ * CRC32, so a record torn by a crash ends the replay of its segment instead of being replayed as
+ * garbage. A checkpoint rotates the log to a new segment before the data is saved and deletes the
+ * older segments once the save succeeded. The generation of the new segment is saved with the
+ * data, so the records of the older segments can be skipped by the replay if the process dies
+ * before they are deleted.
+ */
+public class WriteAheadLog {
+
+    /**
+     * The magic number at the start of every segment, "BMWL" in ASCII.
+     */
+    private static final int MAGIC = 0x424d574c;
+
+    /**
+     * The version of the format of the segments.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The number of bytes of a record: the timestamp, the value, the weight, the flags, and the
+     * checksum.
+     */
+    private static final int RECORD_SIZE = 8 + 8 + 8 + 1 + 4;
+
+    /**
+     * Interface used to visit the records of the log.
+     */
+    public interface RecordVisitor {
+
+        /**
+         * Called for each record that is replayed.
+         *
+         * @param generation the generation of the segment of the record.
+         * @param timestamp  the time of the value in milliseconds since the epoch.
+         * @param value      the value.
+         * @param weight     the weight of the value.
+         * @param flags      the flags of the record.
+         */
+        void onRecord(long generation, long timestamp, double value, double weight, int flags);
+    }
+
+    /**
+     * The directory of the segments.
+     */
+    private final File mDirectory;
+
+    /**
+     * The prefix of the names of the segments, followed by their generation.
+     */
+    private final String mPrefix;
+
+    /**
+     * The generation of the segment that records are appended to.
+     */
+    private long mGeneration;
+
+    /**
+     * The output of the current segment or null if it isn't open.
+     */
+    private FileOutputStream mOutput;
+
+    /**
+     * The number of records appended to the current segment.
+     */
+    private int mSegmentRecords;
+
+    /**
+     * The number of records appended since the last sync to storage.
+     */
+    private int mUnsyncedRecords;
+
+    /**
+     * The buffer that a record is encoded into.
+     */
+    private final byte[] mRecord = new byte[RECORD_SIZE];
+
+    /**
+     * The checksum of the records.
+     */
+    private final CRC32 mChecksum = new CRC32();
+
+    /**
+     * Create a new log whose segments are named after the specified file. Records are appended to
+     * a new segment, after the existing ones.
+     *
+     * @param file the file that the segments are named after.
+     */
+    public WriteAheadLog(File file) {
+        mDirectory = file.getParentFile();
+        mPrefix = file.getName() + ".";
+        long[] generations = listGenerations();
+        mGeneration = (generations.length > 0) ? generations[generations.length - 1] + 1 : 1;
+    }
+
+    /**
+     * Append the records to segments of at least the specified generation from now on. Used when
+     * the log is opened to keep the generations of the new segments above the checkpoint of the
+     * saved data, even if all the segments it covers were deleted.
+     *
+     * @param generation the lowest generation of the segments that records are appended to.
+     */
+    public synchronized void startAt(long generation) {
+        if (mGeneration < generation && mOutput == null && mSegmentRecords == 0)
+            mGeneration = generation;
+    }
+
+    /**
+     * Append a record to the log. The record is written to the current segment right away and
+     * synced to storage by the next call to {@link #sync()}.
+     *
+     * @param timestamp the time of the value in milliseconds since the epoch.
+     * @param value     the value.
+     * @param weight    the weight of the value.
+     * @param flags     the flags of the record, between 0 and 255.
+     * @return true if the record was written, false otherwise.
+     */
+    public synchronized boolean append(long timestamp, double value, double weight, int flags) {
+        try {
+            if (mOutput == null) {
+                File segment = getSegment(mGeneration);
+                boolean empty = segment.length() == 0;
+                mOutput = new FileOutputStream(segment, true);
+                if (empty) {
+                    byte[] header = new byte[8];
+                    putInt(header, 0, MAGIC);
+                    putInt(header, 4, VERSION);
+                    mOutput.write(header);
+                }
+            }
+            putLong(mRecord, 0, timestamp);
+            putLong(mRecord, 8, Double.doubleToRawLongBits(value));
+            putLong(mRecord, 16, Double.doubleToRawLongBits(weight));
+            mRecord[24] = (byte) flags;
+            mChecksum.reset();
+            mChecksum.update(mRecord, 0, RECORD_SIZE - 4);
+            putInt(mRecord, RECORD_SIZE - 4, (int) mChecksum.getValue());
+            mOutput.write(mRecord);
+            mSegmentRecords++;
+            mUnsyncedRecords++;
+            return true;
+        } catch (IOException e) {
+            if (Debug.isCollectionManagerLoggingEnabled())
+                Debug.printDebug(e);
+            return false;
+        }
+    }
+
+    /**
+     * Sync the records appended so far to storage. The sync runs without holding the lock of the
+     * log, so records can be appended while it is in progress. A segment closed by a checkpoint
+     * during the sync isn't synced, since the checkpoint saves its records.
+     */
+    public void sync() {
+        FileDescriptor descriptor;
+        synchronized (this) {
+            if (mOutput == null || mUnsyncedRecords == 0)
+                return;
+
+            try {
+                descriptor = mOutput.getFD();
+            } catch (IOException e) {
+                if (Debug.isCollectionManagerLoggingEnabled())
+                    Debug.printDebug(e);
+                return;
+            }
+            mUnsyncedRecords = 0;
+        }
+
+        try {
+            descriptor.sync();
+        } catch (IOException e) {
+            if (descriptor.valid() && Debug.isCollectionManagerLoggingEnabled())
+                Debug.printDebug(e);
+        }
+    }
+
+    /**
+     * Start a checkpoint: close the current segment, if it has any records, so that records are
+     * appended to a new segment from now on. Must be called while the data is in the state that is
+     * about to be saved. The segment isn't synced to storage, since the checkpoint saves its
+     * records, so that the code appending records isn't blocked by the sync.
+     *
+     * @return the generation of the first segment that isn't covered by the checkpoint, to pass to
+     * {@link #deleteSegmentsBefore(long)} once the data is saved.
+     */
+    public synchronized long rotate() {
+        if (mSegmentRecords > 0) {
+            closeSegment();
+            mGeneration++;
+            mSegmentRecords = 0;
+            mUnsyncedRecords = 0;
+        }
+        return mGeneration;
+    }
+
+    /**
+     * Complete a checkpoint by deleting the segments older than the specified generation, whose
+     * records are all in the saved data.
+     *
+     * @param generation the generation returned by {@link #rotate()} when the checkpoint started.
+     */
+    public void deleteSegmentsBefore(long generation) {
+        for (long segment : listGenerations()) {
+            if (segment < generation)
+                getSegment(segment).delete();
+        }
+    }
+
+    /**
+     * Replay the records of all the segments that were written before this log was created, from
+     * the oldest to the newest.
+     *
+     * @param visitor the visitor of the records.
+     * @return the number of records replayed.
+     */
+    public int replay(RecordVisitor visitor) {
+        int count = 0;
+        for (long generation : listGenerations()) {
+            if (generation < mGeneration)
+                count += replaySegment(generation, visitor);
+        }
+        return count;
+    }
+
+    /**
+     * Replay the records of the segment with the specified generation up to its end or to the first invalid record.
+     */
+    private int replaySegment(long generation, RecordVisitor visitor) {
+        DataInputStream in = null;
+        int count = 0;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(getSegment(generation))));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                return 0;
+
+            byte[] record = new byte[RECORD_SIZE];
+            CRC32 checksum = new CRC32();
+            while (true) {
+                in.readFully(record);
+                checksum.reset();
+                checksum.update(record, 0, RECORD_SIZE - 4);
+                if (getInt(record, RECORD_SIZE - 4) != (int) checksum.getValue())
+                    break;
+
+                visitor.onRecord(generation, getLong(record, 0), Double.longBitsToDouble(getLong(record, 8)),
+                        Double.longBitsToDouble(getLong(record, 16)), record[24] & 0xff);
+                count++;
+            }
+        } catch (EOFException e) {
+        } catch (IOException e) {
+            if (Debug.isCollectionManagerLoggingEnabled())
+                Debug.printDebug(e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Sync and close the current segment. Records appended afterwards go to the same segment.
+     */
+    public synchronized void close() {
+        sync();
+        closeSegment();
+    }
+
+    /**
+     * Close the current segment without syncing it.
+     */
+    private void closeSegment() {
+        if (mOutput == null)
+            return;
+
+        try {
+            mOutput.close();
+        } catch (IOException e) {
+            if (Debug.isCollectionManagerLoggingEnabled())
+                Debug.printDebug(e);
+        }
+        mOutput = null;
+    }
+
+    /**
+     * Return the generations of the existing segments in ascending order.
+     */
+    private long[] listGenerations() {
+        String[] names = (mDirectory != null) ? mDirectory.list() : null;
+        if (names == null)
+            return new long[0];
+
+        long[] generations = new long[names.length];
+        int count = 0;
+        for (String name : names) {
+            if (!name.startsWith(mPrefix))
+                continue;
+
+            try {
+                generations[count] = Long.parseLong(name.substring(mPrefix.length()));
+                count++;
+            } catch (NumberFormatException e) {
+            }
+        }
+        generations = Arrays.copyOf(generations, count);
+        Arrays.sort(generations);
+        return generations;
+    }
+
+    /**
+     * Return the file of the segment with the specified generation.
+     */
+    private File getSegment(long generation) {
+        return new File(mDirectory, mPrefix + generation);
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static void putLong(byte[] bytes, int offset, long value) {
+        putInt(bytes, offset, (int) (value >>> 32));
+        putInt(bytes, offset + 4, (int) value);
+    }
+
+    private static int getInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16
+                | (bytes[offset + 2] & 0xff) << 8 | (bytes[offset + 3] & 0xff);
+    }
+
+    private static long getLong(byte[] bytes, int offset) {
+        return ((long) getInt(bytes, offset) << 32) | (getInt(bytes, offset + 4) & 0xffffffffL);
+    }
+
+    public long getGeneration() {
+        return mGeneration;
+    }
+}
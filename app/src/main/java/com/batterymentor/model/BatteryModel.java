@@ -7,8 +7,8 @@ import com.batterymentor.collectionmanager.LifetimeCollectionTask;
 import com.batterymentor.constants.Constants;
 import com.batterymentor.constants.ModelConstants;
 import com.batterymentor.constants.SensorConstants;
-import com.batterymentor.datamanager.RealtimeStatistics;
 import com.batterymentor.datamanager.Statistics;
+import com.batterymentor.datamanager.StatisticsSnapshot;
 import com.batterymentor.device.Device;
 
 import java.util.HashSet;
@@ -134,7 +134,7 @@ public class BatteryModel {
             LifetimeCollectionTask powerCollectionTask = CollectionManager.getInstance().getPowerCollectionTask(mContext);
             Statistics lifetimeStatistics = powerCollectionTask.getLifetimeStatistics();
             mLifetimePower = lifetimeStatistics.getAverage();
-            RealtimeStatistics realtimeStatistics = powerCollectionTask.getRealtimeStatistics();
+            StatisticsSnapshot realtimeStatistics = powerCollectionTask.getRealtimeStatistics().getSnapshot();
             mRealtimePower = realtimeStatistics.getAverage();
             mRealtimeWeight = realtimeStatistics.getWeight();
             mRealtimeCounterweight = realtimeStatistics.getCounterweight();
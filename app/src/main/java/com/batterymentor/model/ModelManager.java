@@ -6,20 +6,33 @@ import com.batterymentor.collectionmanager.CollectionManager;
 import com.batterymentor.collectionmanager.CollectionTask;
 import com.batterymentor.collectionmanager.LifetimeCollectionTask;
 import com.batterymentor.constants.ModelConstants;
+import com.batterymentor.datamanager.BinaryFormat;
 import com.batterymentor.datamanager.Point;
+import com.batterymentor.debug.Debug;
 import com.batterymentor.sensors.ChargerManager;
 
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 
 /**
  * Class representing the manager that maintains all the global models used by the application.
  */
 public class ModelManager implements ChargerManager.ChargerListener {
 
+    /**
+     * The kind of a {@link LinearModel} in the binary format.
+     */
+    private static final int MODEL_KIND_LINEAR = 1;
+
+    /**
+     * The kind of a {@link QuadraticModel} in the binary format.
+     */
+    private static final int MODEL_KIND_QUADRATIC = 2;
+
     /**
      * The battery model.
      */
@@ -147,61 +160,111 @@ public class ModelManager implements ChargerManager.ChargerListener {
     }
 
     /**
-     * Save a model to the specified file in storage.
+     * Save a model to the specified file in storage. The file is replaced atomically, so a crash
+     * while saving leaves the previous model intact.
      */
     public void saveModelToStorage(Context context, String filename, Model model) {
-        FileOutputStream fileOutputStream = null;
-        ObjectOutputStream objectOutputStream = null;
         try {
-            fileOutputStream = context.openFileOutput(filename, Context.MODE_PRIVATE);
-            objectOutputStream = new ObjectOutputStream(fileOutputStream);
-            if (model instanceof LinearModel) {
-                LinearModel linearModel = (LinearModel) model;
-                objectOutputStream.writeObject(linearModel);
-            } else if (model instanceof QuadraticModel) {
-                QuadraticModel quadraticModel = (QuadraticModel) model;
-                objectOutputStream.writeObject(quadraticModel);
-            }
+            byte[] payload = encodeModel(model);
+            BinaryFormat.writeFile(context.getFileStreamPath(filename), BinaryFormat.TYPE_MODEL, ModelConstants.MODEL_FORMAT_VERSION, payload);
         } catch (IOException e) {
-        } finally {
-            if (fileOutputStream != null) {
-                try {
-                    fileOutputStream.close();
-                } catch (IOException e) {
-                }
-            }
-            if (objectOutputStream != null) {
-                try {
-                    objectOutputStream.close();
-                } catch (IOException e) {
-                }
-            }
+            if (Debug.isCollectionManagerLoggingEnabled())
+                Debug.printDebug(e);
         }
     }
 
     /**
-     * Load a linear model from the specified file in storage.
+     * Load a model from the specified file in storage. A model saved with Java serialization by an
+     * earlier version of the application is migrated to the binary format the first time it is
+     * loaded.
+     *
+     * @return the model or null if it can't be loaded.
      */
     public Model loadModelFromStorage(Context context, String filename) {
-        FileInputStream fileInputStream = null;
+        byte[] bytes = BinaryFormat.readFile(context.getFileStreamPath(filename));
+        if (bytes == null)
+            return null;
+
+        if (!BinaryFormat.isBinaryFormat(bytes)) {
+            Model model = loadSerializedModel(bytes);
+            if (model != null)
+                saveModelToStorage(context, filename, model);
+            return model;
+        }
+
+        try {
+            BinaryFormat.Record record = BinaryFormat.decode(bytes);
+            if (record.getType() != BinaryFormat.TYPE_MODEL)
+                throw new IOException("Unexpected type of model record: " + record.getType());
+            return decodeModel(record.getInput(), record.getVersion());
+        } catch (IOException e) {
+            if (Debug.isCollectionManagerLoggingEnabled())
+                Debug.printDebug(e);
+            return null;
+        }
+    }
+
+    /**
+     * Encode the kind and the coefficients of the specified model.
+     */
+    private static byte[] encodeModel(Model model) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        if (model instanceof LinearModel) {
+            out.writeByte(MODEL_KIND_LINEAR);
+            out.writeDouble(model.getFirstCoefficient());
+            out.writeDouble(model.getIntercept());
+        } else if (model instanceof QuadraticModel) {
+            out.writeByte(MODEL_KIND_QUADRATIC);
+            out.writeDouble(model.getFirstCoefficient());
+            out.writeDouble(model.getSecondCoefficient());
+            out.writeDouble(model.getIntercept());
+        } else {
+            throw new IOException("Unsupported model: " + model);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decode a model encoded by {@link #encodeModel}.
+     */
+    private static Model decodeModel(DataInput in, int version) throws IOException {
+        if (version < 1 || version > ModelConstants.MODEL_FORMAT_VERSION)
+            throw new IOException("Unsupported version of model: " + version);
+
+        int kind = in.readByte();
+        switch (kind) {
+            case MODEL_KIND_LINEAR:
+                return new LinearModel(in.readDouble(), in.readDouble());
+            case MODEL_KIND_QUADRATIC:
+                return new QuadraticModel(in.readDouble(), in.readDouble(), in.readDouble());
+            default:
+                throw new IOException("Unsupported kind of model: " + kind);
+        }
+    }
+
+    /**
+     * Load a model saved with Java serialization by an earlier version of the application.
+     *
+     * @return the model or null if it can't be loaded.
+     */
+    static Model loadSerializedModel(byte[] bytes) {
         ObjectInputStream objectInputStream = null;
         Model model = null;
         try {
-            fileInputStream = context.openFileInput(filename);
-            objectInputStream = new ObjectInputStream(fileInputStream);
+            objectInputStream = new ObjectInputStream(new ByteArrayInputStream(bytes));
             Object object = objectInputStream.readObject();
             if (object instanceof Model) {
                 model = (Model) object;
             }
         } catch (IOException e) {
+            if (Debug.isCollectionManagerLoggingEnabled())
+                Debug.printDebug(e);
         } catch (ClassNotFoundException e) {
+            if (Debug.isCollectionManagerLoggingEnabled())
+                Debug.printDebug(e);
         } finally {
-            if (fileInputStream != null) {
-                try {
-                    fileInputStream.close();
-                } catch (IOException e) {
-                }
-            }
             if (objectInputStream != null) {
                 try {
                     objectInputStream.close();
@@ -10,6 +10,12 @@ import java.util.ArrayList;
  */
 public class QuadraticModel extends Model implements Serializable {
 
+    /**
+     * The serialization version of the model, pinned so that models saved by earlier versions of
+     * the application can still be migrated.
+     */
+    private static final long serialVersionUID = 6337513396111099551L;
+
     /**
      * The first coefficient of the model. The coefficient a in y = ax^2 + bx + c.
      */
@@ -25,6 +31,19 @@ public class QuadraticModel extends Model implements Serializable {
      */
     protected double mIntercept;
 
+    /**
+     * Create a new quadratic model with the specified coefficients.
+     *
+     * @param coeff1    the coefficient a in y = ax^2 + bx + c.
+     * @param coeff2    the coefficient b in y = ax^2 + bx + c.
+     * @param intercept the intercept c in y = ax^2 + bx + c.
+     */
+    public QuadraticModel(double coeff1, double coeff2, double intercept) {
+        mCoeff1 = coeff1;
+        mCoeff2 = coeff2;
+        mIntercept = intercept;
+    }
+
     public QuadraticModel(ArrayList<Point> data) {
         super(data);
     }
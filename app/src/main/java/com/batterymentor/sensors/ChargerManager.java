@@ -229,6 +229,36 @@ public class ChargerManager {
         return Constants.INVALID_VALUE;
     }
 
+    /**
+     * Return the remaining battery energy reported by the battery manager.
+     *
+     * @return the remaining battery energy in nanowatt-hours or {@link Constants#INVALID_VALUE} if
+     * it isn't reported.
+     */
+    public long getBatteryEnergyCounter() {
+        if (mBatteryManager != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            long energy = mBatteryManager.getLongProperty(BatteryManager.BATTERY_PROPERTY_ENERGY_COUNTER);
+            if (energy > 0 && energy != Long.MAX_VALUE)
+                return energy;
+        }
+        return Constants.INVALID_VALUE;
+    }
+
+    /**
+     * Return the remaining battery charge reported by the battery manager.
+     *
+     * @return the remaining battery charge in microamp-hours or {@link Constants#INVALID_VALUE} if
+     * it isn't reported.
+     */
+    public int getBatteryChargeCounter() {
+        if (mBatteryManager != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            int charge = mBatteryManager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CHARGE_COUNTER);
+            if (charge > 0 && charge != Integer.MAX_VALUE)
+                return charge;
+        }
+        return Constants.INVALID_VALUE;
+    }
+
     public int getBatteryVoltage() {
         return mBatteryVoltage;
     }
@@ -0,0 +1,306 @@
+package com.batterymentor.sensors;
+
+import com.batterymentor.constants.Constants;
+import com.batterymentor.constants.SensorConstants;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Class responsible for reading and parsing procfs files without allocating. The file is kept open
+ * and re-read from the start into a reused buffer, which is then scanned byte by byte straight
+ * into primitive fields. Instances are not thread safe.
+ */
+public class ProcParser {
+
+    /**
+     * The path of the file to read.
+     */
+    private final String mPath;
+
+    /**
+     * The buffer that the file contents are read into.
+     */
+    private final byte[] mBuffer;
+
+    /**
+     * The open file, or null if the file is not open.
+     */
+    private RandomAccessFile mFile;
+
+    /**
+     * Create a new parser for the specified file.
+     *
+     * @param path       the path of the file to read.
+     * @param bufferSize the maximum number of bytes to read from the start of the file.
+     */
+    public ProcParser(String path, int bufferSize) {
+        mPath = path;
+        mBuffer = new byte[bufferSize];
+    }
+
+    /**
+     * Read the start of the file into the buffer. If the read fails, the file is reopened and the
+     * read is retried once.
+     *
+     * @return the number of bytes read into the buffer.
+     * @throws IOException if the file can't be read.
+     */
+    public int read() throws IOException {
+        try {
+            return readFromStart();
+        } catch (IOException e) {
+            close();
+            return readFromStart();
+        }
+    }
+
+    /**
+     * Read the start of the file into the buffer without reopening the file if the read fails.
+     * Used for files whose path may refer to a different file once the read fails, such as the
+     * stat file of a pid that may be reused after its process exits.
+     *
+     * @return the number of bytes read into the buffer.
+     * @throws IOException if the file can't be read.
+     */
+    public int readOnce() throws IOException {
+        return readFromStart();
+    }
+
+    /**
+     * Read the start of the file into the buffer, opening the file if necessary.
+     */
+    private int readFromStart() throws IOException {
+        if (mFile == null)
+            mFile = new RandomAccessFile(mPath, SensorConstants.MODE_READ);
+
+        mFile.seek(0);
+        int length = 0;
+        int read;
+        while (length < mBuffer.length && (read = mFile.read(mBuffer, length, mBuffer.length - length)) > 0) {
+            length += read;
+        }
+        return length;
+    }
+
+    /**
+     * Close the file. The file will be reopened on the next read.
+     */
+    public void close() {
+        try {
+            if (mFile != null)
+                mFile.close();
+        } catch (IOException e) {
+        }
+        mFile = null;
+    }
+
+    public byte[] getBuffer() {
+        return mBuffer;
+    }
+
+    public String getPath() {
+        return mPath;
+    }
+
+    /**
+     * Parse the per-core cpu lines of /proc/stat. For every core line, the sum of all the jiffy
+     * counters is written to the totals and the sum of all but the idle counter is written to the
+     * usages. Cores that aren't present in the data are set to {@link Constants#INVALID_VALUE}.
+     *
+     * @param data   the contents of /proc/stat.
+     * @param length the number of valid bytes in the data.
+     * @param totals the array that receives the total jiffies of each core.
+     * @param usages the array that receives the non-idle jiffies of each core.
+     * @return the number of cores that were parsed.
+     */
+    public static int parseStat(byte[] data, int length, long[] totals, long[] usages) {
+        for (int core = 0; core < totals.length; core++) {
+            totals[core] = Constants.INVALID_VALUE;
+            usages[core] = Constants.INVALID_VALUE;
+        }
+        int numCores = 0;
+        int i = 0;
+        while (i < length) {
+            int lineEnd = i;
+            while (lineEnd < length && data[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            if (lineEnd == length || !isCpuLine(data, i, lineEnd))
+                break;
+
+            i += SensorConstants.PROC_STAT_CPU_PREFIX.length();
+            if (isDigit(data[i])) {
+                int core = 0;
+                while (i < lineEnd && isDigit(data[i])) {
+                    core = core * 10 + (data[i] - '0');
+                    i++;
+                }
+                long total = 0;
+                long idle = 0;
+                int field = 0;
+                while (i < lineEnd) {
+                    if (!isDigit(data[i])) {
+                        i++;
+                        continue;
+                    }
+                    long value = 0;
+                    while (i < lineEnd && isDigit(data[i])) {
+                        value = value * 10 + (data[i] - '0');
+                        i++;
+                    }
+                    if (field == SensorConstants.PROC_STAT_IDLE_INDEX)
+                        idle = value;
+                    total += value;
+                    field++;
+                }
+                if (core < totals.length) {
+                    totals[core] = total;
+                    usages[core] = total - idle;
+                    numCores++;
+                }
+            }
+            i = lineEnd + 1;
+        }
+        return numCores;
+    }
+
+    /**
+     * Parse the cpu usage of a process from the contents of /proc/&lt;pid&gt;/stat. The usage is
+     * the sum of the user, system, children user and children system times. The command name is
+     * skipped by searching for its closing parenthesis from the end, so names that contain spaces
+     * or parentheses are handled correctly.
+     *
+     * @param data   the contents of /proc/&lt;pid&gt;/stat.
+     * @param length the number of valid bytes in the data.
+     * @return the cpu usage of the process in jiffies or {@link Constants#INVALID_VALUE} if the
+     * data is malformed.
+     */
+    public static long parsePidStat(byte[] data, int length) {
+        int i = length - 1;
+        while (i >= 0 && data[i] != ')') {
+            i--;
+        }
+        if (i < 0)
+            return Constants.INVALID_VALUE;
+
+        i++;
+        int lastField = SensorConstants.SENSOR_PROCESS_NUM_TOKENS_TO_IGNORE + SensorConstants.SENSOR_PROCESS_NUM_TOKENS_TO_READ;
+        int field = SensorConstants.PROC_PID_STAT_FIRST_FIELD_AFTER_COMMAND;
+        long usage = 0;
+        while (field <= lastField) {
+            while (i < length && data[i] == ' ') {
+                i++;
+            }
+            if (i >= length || data[i] == '\n')
+                return Constants.INVALID_VALUE;
+
+            if (field > SensorConstants.SENSOR_PROCESS_NUM_TOKENS_TO_IGNORE) {
+                boolean negative = data[i] == '-';
+                if (negative)
+                    i++;
+                long value = 0;
+                while (i < length && isDigit(data[i])) {
+                    value = value * 10 + (data[i] - '0');
+                    i++;
+                }
+                usage += negative ? -value : value;
+            }
+            while (i < length && data[i] != ' ' && data[i] != '\n') {
+                i++;
+            }
+            field++;
+        }
+        return usage;
+    }
+
+    /**
+     * Parse the contents of a cpufreq time_in_state file, which contains one line per frequency
+     * with the frequency in kilohertz followed by the cumulative time spent at that frequency.
+     * Parsing stops at the first malformed or unterminated line or when the arrays are full.
+     *
+     * @param data        the contents of time_in_state.
+     * @param length      the number of valid bytes in the data.
+     * @param frequencies the array that receives the frequency of each state.
+     * @param times       the array that receives the cumulative time spent in each state.
+     * @return the number of states that were parsed.
+     */
+    public static int parseTimeInState(byte[] data, int length, long[] frequencies, long[] times) {
+        int numStates = 0;
+        int i = 0;
+        while (i < length && numStates < frequencies.length && numStates < times.length) {
+            if (!isDigit(data[i]))
+                break;
+
+            long frequency = 0;
+            while (i < length && isDigit(data[i])) {
+                frequency = frequency * 10 + (data[i] - '0');
+                i++;
+            }
+            while (i < length && data[i] == ' ') {
+                i++;
+            }
+            if (i >= length || !isDigit(data[i]))
+                break;
+
+            long time = 0;
+            while (i < length && isDigit(data[i])) {
+                time = time * 10 + (data[i] - '0');
+                i++;
+            }
+            if (i >= length || data[i] != '\n')
+                break;
+
+            frequencies[numStates] = frequency;
+            times[numStates] = time;
+            numStates++;
+            i++;
+        }
+        return numStates;
+    }
+
+    /**
+     * Parse the first number of a whitespace separated list such as a cpufreq related_cpus file.
+     *
+     * @param data   the contents of the file.
+     * @param length the number of valid bytes in the data.
+     * @return the first number in the list or {@link Constants#INVALID_VALUE} if there is none.
+     */
+    public static long parseFirstLong(byte[] data, int length) {
+        int i = 0;
+        while (i < length && (data[i] == ' ' || data[i] == '\t')) {
+            i++;
+        }
+        if (i >= length || !isDigit(data[i]))
+            return Constants.INVALID_VALUE;
+
+        long value = 0;
+        while (i < length && isDigit(data[i])) {
+            value = value * 10 + (data[i] - '0');
+            i++;
+        }
+        return value;
+    }
+
+    /**
+     * Return true if the line between the specified indices starts with the cpu prefix.
+     */
+    private static boolean isCpuLine(byte[] data, int start, int end) {
+        String prefix = SensorConstants.PROC_STAT_CPU_PREFIX;
+        if (end - start <= prefix.length())
+            return false;
+
+        for (int i = 0; i < prefix.length(); i++) {
+            if (data[start + i] != prefix.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Return true if the specified byte is an ASCII digit, false otherwise.
+     */
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+}
@@ -1,17 +1,21 @@
 package com.batterymentor.sensors;
 
+import com.batterymentor.constants.Constants;
 import com.batterymentor.constants.SensorConstants;
 import com.batterymentor.datamanager.Point;
 import com.batterymentor.debug.Debug;
+import com.batterymentor.sensors.cpu.FrequencyResidencySensor;
 import com.batterymentor.sensors.cpu.FrequencySensor;
 import com.batterymentor.sensors.cpu.LoadSensor;
 import com.batterymentor.sensors.power.CurrentSensor;
+import com.batterymentor.sensors.power.EnergyCounterSensor;
 import com.batterymentor.sensors.power.PowerEstimationSensor;
 import com.batterymentor.sensors.power.PowerSensor;
 import com.batterymentor.sensors.power.VoltageSensor;
 
-import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * The set of sensors responsible for reading values from the filesystem.
@@ -21,8 +25,10 @@ public abstract class Sensor {
     public static final VoltageSensor VOLTAGE = new VoltageSensor();
     public static final PowerSensor POWER = new PowerSensor();
     public static final FrequencySensor FREQUENCY_SENSOR = new FrequencySensor();
+    public static final FrequencyResidencySensor FREQUENCY_RESIDENCY_SENSOR = new FrequencyResidencySensor();
     public static final LoadSensor LOAD_SENSOR = new LoadSensor();
     public static final PowerEstimationSensor POWER_ESTIMATION_SENSOR = new PowerEstimationSensor();
+    public static final EnergyCounterSensor ENERGY_COUNTER = new EnergyCounterSensor();
 
     /**
      * The name of the file used for reading the sensor measurement.
@@ -30,14 +36,39 @@ public abstract class Sensor {
     private String mFilename;
 
     /**
-     * The timestamp of the last measurement.
+     * The pooled handle used for reading the sensor measurement.
      */
-    private double mTimestamp;
+    private SysfsReader.Handle mHandle;
 
     /**
-     * The value of the last measurement.
+     * The most recently published sample of this sensor.
      */
-    private double mValue;
+    private final AtomicReference<Sample> mSample = new AtomicReference<Sample>(Sample.EMPTY);
+
+    /**
+     * Flag indicating that a caller is currently reading a new sample.
+     */
+    private final AtomicBoolean mMeasuring = new AtomicBoolean(false);
+
+    /**
+     * The lock used for waiting for the sample that is being read to be published.
+     */
+    private final Object mMeasurementLock = new Object();
+
+    /**
+     * The number of point measurements that were served from the published sample.
+     */
+    private final AtomicLong mCacheHits = new AtomicLong();
+
+    /**
+     * The number of point measurements that required reading a new sample.
+     */
+    private final AtomicLong mCacheMisses = new AtomicLong();
+
+    /**
+     * The number of point measurements that found another caller reading a new sample.
+     */
+    private final AtomicLong mCacheContention = new AtomicLong();
 
     /**
      * Create an initialize the sensor.
@@ -88,21 +119,137 @@ public abstract class Sensor {
     public abstract double measure();
 
     /**
-     * Read a point measurement from this sensor.
+     * Return the set of sensors that must be captured in a {@link SensorFrame} for this sensor to
+     * derive its value from the frame.
+     *
+     * @return the set of sensors required by this sensor, as a combination of the frame flags.
+     */
+    public int getFrameSensors() {
+        return 0;
+    }
+
+    /**
+     * Derive a value measurement for this sensor from the specified frame. Sensors that don't
+     * declare any frame sensors measure themselves directly.
      *
+     * @param frame the frame captured with at least the sensors declared by this sensor.
+     * @return a value measurement from this sensor.
+     */
+    public double measure(SensorFrame frame) {
+        return measure();
+    }
+
+    /**
+     * Derive a point measurement for this sensor from the specified frame. The point is stamped
+     * with the time at which the frame was captured.
+     *
+     * @param frame the frame captured with at least the sensors declared by this sensor.
      * @return a point measurement from this sensor.
      */
-    public synchronized Point measurePoint() {
-        Point point;
-        double timestamp = System.currentTimeMillis();
-        if (Math.abs(timestamp - mTimestamp) < SensorConstants.SENSOR_MINIMUM_MEASUREMENT_INTERVAL) {
-            point = new Point(timestamp, mValue);
-        } else {
-            mTimestamp = timestamp;
-            mValue = measure();
-            point = new Point(mTimestamp, mValue);
+    public Point measurePoint(SensorFrame frame) {
+        Sample sample = new Sample(frame.getTimestamp(), measure(frame));
+        publish(sample);
+        return new Point(sample.mTimestamp, sample.mValue);
+    }
+
+    /**
+     * Read a point measurement from this sensor. If the published sample is younger than the
+     * minimum measurement interval, it is returned without reading the sensor. Otherwise exactly
+     * one caller reads and publishes a new sample. Concurrent callers wait for it to be published,
+     * for at most {@link SensorConstants#SENSOR_MEASUREMENT_WAIT_TIMEOUT}, and return it. If the
+     * read takes longer, they return the last published sample with its own timestamp.
+     *
+     * @return a point measurement from this sensor.
+     */
+    public Point measurePoint() {
+        long timestamp = System.currentTimeMillis();
+        Sample sample = mSample.get();
+        if (Math.abs(timestamp - sample.mTimestamp) < SensorConstants.SENSOR_MINIMUM_MEASUREMENT_INTERVAL) {
+            mCacheHits.incrementAndGet();
+            return new Point(timestamp, sample.mValue);
         }
-        return point;
+        if (mMeasuring.compareAndSet(false, true)) {
+            try {
+                sample = new Sample(timestamp, measure());
+                publish(sample);
+            } finally {
+                mMeasuring.set(false);
+                synchronized (mMeasurementLock) {
+                    mMeasurementLock.notifyAll();
+                }
+            }
+            mCacheMisses.incrementAndGet();
+            return new Point(sample.mTimestamp, sample.mValue);
+        }
+
+        mCacheContention.incrementAndGet();
+        sample = awaitMeasurement();
+        return new Point((sample == Sample.EMPTY) ? timestamp : sample.mTimestamp, sample.mValue);
+    }
+
+    /**
+     * Wait for the caller that is reading a new sample to publish it, for at most
+     * {@link SensorConstants#SENSOR_MEASUREMENT_WAIT_TIMEOUT}.
+     *
+     * @return the most recently published sample.
+     */
+    private Sample awaitMeasurement() {
+        boolean interrupted = false;
+        long deadline = System.nanoTime() + SensorConstants.SENSOR_MEASUREMENT_WAIT_TIMEOUT * Constants.NANOSECONDS_IN_MILLISECOND;
+        synchronized (mMeasurementLock) {
+            long remaining;
+            while (mMeasuring.get() && (remaining = deadline - System.nanoTime()) > 0) {
+                try {
+                    mMeasurementLock.wait(Math.max(1, remaining / Constants.NANOSECONDS_IN_MILLISECOND));
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        return mSample.get();
+    }
+
+    /**
+     * Publish the specified sample unless a newer sample has already been published.
+     *
+     * @param sample the sample to publish.
+     */
+    private void publish(Sample sample) {
+        Sample published;
+        do {
+            published = mSample.get();
+            if (published.mTimestamp > sample.mTimestamp)
+                return;
+        } while (!mSample.compareAndSet(published, sample));
+    }
+
+    /**
+     * Return the number of point measurements that were served from the published sample.
+     *
+     * @return the number of cache hits.
+     */
+    public long getCacheHits() {
+        return mCacheHits.get();
+    }
+
+    /**
+     * Return the number of point measurements that required reading a new sample.
+     *
+     * @return the number of cache misses.
+     */
+    public long getCacheMisses() {
+        return mCacheMisses.get();
+    }
+
+    /**
+     * Return the number of point measurements that found another caller reading a new sample.
+     *
+     * @return the number of contended measurements.
+     */
+    public long getCacheContention() {
+        return mCacheContention.get();
     }
 
     /**
@@ -112,7 +259,17 @@ public abstract class Sensor {
      * @return a scaled value measurement from this sensor.
      */
     public double measureValue(double conversionFactor) {
-        return measureValue(getFilename(), conversionFactor);
+        double value;
+        try {
+            if (mHandle == null)
+                mHandle = SysfsReader.getInstance().getHandle(getFilename());
+            value = mHandle.readLong() / conversionFactor;
+        } catch (Exception e) {
+            value = measureValueAlternate();
+            if (Debug.isCollectionManagerLoggingEnabled())
+                Debug.printDebug(e);
+        }
+        return value;
     }
 
     /**
@@ -133,22 +290,40 @@ public abstract class Sensor {
      * @return a scaled value measurement from this sensor.
      */
     public double measureValue(String filename, double conversionFactor) {
-        double value = 0;
-        RandomAccessFile file = null;
+        double value;
         try {
-            file = new RandomAccessFile(filename, SensorConstants.MODE_READ);
-            value = Double.parseDouble(file.readLine()) / conversionFactor;
+            value = SysfsReader.getInstance().readLong(filename) / conversionFactor;
         } catch (Exception e) {
             value = measureValueAlternate();
             if (Debug.isCollectionManagerLoggingEnabled())
                 Debug.printDebug(e);
-        } finally {
-            try {
-                if (file != null)
-                    file.close();
-            } catch (IOException e) {
-            }
         }
         return value;
     }
+
+    /**
+     * Class representing an immutable published sample of a sensor.
+     */
+    private static final class Sample {
+
+        /**
+         * The sample published before the sensor is first measured.
+         */
+        static final Sample EMPTY = new Sample(Long.MIN_VALUE / 2, 0);
+
+        /**
+         * The timestamp of the sample.
+         */
+        final long mTimestamp;
+
+        /**
+         * The value of the sample.
+         */
+        final double mValue;
+
+        Sample(long timestamp, double value) {
+            mTimestamp = timestamp;
+            mValue = value;
+        }
+    }
 }
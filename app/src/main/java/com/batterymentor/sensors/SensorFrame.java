@@ -0,0 +1,188 @@
+package com.batterymentor.sensors;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.provider.Settings;
+
+import com.batterymentor.constants.Constants;
+import com.batterymentor.device.Device;
+
+/**
+ * Class representing a coherent set of sensor readings. All the sensors declared by the frame are
+ * sampled together in one tight pass and stamped with a single timestamp, so that values derived
+ * from several sensors (such as power from current and voltage) aren't skewed during transients.
+ * A frame can be captured repeatedly to avoid allocating a new one for every sample.
+ */
+public class SensorFrame {
+
+    /**
+     * Flag declaring that the frame samples the battery current.
+     */
+    public static final int CURRENT = 1;
+
+    /**
+     * Flag declaring that the frame samples the battery voltage.
+     */
+    public static final int VOLTAGE = 1 << 1;
+
+    /**
+     * Flag declaring that the frame samples the frequency of every core. The frequency is the
+     * time-weighted mean since the previous read when the frequency residency is available and the
+     * instantaneous frequency otherwise.
+     */
+    public static final int FREQUENCY = 1 << 2;
+
+    /**
+     * Flag declaring that the frame samples the load of every core.
+     */
+    public static final int LOAD = 1 << 3;
+
+    /**
+     * Flag declaring that the frame samples the screen brightness.
+     */
+    public static final int BRIGHTNESS = 1 << 4;
+
+    /**
+     * The set of sensors sampled by this frame.
+     */
+    private final int mSensors;
+
+    /**
+     * The monotonic time at which the frame was captured in milliseconds since boot.
+     */
+    private long mElapsedRealtime;
+
+    /**
+     * The wall clock time at which the frame was captured in milliseconds.
+     */
+    private long mTimestamp;
+
+    /**
+     * The battery current.
+     */
+    private double mCurrent;
+
+    /**
+     * The battery voltage.
+     */
+    private double mVoltage;
+
+    /**
+     * The frequency of each core.
+     */
+    private final double[] mFrequencies;
+
+    /**
+     * The load of each core.
+     */
+    private final double[] mLoads;
+
+    /**
+     * The number of cores that were sampled.
+     */
+    private int mNumCores;
+
+    /**
+     * The screen brightness.
+     */
+    private int mBrightness = Constants.INVALID_VALUE;
+
+    /**
+     * Create a new frame that samples the specified set of sensors.
+     *
+     * @param sensors the set of sensors to sample, as a combination of the sensor flags.
+     */
+    public SensorFrame(int sensors) {
+        mSensors = sensors;
+        int numCores = Device.getInstance().getNumCores();
+        mFrequencies = new double[contains(FREQUENCY) ? numCores : 0];
+        mLoads = new double[contains(LOAD) ? numCores : 0];
+    }
+
+    /**
+     * Sample all of the sensors declared by this frame. The fast electrical sensors are read
+     * first and closest to the timestamp.
+     */
+    public void capture() {
+        mElapsedRealtime = SystemClock.elapsedRealtime();
+        mTimestamp = System.currentTimeMillis();
+        if (contains(CURRENT))
+            mCurrent = Sensor.CURRENT.measure();
+        if (contains(VOLTAGE))
+            mVoltage = Sensor.VOLTAGE.measure();
+        int numCores = Integer.MAX_VALUE;
+        if (contains(FREQUENCY)) {
+            numCores = Sensor.FREQUENCY_RESIDENCY_SENSOR.isSupported() ?
+                    Sensor.FREQUENCY_RESIDENCY_SENSOR.measureAllCores(mFrequencies) :
+                    Sensor.FREQUENCY_SENSOR.measureAllCores(mFrequencies);
+        }
+        if (contains(LOAD))
+            numCores = Math.min(numCores, Sensor.LOAD_SENSOR.measureAllCores(mLoads));
+        mNumCores = (numCores == Integer.MAX_VALUE) ? 0 : numCores;
+        if (contains(BRIGHTNESS))
+            mBrightness = readBrightness();
+    }
+
+    /**
+     * Read the screen brightness from the system settings.
+     *
+     * @return the screen brightness or {@link Constants#INVALID_VALUE} if it can't be read.
+     */
+    private static int readBrightness() {
+        int brightness = Constants.INVALID_VALUE;
+        Context context = com.batterymentor.settings.Settings.getInstance().getContext();
+        if (context != null) {
+            try {
+                brightness = Settings.System.getInt(context.getContentResolver(), Settings.System.SCREEN_BRIGHTNESS);
+            } catch (Settings.SettingNotFoundException e) {
+            }
+        }
+        return brightness;
+    }
+
+    /**
+     * Return true if this frame samples all of the specified sensors, false otherwise.
+     *
+     * @param sensors the set of sensors to check.
+     * @return true if this frame samples all of the specified sensors, false otherwise.
+     */
+    public boolean contains(int sensors) {
+        return (mSensors & sensors) == sensors;
+    }
+
+    public int getSensors() {
+        return mSensors;
+    }
+
+    public long getElapsedRealtime() {
+        return mElapsedRealtime;
+    }
+
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    public double getCurrent() {
+        return mCurrent;
+    }
+
+    public double getVoltage() {
+        return mVoltage;
+    }
+
+    public int getNumCores() {
+        return mNumCores;
+    }
+
+    public double getFrequency(int core) {
+        return mFrequencies[core];
+    }
+
+    public double getLoad(int core) {
+        return mLoads[core];
+    }
+
+    public int getBrightness() {
+        return mBrightness;
+    }
+}
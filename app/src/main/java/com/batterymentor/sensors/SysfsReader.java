@@ -0,0 +1,204 @@
+package com.batterymentor.sensors;
+
+import com.batterymentor.constants.SensorConstants;
+import com.batterymentor.debug.Debug;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+
+/**
+ * Singleton class that reads numeric values from sysfs and procfs files. Keeps a pooled handle for
+ * every path so that repeated reads re-read the open file from the start instead of opening and
+ * closing it for every measurement.
+ */
+public class SysfsReader {
+
+    /**
+     * The pool of open handles, keyed by path.
+     */
+    private final HashMap<String, Handle> mHandles = new HashMap<String, Handle>();
+
+    private static class SingletonHolder {
+        private static final SysfsReader INSTANCE = new SysfsReader();
+    }
+
+    public static SysfsReader getInstance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    private SysfsReader() {
+    }
+
+    /**
+     * Return the pooled handle for the specified path, creating it if it doesn't exist yet. The
+     * underlying file is opened lazily on the first read.
+     *
+     * @param path the path of the file to read.
+     * @return the pooled handle for the specified path.
+     */
+    public Handle getHandle(String path) {
+        synchronized (mHandles) {
+            Handle handle = mHandles.get(path);
+            if (handle == null) {
+                handle = new Handle(path);
+                mHandles.put(path, handle);
+            }
+            return handle;
+        }
+    }
+
+    /**
+     * Read an integer value from the specified path.
+     *
+     * @param path the path of the file to read.
+     * @return the integer value contained in the file.
+     * @throws IOException if the file can't be read or doesn't contain an integer.
+     */
+    public long readLong(String path) throws IOException {
+        return getHandle(path).readLong();
+    }
+
+    /**
+     * Close all the pooled handles. The handles will be reopened on their next read.
+     */
+    public void closeAll() {
+        synchronized (mHandles) {
+            for (Handle handle : mHandles.values()) {
+                handle.close();
+            }
+        }
+    }
+
+    /**
+     * Parse an ASCII integer from the first bytes of the specified buffer. Leading whitespace and
+     * an optional sign are accepted and parsing stops at the first non-digit.
+     *
+     * @param buffer the buffer containing the bytes to parse.
+     * @param length the number of valid bytes in the buffer.
+     * @return the parsed integer.
+     * @throws NumberFormatException if the buffer doesn't start with an integer.
+     */
+    public static long parseLong(ByteBuffer buffer, int length) {
+        int i = 0;
+        while (i < length && isWhitespace(buffer.get(i))) {
+            i++;
+        }
+        boolean negative = false;
+        if (i < length && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+        int start = i;
+        long value = 0;
+        while (i < length) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9)
+                break;
+            value = value * 10 + digit;
+            i++;
+        }
+        if (i == start)
+            throw new NumberFormatException();
+
+        return negative ? -value : value;
+    }
+
+    /**
+     * Return true if the specified byte is ASCII whitespace, false otherwise.
+     */
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    /**
+     * Class representing a persistent handle to a single file.
+     */
+    public static class Handle {
+
+        /**
+         * The path of the file.
+         */
+        private final String mPath;
+
+        /**
+         * The buffer that the file contents are read into.
+         */
+        private final ByteBuffer mBuffer = ByteBuffer.allocateDirect(SensorConstants.SYSFS_READ_BUFFER_SIZE);
+
+        /**
+         * The file associated with the channel.
+         */
+        private RandomAccessFile mFile;
+
+        /**
+         * The open channel, or null if the file is not open.
+         */
+        private FileChannel mChannel;
+
+        Handle(String path) {
+            mPath = path;
+        }
+
+        /**
+         * Read an integer value from the file. If the read fails, the file is reopened and the
+         * read is retried once.
+         *
+         * @return the integer value contained in the file.
+         * @throws IOException if the file can't be read or doesn't contain an integer.
+         */
+        public synchronized long readLong() throws IOException {
+            int length;
+            try {
+                length = read();
+            } catch (IOException e) {
+                if (Debug.isCollectionManagerLoggingEnabled())
+                    Debug.printDebug(e);
+                close();
+                length = read();
+            }
+            try {
+                return parseLong(mBuffer, length);
+            } catch (NumberFormatException e) {
+                throw new IOException("Unable to parse " + mPath);
+            }
+        }
+
+        /**
+         * Read the start of the file into the buffer, opening the file if necessary.
+         *
+         * @return the number of bytes read.
+         */
+        private int read() throws IOException {
+            if (mChannel == null) {
+                mFile = new RandomAccessFile(mPath, SensorConstants.MODE_READ);
+                mChannel = mFile.getChannel();
+            }
+            mBuffer.clear();
+            int length = mChannel.read(mBuffer, 0);
+            if (length <= 0)
+                throw new IOException("Unable to read " + mPath);
+
+            return length;
+        }
+
+        /**
+         * Close the file. The file will be reopened on the next read.
+         */
+        public synchronized void close() {
+            try {
+                if (mFile != null)
+                    mFile.close();
+            } catch (IOException e) {
+            }
+            mFile = null;
+            mChannel = null;
+        }
+
+        public String getPath() {
+            return mPath;
+        }
+    }
+}
@@ -7,15 +7,13 @@ import android.util.SparseArray;
 import com.batterymentor.R;
 import com.batterymentor.constants.Constants;
 import com.batterymentor.constants.SensorConstants;
-import com.batterymentor.datamanager.Point;
 import com.batterymentor.datamanager.RealtimeStatistics;
-import com.batterymentor.debug.Debug;
+import com.batterymentor.sensors.ProcParser;
 import com.batterymentor.sensors.Sensor;
+import com.batterymentor.sensors.cpu.ProcStatSnapshot;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.util.HashSet;
-import java.util.StringTokenizer;
 
 /**
  * Class representing a running process.
@@ -45,12 +43,12 @@ public class Process implements Comparable<Process> {
     /**
      * The previous cpu load total.
      */
-    private int mPreviousTotal = Constants.INVALID_VALUE;
+    private long mPreviousTotal = Constants.INVALID_VALUE;
 
     /**
-     * The cache of previous measurements for each pid.
+     * The parser and previous measurement for each pid.
      */
-    private final SparseArray<Integer> mUsageCache = new SparseArray<Integer>();
+    private final SparseArray<PidStat> mPidStats = new SparseArray<PidStat>();
 
     /**
      * The statistics associated with this process.
@@ -68,51 +66,54 @@ public class Process implements Comparable<Process> {
     }
 
     /**
-     * Update the information for this process.
+     * Update the information for this process using the current snapshot of the cpu counters.
      */
     public void measure() {
+        measure(Sensor.LOAD_SENSOR.getSnapshot());
+    }
+
+    /**
+     * Update the information for this process using the specified snapshot of the cpu counters.
+     * The pids whose stat file can't be read are treated as exited and are closed and dropped
+     * without reopening the file, since the pid may already belong to a new process.
+     *
+     * @param snapshot the snapshot of the cpu counters for the current tick.
+     */
+    public void measure(ProcStatSnapshot snapshot) {
         double cpuLoad = Constants.INVALID_VALUE;
-        int usage = 0;
+        long usage = 0;
         synchronized (mPids) {
-            for (int pid : mPids) {
-                String filename = String.format(SensorConstants.SENSOR_PROCESS_CPU_LOAD_TEMPLATE, pid);
-                int diffPidUsage = 0;
-                RandomAccessFile file = null;
+            for (int i = mPidStats.size() - 1; i >= 0; i--) {
+                PidStat pidStat = mPidStats.valueAt(i);
+                long pidUsage = Constants.INVALID_VALUE;
                 try {
-                    int pidUsage = 0;
-                    file = new RandomAccessFile(filename, SensorConstants.MODE_READ);
-                    StringTokenizer stringTokenizer = new StringTokenizer(file.readLine());
-                    for (int i = 0; i < SensorConstants.SENSOR_PROCESS_NUM_TOKENS_TO_IGNORE; i++) {
-                        stringTokenizer.nextToken();
-                    }
-                    for (int i = 0; i < SensorConstants.SENSOR_PROCESS_NUM_TOKENS_TO_READ; i++) {
-                        pidUsage += Integer.parseInt(stringTokenizer.nextToken());
-                    }
-                    Integer previousPidUsage = mUsageCache.get(pid);
-                    if (previousPidUsage != Constants.INVALID_VALUE) {
-                        diffPidUsage = pidUsage - previousPidUsage;
-                    }
-                    mUsageCache.put(pid, pidUsage);
-                } catch (Exception e) {
-                    if (Debug.isCollectionManagerLoggingEnabled())
-                        Debug.printDebug(e);
-                } finally {
-                    try {
-                        if (file != null)
-                            file.close();
-                    } catch (IOException e) {
+                    ProcParser parser = pidStat.getParser();
+                    int length = parser.readOnce();
+                    pidUsage = ProcParser.parsePidStat(parser.getBuffer(), length);
+                } catch (IOException e) {
+                    pidStat.getParser().close();
+                    mPids.remove(mPidStats.keyAt(i));
+                    mPidStats.removeAt(i);
+                    continue;
+                }
+                if (pidUsage != Constants.INVALID_VALUE) {
+                    if (pidStat.getUsage() != Constants.INVALID_VALUE) {
+                        usage += pidUsage - pidStat.getUsage();
                     }
+                    pidStat.setUsage(pidUsage);
                 }
-                usage += diffPidUsage;
             }
         }
-        int total = Sensor.LOAD_SENSOR.measureTotal();
+        if (snapshot == null)
+            return;
+
+        long total = snapshot.getTotal();
         if (mPreviousTotal != Constants.INVALID_VALUE) {
-            int diffTotal = total - mPreviousTotal;
+            long diffTotal = total - mPreviousTotal;
             if (diffTotal > 0) {
                 cpuLoad = usage * Constants.PERCENT / (double) diffTotal;
             }
-            mStatistics.addPoint(new Point(System.currentTimeMillis(), cpuLoad));
+            mStatistics.addValue(System.currentTimeMillis(), cpuLoad, 1);
         }
         mPreviousTotal = total;
         mCpuLoad = cpuLoad;
@@ -139,7 +140,8 @@ public class Process implements Comparable<Process> {
     public void addPid(int pid) {
         synchronized (mPids) {
             mPids.add(pid);
-            mUsageCache.put(pid, Constants.INVALID_VALUE);
+            if (mPidStats.get(pid) == null)
+                mPidStats.put(pid, new PidStat(pid));
         }
     }
 
@@ -151,7 +153,25 @@ public class Process implements Comparable<Process> {
     public void removePid(int pid) {
         synchronized (mPids) {
             mPids.remove(pid);
-            mUsageCache.remove(pid);
+            PidStat pidStat = mPidStats.get(pid);
+            if (pidStat != null) {
+                pidStat.getParser().close();
+                mPidStats.remove(pid);
+            }
+        }
+    }
+
+    /**
+     * Close the stat files that are held open for measuring this process and stop measuring its
+     * pids, so that a measurement that races with closing doesn't reopen them.
+     */
+    public void close() {
+        synchronized (mPids) {
+            for (int i = 0; i < mPidStats.size(); i++) {
+                mPidStats.valueAt(i).getParser().close();
+            }
+            mPidStats.clear();
+            mPids.clear();
         }
     }
 
@@ -196,4 +216,35 @@ public class Process implements Comparable<Process> {
                         -1));
     }
 
-}
\ No newline at end of file
+    /**
+     * Class containing the stat parser and the previous cpu usage of a single pid.
+     */
+    private static class PidStat {
+
+        /**
+         * The parser used for reading the stat file of the pid.
+         */
+        private final ProcParser mParser;
+
+        /**
+         * The previous cpu usage of the pid in jiffies.
+         */
+        private long mUsage = Constants.INVALID_VALUE;
+
+        public PidStat(int pid) {
+            mParser = new ProcParser(String.format(SensorConstants.SENSOR_PROCESS_CPU_LOAD_TEMPLATE, pid), SensorConstants.PROC_PID_STAT_BUFFER_SIZE);
+        }
+
+        public ProcParser getParser() {
+            return mParser;
+        }
+
+        public long getUsage() {
+            return mUsage;
+        }
+
+        public void setUsage(long usage) {
+            mUsage = usage;
+        }
+    }
+}
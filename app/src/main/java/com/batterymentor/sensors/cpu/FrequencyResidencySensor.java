@@ -0,0 +1,304 @@
+package com.batterymentor.sensors.cpu;
+
+import android.os.SystemClock;
+
+import com.batterymentor.constants.Constants;
+import com.batterymentor.constants.SensorConstants;
+import com.batterymentor.debug.Debug;
+import com.batterymentor.device.Device;
+import com.batterymentor.sensors.ProcParser;
+import com.batterymentor.sensors.Sensor;
+import com.batterymentor.sensors.SensorFrame;
+
+import java.io.File;
+
+/**
+ * The sensor responsible for reading how long each cpu frequency policy has resided at each
+ * frequency. The cumulative time_in_state counters of every policy are diffed between reads,
+ * producing a residency vector and a time-weighted mean frequency that accounts for every change
+ * of frequency made by the governor between reads, unlike the instantaneous frequency.
+ */
+public class FrequencyResidencySensor extends Sensor {
+
+    /**
+     * The number of cores the device has.
+     */
+    private final int mNumCores = Device.getInstance().getNumCores();
+
+    /**
+     * The frequency policies, or null if they haven't been discovered.
+     */
+    private Policy[] mPolicies;
+
+    /**
+     * The index of the policy of each core.
+     */
+    private final int[] mPolicyOfCore = new int[mNumCores];
+
+    /**
+     * The time-weighted mean frequency of each core during the previous interval in megahertz.
+     */
+    private final double[] mCoreFrequencies = new double[mNumCores];
+
+    /**
+     * The time of the previous read in milliseconds since boot.
+     */
+    private long mReadTime = Long.MIN_VALUE / 2;
+
+    @Override
+    public String initFilename() {
+        String filename = String.format(SensorConstants.SENSOR_CPU_TIME_IN_STATE_TEMPLATE, 0);
+        return (new File(filename).exists()) ? filename : null;
+    }
+
+    /**
+     * Measure the time-weighted mean frequency across all cores since the previous read.
+     *
+     * @return the average of the time-weighted mean frequency of each core in megahertz.
+     */
+    @Override
+    public synchronized double measure() {
+        update();
+        double sum = 0;
+        for (int core = 0; core < mNumCores; core++) {
+            sum += mCoreFrequencies[core];
+        }
+        return (mNumCores > 0) ? sum / mNumCores : 0;
+    }
+
+    @Override
+    public int getFrameSensors() {
+        return SensorFrame.FREQUENCY;
+    }
+
+    /**
+     * Return the average frequency across all cores in the specified frame.
+     *
+     * @param frame the frame containing the frequency of each core.
+     * @return the average frequency across all cores.
+     */
+    @Override
+    public double measure(SensorFrame frame) {
+        return FREQUENCY_SENSOR.measure(frame);
+    }
+
+    /**
+     * Measure the time-weighted mean frequency of every core since the previous read and write them
+     * into the specified array.
+     *
+     * @param frequencies the array that receives the frequency of each core in megahertz.
+     * @return the number of cores that were measured.
+     */
+    public synchronized int measureAllCores(double[] frequencies) {
+        update();
+        int numCores = Math.min(mNumCores, frequencies.length);
+        System.arraycopy(mCoreFrequencies, 0, frequencies, 0, numCores);
+        return numCores;
+    }
+
+    /**
+     * Return the number of frequency policies.
+     *
+     * @return the number of frequency policies.
+     */
+    public synchronized int getNumPolicies() {
+        return getPolicies().length;
+    }
+
+    /**
+     * Return the index of the frequency policy of the specified core.
+     *
+     * @param core the core.
+     * @return the index of the policy that controls the frequency of the core.
+     */
+    public synchronized int getPolicy(int core) {
+        getPolicies();
+        return mPolicyOfCore[core];
+    }
+
+    /**
+     * Copy the residency of the specified policy during the previous interval into the specified
+     * arrays.
+     *
+     * @param policy      the index of the policy.
+     * @param frequencies the array that receives each frequency of the policy in kilohertz.
+     * @param residency   the array that receives the time spent at each frequency in hundredths
+     *                    of a second.
+     * @return the number of frequencies that were copied.
+     */
+    public synchronized int getResidency(int policy, long[] frequencies, long[] residency) {
+        Policy p = getPolicies()[policy];
+        int numStates = Math.min(p.mNumStates, Math.min(frequencies.length, residency.length));
+        System.arraycopy(p.mFrequencies, 0, frequencies, 0, numStates);
+        System.arraycopy(p.mResidency, 0, residency, 0, numStates);
+        return numStates;
+    }
+
+    /**
+     * Read every policy and update the mean frequency of every core, unless the previous read is
+     * younger than the minimum measurement interval.
+     */
+    private void update() {
+        long time = SystemClock.elapsedRealtime();
+        if (time - mReadTime < SensorConstants.SENSOR_MINIMUM_MEASUREMENT_INTERVAL)
+            return;
+
+        mReadTime = time;
+        Policy[] policies = getPolicies();
+        for (Policy policy : policies) {
+            policy.read();
+        }
+        for (int core = 0; core < mNumCores; core++) {
+            Policy policy = policies[mPolicyOfCore[core]];
+            mCoreFrequencies[core] = policy.hasMeanFrequency() ?
+                    policy.getMeanFrequency() : FREQUENCY_SENSOR.measureCore(core);
+        }
+    }
+
+    /**
+     * Return the frequency policies, discovering them if necessary. Each policy is read through the
+     * first core listed in its related cpus. A core whose related cpus can't be read is treated as
+     * its own policy.
+     */
+    private Policy[] getPolicies() {
+        if (mPolicies == null) {
+            int[] firstCore = new int[mNumCores];
+            int numPolicies = 0;
+            ProcParser relatedCpusParser;
+            for (int core = 0; core < mNumCores; core++) {
+                int leader = core;
+                relatedCpusParser = new ProcParser(String.format(SensorConstants.SENSOR_CPU_RELATED_CPUS_TEMPLATE, core), SensorConstants.RELATED_CPUS_BUFFER_SIZE);
+                try {
+                    long related = ProcParser.parseFirstLong(relatedCpusParser.getBuffer(), relatedCpusParser.read());
+                    if (related >= 0 && related < mNumCores)
+                        leader = (int) related;
+                } catch (Exception e) {
+                    if (Debug.isCollectionManagerLoggingEnabled())
+                        Debug.printDebug(e);
+                } finally {
+                    relatedCpusParser.close();
+                }
+
+                int policy = 0;
+                while (policy < numPolicies && firstCore[policy] != leader) {
+                    policy++;
+                }
+                if (policy == numPolicies)
+                    firstCore[numPolicies++] = leader;
+                mPolicyOfCore[core] = policy;
+            }
+
+            Policy[] policies = new Policy[numPolicies];
+            for (int policy = 0; policy < numPolicies; policy++) {
+                policies[policy] = new Policy(String.format(SensorConstants.SENSOR_CPU_TIME_IN_STATE_TEMPLATE, firstCore[policy]));
+            }
+            mPolicies = policies;
+        }
+        return mPolicies;
+    }
+
+    /**
+     * Class representing the residency of a frequency policy.
+     */
+    private static class Policy {
+
+        /**
+         * The parser used for reading time_in_state.
+         */
+        private final ProcParser mParser;
+
+        /**
+         * The frequency of each state in kilohertz.
+         */
+        private long[] mFrequencies = new long[SensorConstants.TIME_IN_STATE_MAX_STATES];
+
+        /**
+         * The cumulative time spent in each state at the previous read.
+         */
+        private long[] mTimes = new long[SensorConstants.TIME_IN_STATE_MAX_STATES];
+
+        /**
+         * The frequencies parsed by the latest read.
+         */
+        private long[] mNewFrequencies = new long[SensorConstants.TIME_IN_STATE_MAX_STATES];
+
+        /**
+         * The cumulative times parsed by the latest read.
+         */
+        private long[] mNewTimes = new long[SensorConstants.TIME_IN_STATE_MAX_STATES];
+
+        /**
+         * The time spent in each state during the previous interval.
+         */
+        private final long[] mResidency = new long[SensorConstants.TIME_IN_STATE_MAX_STATES];
+
+        /**
+         * The number of states, or 0 if there is no baseline to diff against.
+         */
+        private int mNumStates;
+
+        /**
+         * The time-weighted mean frequency during the previous interval in megahertz or
+         * {@link Constants#INVALID_VALUE} if it can't be derived.
+         */
+        private double mMeanFrequency = Constants.INVALID_VALUE;
+
+        Policy(String path) {
+            mParser = new ProcParser(path, SensorConstants.TIME_IN_STATE_BUFFER_SIZE);
+        }
+
+        /**
+         * Read time_in_state and diff it against the previous read. The baseline is restarted if
+         * the file can't be read or its set of frequencies changed.
+         */
+        void read() {
+            int numStates;
+            try {
+                numStates = ProcParser.parseTimeInState(mParser.getBuffer(), mParser.read(), mNewFrequencies, mNewTimes);
+            } catch (Exception e) {
+                if (Debug.isCollectionManagerLoggingEnabled())
+                    Debug.printDebug(e);
+                numStates = 0;
+            }
+
+            boolean sameStates = numStates > 0 && numStates == mNumStates;
+            for (int state = 0; sameStates && state < numStates; state++) {
+                sameStates = mFrequencies[state] == mNewFrequencies[state];
+            }
+
+            mMeanFrequency = Constants.INVALID_VALUE;
+            if (sameStates) {
+                double weightedFrequency = 0;
+                long totalTime = 0;
+                for (int state = 0; state < numStates; state++) {
+                    long residency = Math.max(0, mNewTimes[state] - mTimes[state]);
+                    mResidency[state] = residency;
+                    weightedFrequency += mNewFrequencies[state] * (double) residency;
+                    totalTime += residency;
+                }
+                mMeanFrequency = (totalTime > 0) ?
+                        weightedFrequency / totalTime / SensorConstants.KILOHERTZ_IN_MEGAHERTZ : 0;
+            } else {
+                for (int state = 0; state < mResidency.length; state++) {
+                    mResidency[state] = 0;
+                }
+            }
+
+            long[] frequencies = mFrequencies;
+            mFrequencies = mNewFrequencies;
+            mNewFrequencies = frequencies;
+            long[] times = mTimes;
+            mTimes = mNewTimes;
+            mNewTimes = times;
+            mNumStates = numStates;
+        }
+
+        boolean hasMeanFrequency() {
+            return mMeanFrequency != Constants.INVALID_VALUE;
+        }
+
+        double getMeanFrequency() {
+            return mMeanFrequency;
+        }
+    }
+}
@@ -1,14 +1,27 @@
 package com.batterymentor.sensors.cpu;
 
 import com.batterymentor.constants.SensorConstants;
+import com.batterymentor.debug.Debug;
 import com.batterymentor.device.Device;
 import com.batterymentor.sensors.Sensor;
+import com.batterymentor.sensors.SensorFrame;
+import com.batterymentor.sensors.SysfsReader;
 
 /**
  * The sensor responsible for reading cpu frequency from the system.
  */
 public class FrequencySensor extends Sensor {
 
+    /**
+     * The pooled handles to the frequency file of each core.
+     */
+    private SysfsReader.Handle[] mHandles;
+
+    /**
+     * The frequencies of each core used for calculating the average frequency.
+     */
+    private double[] mFrequencies;
+
     @Override
     public String initFilename() {
         return String.format(SensorConstants.SENSOR_CPU_FREQUENCY_TEMPLATE, 0);
@@ -20,12 +33,35 @@ public class FrequencySensor extends Sensor {
      *
      * @return the average frequency across all four cores.
      */
-    public double measure() {
+    public synchronized double measure() {
+        if (mFrequencies == null)
+            mFrequencies = new double[Device.getInstance().getNumCores()];
+
+        int numCores = measureAllCores(mFrequencies);
         double sum = 0;
-        int numCores = Device.getInstance().getNumCores();
         for (int i = 0; i < numCores; i++) {
-            double frequency = measureCore(i);
-            sum += frequency;
+            sum += mFrequencies[i];
+        }
+        return (numCores > 0) ? sum / numCores : 0;
+    }
+
+    @Override
+    public int getFrameSensors() {
+        return SensorFrame.FREQUENCY;
+    }
+
+    /**
+     * Return the average frequency across all cores in the specified frame.
+     *
+     * @param frame the frame containing the frequency of each core.
+     * @return the average frequency across all cores.
+     */
+    @Override
+    public double measure(SensorFrame frame) {
+        int numCores = frame.getNumCores();
+        double sum = 0;
+        for (int i = 0; i < numCores; i++) {
+            sum += frame.getFrequency(i);
         }
         return (numCores > 0) ? sum / numCores : 0;
     }
@@ -37,8 +73,54 @@ public class FrequencySensor extends Sensor {
      * @return the frequency for the specified core.
      */
     public double measureCore(int core) {
-        String filename = String.format(SensorConstants.SENSOR_CPU_FREQUENCY_TEMPLATE, core);
-        double frequency = measureValue(filename, SensorConstants.KILOHERTZ_IN_MEGAHERTZ);
-        return frequency;
+        SysfsReader.Handle[] handles = getHandles();
+        return (core < handles.length) ? measureHandle(handles[core]) : 0;
+    }
+
+    /**
+     * Measure the frequency of every core in one pass and write them into the specified array.
+     *
+     * @param frequencies the array that receives the frequency of each core.
+     * @return the number of cores that were measured.
+     */
+    public int measureAllCores(double[] frequencies) {
+        SysfsReader.Handle[] handles = getHandles();
+        int numCores = Math.min(handles.length, frequencies.length);
+        for (int core = 0; core < numCores; core++) {
+            frequencies[core] = measureHandle(handles[core]);
+        }
+        return numCores;
+    }
+
+    /**
+     * Return the pooled handles to the frequency file of each core, creating them if necessary.
+     */
+    private SysfsReader.Handle[] getHandles() {
+        SysfsReader.Handle[] handles = mHandles;
+        if (handles == null) {
+            int numCores = Device.getInstance().getNumCores();
+            handles = new SysfsReader.Handle[numCores];
+            for (int core = 0; core < numCores; core++) {
+                handles[core] = SysfsReader.getInstance().getHandle(String.format(SensorConstants.SENSOR_CPU_FREQUENCY_TEMPLATE, core));
+            }
+            mHandles = handles;
+        }
+        return handles;
+    }
+
+    /**
+     * Read the frequency from the specified handle.
+     *
+     * @param handle the handle to the frequency file of a core.
+     * @return the frequency of the core or 0 if the core is offline.
+     */
+    private double measureHandle(SysfsReader.Handle handle) {
+        try {
+            return handle.readLong() / SensorConstants.KILOHERTZ_IN_MEGAHERTZ;
+        } catch (Exception e) {
+            if (Debug.isCollectionManagerLoggingEnabled())
+                Debug.printDebug(e);
+        }
+        return measureValueAlternate();
     }
 }
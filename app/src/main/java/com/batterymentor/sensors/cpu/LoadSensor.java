@@ -2,16 +2,13 @@ package com.batterymentor.sensors.cpu;
 
 import com.batterymentor.constants.Constants;
 import com.batterymentor.constants.SensorConstants;
-import com.batterymentor.datamanager.LoadMeasurement;
 import com.batterymentor.debug.Debug;
 import com.batterymentor.device.Device;
+import com.batterymentor.sensors.ProcParser;
 import com.batterymentor.sensors.Sensor;
+import com.batterymentor.sensors.SensorFrame;
 
 import java.io.File;
-import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.util.ArrayList;
-import java.util.StringTokenizer;
 
 /**
  * The sensor responsible for reading cpu load from the system.
@@ -24,13 +21,43 @@ public class LoadSensor extends Sensor {
     private final int mNumCores = Device.getInstance().getNumCores();
 
     /**
-     * The cache of previous measurements for each cpu.
+     * The most recent snapshot of /proc/stat shared by all consumers within a tick.
      */
-    private final LoadMeasurement[] mUsageCache = new LoadMeasurement[mNumCores];
+    private volatile ProcStatSnapshot mSnapshot;
+
+    /**
+     * The lock used to ensure only one consumer reads a new snapshot at a time.
+     */
+    private final Object mSnapshotLock = new Object();
+
+    /**
+     * The parser used for reading /proc/stat.
+     */
+    private ProcParser mStatParser;
+
+    /**
+     * The snapshot used for the previous measurement of the total load.
+     */
+    private ProcStatSnapshot mPreviousSnapshot;
+
+    /**
+     * The previous measurement of the total load.
+     */
+    private double mLoad = Constants.INVALID_VALUE;
+
+    /**
+     * The snapshots used for the previous measurement of each core.
+     */
+    private final ProcStatSnapshot[] mPreviousCoreSnapshots = new ProcStatSnapshot[mNumCores];
+
+    /**
+     * The previous measurement of the load of each core.
+     */
+    private final double[] mCoreLoads = new double[mNumCores];
 
     public LoadSensor() {
-        for (int i = 0; i < mUsageCache.length; i++) {
-            mUsageCache[i] = new LoadMeasurement();
+        for (int i = 0; i < mCoreLoads.length; i++) {
+            mCoreLoads[i] = Constants.INVALID_VALUE;
         }
     }
 
@@ -45,78 +72,108 @@ public class LoadSensor extends Sensor {
         return getFilename() != null;
     }
 
-    @Override
-    public double measure() {
-        double cpuLoad = Constants.INVALID_VALUE;
-        try {
-            RandomAccessFile file = new RandomAccessFile(getFilename(), SensorConstants.MODE_READ);
-            file.readLine();
-            for (int i = 0; i < mNumCores; i++) {
-                double coreLoad = 0;
-                LoadMeasurement previous = mUsageCache[i];
-                String line = file.readLine();
-                StringTokenizer stringTokenizer = new StringTokenizer(line);
-                stringTokenizer.nextToken();
-                ArrayList<Integer> values = new ArrayList<Integer>();
-                int total = 0;
-                while (stringTokenizer.hasMoreTokens()) {
-                    int value = Integer.parseInt(stringTokenizer.nextToken());
-                    values.add(value);
-                    total += value;
-                }
-                int usage = total - values.get(3);
-                if (previous.isValid()) {
-                    int diffTotal = total - previous.getTotal();
-                    if (diffTotal > 0) {
-                        coreLoad = (usage - previous.getUsage()) / (double) diffTotal;
+    /**
+     * Return the snapshot of /proc/stat for the current tick. The file is only read again once the
+     * cached snapshot is older than the minimum measurement interval.
+     *
+     * @return the snapshot for the current tick or null if the file can't be read.
+     */
+    public ProcStatSnapshot getSnapshot() {
+        ProcStatSnapshot snapshot = mSnapshot;
+        if (snapshot == null || isStale(snapshot)) {
+            synchronized (mSnapshotLock) {
+                snapshot = mSnapshot;
+                if (snapshot == null || isStale(snapshot)) {
+                    try {
+                        if (mStatParser == null)
+                            mStatParser = new ProcParser(getFilename(), SensorConstants.PROC_STAT_BUFFER_SIZE);
+                        snapshot = ProcStatSnapshot.read(mStatParser, mNumCores);
+                        mSnapshot = snapshot;
+                    } catch (Exception e) {
+                        if (Debug.isCollectionManagerLoggingEnabled())
+                            Debug.printDebug(e);
                     }
-                    cpuLoad = (cpuLoad == Constants.INVALID_VALUE) ? coreLoad : cpuLoad + coreLoad;
                 }
-                previous.setMeasurements(usage, total);
             }
-        } catch (Exception e) {
-            if (Debug.isCollectionManagerLoggingEnabled())
-                Debug.printDebug(e);
         }
-        if (cpuLoad != Constants.INVALID_VALUE)
-            cpuLoad = cpuLoad * Constants.PERCENT / mNumCores;
-        return cpuLoad;
+        return snapshot;
     }
 
-    public double measureCore(int core) {
-        double cpuLoad = Constants.INVALID_VALUE;
-        try {
-            RandomAccessFile file = new RandomAccessFile(getFilename(), SensorConstants.MODE_READ);
-            file.readLine();
-            for (int i = 0; i < core; i++) {
-                file.readLine();
-            }
-            double coreLoad = 0;
-            LoadMeasurement previous = mUsageCache[core];
-            String line = file.readLine();
-            StringTokenizer stringTokenizer = new StringTokenizer(line);
-            stringTokenizer.nextToken();
-            ArrayList<Integer> values = new ArrayList<Integer>();
-            int total = 0;
-            while (stringTokenizer.hasMoreTokens()) {
-                int value = Integer.parseInt(stringTokenizer.nextToken());
-                values.add(value);
-                total += value;
+    /**
+     * Return true if the specified snapshot is older than the minimum measurement interval.
+     */
+    private boolean isStale(ProcStatSnapshot snapshot) {
+        return Math.abs(System.currentTimeMillis() - snapshot.getTimestamp()) >= SensorConstants.SENSOR_MINIMUM_MEASUREMENT_INTERVAL;
+    }
+
+    @Override
+    public synchronized double measure() {
+        ProcStatSnapshot snapshot = getSnapshot();
+        if (snapshot != null && snapshot != mPreviousSnapshot) {
+            mLoad = snapshot.getLoad(mPreviousSnapshot);
+            mPreviousSnapshot = snapshot;
+        }
+        return mLoad;
+    }
+
+    @Override
+    public int getFrameSensors() {
+        return SensorFrame.LOAD;
+    }
+
+    /**
+     * Return the average load across all cores in the specified frame. Like {@link #measure()},
+     * the cores without a valid load count as idle.
+     *
+     * @param frame the frame containing the load of each core.
+     * @return the average load across all cores as a percent or
+     * {@link Constants#INVALID_VALUE} if no core of the frame has a valid load.
+     */
+    @Override
+    public double measure(SensorFrame frame) {
+        int numCores = frame.getNumCores();
+        double load = 0;
+        boolean valid = false;
+        for (int core = 0; core < numCores; core++) {
+            double coreLoad = frame.getLoad(core);
+            if (coreLoad >= 0) {
+                load += coreLoad;
+                valid = true;
             }
-            int usage = total - values.get(3);
-            if (previous.isValid()) {
-                int diffTotal = total - previous.getTotal();
-                if (diffTotal > 0) {
-                    coreLoad = (usage - previous.getUsage()) / (double) diffTotal;
-                }
-                cpuLoad = (cpuLoad == Constants.INVALID_VALUE) ? coreLoad : cpuLoad + coreLoad;
+        }
+        return valid ? load * Constants.PERCENT / numCores : Constants.INVALID_VALUE;
+    }
+
+    /**
+     * Measure the load for the specified core.
+     *
+     * @param core the core to measure.
+     * @return the load of the core as a ratio between 0 and 1.
+     */
+    public double measureCore(int core) {
+        ProcStatSnapshot snapshot = getSnapshot();
+        synchronized (mPreviousCoreSnapshots) {
+            if (snapshot != null && snapshot != mPreviousCoreSnapshots[core]) {
+                mCoreLoads[core] = snapshot.getCoreLoad(mPreviousCoreSnapshots[core], core);
+                mPreviousCoreSnapshots[core] = snapshot;
             }
-            previous.setMeasurements(usage, total);
-        } catch (Exception e) {
-            if (Debug.isCollectionManagerLoggingEnabled())
-                Debug.printDebug(e);
+            return mCoreLoads[core];
+        }
+    }
+
+    /**
+     * Measure the load of every core from the same snapshot and write them into the specified
+     * array.
+     *
+     * @param loads the array that receives the load of each core as a ratio between 0 and 1.
+     * @return the number of cores that were measured.
+     */
+    public int measureAllCores(double[] loads) {
+        int numCores = Math.min(mNumCores, loads.length);
+        for (int core = 0; core < numCores; core++) {
+            loads[core] = measureCore(core);
         }
-        return cpuLoad;
+        return numCores;
     }
 
     /**
@@ -124,32 +181,8 @@ public class LoadSensor extends Sensor {
      *
      * @return the total time the cpu was online since boot.
      */
-    public int measureTotal() {
-        int total = 0;
-        RandomAccessFile file = null;
-        try {
-            file = new RandomAccessFile(getFilename(), SensorConstants.MODE_READ);
-            file.readLine();
-            for (int i = 0; i < mNumCores; i++) {
-                StringTokenizer stringTokenizer = new StringTokenizer(file.readLine());
-                stringTokenizer.nextToken();
-                ArrayList<Integer> values = new ArrayList<Integer>();
-                while (stringTokenizer.hasMoreTokens()) {
-                    int value = Integer.parseInt(stringTokenizer.nextToken());
-                    values.add(value);
-                    total += value;
-                }
-            }
-        } catch (Exception e) {
-            if (Debug.isCollectionManagerLoggingEnabled())
-                Debug.printDebug(e);
-        } finally {
-            try {
-                if (file != null)
-                    file.close();
-            } catch (IOException e) {
-            }
-        }
-        return total;
+    public long measureTotal() {
+        ProcStatSnapshot snapshot = getSnapshot();
+        return (snapshot != null) ? snapshot.getTotal() : 0;
     }
 }
@@ -0,0 +1,142 @@
+package com.batterymentor.sensors.cpu;
+
+import com.batterymentor.constants.Constants;
+import com.batterymentor.sensors.ProcParser;
+
+import java.io.IOException;
+
+/**
+ * Class representing an immutable snapshot of the per-core jiffy counters in /proc/stat. A snapshot
+ * is parsed once per tick and shared by all the consumers of the cpu counters.
+ */
+public final class ProcStatSnapshot {
+
+    /**
+     * The timestamp at which the snapshot was taken.
+     */
+    private final long mTimestamp;
+
+    /**
+     * The total number of jiffies for each core, or {@link Constants#INVALID_VALUE} if the core
+     * was not present in the snapshot.
+     */
+    private final long[] mTotals;
+
+    /**
+     * The number of non-idle jiffies for each core, or {@link Constants#INVALID_VALUE} if the core
+     * was not present in the snapshot.
+     */
+    private final long[] mUsages;
+
+    /**
+     * The total number of jiffies across all the cores present in the snapshot.
+     */
+    private final long mTotal;
+
+    private ProcStatSnapshot(long timestamp, long[] totals, long[] usages) {
+        mTimestamp = timestamp;
+        mTotals = totals;
+        mUsages = usages;
+        long total = 0;
+        for (long coreTotal : totals) {
+            if (coreTotal != Constants.INVALID_VALUE)
+                total += coreTotal;
+        }
+        mTotal = total;
+    }
+
+    /**
+     * Read a new snapshot using the specified parser.
+     *
+     * @param parser   the parser for the stat file.
+     * @param numCores the number of cores the device has.
+     * @return the new snapshot.
+     * @throws IOException if the file can't be read.
+     */
+    public static ProcStatSnapshot read(ProcParser parser, int numCores) throws IOException {
+        long timestamp = System.currentTimeMillis();
+        long[] totals = new long[numCores];
+        long[] usages = new long[numCores];
+        int length = parser.read();
+        ProcParser.parseStat(parser.getBuffer(), length, totals, usages);
+        return new ProcStatSnapshot(timestamp, totals, usages);
+    }
+
+    /**
+     * Return the load of the specified core between the previous snapshot and this one.
+     *
+     * @param previous the previous snapshot.
+     * @param core     the core for which to calculate the load.
+     * @return the load of the core as a ratio between 0 and 1, 0 if the core was offline, or
+     * {@link Constants#INVALID_VALUE} if there is no previous snapshot.
+     */
+    public double getCoreLoad(ProcStatSnapshot previous, int core) {
+        if (previous == null || core >= previous.getNumCores() || core >= getNumCores())
+            return Constants.INVALID_VALUE;
+
+        if (!isCoreValid(core) || !previous.isCoreValid(core))
+            return 0;
+
+        long diffTotal = mTotals[core] - previous.mTotals[core];
+        if (diffTotal <= 0)
+            return 0;
+
+        return (mUsages[core] - previous.mUsages[core]) / (double) diffTotal;
+    }
+
+    /**
+     * Return the load across all the cores between the previous snapshot and this one.
+     *
+     * @param previous the previous snapshot.
+     * @return the average load across all the cores as a percent or
+     * {@link Constants#INVALID_VALUE} if there is no previous snapshot.
+     */
+    public double getLoad(ProcStatSnapshot previous) {
+        int numCores = getNumCores();
+        if (previous == null || numCores == 0)
+            return Constants.INVALID_VALUE;
+
+        double load = 0;
+        for (int core = 0; core < numCores; core++) {
+            double coreLoad = getCoreLoad(previous, core);
+            if (coreLoad > 0)
+                load += coreLoad;
+        }
+        return load * Constants.PERCENT / numCores;
+    }
+
+    /**
+     * Return true if the specified core was present in the snapshot, false otherwise.
+     *
+     * @param core the core to check.
+     * @return true if the specified core was present in the snapshot, false otherwise.
+     */
+    public boolean isCoreValid(int core) {
+        return mTotals[core] != Constants.INVALID_VALUE;
+    }
+
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    public int getNumCores() {
+        return mTotals.length;
+    }
+
+    public long getTotal(int core) {
+        return mTotals[core];
+    }
+
+    public long getUsage(int core) {
+        return mUsages[core];
+    }
+
+    /**
+     * Return the total time the cpu was online since boot across all cores.
+     *
+     * @return the total time the cpu was online since boot across all cores.
+     */
+    public long getTotal() {
+        return mTotal;
+    }
+}
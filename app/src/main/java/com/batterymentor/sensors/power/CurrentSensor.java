@@ -4,6 +4,7 @@ import com.batterymentor.constants.SensorConstants;
 import com.batterymentor.device.Device;
 import com.batterymentor.sensors.ChargerManager;
 import com.batterymentor.sensors.Sensor;
+import com.batterymentor.sensors.SensorFrame;
 
 import java.io.File;
 
@@ -30,10 +31,20 @@ public class CurrentSensor extends Sensor {
                 SensorConstants.SENSOR_CURRENT_NOW : null;
     }
 
+    @Override
+    public int getFrameSensors() {
+        return SensorFrame.CURRENT;
+    }
+
     public double measure() {
         return measureValue(mConversionFactor);
     }
 
+    @Override
+    public double measure(SensorFrame frame) {
+        return frame.getCurrent();
+    }
+
     public double measureValueAlternate() {
         return ChargerManager.getInstance().getBatteryCurrentNow() / mConversionFactor;
     }
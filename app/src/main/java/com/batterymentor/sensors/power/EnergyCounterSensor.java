@@ -0,0 +1,201 @@
+package com.batterymentor.sensors.power;
+
+import android.os.SystemClock;
+
+import com.batterymentor.constants.Constants;
+import com.batterymentor.constants.SensorConstants;
+import com.batterymentor.debug.Debug;
+import com.batterymentor.sensors.ChargerManager;
+import com.batterymentor.sensors.Sensor;
+import com.batterymentor.sensors.SysfsReader;
+
+import java.io.File;
+
+/**
+ * The sensor responsible for reading the cumulative battery counters from the system. The
+ * remaining energy is read from energy_now when available, otherwise the remaining charge is read
+ * from charge_counter and converted to energy using the battery voltage. The battery manager
+ * properties are used when the power supply attributes can't be read. Since the counters keep
+ * counting between reads, the average power over any interval is exact regardless of how rarely
+ * the counters are read.
+ */
+public class EnergyCounterSensor extends Sensor {
+
+    /**
+     * The counter is the remaining energy read from energy_now.
+     */
+    private static final int SOURCE_ENERGY_FILE = 0;
+
+    /**
+     * The counter is the remaining charge read from charge_counter.
+     */
+    private static final int SOURCE_CHARGE_FILE = 1;
+
+    /**
+     * The counter is the remaining energy reported by the battery manager.
+     */
+    private static final int SOURCE_ENERGY_PROPERTY = 2;
+
+    /**
+     * The counter is the remaining charge reported by the battery manager.
+     */
+    private static final int SOURCE_CHARGE_PROPERTY = 3;
+
+    /**
+     * The source of the counter or {@link Constants#INVALID_VALUE} if it hasn't been determined.
+     */
+    private int mSource = Constants.INVALID_VALUE;
+
+    /**
+     * The pooled handle used for reading the counter file.
+     */
+    private SysfsReader.Handle mHandle;
+
+    /**
+     * The energy drawn from the battery since the counter was first read in milliwatt-hours.
+     */
+    private double mEnergy;
+
+    /**
+     * The previous reading of the counter in milliwatt-hours or milliamp-hours, or NaN if the next
+     * reading starts a new baseline.
+     */
+    private double mPreviousCounter = Double.NaN;
+
+    /**
+     * The battery voltage at the previous reading of a charge counter.
+     */
+    private double mPreviousVoltage;
+
+    /**
+     * The energy at the previous measurement of the average power or NaN if there is none.
+     */
+    private double mPreviousEnergy = Double.NaN;
+
+    /**
+     * The time of the previous measurement of the average power in milliseconds since boot.
+     */
+    private long mPreviousTime;
+
+    @Override
+    public String initFilename() {
+        if (new File(SensorConstants.SENSOR_ENERGY_NOW).exists())
+            return SensorConstants.SENSOR_ENERGY_NOW;
+        if (new File(SensorConstants.SENSOR_CHARGE_COUNTER).exists())
+            return SensorConstants.SENSOR_CHARGE_COUNTER;
+        return null;
+    }
+
+    @Override
+    public boolean isSupported() {
+        return getSource() != Constants.INVALID_VALUE;
+    }
+
+    /**
+     * Measure the average power drawn from the battery since the previous measurement.
+     *
+     * @return the average power in milliwatts or {@link Constants#INVALID_VALUE} if there is no
+     * previous measurement.
+     */
+    @Override
+    public synchronized double measure() {
+        double energy = measureEnergy();
+        long time = SystemClock.elapsedRealtime();
+        double power = Constants.INVALID_VALUE;
+        if (!Double.isNaN(mPreviousEnergy) && time > mPreviousTime)
+            power = getAveragePower(mPreviousEnergy, mPreviousTime, energy, time);
+        mPreviousEnergy = energy;
+        mPreviousTime = time;
+        return power;
+    }
+
+    /**
+     * Measure the energy drawn from the battery since the counter was first read. The energy
+     * decreases while the battery is charging.
+     *
+     * @return the energy drawn from the battery in milliwatt-hours.
+     */
+    public synchronized double measureEnergy() {
+        int source = getSource();
+        double counter = readCounter(source);
+        if (Double.isNaN(counter)) {
+            mPreviousCounter = Double.NaN;
+            return mEnergy;
+        }
+
+        if (source == SOURCE_CHARGE_FILE || source == SOURCE_CHARGE_PROPERTY) {
+            double voltage = VOLTAGE.measure();
+            if (!Double.isNaN(mPreviousCounter))
+                mEnergy += (mPreviousCounter - counter) * (mPreviousVoltage + voltage) / 2;
+            mPreviousVoltage = voltage;
+        } else if (!Double.isNaN(mPreviousCounter)) {
+            mEnergy += mPreviousCounter - counter;
+        }
+        mPreviousCounter = counter;
+        return mEnergy;
+    }
+
+    /**
+     * Return the average power over an interval from the energy at each end of the interval.
+     *
+     * @param startEnergy the energy at the start of the interval in milliwatt-hours.
+     * @param startTime   the start of the interval in milliseconds.
+     * @param endEnergy   the energy at the end of the interval in milliwatt-hours.
+     * @param endTime     the end of the interval in milliseconds.
+     * @return the average power over the interval in milliwatts.
+     */
+    public static double getAveragePower(double startEnergy, long startTime, double endEnergy, long endTime) {
+        return (endEnergy - startEnergy) * Constants.HOUR / (endTime - startTime);
+    }
+
+    /**
+     * Return the source of the counter, determining it if necessary.
+     */
+    private int getSource() {
+        if (mSource == Constants.INVALID_VALUE) {
+            String filename = getFilename();
+            if (SensorConstants.SENSOR_ENERGY_NOW.equals(filename))
+                mSource = SOURCE_ENERGY_FILE;
+            else if (SensorConstants.SENSOR_CHARGE_COUNTER.equals(filename))
+                mSource = SOURCE_CHARGE_FILE;
+            else if (ChargerManager.getInstance().getBatteryEnergyCounter() != Constants.INVALID_VALUE)
+                mSource = SOURCE_ENERGY_PROPERTY;
+            else if (ChargerManager.getInstance().getBatteryChargeCounter() != Constants.INVALID_VALUE)
+                mSource = SOURCE_CHARGE_PROPERTY;
+        }
+        return mSource;
+    }
+
+    /**
+     * Read the counter from the specified source, falling back to the battery manager if the
+     * power supply attribute can't be read.
+     *
+     * @param source the source of the counter.
+     * @return the counter in milliwatt-hours or milliamp-hours, or NaN if it can't be read.
+     */
+    private double readCounter(int source) {
+        switch (source) {
+            case SOURCE_ENERGY_FILE:
+            case SOURCE_CHARGE_FILE:
+                try {
+                    if (mHandle == null)
+                        mHandle = SysfsReader.getInstance().getHandle(getFilename());
+                    return (source == SOURCE_ENERGY_FILE) ?
+                            mHandle.readLong() / SensorConstants.MICROWATT_HOURS_IN_MILLIWATT_HOUR :
+                            mHandle.readLong() / SensorConstants.MICROAMP_HOURS_IN_MILLIAMP_HOUR;
+                } catch (Exception e) {
+                    if (Debug.isCollectionManagerLoggingEnabled())
+                        Debug.printDebug(e);
+                }
+                return readCounter((source == SOURCE_ENERGY_FILE) ? SOURCE_ENERGY_PROPERTY : SOURCE_CHARGE_PROPERTY);
+            case SOURCE_ENERGY_PROPERTY:
+                long energy = ChargerManager.getInstance().getBatteryEnergyCounter();
+                return (energy != Constants.INVALID_VALUE) ? energy / SensorConstants.NANOWATT_HOURS_IN_MILLIWATT_HOUR : Double.NaN;
+            case SOURCE_CHARGE_PROPERTY:
+                int charge = ChargerManager.getInstance().getBatteryChargeCounter();
+                return (charge != Constants.INVALID_VALUE) ? charge / SensorConstants.MICROAMP_HOURS_IN_MILLIAMP_HOUR : Double.NaN;
+            default:
+                return Double.NaN;
+        }
+    }
+}
@@ -1,16 +1,19 @@
 package com.batterymentor.sensors.power;
 
-import android.content.Context;
-import android.provider.Settings;
-
 import com.batterymentor.constants.Constants;
-import com.batterymentor.device.Device;
 import com.batterymentor.sensors.Sensor;
+import com.batterymentor.sensors.SensorFrame;
 
 /**
  * The sensor responsible for estimating the system power.
  */
 public class PowerEstimationSensor extends Sensor {
+
+    /**
+     * The frame reused by every estimation of the power.
+     */
+    private SensorFrame mFrame;
+
     @Override
     public String initFilename() {
         return null;
@@ -18,7 +21,12 @@ public class PowerEstimationSensor extends Sensor {
 
     @Override
     public boolean isSupported() {
-        return LOAD_SENSOR.isSupported() && FREQUENCY_SENSOR.isSupported() && VOLTAGE.isSupported();
+        return LOAD_SENSOR.isSupported() && (FREQUENCY_RESIDENCY_SENSOR.isSupported() || FREQUENCY_SENSOR.isSupported()) && VOLTAGE.isSupported();
+    }
+
+    @Override
+    public int getFrameSensors() {
+        return SensorFrame.FREQUENCY | SensorFrame.LOAD | SensorFrame.BRIGHTNESS;
     }
 
     /**
@@ -27,12 +35,27 @@ public class PowerEstimationSensor extends Sensor {
      *
      * @return the estimated power consumed by the device.
      */
-    public double measure() {
-        double screenPower = estimateScreenPower();
+    public synchronized double measure() {
+        if (mFrame == null)
+            mFrame = new SensorFrame(getFrameSensors());
+        mFrame.capture();
+        return measure(mFrame);
+    }
+
+    /**
+     * Estimate the total power from the specified frame by estimating the power consumed by the
+     * screen and the CPU and adding a base component.
+     *
+     * @param frame the frame containing the brightness and the per-core frequency and load.
+     * @return the estimated power consumed by the device.
+     */
+    @Override
+    public double measure(SensorFrame frame) {
+        double screenPower = estimateScreenPower(frame.getBrightness());
         if (screenPower < 0) {
             screenPower = 0;
         }
-        double cpuPower = estimateCpuPower();
+        double cpuPower = estimateCpuPower(frame);
         if (cpuPower < 0) {
             cpuPower = 0;
         }
@@ -43,31 +66,26 @@ public class PowerEstimationSensor extends Sensor {
     /**
      * Estimate the power consumed by the screen.
      *
+     * @param brightness the screen brightness.
      * @return the power consumed by the screen.
      */
-    public double estimateScreenPower() {
-        int brightness = Constants.INVALID_VALUE;
-        Context context = com.batterymentor.settings.Settings.getInstance().getContext();
-        if (context != null) {
-            try {
-                brightness = Settings.System.getInt(context.getContentResolver(), Settings.System.SCREEN_BRIGHTNESS);
-            } catch (Settings.SettingNotFoundException e) {
-            }
-        }
+    public double estimateScreenPower(int brightness) {
         return 3.3343*brightness;
     }
 
     /**
-     * Estimate the power consumed by the CPU.
+     * Estimate the power consumed by the CPU. The frequency of each core in the frame is weighted
+     * by the time spent at each frequency when the frequency residency is available.
      *
+     * @param frame the frame containing the per-core frequency and load.
      * @return the power consumed by the CPU.
      */
-    public double estimateCpuPower() {
+    public double estimateCpuPower(SensorFrame frame) {
         double cpuPower = Constants.INVALID_VALUE;
-        int numCores = Device.getInstance().getNumCores();
+        int numCores = frame.getNumCores();
         for (int core = 0; core < numCores; core++) {
-            double frequency = FREQUENCY_SENSOR.measureCore(core);
-            double load = LOAD_SENSOR.measureCore(core);
+            double frequency = frame.getFrequency(core);
+            double load = frame.getLoad(core);
             cpuPower += (0.0003*frequency*frequency + 0.113*frequency)*load;
         }
         return cpuPower;
@@ -2,11 +2,23 @@ package com.batterymentor.sensors.power;
 
 import com.batterymentor.device.Device;
 import com.batterymentor.sensors.Sensor;
+import com.batterymentor.sensors.SensorFrame;
 
 /**
  * The sensor responsible or reading power from the system.
  */
 public class PowerSensor extends Sensor {
+
+    /**
+     * The frame reused by every measurement of the power.
+     */
+    private SensorFrame mFrame;
+
+    /**
+     * The frame reused by every measurement of the battery power.
+     */
+    private SensorFrame mBatterySupportFrame;
+
     @Override
     public String initFilename() {
         return null;
@@ -17,14 +29,34 @@ public class PowerSensor extends Sensor {
         return CURRENT.isSupported() && VOLTAGE.isSupported();
     }
 
-    public double measure() {
+    @Override
+    public int getFrameSensors() {
+        if (Device.getInstance().isBatteryPowerEstimated())
+            return POWER_ESTIMATION_SENSOR.getFrameSensors();
+        else
+            return SensorFrame.CURRENT | SensorFrame.VOLTAGE;
+    }
+
+    public synchronized double measure() {
+        int sensors = getFrameSensors();
+        if (mFrame == null || mFrame.getSensors() != sensors)
+            mFrame = new SensorFrame(sensors);
+        mFrame.capture();
+        return measure(mFrame);
+    }
+
+    @Override
+    public double measure(SensorFrame frame) {
         if (Device.getInstance().isBatteryPowerEstimated())
-            return POWER_ESTIMATION_SENSOR.measure();
+            return POWER_ESTIMATION_SENSOR.measure(frame);
         else
-            return CURRENT.measure() * VOLTAGE.measure();
+            return frame.getCurrent() * frame.getVoltage();
     }
 
-    public double measureForBatterySupport() {
-        return CURRENT.measure() * VOLTAGE.measure();
+    public synchronized double measureForBatterySupport() {
+        if (mBatterySupportFrame == null)
+            mBatterySupportFrame = new SensorFrame(SensorFrame.CURRENT | SensorFrame.VOLTAGE);
+        mBatterySupportFrame.capture();
+        return mBatterySupportFrame.getCurrent() * mBatterySupportFrame.getVoltage();
     }
 }
@@ -3,6 +3,7 @@ package com.batterymentor.sensors.power;
 import com.batterymentor.constants.SensorConstants;
 import com.batterymentor.sensors.ChargerManager;
 import com.batterymentor.sensors.Sensor;
+import com.batterymentor.sensors.SensorFrame;
 
 import java.io.File;
 
@@ -21,10 +22,20 @@ public class VoltageSensor extends Sensor {
         return getFilename() != null;
     }
 
+    @Override
+    public int getFrameSensors() {
+        return SensorFrame.VOLTAGE;
+    }
+
     public double measure() {
         return measureValue(SensorConstants.MICROVOLTS_IN_VOLT);
     }
 
+    @Override
+    public double measure(SensorFrame frame) {
+        return frame.getVoltage();
+    }
+
     public double measureValueAlternate() {
         return ChargerManager.getInstance().getBatteryVoltage() / SensorConstants.MILLIVOLTS_IN_VOLT;
     }
@@ -4,7 +4,6 @@ import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Path;
-import android.graphics.PointF;
 import android.support.v4.content.ContextCompat;
 import android.util.AttributeSet;
 import android.view.View;
@@ -13,7 +12,6 @@ import com.batterymentor.R;
 import com.batterymentor.constants.UIConstants;
 import com.batterymentor.datamanager.Histogram;
 import com.batterymentor.datamanager.HistogramPoint;
-import com.batterymentor.datamanager.Point;
 import com.batterymentor.ui.theme.Theme;
 import com.batterymentor.ui.theme.ThemeManager;
 import com.batterymentor.utils.PolynomialSplineFunction;
@@ -59,6 +57,31 @@ public class HistogramView extends View {
      */
     private Histogram mHistogram;
 
+    /**
+     * The path of the histogram that was last drawn, reused while the histogram is unchanged.
+     */
+    private Path mHistogramPath;
+
+    /**
+     * The histogram that the path was created for.
+     */
+    private Histogram mHistogramPathSource;
+
+    /**
+     * The version of the histogram data that the path was created for.
+     */
+    private long mHistogramPathVersion;
+
+    /**
+     * The width of the view when the path was created.
+     */
+    private int mHistogramPathWidth;
+
+    /**
+     * The height of the view when the path was created.
+     */
+    private int mHistogramPathHeight;
+
     public HistogramView(Context context) {
         super(context);
         initialize();
@@ -99,8 +122,19 @@ public class HistogramView extends View {
     public void onDraw(Canvas canvas) {
         super.onDraw(canvas);
         canvas.drawPaint(mBackgroundPaint);
-        if (mHistogram != null) {
-            drawHistogram(canvas, mHistogram.getHistogramData());
+        Histogram histogram = mHistogram;
+        if (histogram != null) {
+            Histogram snapshot = histogram.getSnapshot();
+            long version = snapshot.getHistogramVersion();
+            if (mHistogramPath == null || histogram != mHistogramPathSource || version != mHistogramPathVersion
+                    || getWidth() != mHistogramPathWidth || getHeight() != mHistogramPathHeight) {
+                mHistogramPath = createHistogramPath(snapshot.getHistogramData());
+                mHistogramPathSource = histogram;
+                mHistogramPathVersion = version;
+                mHistogramPathWidth = getWidth();
+                mHistogramPathHeight = getHeight();
+            }
+            drawHistogramPath(canvas, mHistogramPath);
         }
         canvas.drawRect(mPadding, 0, getWidth() - mPadding, getHeight(), mBorderPaint);
     }
@@ -109,22 +143,55 @@ public class HistogramView extends View {
      * Draw the histogram using the specified set of points.
      */
     public void drawHistogram(Canvas canvas, HistogramPoint[] points) {
-        if (points == null || points.length <= 0)
+        drawHistogramPath(canvas, createHistogramPath(points));
+    }
+
+    /**
+     * Draw the specified histogram path.
+     */
+    private void drawHistogramPath(Canvas canvas, Path path) {
+        if (path == null)
             return;
 
-        int numPoints = points.length;
+        mPaint.setColor(mFillColor);
+        mPaint.setStyle(Paint.Style.FILL);
+        canvas.drawPath(path, mPaint);
+        mPaint.setColor(mStrokeColor);
+        mPaint.setStyle(Paint.Style.STROKE);
+        canvas.drawPath(path, mPaint);
+    }
 
-        HistogramPoint firstPoint = points[0];
-        float minX = (float) firstPoint.getMinX();
-        float maxX = (float) firstPoint.getMaxX();
-        float minY = (float) firstPoint.getY();
-        float maxY = (float) firstPoint.getY();
-        for (int i = 1; i < numPoints; i++) {
+    /**
+     * Create the path of the histogram through the specified set of points. Only the occupied
+     * buckets and an empty bucket on each side are drawn, and the buckets are evenly spaced, which
+     * puts log-linear buckets on a logarithmic axis.
+     *
+     * @return the path of the histogram or null if there are no points.
+     */
+    private Path createHistogramPath(HistogramPoint[] points) {
+        if (points == null || points.length < UIConstants.HISTOGRAM_MIN_POINTS_FOR_DRAW)
+            return null;
+
+        int first = 0;
+        while (first < points.length - 1 && points[first].getY() <= 0)
+            first++;
+        int last = points.length - 1;
+        while (last > first && points[last].getY() <= 0)
+            last--;
+        first = Math.max(first - 1, 0);
+        last = Math.min(last + 1, points.length - 1);
+        while (last - first + 1 < UIConstants.HISTOGRAM_MIN_POINTS_FOR_DRAW) {
+            if (first > 0)
+                first--;
+            else
+                last++;
+        }
+
+        int numPoints = last - first + 1;
+        float minY = (float) points[first].getY();
+        float maxY = (float) points[first].getY();
+        for (int i = first + 1; i <= last; i++) {
             HistogramPoint point = points[i];
-            if (point.getMinX() < minX)
-                minX = (float) point.getMinX();
-            if (point.getMaxX() > maxX)
-                maxX = (float) point.getMaxX();
             if (point.getY() < minY)
                 minY = (float) point.getY();
             if (point.getY() > maxY)
@@ -132,7 +199,6 @@ public class HistogramView extends View {
         }
         maxY *= UIConstants.HISTOGRAM_Y_AXIS_MAX_BUFFER;
 
-        float rangeX = maxX - minX;
         float rangeY = maxY - minY;
 
         int width = getWidth() - (int)(mPadding*2);
@@ -141,9 +207,8 @@ public class HistogramView extends View {
         double[] xs = new double[numPoints];
         double[] ys = new double[numPoints];
         for (int i = 0; i < numPoints; i++) {
-            PointF point = convertPoint(points[i], minX, minY, width, height, rangeX, rangeY);
-            xs[i] = point.x;
-            ys[i] = point.y;
+            xs[i] = i * width / (double) (numPoints - 1);
+            ys[i] = (rangeY > 0) ? (points[first + i].getY() - minY) * height / rangeY : 0;
         }
 
         float diff = width / (float) UIConstants.HISTOGRAM_NUM_POINTS_FOR_DRAW;
@@ -158,18 +223,7 @@ public class HistogramView extends View {
         path.lineTo(width + mPadding, height + mPadding);
         path.lineTo(mPadding, height + mPadding);
         path.lineTo(mPadding, maxY + mPadding);
-        mPaint.setColor(mFillColor);
-        mPaint.setStyle(Paint.Style.FILL);
-        canvas.drawPath(path, mPaint);
-        mPaint.setColor(mStrokeColor);
-        mPaint.setStyle(Paint.Style.STROKE);
-        canvas.drawPath(path, mPaint);
-    }
-
-    private PointF convertPoint(Point point, float minX, float minY, float width, float height, float rangeX, float rangeY) {
-        float x = (float) (point.getX() - minX) * width / rangeX;
-        float y = (float) (point.getY() - minY) * height / rangeY;
-        return new PointF(x, y);
+        return path;
     }
 
     public void applyTheme(Theme theme) {
@@ -198,12 +198,13 @@ public class PowerFragment extends CommonFragment {
     public void updatePowerViews(boolean forceRefresh) {
         if (needsUpdate() || forceRefresh) {
             if (mHistogram != null) {
+                Histogram snapshot = mHistogram.getSnapshot();
                 double voltage = Sensor.VOLTAGE.measure();
                 if (mPowerView != null) {
                     if (mPowerFormatter == null)
                         mPowerFormatter = new DecimalFormat(getString(R.string.format_power));
 
-                    double powerValue = mHistogram.getAverage();
+                    double powerValue = snapshot.getAverage();
                     String value;
                     if (Device.getInstance().isBatteryPowerEstimated() && isChargerConnected()) {
                         value = getString(R.string.charging);
@@ -239,8 +240,8 @@ public class PowerFragment extends CommonFragment {
                 }
 
                 if (mMinValue != null && mMaxValue != null) {
-                    double minValue = mHistogram.getMin();
-                    double maxValue = mHistogram.getMax();
+                    double minValue = snapshot.getMin();
+                    double maxValue = snapshot.getMax();
                     String min, max;
                     if (Device.getInstance().isBatteryPowerEstimated() && isChargerConnected()) {
                         min = getString(R.string.invalid_value);
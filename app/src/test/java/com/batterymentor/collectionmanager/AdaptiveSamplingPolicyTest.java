@@ -0,0 +1,74 @@
+package com.batterymentor.collectionmanager;
+
+import com.batterymentor.datamanager.Point;
+import com.batterymentor.datamanager.RealtimeStatistics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the adaptive sampling policy and the weighted statistics it feeds.
+ */
+public class AdaptiveSamplingPolicyTest {
+
+    private static final long INTERVAL = 1000;
+
+    private static final long MAXIMUM_INTERVAL = 8000;
+
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void stableSignal_stretchesIntervalUpToCeiling() {
+        AdaptiveSamplingPolicy policy = new AdaptiveSamplingPolicy(INTERVAL, MAXIMUM_INTERVAL);
+        RealtimeStatistics statistics = new RealtimeStatistics(false);
+        for (int tick = 0; tick < 200; tick++) {
+            sample(policy, statistics, 500);
+        }
+        assertEquals(MAXIMUM_INTERVAL, policy.getCurrentInterval());
+    }
+
+    @Test
+    public void changePoint_returnsToBaseInterval() {
+        AdaptiveSamplingPolicy policy = new AdaptiveSamplingPolicy(INTERVAL, MAXIMUM_INTERVAL);
+        RealtimeStatistics statistics = new RealtimeStatistics(false);
+        for (int tick = 0; tick < 200; tick++) {
+            sample(policy, statistics, 500);
+        }
+        assertTrue(policy.getCurrentInterval() > INTERVAL);
+
+        while (!sample(policy, statistics, 2000)) {
+        }
+        assertEquals(INTERVAL, policy.getCurrentInterval());
+    }
+
+    @Test
+    public void weightedSamples_keepAverageUnbiased() {
+        AdaptiveSamplingPolicy policy = new AdaptiveSamplingPolicy(INTERVAL, MAXIMUM_INTERVAL);
+        RealtimeStatistics statistics = new RealtimeStatistics(false);
+        int ticks = 0;
+        for (; ticks < 200; ticks++) {
+            sample(policy, statistics, 500);
+        }
+        assertEquals(ticks, statistics.getNumPoints(), MAXIMUM_INTERVAL / INTERVAL);
+        assertEquals(500, statistics.getAbsoluteAverage(), DELTA);
+    }
+
+    @Test
+    public void weightedPoints_countTowardsRecentAverage() {
+        RealtimeStatistics statistics = new RealtimeStatistics(false);
+        statistics.addPoint(new Point(0, 400), 3);
+        statistics.addPoint(new Point(1, 800), 1);
+        assertEquals(500, statistics.getFullRecentAverage(), DELTA);
+        assertEquals(4, statistics.getNumPoints(), DELTA);
+        assertEquals(400, statistics.getMedian(), DELTA);
+    }
+
+    private static boolean sample(AdaptiveSamplingPolicy policy, RealtimeStatistics statistics, double value) {
+        if (!policy.onTick())
+            return false;
+        double weight = policy.onSample(value, statistics);
+        statistics.addPoint(new Point(0, value), weight);
+        return true;
+    }
+}
@@ -0,0 +1,200 @@
+package com.batterymentor.collectionmanager;
+
+import com.batterymentor.datamanager.BinaryFormat;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the background saving of data with dirty tracking.
+ */
+public class PersistenceExecutorTest {
+
+    /**
+     * Entry whose version is set by the test and that counts how often it is encoded.
+     */
+    private static class TestEntry extends PersistenceExecutor.Entry<Long> {
+
+        final AtomicLong mVersion = new AtomicLong();
+
+        final AtomicInteger mEncodings = new AtomicInteger();
+
+        volatile Object mCheckpointLock;
+
+        volatile boolean mEncodedWithCheckpointLock;
+
+        TestEntry(File file) {
+            super(file);
+        }
+
+        @Override
+        public long getVersion() {
+            return mVersion.get();
+        }
+
+        @Override
+        protected Long copy() {
+            return mVersion.get();
+        }
+
+        @Override
+        protected byte[] encode(Long copy, long checkpoint) throws IOException {
+            mEncodings.incrementAndGet();
+            Object checkpointLock = mCheckpointLock;
+            if (checkpointLock != null && Thread.holdsLock(checkpointLock))
+                mEncodedWithCheckpointLock = true;
+            return new byte[]{(byte) copy.longValue(), 0, 0, 0};
+        }
+    }
+
+    private static File createFile() throws IOException {
+        File file = File.createTempFile("persistence", "");
+        file.delete();
+        return file;
+    }
+
+    @Test
+    public void flush_writesOnlyChangedEntries() throws Exception {
+        File first = createFile();
+        File second = createFile();
+        try {
+            PersistenceExecutor executor = new PersistenceExecutor();
+            TestEntry firstEntry = new TestEntry(first);
+            TestEntry secondEntry = new TestEntry(second);
+            executor.register(firstEntry);
+            executor.register(secondEntry);
+
+            executor.flush();
+            assertEquals(0, firstEntry.mEncodings.get());
+            assertEquals(0, executor.getFilesWritten());
+            assertEquals(1, executor.getSkippedSaves());
+
+            firstEntry.mVersion.set(3);
+            executor.flush();
+            assertEquals(1, firstEntry.mEncodings.get());
+            assertEquals(0, secondEntry.mEncodings.get());
+            assertEquals(3, BinaryFormat.readFile(first)[0]);
+            assertFalse(second.exists());
+            assertEquals(1, executor.getFilesWritten());
+            assertEquals(4, executor.getBytesWritten());
+            assertTrue(executor.getLastSaveLatencyNanos() > 0);
+            assertTrue(executor.getMaxSaveLatencyNanos() >= executor.getLastSaveLatencyNanos());
+
+            executor.flush();
+            assertEquals(1, firstEntry.mEncodings.get());
+        } finally {
+            first.delete();
+            second.delete();
+        }
+    }
+
+    @Test
+    public void requestSave_coalescesRequestsOnBackgroundThread() throws Exception {
+        File file = createFile();
+        try {
+            PersistenceExecutor executor = new PersistenceExecutor();
+            TestEntry entry = new TestEntry(file);
+            executor.register(entry);
+            entry.mVersion.set(1);
+            for (int i = 0; i < 100; i++) {
+                executor.requestSave();
+            }
+            for (int i = 0; i < 200 && executor.getFilesWritten() == 0; i++) {
+                Thread.sleep(5);
+            }
+            Thread.sleep(20);
+
+            assertEquals(1, executor.getFilesWritten());
+            assertEquals(1, entry.mEncodings.get());
+            assertTrue(file.exists());
+
+            entry.mVersion.set(2);
+            executor.stop();
+            for (int i = 0; i < 200 && executor.getFilesWritten() == 1; i++) {
+                Thread.sleep(5);
+            }
+            assertEquals(2, executor.getFilesWritten());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void checkpoint_completesOnlyWhenAllChangedEntriesAreWritten() throws Exception {
+        File file = createFile();
+        File missingDirectory = new File(createFile(), "missing");
+        try {
+            PersistenceExecutor executor = new PersistenceExecutor();
+            TestEntry entry = new TestEntry(file);
+            TestEntry failingEntry = new TestEntry(new File(missingDirectory, "file"));
+            executor.register(entry);
+            executor.register(failingEntry);
+            final AtomicInteger started = new AtomicInteger();
+            final AtomicInteger completed = new AtomicInteger();
+            executor.setCheckpointListener(new PersistenceExecutor.CheckpointListener() {
+                @Override
+                public long onCheckpointStarted() {
+                    return started.incrementAndGet();
+                }
+
+                @Override
+                public void onCheckpointCompleted() {
+                    completed.incrementAndGet();
+                }
+            });
+
+            entry.mVersion.set(1);
+            entry.mCheckpointLock = executor.getCheckpointLock();
+            executor.flush();
+            assertEquals(1, started.get());
+            assertEquals(1, completed.get());
+            assertEquals(1, entry.mEncodings.get());
+            assertFalse(entry.mEncodedWithCheckpointLock);
+            assertEquals(1, entry.getSavedCheckpoint());
+
+            entry.mVersion.set(2);
+            failingEntry.mVersion.set(1);
+            executor.flush();
+            assertEquals(2, started.get());
+            assertEquals(1, completed.get());
+            assertEquals(2, BinaryFormat.readFile(file)[0]);
+            assertEquals(2, entry.getSavedCheckpoint());
+            assertEquals(0, failingEntry.getSavedCheckpoint());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void syncTask_runsPeriodicallyWithoutTheCheckpointLock() throws Exception {
+        final PersistenceExecutor executor = new PersistenceExecutor();
+        final AtomicInteger syncs = new AtomicInteger();
+        final AtomicInteger syncsWithCheckpointLock = new AtomicInteger();
+        executor.setSyncTask(new Runnable() {
+            @Override
+            public void run() {
+                if (Thread.holdsLock(executor.getCheckpointLock()))
+                    syncsWithCheckpointLock.incrementAndGet();
+                syncs.incrementAndGet();
+            }
+        }, 5);
+        executor.start(1000);
+        for (int i = 0; i < 200 && syncs.get() < 3; i++) {
+            Thread.sleep(5);
+        }
+        executor.stop();
+
+        assertTrue(syncs.get() >= 3);
+        assertEquals(0, syncsWithCheckpointLock.get());
+        Thread.sleep(20);
+        int stoppedSyncs = syncs.get();
+        Thread.sleep(30);
+        assertEquals(stoppedSyncs, syncs.get());
+    }
+}
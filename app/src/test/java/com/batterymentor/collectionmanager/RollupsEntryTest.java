@@ -0,0 +1,181 @@
+package com.batterymentor.collectionmanager;
+
+import com.batterymentor.constants.Constants;
+import com.batterymentor.datamanager.Rollups;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the incremental saving of time rollups.
+ */
+public class RollupsEntryTest {
+
+    private static final long START = 1000 * Constants.DAY;
+
+    private static File createFile() throws IOException {
+        File file = File.createTempFile("rollups", "");
+        file.delete();
+        return file;
+    }
+
+    private static File getJournal(File file) {
+        return new File(file.getPath() + "_journal");
+    }
+
+    private static void addValues(Rollups rollups, long startTime, long endTime) {
+        for (long time = startTime; time < endTime; time += Constants.SECOND) {
+            rollups.add(time, 500 + (time / Constants.MINUTE) % 7, 1);
+        }
+    }
+
+    private static void assertSameRollups(Rollups expected, Rollups actual, long endTime) {
+        for (long time = START; time < endTime; time += 7 * Constants.HOUR) {
+            assertEquals(expected.query(time, time + Constants.HOUR).getAverage(), actual.query(time, time + Constants.HOUR).getAverage(), 1e-9);
+            assertEquals(expected.query(time, time + Constants.HOUR).getWeight(), actual.query(time, time + Constants.HOUR).getWeight(), 0);
+        }
+    }
+
+    @Test
+    public void save_appendsOnlyChangedBucketsToJournal() throws Exception {
+        File file = createFile();
+        try {
+            PersistenceExecutor executor = new PersistenceExecutor();
+            RollupsEntry entry = new RollupsEntry(file, getJournal(file));
+            executor.register(entry);
+            Rollups rollups = entry.getRollups();
+            long time = START + 3 * Constants.DAY;
+            addValues(rollups, START, time);
+            executor.flush();
+            long baseSize = file.length();
+            assertTrue(baseSize > 0);
+            assertFalse(getJournal(file).exists());
+
+            for (int save = 0; save < 10; save++) {
+                addValues(rollups, time, time + 30 * Constants.SECOND);
+                time += 30 * Constants.SECOND;
+                long bytesWritten = executor.getBytesWritten();
+                executor.flush();
+                assertTrue(executor.getBytesWritten() - bytesWritten < 4096);
+            }
+            assertEquals(baseSize, file.length());
+            assertEquals(entry.getJournalSize(), getJournal(file).length());
+
+            RollupsEntry loaded = new RollupsEntry(file, getJournal(file));
+            assertSameRollups(rollups, loaded.getRollups(), time);
+        } finally {
+            file.delete();
+            getJournal(file).delete();
+        }
+    }
+
+    @Test
+    public void save_compactsJournalLargerThanBaseFile() throws Exception {
+        File file = createFile();
+        try {
+            PersistenceExecutor executor = new PersistenceExecutor();
+            RollupsEntry entry = new RollupsEntry(file, getJournal(file));
+            executor.register(entry);
+            Rollups rollups = entry.getRollups();
+            long time = START;
+            addValues(rollups, time, time + 30 * Constants.SECOND);
+            time += 30 * Constants.SECOND;
+            executor.flush();
+            long baseSize = file.length();
+            int saves = 0;
+            while (file.length() == baseSize) {
+                addValues(rollups, time, time + 30 * Constants.SECOND);
+                time += 30 * Constants.SECOND;
+                executor.flush();
+                saves++;
+            }
+            assertTrue(saves > 10);
+            assertFalse(getJournal(file).exists());
+            assertEquals(0, entry.getJournalSize());
+
+            addValues(rollups, time, time + 30 * Constants.SECOND);
+            time += 30 * Constants.SECOND;
+            executor.flush();
+            assertTrue(getJournal(file).exists());
+            assertSameRollups(rollups, new RollupsEntry(file, getJournal(file)).getRollups(), time);
+        } finally {
+            file.delete();
+            getJournal(file).delete();
+        }
+    }
+
+    @Test
+    public void load_readsCheckpointOfLastRecord() throws Exception {
+        File file = createFile();
+        try {
+            PersistenceExecutor executor = new PersistenceExecutor();
+            final long[] checkpoint = {7};
+            executor.setCheckpointListener(new PersistenceExecutor.CheckpointListener() {
+                @Override
+                public long onCheckpointStarted() {
+                    return checkpoint[0];
+                }
+
+                @Override
+                public void onCheckpointCompleted() {
+                }
+            });
+            RollupsEntry entry = new RollupsEntry(file, getJournal(file));
+            executor.register(entry);
+            Rollups rollups = entry.getRollups();
+            long time = START;
+            addValues(rollups, time, time + Constants.HOUR);
+            time += Constants.HOUR;
+            executor.flush();
+            assertEquals(7, new RollupsEntry(file, getJournal(file)).getSavedCheckpoint());
+
+            checkpoint[0] = 9;
+            addValues(rollups, time, time + 30 * Constants.SECOND);
+            executor.flush();
+            assertTrue(getJournal(file).exists());
+            assertEquals(9, entry.getSavedCheckpoint());
+            assertEquals(9, new RollupsEntry(file, getJournal(file)).getSavedCheckpoint());
+        } finally {
+            file.delete();
+            getJournal(file).delete();
+        }
+    }
+
+    @Test
+    public void load_ignoresJournalOfEarlierBaseFile() throws Exception {
+        File file = createFile();
+        File staleJournal = createFile();
+        try {
+            PersistenceExecutor executor = new PersistenceExecutor();
+            RollupsEntry entry = new RollupsEntry(file, getJournal(file));
+            executor.register(entry);
+            Rollups rollups = entry.getRollups();
+            long time = START;
+            addValues(rollups, time, time + Constants.HOUR);
+            time += Constants.HOUR;
+            executor.flush();
+            addValues(rollups, time, time + 30 * Constants.SECOND);
+            time += 30 * Constants.SECOND;
+            executor.flush();
+            assertTrue(getJournal(file).renameTo(staleJournal));
+
+            rollups.reset();
+            addValues(rollups, time, time + 30 * Constants.SECOND);
+            time += 30 * Constants.SECOND;
+            executor.flush();
+            assertFalse(getJournal(file).exists());
+            assertTrue(staleJournal.renameTo(getJournal(file)));
+
+            Rollups loaded = new RollupsEntry(file, getJournal(file)).getRollups();
+            assertEquals(30, loaded.query(START, time).getWeight(), 0);
+        } finally {
+            file.delete();
+            staleJournal.delete();
+            getJournal(file).delete();
+        }
+    }
+}
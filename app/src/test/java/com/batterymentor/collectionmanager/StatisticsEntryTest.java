@@ -0,0 +1,80 @@
+package com.batterymentor.collectionmanager;
+
+import com.batterymentor.constants.DataConstants;
+import com.batterymentor.datamanager.BinaryFormat;
+import com.batterymentor.datamanager.Statistics;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the saving of lifetime statistics with their checkpoint.
+ */
+public class StatisticsEntryTest {
+
+    private static final long START = 1500000000000L;
+
+    private static File createFile() throws IOException {
+        File file = File.createTempFile("statistics", "");
+        file.delete();
+        return file;
+    }
+
+    @Test
+    public void load_readsStatisticsAndCheckpoint() throws Exception {
+        File file = createFile();
+        try {
+            PersistenceExecutor executor = new PersistenceExecutor();
+            executor.setCheckpointListener(new PersistenceExecutor.CheckpointListener() {
+                @Override
+                public long onCheckpointStarted() {
+                    return 42;
+                }
+
+                @Override
+                public void onCheckpointCompleted() {
+                }
+            });
+            StatisticsEntry entry = new StatisticsEntry(file, true);
+            assertEquals(0, entry.getSavedCheckpoint());
+            executor.register(entry);
+            for (int i = 0; i < 100; i++) {
+                entry.getStatistics().addValue(START + i * 1000, -500 - i, 1);
+            }
+            executor.flush();
+
+            StatisticsEntry loaded = new StatisticsEntry(file, false);
+            assertEquals(42, loaded.getSavedCheckpoint());
+            assertEquals(100, loaded.getStatistics().getNumPoints(), 0);
+            assertEquals(entry.getStatistics().getAverage(), loaded.getStatistics().getAverage(), 1e-9);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void load_readsStatisticsSavedWithoutCheckpoint() throws Exception {
+        File file = createFile();
+        try {
+            Statistics statistics = new Statistics(false);
+            statistics.addValue(START, 700, 1);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            statistics.writeTo(out);
+            out.flush();
+            BinaryFormat.writeFile(file, BinaryFormat.TYPE_STATISTICS, DataConstants.STATISTICS_FORMAT_VERSION, bytes.toByteArray());
+
+            StatisticsEntry loaded = new StatisticsEntry(file, false);
+            assertEquals(0, loaded.getSavedCheckpoint());
+            assertEquals(1, loaded.getStatistics().getNumPoints(), 0);
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.batterymentor.datamanager;
+
+import com.batterymentor.constants.DataConstants;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the binary format of the files saved to persistent storage.
+ */
+public class BinaryFormatTest {
+
+    private static byte[] encode(Statistics statistics) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        statistics.writeTo(out);
+        out.flush();
+        return BinaryFormat.encode(BinaryFormat.TYPE_STATISTICS, DataConstants.STATISTICS_FORMAT_VERSION, bytes.toByteArray());
+    }
+
+    private static Statistics decode(byte[] bytes) throws IOException {
+        BinaryFormat.Record record = BinaryFormat.decode(bytes);
+        assertEquals(BinaryFormat.TYPE_STATISTICS, record.getType());
+        return Statistics.readFrom(record.getInput(), record.getVersion());
+    }
+
+    private static Statistics createStatistics(BucketScheme bucketScheme) {
+        Statistics statistics = new Statistics(false, bucketScheme);
+        statistics.setTimeWeighting(1000, 120000);
+        Random random = new Random(3);
+        for (int i = 0; i < 5000; i++) {
+            statistics.addValue(500 + random.nextGaussian() * 100, 1 + random.nextInt(3));
+        }
+        return statistics;
+    }
+
+    private static void assertSameStatistics(Statistics expected, Statistics actual) {
+        assertEquals(expected.isChargerStatistics(), actual.isChargerStatistics());
+        assertEquals(expected.getValue(), actual.getValue(), 0);
+        assertEquals(expected.getTotal(), actual.getTotal(), 0);
+        assertEquals(expected.getNumPoints(), actual.getNumPoints(), 0);
+        assertEquals(expected.getVariance(), actual.getVariance(), 0);
+        assertEquals(expected.getMin(), actual.getMin(), 0);
+        assertEquals(expected.getMax(), actual.getMax(), 0);
+        assertEquals(expected.isTimeWeighted(), actual.isTimeWeighted());
+        assertEquals(expected.getPercentile(0.5), actual.getPercentile(0.5), 0);
+        assertEquals(expected.getPercentile(0.99), actual.getPercentile(0.99), 0);
+        HistogramPoint[] expectedHistogram = expected.getHistogramData();
+        HistogramPoint[] actualHistogram = actual.getHistogramData();
+        assertEquals(expectedHistogram.length, actualHistogram.length);
+        for (int i = 0; i < expectedHistogram.length; i++) {
+            assertEquals(expectedHistogram[i].getMinX(), actualHistogram[i].getMinX(), 0);
+            assertEquals(expectedHistogram[i].getY(), actualHistogram[i].getY(), 0);
+        }
+    }
+
+    @Test
+    public void statistics_roundTrip() throws Exception {
+        Statistics statistics = createStatistics(Statistics.createDefaultBucketScheme());
+        assertSameStatistics(statistics, decode(encode(statistics)));
+
+        Statistics linear = createStatistics(new LinearBucketScheme(0, 2000, 40));
+        assertSameStatistics(linear, decode(encode(linear)));
+
+        Statistics empty = new Statistics(true);
+        Statistics decoded = decode(encode(empty));
+        assertTrue(decoded.isChargerStatistics());
+        assertEquals(0, decoded.getNumPoints(), 0);
+        assertEquals(Double.POSITIVE_INFINITY, decoded.getMin(), 0);
+
+        Statistics small = new Statistics(false);
+        small.addValue(400, 1);
+        small.addValue(500, 1);
+        small.addValue(600, 1);
+        decoded = decode(encode(small));
+
+        Random random = new Random(5);
+        for (int i = 0; i < 20000; i++) {
+            double value = 500 + random.nextGaussian() * 100;
+            small.addValue(value, 1);
+            decoded.addValue(value, 1);
+        }
+        assertEquals(small.getNumPoints(), decoded.getNumPoints(), 0);
+        assertEquals(small.getPercentile(0.5), decoded.getPercentile(0.5), 5);
+
+        Statistics reloaded = decode(encode(decoded));
+        for (int i = 0; i < 20000; i++) {
+            reloaded.addValue(500 + random.nextGaussian() * 100, 1);
+        }
+        assertEquals(40003, reloaded.getNumPoints(), 0);
+    }
+
+    @Test
+    public void decode_rejectsCorruptedRecords() throws Exception {
+        byte[] bytes = encode(createStatistics(Statistics.createDefaultBucketScheme()));
+        for (int index : new int[]{5, 20, bytes.length / 2, bytes.length - 1}) {
+            byte[] corrupted = bytes.clone();
+            corrupted[index] ^= 0x10;
+            try {
+                decode(corrupted);
+                fail("corruption at " + index + " wasn't detected");
+            } catch (IOException e) {
+            }
+        }
+
+        byte[] truncated = new byte[bytes.length - 10];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        try {
+            decode(truncated);
+            fail("truncation wasn't detected");
+        } catch (IOException e) {
+        }
+    }
+
+    @Test
+    public void isBinaryFormat_distinguishesJavaSerialization() throws Exception {
+        Statistics statistics = createStatistics(Statistics.createDefaultBucketScheme());
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(serialized);
+        out.writeObject(statistics);
+        out.close();
+
+        byte[] binary = encode(statistics);
+        assertTrue(BinaryFormat.isBinaryFormat(binary));
+        assertFalse(BinaryFormat.isBinaryFormat(serialized.toByteArray()));
+        assertTrue(binary.length < serialized.size());
+    }
+
+    @Test
+    public void writeFile_replacesFileAtomically() throws Exception {
+        File file = File.createTempFile("statistics", "");
+        try {
+            Statistics statistics = createStatistics(Statistics.createDefaultBucketScheme());
+            assertTrue(BinaryFormat.writeFileAtomically(file, new byte[]{1, 2, 3}));
+            assertTrue(BinaryFormat.writeFileAtomically(file, encode(statistics)));
+            assertFalse(new File(file.getPath() + ".tmp").exists());
+            assertSameStatistics(statistics, decode(BinaryFormat.readFile(file)));
+        } finally {
+            file.delete();
+        }
+        assertNull(BinaryFormat.readFile(file));
+    }
+}
@@ -0,0 +1,101 @@
+package com.batterymentor.datamanager;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the schemes of histogram buckets.
+ */
+public class BucketSchemeTest {
+
+    @Test
+    public void logLinear_bucketsAreContiguousAndNarrow() {
+        LogLinearBucketScheme scheme = new LogLinearBucketScheme(3, 100000);
+        assertEquals(0, scheme.getLowerBound(0), 0);
+        for (int i = 0; i < scheme.getNumBuckets() - 1; i++) {
+            double lower = scheme.getLowerBound(i);
+            double upper = scheme.getUpperBound(i);
+            assertEquals(upper, scheme.getLowerBound(i + 1), 0);
+            assertEquals(i, scheme.getIndex(lower));
+            assertEquals(i, scheme.getIndex(upper - 0.5));
+            if (lower >= 8)
+                assertTrue((upper - lower) / lower <= 1 / 8d);
+        }
+    }
+
+    @Test
+    public void logLinear_clampsOutOfRangeValues() {
+        LogLinearBucketScheme scheme = new LogLinearBucketScheme(3, 100000);
+        assertEquals(0, scheme.getIndex(-500));
+        assertEquals(0, scheme.getIndex(Double.NaN));
+        assertEquals(scheme.getNumBuckets() - 1, scheme.getIndex(100000));
+        assertEquals(scheme.getNumBuckets() - 1, scheme.getIndex(1e12));
+        assertEquals(scheme.getNumBuckets() - 1, scheme.getIndex(Double.POSITIVE_INFINITY));
+    }
+
+    @Test
+    public void linear_dividesRangeEvenly() {
+        LinearBucketScheme scheme = new LinearBucketScheme(0, 5000, 10);
+        assertEquals(10, scheme.getNumBuckets());
+        assertEquals(0, scheme.getIndex(-1));
+        assertEquals(2, scheme.getIndex(1200));
+        assertEquals(9, scheme.getIndex(7000));
+        assertEquals(1000, scheme.getLowerBound(2), 0);
+        assertEquals(1500, scheme.getUpperBound(2), 0);
+    }
+
+    @Test
+    public void readObject_migratesLinearHistogram() throws Exception {
+        Statistics statistics = new Statistics(false);
+        setField(statistics, "mBucketScheme", null);
+        setField(statistics, "mBucketCounts", null);
+        setField(statistics, "mHistogramData", new HistogramPoint[]{
+                new HistogramPoint(0, 500, 4), new HistogramPoint(1000, 1500, 6)});
+
+        Statistics restored = copy(statistics);
+        BucketScheme scheme = restored.getBucketScheme();
+        HistogramPoint[] histogram = restored.getHistogramData();
+        assertEquals(scheme.getNumBuckets(), histogram.length);
+        assertSpread(histogram, scheme, 0, 500, 4);
+        assertSpread(histogram, scheme, 1000, 1500, 6);
+
+        double count = histogram[scheme.getIndex(1250)].getY();
+        restored.addValue(1250, 1);
+        assertEquals(count + 1, restored.getHistogramData()[scheme.getIndex(1250)].getY(), 1e-9);
+    }
+
+    /**
+     * Assert that the count of an old bucket is spread over the overlapping buckets in proportion
+     * to each overlap.
+     */
+    private static void assertSpread(HistogramPoint[] histogram, BucketScheme scheme, double lowerBound, double upperBound, double count) {
+        double total = 0;
+        for (int i = scheme.getIndex(lowerBound); i < scheme.getNumBuckets() && scheme.getLowerBound(i) < upperBound; i++) {
+            double overlap = Math.min(upperBound, scheme.getUpperBound(i)) - Math.max(lowerBound, scheme.getLowerBound(i));
+            assertEquals(count * overlap / (upperBound - lowerBound), histogram[i].getY(), 1e-9);
+            total += histogram[i].getY();
+        }
+        assertEquals(count, total, 1e-9);
+    }
+
+    private static void setField(Statistics statistics, String name, Object value) throws Exception {
+        Field field = Statistics.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(statistics, value);
+    }
+
+    private static Statistics copy(Statistics statistics) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(statistics);
+        out.close();
+        return (Statistics) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    }
+}
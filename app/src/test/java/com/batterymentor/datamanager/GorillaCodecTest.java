@@ -0,0 +1,142 @@
+package com.batterymentor.datamanager;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the compressed encoding of samples.
+ */
+public class GorillaCodecTest {
+
+    private static final long START = 1500000000000L;
+
+    private static void assertRoundTrip(long[] timestamps, double[] values) {
+        GorillaEncoder encoder = new GorillaEncoder();
+        for (int i = 0; i < timestamps.length; i++) {
+            encoder.append(timestamps[i], values[i]);
+        }
+        assertEquals(timestamps.length, encoder.getCount());
+
+        GorillaDecoder decoder = new GorillaDecoder(encoder.toByteArray(), encoder.getCount());
+        for (int i = 0; i < timestamps.length; i++) {
+            assertTrue(decoder.next());
+            assertEquals(timestamps[i], decoder.getTimestamp());
+            assertEquals(Double.doubleToRawLongBits(values[i]), Double.doubleToRawLongBits(decoder.getValue()));
+        }
+        assertFalse(decoder.next());
+    }
+
+    /**
+     * Create samples that look like power measurements: a slowly varying, quantized value sampled
+     * about once a second.
+     */
+    private static void createPowerSamples(long[] timestamps, double[] values, Random random) {
+        long timestamp = START;
+        double level = 1200;
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamp += 1000 + random.nextInt(5) - 2;
+            if (random.nextInt(60) == 0)
+                level = 400 + random.nextInt(2000);
+            timestamps[i] = timestamp;
+            values[i] = Math.round(level + random.nextGaussian() * 20);
+        }
+    }
+
+    @Test
+    public void roundTrip_regularSamples() {
+        long[] timestamps = new long[1000];
+        double[] values = new double[1000];
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamps[i] = START + i * 1000;
+            values[i] = 750;
+        }
+        assertRoundTrip(timestamps, values);
+    }
+
+    @Test
+    public void roundTrip_edgeCases() {
+        long[] timestamps = {START, START + 1000, START + 999, START + 5000, START + 5001,
+                START + 5001, START - 100000000L, Long.MAX_VALUE / 2, 0, 300, 300 + 255, 300 + 255 + 2047 + 256};
+        double[] values = {0, -0.0, Double.NaN, Double.POSITIVE_INFINITY, Double.MIN_VALUE,
+                -Double.MAX_VALUE, 1, 1, Double.longBitsToDouble(0x8000000000000001L), 1e-300, 3.5, -3.5};
+        assertRoundTrip(timestamps, values);
+    }
+
+    @Test
+    public void roundTrip_randomSamples() {
+        Random random = new Random(42);
+        long[] timestamps = new long[5000];
+        double[] values = new double[5000];
+        long timestamp = START;
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamp += random.nextInt(10) == 0 ? random.nextInt(100000) - 50000 : 1000 + random.nextInt(300);
+            timestamps[i] = timestamp;
+            values[i] = random.nextInt(4) == 0 ? values[Math.max(i - 1, 0)] : random.nextDouble() * 5000 - 1000;
+        }
+        assertRoundTrip(timestamps, values);
+
+        createPowerSamples(timestamps, values, random);
+        assertRoundTrip(timestamps, values);
+    }
+
+    @Test
+    public void powerSamples_compressMoreThanFourTimes() {
+        int count = 100000;
+        long[] timestamps = new long[count];
+        double[] values = new double[count];
+        createPowerSamples(timestamps, values, new Random(7));
+
+        GorillaEncoder encoder = new GorillaEncoder();
+        for (int i = 0; i < count; i++) {
+            encoder.append(timestamps[i], values[i]);
+        }
+        byte[] bytes = encoder.toByteArray();
+
+        GorillaDecoder decoder = new GorillaDecoder(bytes, count);
+        double sum = 0;
+        while (decoder.next()) {
+            sum += decoder.getValue();
+        }
+
+        double ratio = (double) count * 16 / bytes.length;
+        assertTrue(sum > 0);
+        assertTrue("compression ratio " + ratio, ratio > 4);
+    }
+
+    @Test
+    public void powerSamples_encodeAndDecodeMillionsPerSecond() {
+        int count = 100000;
+        long[] timestamps = new long[count];
+        double[] values = new double[count];
+        createPowerSamples(timestamps, values, new Random(11));
+
+        long encodeTime = Long.MAX_VALUE;
+        long decodeTime = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long startTime = System.nanoTime();
+            GorillaEncoder encoder = new GorillaEncoder();
+            for (int i = 0; i < count; i++) {
+                encoder.append(timestamps[i], values[i]);
+            }
+            byte[] bytes = encoder.toByteArray();
+            encodeTime = Math.min(encodeTime, System.nanoTime() - startTime);
+
+            startTime = System.nanoTime();
+            GorillaDecoder decoder = new GorillaDecoder(bytes, count);
+            long sum = 0;
+            while (decoder.next()) {
+                sum += decoder.getTimestamp();
+            }
+            decodeTime = Math.min(decodeTime, System.nanoTime() - startTime);
+            assertTrue(sum > 0);
+        }
+
+        double encodeRate = count * 1e9 / encodeTime;
+        double decodeRate = count * 1e9 / decodeTime;
+        assertTrue("encoded " + encodeRate + " samples/s", encodeRate > 1000000);
+        assertTrue("decoded " + decodeRate + " samples/s", decodeRate > 1000000);
+    }
+}
@@ -0,0 +1,98 @@
+package com.batterymentor.datamanager;
+
+import com.batterymentor.constants.DataConstants;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the streaming outlier filter.
+ */
+public class HampelFilterTest {
+
+    @Test
+    public void filter_replacesIsolatedSpikesWithMedian() {
+        HampelFilter filter = new HampelFilter();
+        for (int i = 0; i < 20; i++) {
+            assertEquals(800 + (i % 3) * 10, filter.filter(800 + (i % 3) * 10), 0);
+        }
+        assertEquals(810, filter.filter(25000), 0);
+        assertEquals(810, filter.filter(810), 0);
+        assertEquals(810, filter.filter(0), 0);
+        assertEquals(800, filter.filter(800), 0);
+        assertEquals(22, filter.getNumAccepted());
+        assertEquals(2, filter.getNumRejected());
+    }
+
+    @Test
+    public void filter_followsChangesInLevel() {
+        HampelFilter filter = new HampelFilter();
+        for (int i = 0; i < 20; i++) {
+            filter.filter(500);
+        }
+        int rejected = 0;
+        for (int i = 0; i < 20; i++) {
+            if (filter.filter(2000) != 2000)
+                rejected++;
+        }
+        assertEquals(DataConstants.OUTLIER_FILTER_MAX_CONSECUTIVE_REJECTIONS, rejected);
+    }
+
+    @Test
+    public void filter_replacesInvalidValues() {
+        HampelFilter filter = new HampelFilter();
+        assertTrue(Double.isNaN(filter.filter(Double.NaN)));
+        filter.filter(700);
+        assertEquals(700, filter.filter(Double.POSITIVE_INFINITY), 0);
+        assertEquals(1, filter.getNumAccepted());
+        assertEquals(2, filter.getNumRejected());
+    }
+
+    @Test
+    public void filter_matchesSortedWindow() {
+        Random random = new Random(5);
+        int windowSize = 9;
+        double threshold = 3;
+        HampelFilter filter = new HampelFilter(windowSize, threshold);
+        double[] window = new double[windowSize];
+        int size = 0;
+        int consecutiveRejections = 0;
+        for (int i = 0; i < 20000; i++) {
+            double value = 1000 + random.nextGaussian() * 300;
+            if (random.nextInt(20) == 0)
+                value *= 10;
+            if (consecutiveRejections >= DataConstants.OUTLIER_FILTER_MAX_CONSECUTIVE_REJECTIONS) {
+                System.arraycopy(window, size - consecutiveRejections, window, 0, consecutiveRejections);
+                size = consecutiveRejections;
+            } else if (size == windowSize) {
+                System.arraycopy(window, 1, window, 0, windowSize - 1);
+                size--;
+            }
+            window[size++] = value;
+
+            boolean expected = true;
+            double median = median(Arrays.copyOf(window, size));
+            if (size >= DataConstants.OUTLIER_FILTER_MIN_WINDOW_SIZE
+                    && consecutiveRejections < DataConstants.OUTLIER_FILTER_MAX_CONSECUTIVE_REJECTIONS) {
+                double[] deviations = new double[size];
+                for (int j = 0; j < size; j++) {
+                    deviations[j] = Math.abs(window[j] - median);
+                }
+                double allowed = Math.max(threshold * 1.4826 * median(deviations),
+                        DataConstants.OUTLIER_FILTER_MIN_RELATIVE_DEVIATION * Math.abs(median));
+                expected = Math.abs(value - median) <= allowed;
+            }
+            consecutiveRejections = expected ? 0 : consecutiveRejections + 1;
+            assertEquals("Value " + i, expected ? value : median, filter.filter(value), 0);
+        }
+    }
+
+    private static double median(double[] values) {
+        Arrays.sort(values);
+        return (values[values.length / 2] + values[(values.length - 1) / 2]) / 2;
+    }
+}
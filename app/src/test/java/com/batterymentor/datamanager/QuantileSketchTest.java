@@ -0,0 +1,119 @@
+package com.batterymentor.datamanager;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the quantile sketch of the lifetime statistics.
+ */
+public class QuantileSketchTest {
+
+    private static final int NUM_VALUES = 200000;
+
+    private static final double[] FRACTIONS = {0.01, 0.1, 0.5, 0.9, 0.99};
+
+    @Test
+    public void quantiles_matchSortedValues() {
+        Random random = new Random(7);
+        QuantileSketch sketch = new QuantileSketch();
+        double[] values = new double[NUM_VALUES];
+        for (int i = 0; i < NUM_VALUES; i++) {
+            values[i] = 300 - 400 * Math.log(1 - random.nextDouble());
+            sketch.add(values[i], 1);
+        }
+        Arrays.sort(values);
+
+        for (double fraction : FRACTIONS) {
+            double estimate = sketch.getQuantile(fraction);
+            int rank = Math.abs(Arrays.binarySearch(values, estimate));
+            assertEquals("Rank of p" + fraction, fraction, rank / (double) NUM_VALUES, 0.005);
+        }
+        assertEquals(values[0], sketch.getQuantile(0), 0);
+        assertEquals(values[NUM_VALUES - 1], sketch.getQuantile(1), 0);
+    }
+
+    @Test
+    public void centroids_stayBounded() {
+        Random random = new Random(11);
+        QuantileSketch sketch = new QuantileSketch();
+        for (int i = 0; i < NUM_VALUES; i++) {
+            sketch.add(random.nextGaussian() * 200 + 1000, 1 + random.nextInt(4));
+        }
+        assertTrue(sketch.getNumCentroids() <= 2 * 50);
+    }
+
+    @Test
+    public void quantiles_countWeights() {
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.add(1000, 1);
+        sketch.add(500, 3);
+        assertEquals(4, sketch.getTotalWeight(), 0);
+        assertTrue(sketch.getQuantile(0.5) < 1000);
+        assertEquals(1000, sketch.getQuantile(1), 0);
+        assertEquals(500, sketch.getQuantile(0), 0);
+    }
+
+    @Test
+    public void singletons_areExact() {
+        QuantileSketch sketch = QuantileSketch.of(new double[]{3, 1, 2}, new double[]{1, 1, 1}, 3);
+        assertEquals(1, sketch.getQuantile(0.2), 0);
+        assertEquals(2, sketch.getQuantile(0.5), 0);
+        assertEquals(3, sketch.getQuantile(0.9), 0);
+    }
+
+    @Test
+    public void merge_combinesDistributions() {
+        QuantileSketch low = new QuantileSketch();
+        QuantileSketch high = new QuantileSketch();
+        for (int i = 0; i < 1000; i++) {
+            low.add(i, 1);
+            high.add(1000 + i, 1);
+        }
+        low.merge(high);
+        assertEquals(2000, low.getTotalWeight(), 0);
+        assertEquals(1000, low.getQuantile(0.5), 20);
+        assertEquals(1999, low.getQuantile(1), 0);
+    }
+
+    @Test
+    public void copy_readsTrimmedSketch() {
+        QuantileSketch sketch = new QuantileSketch();
+        for (int i = 0; i < 100; i++) {
+            sketch.add(i, 1);
+        }
+        sketch.trim();
+        QuantileSketch copy = sketch.copy();
+        assertEquals(100, copy.getTotalWeight(), 0);
+        assertEquals(99, copy.getQuantile(1), 0);
+    }
+
+    @Test
+    public void serialization_preservesQuantiles() throws Exception {
+        Random random = new Random(3);
+        Statistics statistics = new Statistics(false);
+        for (int i = 0; i < 10007; i++) {
+            statistics.addValue(500 + random.nextInt(1000), 1);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(statistics);
+        out.close();
+        Statistics restored = (Statistics) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+
+        assertTrue(bytes.size() < 4096);
+        for (double fraction : FRACTIONS) {
+            assertEquals(statistics.getPercentile(fraction), restored.getPercentile(fraction), 0);
+        }
+        restored.addValue(600, 1);
+        assertEquals(10008, restored.getNumPoints(), 0);
+    }
+}
@@ -0,0 +1,227 @@
+package com.batterymentor.datamanager;
+
+import com.batterymentor.constants.DataConstants;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the ring-buffer window of the realtime statistics.
+ */
+public class RealtimeStatisticsTest {
+
+    private static final double DELTA = 1e-6;
+
+    private static final int ALLOCATION_TEST_ITERATIONS = 100000;
+
+    @Test
+    public void snapshot_copiesConsistentWindowWhileWriterRuns() throws InterruptedException {
+        final int capacity = 64;
+        final RealtimeStatistics statistics = new RealtimeStatistics(false, capacity);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 200000; i++) {
+                    statistics.addValue(i, 1000 + i, 1);
+                }
+            }
+        });
+        writer.start();
+        String failure = null;
+        while (writer.isAlive() && failure == null) {
+            StatisticsSnapshot snapshot = statistics.getSnapshot();
+            double histogramWeight = 0;
+            for (HistogramPoint point : snapshot.getHistogramData()) {
+                histogramWeight += point.getY();
+            }
+            if (histogramWeight != capacity)
+                continue;
+
+            double oldest = snapshot.getPercentile(0);
+            double newest = snapshot.getPercentile(1);
+            if (newest - oldest != capacity - 1)
+                failure = "Window [" + oldest + ", " + newest + "] isn't " + capacity + " consecutive points";
+        }
+        writer.join();
+        assertNull(failure, failure);
+    }
+
+    @Test
+    public void window_evictsOldestPointsAtCapacity() {
+        RealtimeStatistics statistics = new RealtimeStatistics(false, 4);
+        for (int i = 1; i <= 10; i++) {
+            statistics.addValue(i, 1000 * i, 1);
+        }
+        assertEquals(4, statistics.getSize());
+        assertEquals(4, statistics.getMaximumSize());
+        assertEquals((7000 + 8000 + 9000 + 10000) / 4d, statistics.getFullRecentAverage(), DELTA);
+        assertEquals(10, statistics.getNumPoints(), DELTA);
+    }
+
+    @Test
+    public void runningAverages_matchRecalculatedAverages() {
+        Random random = new Random(42);
+        int capacity = DataConstants.STATISTICS_RECENT_DATA_MAX_SIZE;
+        int shortSize = DataConstants.STATISTICS_RECENT_DATA_SIZE;
+        RealtimeStatistics statistics = new RealtimeStatistics(true, capacity);
+        double[] values = new double[1000];
+        double[] weights = new double[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = -random.nextInt(4000);
+            weights[i] = 1 + random.nextInt(4);
+            statistics.addValue(i, values[i], weights[i]);
+
+            double sum = 0;
+            double weightSum = 0;
+            double shortSum = 0;
+            double shortWeightSum = 0;
+            for (int j = Math.max(0, i - capacity + 1); j <= i; j++) {
+                sum += -values[j] * weights[j];
+                weightSum += weights[j];
+                if (j > i - shortSize) {
+                    shortSum += -values[j] * weights[j];
+                    shortWeightSum += weights[j];
+                }
+            }
+            assertEquals(sum / weightSum, statistics.getFullRecentAverage(), DELTA);
+            assertEquals(shortSum / shortWeightSum, statistics.getAverage(), DELTA);
+        }
+    }
+
+    @Test
+    public void percentiles_matchSortedWindow() {
+        Random random = new Random(7);
+        int capacity = 50;
+        RealtimeStatistics statistics = new RealtimeStatistics(false, capacity);
+        double[] values = new double[2000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 300 + random.nextInt(200);
+            statistics.addValue(i, values[i], 1);
+
+            double[] window = Arrays.copyOfRange(values, Math.max(0, i - capacity + 1), i + 1);
+            Arrays.sort(window);
+            int midpoint = (int) (window.length * (1 - DataConstants.STATISTICS_PERCENT_OF_SPIKES_TO_DROP) / 2);
+            assertEquals(window[midpoint], statistics.getMedian(), 0);
+            assertEquals(window[(int) (window.length * 0.9)], statistics.getPercentile(0.9), 0);
+            assertEquals(window[window.length - 1], statistics.getPercentile(1), 0);
+        }
+    }
+
+    @Test
+    public void chargerStatistics_orderConvertedValues() {
+        Random random = new Random(11);
+        int capacity = 50;
+        RealtimeStatistics statistics = new RealtimeStatistics(true, capacity);
+        double[] values = new double[500];
+        for (int i = 0; i < values.length; i++) {
+            double y = -(300 + random.nextInt(200));
+            values[i] = -y;
+            statistics.addValue(i, y, 1);
+
+            double[] window = Arrays.copyOfRange(values, Math.max(0, i - capacity + 1), i + 1);
+            Arrays.sort(window);
+            int midpoint = (int) (window.length * (1 - DataConstants.STATISTICS_PERCENT_OF_SPIKES_TO_DROP) / 2);
+            assertEquals(window[midpoint], statistics.getMedian(), 0);
+            assertEquals(window[(int) (window.length * 0.9)], statistics.getPercentile(0.9), 0);
+            assertEquals(window[0], statistics.getPercentile(0), 0);
+        }
+    }
+
+    @Test
+    public void quantileSketch_isOnlyKeptByLifetimeStatistics() throws Exception {
+        Field field = Statistics.class.getDeclaredField("mQuantileSketch");
+        field.setAccessible(true);
+        RealtimeStatistics realtime = new RealtimeStatistics(false, 100);
+        Statistics lifetime = new Statistics(false);
+        for (int i = 0; i < 100; i++) {
+            realtime.addValue(i, 500 + i, 1);
+            lifetime.addValue(i, 500 + i, 1);
+        }
+        assertNull(field.get(realtime));
+        assertNotNull(field.get(lifetime));
+        assertEquals(549, realtime.getPercentile(0.5), 1);
+        assertEquals(549, lifetime.getPercentile(0.5), 1);
+    }
+
+    @Test
+    public void median_countsWeights() {
+        RealtimeStatistics statistics = new RealtimeStatistics(false);
+        statistics.addValue(0, 900, 1);
+        statistics.addValue(1, 400, 5);
+        statistics.addValue(2, 800, 1);
+        assertEquals(400, statistics.getMedian(), 0);
+        assertEquals(900, statistics.getPercentile(0.99), 0);
+    }
+
+    @Test
+    public void histogram_countsOnlyWindow() {
+        RealtimeStatistics statistics = new RealtimeStatistics(false, 4);
+        statistics.addValue(0, 600, 1);
+        statistics.addValue(1, 600, 1);
+        statistics.addValue(2, 1200, 1);
+        statistics.addValue(3, 1200, 2);
+        statistics.addValue(4, 4800, 1);
+        statistics.addValue(5, 4800, 1);
+
+        BucketScheme scheme = statistics.getBucketScheme();
+        HistogramPoint[] histogram = statistics.getHistogramData();
+        assertEquals(0, histogram[scheme.getIndex(600)].getY(), 0);
+        assertEquals(3, histogram[scheme.getIndex(1200)].getY(), 0);
+        assertEquals(2, histogram[scheme.getIndex(4800)].getY(), 0);
+    }
+
+    @Test
+    public void histogram_reusesSnapshotUntilChanged() {
+        RealtimeStatistics statistics = new RealtimeStatistics(false);
+        statistics.addValue(0, 1000, 1);
+        long version = statistics.getHistogramVersion();
+        HistogramPoint[] histogram = statistics.getHistogramData();
+        assertTrue(histogram == statistics.getHistogramData());
+        assertEquals(version, statistics.getHistogramVersion());
+
+        statistics.addValue(1, 1000, 1);
+        assertTrue(version != statistics.getHistogramVersion());
+        assertTrue(histogram != statistics.getHistogramData());
+        assertEquals(2, statistics.getHistogramData()[statistics.getBucketScheme().getIndex(1000)].getY(), 0);
+    }
+
+    @Test
+    public void reset_clearsWindow() {
+        RealtimeStatistics statistics = new RealtimeStatistics(false);
+        statistics.addValue(0, 1000, 1);
+        statistics.reset();
+        assertEquals(0, statistics.getSize());
+        assertEquals(Double.POSITIVE_INFINITY, statistics.getFullRecentAverage(), 0);
+        statistics.addValue(1, 2000, 1);
+        assertEquals(2000, statistics.getFullRecentAverage(), DELTA);
+    }
+
+    @Test
+    public void addValue_allocatesNothingInSteadyState() {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        RealtimeStatistics statistics = new RealtimeStatistics(false);
+
+        add(statistics);
+        long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        add(statistics);
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(statistics.getFullRecentAverage() > 0);
+        assertTrue("Adding allocated " + allocated + " bytes over " + ALLOCATION_TEST_ITERATIONS + " iterations",
+                allocated < ALLOCATION_TEST_ITERATIONS);
+    }
+
+    private static void add(RealtimeStatistics statistics) {
+        for (int i = 0; i < ALLOCATION_TEST_ITERATIONS; i++) {
+            statistics.addValue(i, 500 + (i % 100), 1);
+            statistics.getAverage();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.batterymentor.datamanager;
+
+import com.batterymentor.constants.Constants;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the multi-resolution time rollups.
+ */
+public class RollupsTest {
+
+    private static final double DELTA = 1e-6;
+
+    private static final long START = 1000 * Constants.DAY;
+
+    /**
+     * The value of the sample at the specified time, which is the hour of the day.
+     */
+    private static double valueAt(long time) {
+        return 500 + (time % Constants.DAY) / Constants.HOUR;
+    }
+
+    private static Rollups createRollups(int days) {
+        Rollups rollups = new Rollups(TimeZone.getTimeZone("UTC"));
+        for (long time = START; time < START + days * Constants.DAY; time += 10 * Constants.SECOND) {
+            rollups.add(time, valueAt(time), 1);
+        }
+        return rollups;
+    }
+
+    @Test
+    public void query_averagesWorkingHoursOfYesterday() {
+        Rollups rollups = createRollups(3);
+        long yesterday = START + Constants.DAY;
+        RollupBucket bucket = rollups.query(yesterday + 9 * Constants.HOUR, yesterday + 17 * Constants.HOUR);
+        assertEquals(8 * 360, bucket.getWeight(), 0);
+        assertEquals(500 + (9 + 16) / 2d, bucket.getAverage(), DELTA);
+        assertEquals(509, bucket.getMin(), 0);
+        assertEquals(516, bucket.getMax(), 0);
+        assertEquals(512, bucket.getPercentile(0.5), 1);
+    }
+
+    @Test
+    public void query_usesMinutesWithinLastDay() {
+        Rollups rollups = createRollups(3);
+        long today = START + 2 * Constants.DAY;
+        RollupBucket bucket = rollups.query(today + 9 * Constants.HOUR + 30 * Constants.MINUTE, today + 10 * Constants.HOUR);
+        assertEquals(180, bucket.getWeight(), 0);
+        assertEquals(509, bucket.getAverage(), DELTA);
+    }
+
+    @Test
+    public void query_fallsBackToCoarserBuckets() {
+        Rollups rollups = createRollups(40);
+        long day = START + 5 * Constants.DAY;
+        RollupBucket bucket = rollups.query(day + 9 * Constants.HOUR + 30 * Constants.MINUTE, day + 10 * Constants.HOUR);
+        assertEquals(Constants.DAY / (10 * Constants.SECOND), bucket.getWeight(), 0);
+
+        RollupBucket days = rollups.query(START, START + 40 * Constants.DAY);
+        assertEquals(40 * Constants.DAY / (10 * Constants.SECOND), days.getWeight(), 0);
+        assertEquals(500 + 23 / 2d, days.getAverage(), DELTA);
+    }
+
+    @Test
+    public void query_isEmptyWithoutData() {
+        Rollups rollups = createRollups(1);
+        RollupBucket bucket = rollups.query(START - 400 * Constants.DAY, START);
+        assertEquals(0, bucket.getWeight(), 0);
+        assertEquals(Double.POSITIVE_INFINITY, bucket.getAverage(), 0);
+    }
+
+    @Test
+    public void writeTo_preservesRollups() throws Exception {
+        Rollups rollups = createRollups(2);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        rollups.writeTo(new DataOutputStream(bytes));
+        Rollups restored = Rollups.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        long yesterday = START + Constants.DAY;
+        RollupBucket bucket = restored.query(yesterday + 9 * Constants.HOUR, yesterday + 17 * Constants.HOUR);
+        assertEquals(500 + (9 + 16) / 2d, bucket.getAverage(), DELTA);
+        restored.add(START + 2 * Constants.DAY, 600, 1);
+        assertEquals(600, restored.query(START + 2 * Constants.DAY, START + 3 * Constants.DAY).getAverage(), DELTA);
+    }
+
+    @Test
+    public void writeChangesTo_writesOnlyChangedBuckets() throws Exception {
+        Rollups rollups = createRollups(2);
+        ByteArrayOutputStream full = new ByteArrayOutputStream();
+        rollups.writeTo(new DataOutputStream(full));
+        Rollups restored = new Rollups(TimeZone.getTimeZone("UTC"));
+        restored.readChangesFrom(new DataInputStream(new ByteArrayInputStream(full.toByteArray())));
+
+        long version = rollups.getVersion();
+        long time = START + 2 * Constants.DAY + 30 * Constants.SECOND;
+        rollups.add(time, 600, 1);
+        ByteArrayOutputStream changes = new ByteArrayOutputStream();
+        rollups.writeChangesTo(new DataOutputStream(changes), version);
+        assertEquals(3, new DataInputStream(new ByteArrayInputStream(changes.toByteArray())).readInt());
+        assertTrue(changes.size() * 100 < full.size());
+
+        restored.readChangesFrom(new DataInputStream(new ByteArrayInputStream(changes.toByteArray())));
+        long yesterday = START + Constants.DAY;
+        assertEquals(500 + (9 + 16) / 2d, restored.query(yesterday + 9 * Constants.HOUR, yesterday + 17 * Constants.HOUR).getAverage(), DELTA);
+        assertEquals(600, restored.query(START + 2 * Constants.DAY, START + 3 * Constants.DAY).getAverage(), DELTA);
+        restored.add(time + Constants.SECOND, 700, 1);
+        assertEquals(650, restored.query(START + 2 * Constants.DAY, START + 3 * Constants.DAY).getAverage(), DELTA);
+    }
+}
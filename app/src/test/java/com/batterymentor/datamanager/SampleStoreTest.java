@@ -0,0 +1,178 @@
+package com.batterymentor.datamanager;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the memory mapped store of raw samples.
+ */
+public class SampleStoreTest {
+
+    private static final long START = 1500000000000L;
+
+    private static File createDirectory() throws Exception {
+        File directory = File.createTempFile("samples", "");
+        directory.delete();
+        directory.mkdirs();
+        return directory;
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static void append(SampleStore store, long timestamp, double value, int flags) throws InterruptedException {
+        while (!store.append(timestamp, value, flags)) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static List<long[]> readAll(SampleStore store, long startTime, long endTime) {
+        final List<long[]> samples = new ArrayList<long[]>();
+        store.read(startTime, endTime, new SampleStore.SampleVisitor() {
+            @Override
+            public void onSample(long timestamp, float value, int flags) {
+                samples.add(new long[]{timestamp, (long) value, flags});
+            }
+        });
+        return samples;
+    }
+
+    @Test
+    public void read_returnsAppendedSamplesAcrossSegments() throws Exception {
+        File directory = createDirectory();
+        try {
+            SampleStore store = new SampleStore(directory, 100, 10);
+            for (int i = 0; i < 250; i++) {
+                append(store, START + i * 1000, 500 + i, i % 2);
+            }
+
+            List<long[]> samples = readAll(store, START, START + 250 * 1000);
+            assertEquals(250, samples.size());
+            for (int i = 0; i < 250; i++) {
+                assertEquals(START + i * 1000, samples.get(i)[0]);
+                assertEquals(500 + i, samples.get(i)[1]);
+                assertEquals(i % 2, samples.get(i)[2]);
+            }
+            assertEquals(10, readAll(store, START + 100 * 1000, START + 110 * 1000).size());
+            store.close();
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void segments_areRolledAndExpired() throws Exception {
+        File directory = createDirectory();
+        try {
+            SampleStore store = new SampleStore(directory, 100, 3);
+            for (int i = 0; i < 1000; i++) {
+                append(store, START + i * 1000, 800, 0);
+            }
+            store.close();
+            assertTrue(store.awaitTermination(5000));
+
+            assertTrue(store.getSegments().size() <= 3);
+            assertTrue(directory.listFiles().length <= 3);
+            List<long[]> samples = readAll(store, START, START + 1000 * 1000);
+            assertEquals(START + 999 * 1000, samples.get(samples.size() - 1)[0]);
+            assertTrue(samples.size() >= 100);
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void close_sealsSegmentWhileWriterAppends() throws Exception {
+        File directory = createDirectory();
+        try {
+            final SampleStore store = new SampleStore(directory, 100, 3);
+            append(store, START, 800, 0);
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 1; i < 100000; i++) {
+                        store.append(START + i * 1000, 800, 0);
+                    }
+                }
+            });
+            writer.start();
+            store.close();
+            assertTrue(store.awaitTermination(5000));
+            writer.join();
+
+            assertFalse(store.append(START + 200000 * 1000L, 800, 0));
+            for (SampleBlock block : store.getSegments()) {
+                if (block.getCount() > 0)
+                    assertTrue(block instanceof SampleArchive);
+            }
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void store_reopensSealedSegments() throws Exception {
+        File directory = createDirectory();
+        try {
+            SampleStore store = new SampleStore(directory, 100, 10);
+            for (int i = 0; i < 150; i++) {
+                append(store, START + i * 1000, 1000, 0);
+            }
+            store.close();
+            assertTrue(store.awaitTermination(5000));
+
+            SampleStore reopened = new SampleStore(directory, 100, 10);
+            append(reopened, START + 200 * 1000, 2000, 1);
+            List<long[]> samples = readAll(reopened, START, START + 1000 * 1000);
+            assertEquals(151, samples.size());
+            assertEquals(2000, samples.get(150)[1]);
+            for (SampleBlock block : reopened.getSegments()) {
+                if (block.getCount() > 0 && block.getMaxTime() < START + 200 * 1000)
+                    assertTrue(block instanceof SampleArchive);
+            }
+            reopened.close();
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void archive_compressesSealedSegments() throws Exception {
+        File directory = createDirectory();
+        try {
+            SampleStore store = new SampleStore(directory, 1000, 10);
+            for (int i = 0; i < 2500; i++) {
+                append(store, START + i * 1000 + i % 3, 800 + (i / 100) * 10, (i / 700) % 2);
+            }
+            store.close();
+            assertTrue(store.awaitTermination(5000));
+
+            List<long[]> samples = readAll(store, START, START + 2500 * 1000);
+            assertEquals(2500, samples.size());
+            for (int i = 0; i < 2500; i++) {
+                assertEquals(START + i * 1000 + i % 3, samples.get(i)[0]);
+                assertEquals(800 + (i / 100) * 10, samples.get(i)[1]);
+                assertEquals((i / 700) % 2, samples.get(i)[2]);
+            }
+            for (File file : directory.listFiles()) {
+                assertTrue(file.getName(), file.getName().endsWith(".sga"));
+                assertTrue("archive size " + file.length(), file.length() * 4 < 1000 * SampleSegment.RECORD_SIZE);
+            }
+            assertEquals(500, readAll(store, START + 1000 * 1000, START + 1500 * 1000).size());
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+}
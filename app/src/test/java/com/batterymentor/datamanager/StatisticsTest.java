@@ -0,0 +1,232 @@
+package com.batterymentor.datamanager;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the single-writer snapshot reads, the time weighting and the merging of the
+ * statistics.
+ */
+public class StatisticsTest {
+
+    private static final int WRITER_ITERATIONS = 200000;
+
+    private static final long START = 1000000;
+
+    private static final long MAX_GAP = 120000;
+
+    @Test
+    public void snapshot_isCachedPerVersion() {
+        Statistics statistics = new Statistics(false);
+        statistics.addValue(1000, 1);
+        StatisticsSnapshot snapshot = statistics.getSnapshot();
+        assertSame(snapshot, statistics.getSnapshot());
+        assertEquals(1000, snapshot.getAverage(), 0);
+
+        statistics.addValue(2000, 1);
+        assertEquals(1000, snapshot.getAverage(), 0);
+        assertNotSame(snapshot, statistics.getSnapshot());
+        assertEquals(1500, statistics.getSnapshot().getAverage(), 0);
+    }
+
+    @Test
+    public void snapshot_isReadWithoutTheWriterLock() throws InterruptedException {
+        final Statistics statistics = new Statistics(false);
+        statistics.addValue(1000, 1);
+        statistics.getSnapshot();
+        statistics.addValue(2000, 1);
+
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (statistics) {
+                    locked.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                    }
+                }
+            }
+        });
+        writer.start();
+        locked.await();
+        try {
+            StatisticsSnapshot snapshot = statistics.getSnapshot();
+            assertEquals(1500, snapshot.getAverage(), 0);
+            assertEquals(statistics.getHistogramVersion(), snapshot.getHistogramVersion());
+        } finally {
+            release.countDown();
+            writer.join();
+        }
+    }
+
+    @Test
+    public void reset_publishesNewVersion() {
+        Statistics statistics = new Statistics(false);
+        statistics.addValue(1000, 1);
+        long version = statistics.getHistogramVersion();
+        statistics.reset();
+        assertTrue(version != statistics.getHistogramVersion());
+        assertEquals(0, statistics.getSnapshot().getNumPoints(), 0);
+        assertEquals(Double.POSITIVE_INFINITY, statistics.getSnapshot().getMin(), 0);
+    }
+
+    @Test
+    public void readers_neverSeeTornValues() throws InterruptedException {
+        final Statistics statistics = new Statistics(false);
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < WRITER_ITERATIONS; i++) {
+                    statistics.addValue((i % 2 == 0) ? 1000 : 3000, 1 + i % 3);
+                    if (i % 2 == 1)
+                        statistics.addValue(2000, 0);
+                }
+            }
+        });
+        writer.start();
+        while (writer.isAlive() && failure.get() == null) {
+            StatisticsSnapshot snapshot = statistics.getSnapshot();
+            double histogramWeight = 0;
+            for (HistogramPoint point : snapshot.getHistogramData()) {
+                histogramWeight += point.getY();
+            }
+            if (histogramWeight != snapshot.getNumPoints())
+                failure.set("Histogram weight " + histogramWeight + " != " + snapshot.getNumPoints());
+            double average = statistics.getAverage();
+            if (!Double.isInfinite(average) && (average < 1000 || average > 3000))
+                failure.set("Average " + average + " out of range");
+            if (snapshot.getNumPoints() > 0 && (snapshot.getMin() > snapshot.getAverage() || snapshot.getMax() < snapshot.getAverage()))
+                failure.set("Average " + snapshot.getAverage() + " outside [" + snapshot.getMin() + ", " + snapshot.getMax() + "]");
+            double median = snapshot.getPercentile(0.5);
+            if (snapshot.getNumPoints() > 0 && (median < 1000 || median > 3000))
+                failure.set("Median " + median + " out of range");
+        }
+        writer.join();
+        assertNull(failure.get(), failure.get());
+    }
+
+    @Test
+    public void timeWeighting_weighsByElapsedTime() {
+        Statistics statistics = new Statistics(false);
+        statistics.setTimeWeighting(1000, MAX_GAP);
+        statistics.addPoint(new Point(START, 1000), 1);
+        statistics.addPoint(new Point(START + 1000, 2000), 1);
+        statistics.addPoint(new Point(START + 5000, 1000), 1);
+        assertEquals(6, statistics.getNumPoints(), 0);
+        assertEquals(7000 / 6d, statistics.getAverage(), 1e-9);
+    }
+
+    @Test
+    public void timeWeighting_doesNotIntegrateGaps() {
+        Statistics statistics = new Statistics(false);
+        statistics.setTimeWeighting(1000, MAX_GAP);
+        statistics.addPoint(new Point(START, 1000), 1);
+        statistics.addPoint(new Point(START + 2000, 1000), 1);
+        statistics.addPoint(new Point(START + 2000 + 10 * MAX_GAP, 4000), 1);
+        statistics.addPoint(new Point(START + 2000 + 10 * MAX_GAP, 9000), 1);
+        assertEquals(4, statistics.getNumPoints(), 0);
+        assertEquals(7000 / 4d, statistics.getAverage(), 1e-9);
+    }
+
+    @Test
+    public void timeWeighting_appliesToRecentData() {
+        RealtimeStatistics statistics = new RealtimeStatistics(false);
+        statistics.setTimeWeighting(1000, MAX_GAP);
+        statistics.addValue(START, 1000, 1);
+        statistics.addValue(START + 1000, 1000, 1);
+        statistics.addValue(START + 2000, 1000, 1);
+        statistics.addValue(START + 10000, 2000, 1);
+        assertEquals(4, statistics.getSize());
+        assertEquals(19000 / 11d, statistics.getFullRecentAverage(), 1e-9);
+
+        statistics.setTimeWeighting(0, MAX_GAP);
+        assertFalse(statistics.isTimeWeighted());
+        statistics.addValue(START + 100000, 2000, 1);
+        assertEquals(21000 / 12d, statistics.getFullRecentAverage(), 1e-9);
+    }
+
+    @Test
+    public void merge_matchesAddingAllValues() {
+        Random random = new Random(13);
+        Statistics all = new Statistics(false);
+        Statistics[] shards = {new Statistics(false), new Statistics(false), new Statistics(false)};
+        for (int i = 0; i < 30000; i++) {
+            double value = 500 + random.nextInt(3000);
+            double weight = 1 + random.nextInt(3);
+            all.addValue(value, weight);
+            shards[i % 3 == 0 ? 0 : (i < 20000 ? 1 : 2)].addValue(value, weight);
+        }
+
+        Statistics left = new Statistics(false);
+        left.merge(shards[0]);
+        left.merge(shards[1]);
+        left.merge(shards[2]);
+        Statistics right = new Statistics(false);
+        shards[1].merge(shards[2]);
+        right.merge(shards[0]);
+        right.merge(shards[1]);
+
+        for (Statistics merged : new Statistics[]{left, right}) {
+            assertEquals(all.getNumPoints(), merged.getNumPoints(), 0);
+            assertEquals(all.getAverage(), merged.getAverage(), 1e-9);
+            assertEquals(all.getVariance(), merged.getVariance(), all.getVariance() * 1e-9);
+            assertEquals(all.getMin(), merged.getMin(), 0);
+            assertEquals(all.getMax(), merged.getMax(), 0);
+            HistogramPoint[] expected = all.getHistogramData();
+            HistogramPoint[] actual = merged.getHistogramData();
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(expected[i].getY(), actual[i].getY(), 0);
+            }
+            assertEquals(all.getPercentile(0.5), merged.getPercentile(0.5), 30);
+        }
+    }
+
+    @Test
+    public void merge_rebinsOtherBucketScheme() {
+        Statistics linear = new Statistics(false, new LinearBucketScheme(0, 5000, 10));
+        linear.addValue(1200, 2);
+        linear.addValue(4900, 1);
+        Statistics statistics = new Statistics(false);
+        statistics.merge(linear);
+
+        BucketScheme scheme = statistics.getBucketScheme();
+        HistogramPoint[] histogram = statistics.getHistogramData();
+        assertSpread(histogram, scheme, 1000, 1500, 2);
+        assertSpread(histogram, scheme, 4500, 5000, 1);
+        assertEquals(3, statistics.getNumPoints(), 0);
+        assertEquals(4900, statistics.getValue(), 0);
+    }
+
+    /**
+     * Assert that the count of an old bucket is spread over the overlapping buckets in proportion
+     * to each overlap.
+     */
+    private static void assertSpread(HistogramPoint[] histogram, BucketScheme scheme, double lowerBound, double upperBound, double count) {
+        double total = 0;
+        for (int i = scheme.getIndex(lowerBound); i < scheme.getNumBuckets() && scheme.getLowerBound(i) < upperBound; i++) {
+            double overlap = Math.min(upperBound, scheme.getUpperBound(i)) - Math.max(lowerBound, scheme.getLowerBound(i));
+            assertEquals(count * overlap / (upperBound - lowerBound), histogram[i].getY(), 1e-9);
+            total += histogram[i].getY();
+        }
+        assertEquals(count, total, 1e-9);
+    }
+
+    @Test
+    public void variance_isWeighted() {
+        Statistics statistics = new Statistics(false);
+        statistics.addValue(1000, 3);
+        statistics.addValue(2000, 1);
+        assertEquals(187500, statistics.getVariance(), 1e-6);
+        statistics.reset();
+        assertEquals(0, statistics.getVariance(), 0);
+    }
+}
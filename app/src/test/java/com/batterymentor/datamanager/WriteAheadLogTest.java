@@ -0,0 +1,152 @@
+package com.batterymentor.datamanager;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the write-ahead log of the lifetime data.
+ */
+public class WriteAheadLogTest {
+
+    private static final long START = 1500000000000L;
+
+    private static File createDirectory() throws Exception {
+        File directory = File.createTempFile("wal", "");
+        directory.delete();
+        directory.mkdirs();
+        return directory;
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static List<double[]> replay(File file) {
+        final List<double[]> records = new ArrayList<double[]>();
+        new WriteAheadLog(file).replay(new WriteAheadLog.RecordVisitor() {
+            @Override
+            public void onRecord(long generation, long timestamp, double value, double weight, int flags) {
+                records.add(new double[]{timestamp - START, value, weight, flags, generation});
+            }
+        });
+        return records;
+    }
+
+    @Test
+    public void replay_returnsRecordsOfPreviousLogs() throws Exception {
+        File directory = createDirectory();
+        try {
+            File file = new File(directory, "lifetime_wal");
+            WriteAheadLog log = new WriteAheadLog(file);
+            for (int i = 0; i < 10; i++) {
+                assertTrue(log.append(START + i * 1000, 500 + i, 1.5, i % 2));
+            }
+            log.close();
+
+            List<double[]> records = replay(file);
+            assertEquals(10, records.size());
+            for (int i = 0; i < 10; i++) {
+                assertEquals(i * 1000, records.get(i)[0], 0);
+                assertEquals(500 + i, records.get(i)[1], 0);
+                assertEquals(1.5, records.get(i)[2], 0);
+                assertEquals(i % 2, records.get(i)[3], 0);
+            }
+
+            WriteAheadLog reopened = new WriteAheadLog(file);
+            reopened.append(START + 20000, 900, 1, 0);
+            reopened.close();
+            assertEquals(11, replay(file).size());
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void checkpoint_deletesOnlyCoveredSegments() throws Exception {
+        File directory = createDirectory();
+        try {
+            File file = new File(directory, "lifetime_wal");
+            WriteAheadLog log = new WriteAheadLog(file);
+            for (int i = 0; i < 5; i++) {
+                log.append(START + i * 1000, i, 1, 0);
+            }
+            long generation = log.rotate();
+            assertEquals(generation, log.rotate());
+            for (int i = 5; i < 8; i++) {
+                log.append(START + i * 1000, i, 1, 0);
+            }
+            log.deleteSegmentsBefore(generation);
+            log.close();
+
+            List<double[]> records = replay(file);
+            assertEquals(3, records.size());
+            assertEquals(5, records.get(0)[1], 0);
+            assertEquals(generation, records.get(0)[4], 0);
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void startAt_keepsNewSegmentsAboveCheckpoint() throws Exception {
+        File directory = createDirectory();
+        try {
+            File file = new File(directory, "lifetime_wal");
+            WriteAheadLog log = new WriteAheadLog(file);
+            log.append(START, 1, 1, 0);
+            long generation = log.rotate();
+            log.deleteSegmentsBefore(generation);
+            log.close();
+
+            WriteAheadLog reopened = new WriteAheadLog(file);
+            reopened.startAt(generation);
+            reopened.append(START + 1000, 2, 1, 0);
+            reopened.close();
+
+            List<double[]> records = replay(file);
+            assertEquals(1, records.size());
+            assertEquals(2, records.get(0)[1], 0);
+            assertTrue(records.get(0)[4] >= generation);
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void replay_stopsAtTornRecord() throws Exception {
+        File directory = createDirectory();
+        try {
+            File file = new File(directory, "lifetime_wal");
+            WriteAheadLog log = new WriteAheadLog(file);
+            for (int i = 0; i < 6; i++) {
+                log.append(START + i * 1000, i, 1, 0);
+            }
+            log.close();
+
+            File segment = directory.listFiles()[0];
+            RandomAccessFile truncated = new RandomAccessFile(segment, "rw");
+            truncated.setLength(segment.length() - 10);
+            truncated.seek(segment.length() - 40);
+            truncated.write(0x55);
+            truncated.close();
+
+            List<double[]> records = replay(file);
+            assertEquals(4, records.size());
+            assertEquals(3, records.get(3)[1], 0);
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.batterymentor.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the migration of the models saved by earlier versions of the application.
+ */
+public class ModelManagerTest {
+
+    /**
+     * The quadratic model y = 2x^2 + 3x + 1, serialized by the QuadraticModel class of the
+     * version of the application that saved models with Java serialization.
+     */
+    private static final String SERIALIZED_QUADRATIC_MODEL = "aced000573720026636f6d2e626174746572796d656e746f722e6d6f64656c2e5175616472617469634d6f64656c57f35edb2e7b469f0200034400076d436f656666314400076d436f6566663244000a6d496e746572636570747870400000000000000040080000000000003ff0000000000000";
+
+    private static byte[] parseHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    @Test
+    public void loadSerializedModel_readsQuadraticModelOfEarlierVersion() throws Exception {
+        Model model = ModelManager.loadSerializedModel(parseHex(SERIALIZED_QUADRATIC_MODEL));
+        assertTrue(model instanceof QuadraticModel);
+        assertEquals(2, model.getFirstCoefficient(), 0);
+        assertEquals(3, model.getSecondCoefficient(), 0);
+        assertEquals(1, model.getIntercept(), 0);
+    }
+}
@@ -0,0 +1,144 @@
+package com.batterymentor.sensors;
+
+import com.batterymentor.constants.Constants;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the allocation-free procfs parser.
+ */
+public class ProcParserTest {
+
+    private static final String PROC_STAT =
+            "cpu  4705 356 584 3699 23 23 0 0 0 0\n" +
+            "cpu0 1393 280 290 3490 19 1 0 0 0 0\n" +
+            "cpu1 3312 76 294 209 4 22 0 0 0 0\n" +
+            "cpu3 99999999999 0 1 2 0 0 0 0 0 0\n" +
+            "intr 114930548 113199788 3 0 5 263 0 4 [... lots more numbers ...]\n" +
+            "ctxt 1990473\n";
+
+    private static final String PROC_PID_STAT =
+            "1234 (Binder:1234_2) S 1 1234 0 0 -1 4194560 15921 0 2 0 120 45 7 3 20 0 78 0 1570 " +
+            "1908744192 27166 18446744073709551615 1 1 0 0 0 0 4612 0 1073775864 0 0 0 17 2 0 0 0 0 0\n";
+
+    private static final String PROC_PID_STAT_TRICKY_NAME =
+            "42 (a) b (c) S 1 42 0 0 -1 4194560 0 0 0 0 10 20 30 40 20 0 1 0 100 0 0\n";
+
+    private static final String TIME_IN_STATE =
+            "300000 1200\n" +
+            "1497600 35\n" +
+            "2265600 71234\n";
+
+    private static final int ALLOCATION_TEST_ITERATIONS = 100000;
+
+    @Test
+    public void parseStat_readsPerCoreCounters() throws Exception {
+        byte[] data = PROC_STAT.getBytes("US-ASCII");
+        long[] totals = new long[4];
+        long[] usages = new long[4];
+        int numCores = ProcParser.parseStat(data, data.length, totals, usages);
+
+        assertEquals(3, numCores);
+        assertEquals(1393 + 280 + 290 + 3490 + 19 + 1, totals[0]);
+        assertEquals(1393 + 280 + 290 + 19 + 1, usages[0]);
+        assertEquals(3312 + 76 + 294 + 209 + 4 + 22, totals[1]);
+        assertEquals(Constants.INVALID_VALUE, totals[2]);
+        assertEquals(Constants.INVALID_VALUE, usages[2]);
+        assertEquals(99999999999L + 1 + 2, totals[3]);
+        assertEquals(99999999999L + 1, usages[3]);
+    }
+
+    @Test
+    public void parseStat_ignoresTruncatedLine() throws Exception {
+        byte[] data = "cpu0 1 2 3 4\ncpu1 5 6".getBytes("US-ASCII");
+        long[] totals = new long[2];
+        long[] usages = new long[2];
+
+        assertEquals(1, ProcParser.parseStat(data, data.length, totals, usages));
+        assertEquals(Constants.INVALID_VALUE, totals[1]);
+    }
+
+    @Test
+    public void parsePidStat_sumsCpuTimes() throws Exception {
+        byte[] data = PROC_PID_STAT.getBytes("US-ASCII");
+        assertEquals(120 + 45 + 7 + 3, ProcParser.parsePidStat(data, data.length));
+    }
+
+    @Test
+    public void parsePidStat_handlesParenthesesInCommand() throws Exception {
+        byte[] data = PROC_PID_STAT_TRICKY_NAME.getBytes("US-ASCII");
+        assertEquals(10 + 20 + 30 + 40, ProcParser.parsePidStat(data, data.length));
+    }
+
+    @Test
+    public void parsePidStat_rejectsMalformedData() throws Exception {
+        byte[] data = "1234 (name S 1 2 3".getBytes("US-ASCII");
+        assertEquals(Constants.INVALID_VALUE, ProcParser.parsePidStat(data, data.length));
+        data = "1234 (name) S 1 2 3\n".getBytes("US-ASCII");
+        assertEquals(Constants.INVALID_VALUE, ProcParser.parsePidStat(data, data.length));
+    }
+
+    @Test
+    public void parseTimeInState_readsFrequencyTimePairs() throws Exception {
+        byte[] data = TIME_IN_STATE.getBytes("US-ASCII");
+        long[] frequencies = new long[4];
+        long[] times = new long[4];
+
+        assertEquals(3, ProcParser.parseTimeInState(data, data.length, frequencies, times));
+        assertEquals(300000, frequencies[0]);
+        assertEquals(1200, times[0]);
+        assertEquals(2265600, frequencies[2]);
+        assertEquals(71234, times[2]);
+    }
+
+    @Test
+    public void parseTimeInState_stopsAtTruncatedLineOrFullArrays() throws Exception {
+        byte[] data = "300000 1200\n1497600".getBytes("US-ASCII");
+        long[] frequencies = new long[4];
+        long[] times = new long[4];
+        assertEquals(1, ProcParser.parseTimeInState(data, data.length, frequencies, times));
+
+        data = TIME_IN_STATE.getBytes("US-ASCII");
+        assertEquals(2, ProcParser.parseTimeInState(data, data.length, new long[2], new long[2]));
+    }
+
+    @Test
+    public void parseFirstLong_readsFirstRelatedCpu() throws Exception {
+        byte[] data = "4 5 6 7\n".getBytes("US-ASCII");
+        assertEquals(4, ProcParser.parseFirstLong(data, data.length));
+        data = "\n".getBytes("US-ASCII");
+        assertEquals(Constants.INVALID_VALUE, ProcParser.parseFirstLong(data, data.length));
+    }
+
+    @Test
+    public void parse_allocatesNothingInSteadyState() throws Exception {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        byte[] statData = PROC_STAT.getBytes("US-ASCII");
+        byte[] pidStatData = PROC_PID_STAT.getBytes("US-ASCII");
+        long[] totals = new long[4];
+        long[] usages = new long[4];
+
+        long checksum = parse(statData, pidStatData, totals, usages);
+        long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        checksum += parse(statData, pidStatData, totals, usages);
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(checksum != 0);
+        assertTrue("Parser allocated " + allocated + " bytes over " + ALLOCATION_TEST_ITERATIONS + " iterations",
+                allocated < ALLOCATION_TEST_ITERATIONS);
+    }
+
+    private static long parse(byte[] statData, byte[] pidStatData, long[] totals, long[] usages) {
+        long checksum = 0;
+        for (int i = 0; i < ALLOCATION_TEST_ITERATIONS; i++) {
+            checksum += ProcParser.parseStat(statData, statData.length, totals, usages);
+            checksum += ProcParser.parsePidStat(pidStatData, pidStatData.length);
+        }
+        return checksum;
+    }
+}